@@ -0,0 +1,37 @@
+package com.example.demo.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar: JMH's own command line, except that results are written as JSON to
+ * jmh-result.json unless -rf/-rff say otherwise, so every run leaves a file to diff against the last release.
+ *
+ *   java -jar benchmarks/target/benchmarks.jar                 all benchmarks
+ *   java -jar benchmarks/target/benchmarks.jar Jwt -f 1 -wi 2  a subset, shorter
+ *   java -jar benchmarks/target/benchmarks.jar -h              JMH options
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp()) {
+            cli.showHelp();
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .parent(cli)
+                .resultFormat(cli.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(cli.getResult().orElse("jmh-result.json"))
+                .build();
+        Runner runner = new Runner(options);
+        if (cli.shouldList()) {
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.demo.benchmarks;
+
+import com.example.demo.broker.ShardedBrokerMessageHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One broadcast to {@code subscribers} sessions subscribed to /topic/public, with the stock SimpleBroker
+ * and the sharded broker. A broadcast counts as done once every subscriber's MESSAGE reached the
+ * outbound channel, which only counts them: this is the broker's fan-out, without encoding or socket I/O
+ * (the test-scope BrokerFanOutBenchmark in demo/ adds frame encoding and allocation figures).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerFanOutBenchmark {
+
+    private static final String DESTINATION = "/topic/public";
+
+    @Param({"simple", "sharded"})
+    public String broker;
+
+    @Param({"1000", "10000"})
+    public int subscribers;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private AbstractBrokerMessageHandler handler;
+    private Message<byte[]> broadcast;
+
+    @Setup
+    public void setUp() {
+        MessageChannel outbound = (message, timeout) -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+                delivered.incrementAndGet();
+            }
+            return true;
+        };
+        List<String> prefixes = List.of("/topic");
+        handler = broker.equals("simple")
+                ? new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(), outbound, new ExecutorSubscribableChannel(), prefixes)
+                : new ShardedBrokerMessageHandler(new ExecutorSubscribableChannel(), outbound, new ExecutorSubscribableChannel(),
+                        prefixes, Runtime.getRuntime().availableProcessors());
+        handler.start();
+        for (int i = 0; i < subscribers; i++) {
+            String sessionId = "s" + i;
+            handler.handleMessage(frame(SimpMessageType.CONNECT, sessionId, null));
+            handler.handleMessage(frame(SimpMessageType.SUBSCRIBE, sessionId, "sub-0"));
+        }
+        broadcast = frame(SimpMessageType.MESSAGE, null, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.stop();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        long target = delivered.get() + subscribers;
+        handler.handleMessage(broadcast);
+        long count;
+        while ((count = delivered.get()) < target) {
+            Thread.yield(); // lets shard threads run on small machines
+        }
+        return count;
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(DESTINATION);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        byte[] payload = "{\"type\":\"CHAT\",\"content\":\"hello\",\"sender\":\"bench\"}".getBytes(StandardCharsets.UTF_8);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.demo.benchmarks;
+
+import com.example.demo.model.ChatMessage;
+import com.example.demo.wire.ChatMessageCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chat line to and from JSON, with an ObjectMapper configured like Boot's, as every SEND frame and
+ * every broadcast goes through it. The binary codec (see ChatMessageCodec) is alongside for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageJsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private ChatMessage message;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        message = new ChatMessage();
+        message.setId(361_330_471_297_024L);
+        message.setTimestamp(1_792_000_000_000L);
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSender("user1234");
+        message.setRecipient("user4321");
+        message.setContent("see you at the meeting tomorrow, lunch after?");
+        json = objectMapper.writeValueAsBytes(message);
+        binary = ChatMessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return objectMapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public ChatMessage deserialize() throws Exception {
+        return objectMapper.readValue(json, ChatMessage.class);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return ChatMessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public ChatMessage decodeBinary() {
+        return ChatMessageCodec.decode(binary);
+    }
+}
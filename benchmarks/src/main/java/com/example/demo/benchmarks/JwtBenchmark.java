@@ -0,0 +1,62 @@
+package com.example.demo.benchmarks;
+
+import com.example.demo.service.JwtService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JwtService: signing a token at login, and checking one on every HTTP request and STOMP CONNECT.
+ *
+ * validateToken is the usual case, a token already in the verified-token cache. extractUsername always
+ * parses and checks the HMAC, which is what a token costs the first time it's seen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtBenchmark {
+
+    private JwtService jwtService;
+    private String token;
+    private UserDetails user;
+
+    @Setup
+    public void setUp() {
+        jwtService = new JwtService(10_000, new SimpleMeterRegistry());
+        token = jwtService.generateToken("alice");
+        user = User.withUsername("alice").password("unused").roles("USER").build();
+        if (!jwtService.validateToken(token, user)) {
+            throw new IllegalStateException("Token did not validate");
+        }
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtService.generateToken("alice");
+    }
+
+    @Benchmark
+    public boolean validateToken() {
+        return jwtService.validateToken(token, user);
+    }
+
+    @Benchmark
+    public String extractUsername() {
+        return jwtService.extractUsername(token);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.demo.benchmarks;
+
+import com.example.demo.model.ChatMessage;
+import com.example.demo.moderation.Blocklist;
+import com.example.demo.moderation.MessageContentScanner;
+import com.example.demo.wire.ChatMessageCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Checking a chat line against a blocklist of {@code terms} words, none of which is in it (the usual
+ * case, and the slowest: the whole content is read). scanJson and scanBinary are what
+ * ModerationChannelInterceptor does with a SEND frame's payload; regexLoop is the obvious alternative,
+ * one case-insensitive pattern per term over the decoded content.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModerationBenchmark {
+
+    @Param({"100", "10000"})
+    public int terms;
+
+    private Blocklist blocklist;
+    private List<Pattern> patterns;
+    private String content;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Random words starting with a q, which the message doesn't have
+        Random random = new Random(42);
+        List<String> words = new ArrayList<>(terms);
+        for (int i = 0; i < terms; i++) {
+            StringBuilder word = new StringBuilder("q");
+            for (int length = 3 + random.nextInt(7); length > 0; length--) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words.add(word.toString());
+        }
+        blocklist = Blocklist.compile(words);
+        patterns = words.stream().map(word -> Pattern.compile(word, Pattern.LITERAL | Pattern.CASE_INSENSITIVE)).toList();
+
+        ChatMessage message = new ChatMessage();
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setRecipient("user4321");
+        message.setContent("see you at the meeting tomorrow, lunch after? I'll bring the slides from last week");
+        content = message.getContent();
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        json = objectMapper.writeValueAsBytes(message);
+        binary = ChatMessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public int scanJson() {
+        return MessageContentScanner.scanJson(blocklist, json);
+    }
+
+    @Benchmark
+    public int scanBinary() {
+        return MessageContentScanner.scanBinary(blocklist, binary);
+    }
+
+    @Benchmark
+    public int regexLoop() {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(content).find()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.demo.benchmarks;
+
+import com.example.demo.model.User;
+import com.example.demo.repository.UserRepository;
+import com.example.demo.service.CachingUserDetailsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The userDetailsService lookup behind every authenticated request. The repository is an in-memory
+ * stub, so "miss" is the cache's own cost of loading and building a user, not the database's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserDetailsServiceBenchmark {
+
+    private CachingUserDetailsService userDetailsService;
+
+    @Setup
+    public void setUp() {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("alice");
+        user.setPassword("$2a$10$7EqJtq98hPqEX7fNZaFWoOhi5BWX4Z2b4Z5Yk5s6Z5b5l3Z3h1m2a");
+        UserRepository repository = (UserRepository) Proxy.newProxyInstance(UserRepository.class.getClassLoader(),
+                new Class<?>[] {UserRepository.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("findByUsername")) {
+                        return Optional.of(user).filter(u -> u.getUsername().equals(args[0]));
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        userDetailsService = new CachingUserDetailsService(repository, 10_000, Duration.ofMinutes(5), Set.of());
+    }
+
+    @Benchmark
+    public UserDetails hit() {
+        return userDetailsService.loadUserByUsername("alice");
+    }
+
+    @Benchmark
+    public UserDetails miss() {
+        userDetailsService.evict("alice");
+        return userDetailsService.loadUserByUsername("alice");
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.demo.benchmarks;
+
+import com.example.demo.controller.UserController;
+import com.example.demo.dto.UserPage;
+import com.example.demo.service.UserDirectory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /api/users without the HTTP stack: UserController.getAllUsers over a directory of {@code users}
+ * names, then the page written as JSON the way the message converter would.
+ *
+ * firstPage and prefixPage are full responses; notModified is a client polling with a current ETag.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserDirectoryBenchmark {
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private UserController controller;
+    private ObjectMapper objectMapper;
+    private String etag;
+
+    private final Principal principal = () -> "user42";
+
+    @Setup
+    public void setUp() {
+        // Never loaded from the database: the users are added directly, as registration does
+        UserDirectory directory = new UserDirectory(null);
+        for (int i = 0; i < users; i++) {
+            directory.add((long) i, "user" + i);
+        }
+        controller = new UserController(directory);
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        etag = directory.etag();
+    }
+
+    @Benchmark
+    public byte[] firstPage() throws Exception {
+        return write(controller.getAllUsers("", null, 50, principal, request(null)));
+    }
+
+    @Benchmark
+    public byte[] prefixPage() throws Exception {
+        return write(controller.getAllUsers("user12", "user120", 50, principal, request(null)));
+    }
+
+    @Benchmark
+    public Object notModified() {
+        return controller.getAllUsers("", null, 50, principal, request(etag));
+    }
+
+    private static ServletWebRequest request(String ifNoneMatch) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+
+    private byte[] write(ResponseEntity<UserPage> response) throws Exception {
+        return objectMapper.writeValueAsBytes(response.getBody());
+    }
+}
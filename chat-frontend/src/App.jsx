@@ -6,9 +6,29 @@ import './App.css';
 
 // API base URL
 const API_URL = 'http://localhost:8080';
+// A typing indicator stays up this long after the last typing event; we send one at most every TYPING_SEND_MS
+const TYPING_SHOW_MS = 3000;
+const TYPING_SEND_MS = 1000;
+// Attachments are uploaded in chunks of this size; a failed chunk is resent from where the server got to
+const CHUNK_SIZE = 1024 * 1024;
+// A message missing from a chat's sequence may only be late; we ask the server for it after this long
+const GAP_GRACE_MS = 1000;
+const MAX_RESYNC_ATTEMPTS = 5;
+// A gap wider than this (the most the server sends back at once) isn't tracked number by number:
+// we catch up on everything after the last message we have instead
+const MAX_GAP = 500;
 
 // Global stompClient variable
 let stompClient = null;
+// For resuming after a dropped connection: the server's resume token and the id of the last message we got
+let resumeToken = null;
+let lastMessageId = null;
+// In a cluster, the node we're connected to: each node numbers its own messages, and only ours can be asked for
+let localNode = null;
+// Per chat (and node, in a cluster): the highest sequence number we have, and the lower ones we don't (see receive)
+let sequences = {};
+// Live messages that arrive before the session's replay, held back until it's in (see onSessionInfo)
+let heldBack = null;
 
 // --- Auth Component (No Changes) ---
 function AuthPage({ onLoginSuccess }) {
@@ -93,6 +113,10 @@ function ChatApp({ currentUser, token, onLogout }) {
   
   const [users, setUsers] = useState([]); 
   const [activeChat, setActiveChat] = useState('public-chat');
+  const [uploading, setUploading] = useState(null); // e.g. "photo.jpg 40%"
+  const fileInputRef = useRef(null);
+  const [typing, setTyping] = useState({}); // chat name -> { sender: time of their last typing event }
+  const lastTypingSent = useRef(0);
   // --- END UPDATE ---
 
   // Scroll to bottom when new messages arrive
@@ -121,7 +145,12 @@ function ChatApp({ currentUser, token, onLogout }) {
     setMessages(prevMessages => {
       // Get the existing chat array, or create a new one
       const chatMessages = prevMessages[chatName] ? [...prevMessages[chatName]] : [];
-      chatMessages.push(message);
+      // A late message goes in before any with a higher sequence number from the same node
+      let at = chatMessages.length;
+      if (message.seq != null) {
+        while (at > 0 && chatMessages[at - 1].node === message.node && chatMessages[at - 1].seq > message.seq) at--;
+      }
+      chatMessages.splice(at, 0, message);
       
       // Return the new state
       return {
@@ -133,11 +162,13 @@ function ChatApp({ currentUser, token, onLogout }) {
   
   const fetchUsers = async () => {
     try {
+      // The directory is paged; the first page is enough for the sidebar
       const response = await axios.get(`${API_URL}/api/users`, {
+        params: { limit: 200 },
         headers: { 'Authorization': `Bearer ${token}` }
       });
       
-      const userList = ['public-chat', ...response.data.map(user => user.username)];
+      const userList = ['public-chat', ...response.data.users.map(user => user.username)];
       setUsers(userList);
 
       // --- NEW: Initialize the message map ---
@@ -158,15 +189,23 @@ function ChatApp({ currentUser, token, onLogout }) {
   const connectToWebSocket = () => {
     console.log('Attempting to connect with token...');
     
-    const socket = new SockJS(`${API_URL}/ws`);
     stompClient = new Client({
-      webSocketFactory: () => socket,
+      // A new SockJS connection for every (re)connect
+      webSocketFactory: () => new SockJS(`${API_URL}/ws`),
       debug: (str) => { console.log(new Date(), str); },
       connectHeaders: { Authorization: `Bearer ${token}` },
+      // After a drop, try the resume token first; the JWT is still there if it has expired
+      beforeConnect: () => {
+        stompClient.connectHeaders = resumeToken
+          ? { Authorization: `Bearer ${token}`, 'resume-token': resumeToken }
+          : { Authorization: `Bearer ${token}` };
+      },
       reconnectDelay: 5000,
       onConnect: onConnected,
       onStompError: onError,
       onError: onError,
+      // The server answers a throttled message with a RECEIPT we never asked for
+      onUnhandledReceipt: onThrottled,
     });
 
     stompClient.activate();
@@ -174,16 +213,25 @@ function ChatApp({ currentUser, token, onLogout }) {
 
   const onConnected = () => {
     console.log('Connected to WebSocket!');
+    // Subscribed before asking for the replay so nothing falls in between, but shown after it
+    heldBack = [];
     
     // --- UPDATED: Subscribe to public AND private topics ---
     // Subscribe to the Public Topic
     stompClient.subscribe('/topic/public', onPublicMessageReceived);
     
-    // Subscribe to your own private queue
-    stompClient.subscribe(`/user/${currentUser}/queue/private`, onPrivateMessageReceived);
+    // Subscribe to your own private queue (the server maps /user/queue/... to this session)
+    stompClient.subscribe('/user/queue/private', onPrivateMessageReceived);
     // --- END UPDATE ---
 
-    // Send the JOIN message to the public topic
+    // Typing indicators (lossy: the server drops them first when we fall behind)
+    stompClient.subscribe('/topic/typing', onTyping);
+    stompClient.subscribe('/user/queue/typing', onTyping);
+
+    // Get this session's resume token, and anything we missed while we were away
+    stompClient.subscribe('/app/session', onSessionInfo, lastMessageId ? { 'last-id': lastMessageId } : {});
+
+    // Send the JOIN message to the public topic (the server skips it if we were never really gone)
     stompClient.publish({
       destination: '/app/chat.addUser',
       body: JSON.stringify({ sender: currentUser, type: 'JOIN' }),
@@ -211,18 +259,156 @@ function ChatApp({ currentUser, token, onLogout }) {
     });
   };
 
-  // --- UPDATED: Handler for PUBLIC messages ---
+  const onThrottled = (frame) => {
+    if (frame.headers.message) {
+      addMessageToChat('public-chat', {
+        sender: 'System',
+        content: `${frame.headers.message}, message not sent.`,
+        type: 'EVENT'
+      });
+    }
+  };
+
+  const onSessionInfo = (payload) => {
+    const info = JSON.parse(payload.body);
+    resumeToken = info.resumeToken;
+    localNode = info.node || null;
+    info.missed.forEach(receive);
+    // The replay and the live subscriptions overlap: skip what the replay already had
+    const replayed = new Set(info.missed.map(msg => msg.id));
+    const live = heldBack || [];
+    heldBack = null;
+    live.forEach(msg => { if (msg.id == null || !replayed.has(msg.id)) receive(msg); });
+    if (!info.complete) {
+      // Too much to replay: ask each chat's history for everything after what we have
+      Object.keys(sequences).forEach(key => { if (sequences[key].node === localNode) resync(key, true); });
+    }
+  };
+
+  // Remembers the newest message id (64-bit, sent as a string)
+  const seen = (msg) => {
+    if (msg.id && (!lastMessageId || BigInt(msg.id) > BigInt(lastMessageId))) {
+      lastMessageId = msg.id;
+    }
+  };
+
+  // A private message's chat is the other side's username (our own come back to us too)
+  const chatOf = (msg) => msg.recipient ? (msg.sender === currentUser ? msg.recipient : msg.sender) : 'public-chat';
+
+  /**
+   * Adds a message to its chat, unless we have it already. The server numbers each chat's messages
+   * 1, 2, 3..., so a number skipped means a message is late or lost: it's noted as missing, and if it
+   * hasn't turned up after GAP_GRACE_MS we ask for it (see resync). A message too far ahead is left
+   * for a catch-up to bring back, in order with everything before it. In a cluster every node numbers
+   * its own messages, and only the node we're on has them: another node's are shown as they come.
+   */
+  const receive = (msg) => {
+    seen(msg);
+    const chatName = chatOf(msg);
+    if (msg.seq == null) { // JOIN and LEAVE aren't numbered
+      addMessageToChat(chatName, msg);
+      return;
+    }
+    if ((msg.node || null) !== localNode) {
+      addMessageToChat(chatName, msg);
+      return;
+    }
+    const key = localNode ? `${chatName}@${localNode}` : chatName;
+    const sequence = sequences[key]
+      || (sequences[key] = { chat: chatName, node: localNode, last: msg.seq - 1, missing: new Set(), attempts: 0 });
+    if (msg.seq - sequence.last > MAX_GAP) {
+      if (!sequence.catchingUp) {
+        resync(key, true);
+      }
+      return;
+    }
+    if (msg.seq > sequence.last) {
+      for (let seq = sequence.last + 1; seq < msg.seq; seq++) {
+        sequence.missing.add(seq);
+      }
+      sequence.last = msg.seq;
+    } else if (!sequence.missing.delete(msg.seq)) {
+      return; // a duplicate, e.g. replayed after a resume
+    }
+    addMessageToChat(chatName, msg);
+    if (sequence.missing.size > 0 && !sequence.timer) {
+      sequence.timer = setTimeout(() => resync(key, false), GAP_GRACE_MS);
+    }
+  };
+
+  // Asks the server for only the missing numbers, as ranges ("6-9,12"), plus everything after
+  // the last one if catchUp is set (repeated until the server has sent it all)
+  const resync = async (key, catchUp) => {
+    const sequence = sequences[key];
+    sequence.timer = null;
+    if (sequence.node !== localNode) { // reconnected to another node, which can't fill this one's gaps
+      sequence.missing.clear();
+      return;
+    }
+    sequence.catchingUp = sequence.catchingUp || catchUp;
+    const ranges = [];
+    [...sequence.missing].sort((a, b) => a - b).forEach(seq => {
+      const range = ranges[ranges.length - 1];
+      if (range && range[1] === seq - 1) {
+        range[1] = seq;
+      } else if (ranges.length < 60) {
+        ranges.push([seq, seq]);
+      }
+    });
+    const text = ranges.map(([from, to]) => from === to ? `${from}` : `${from}-${to}`);
+    if (catchUp) {
+      text.push(`${sequence.last + 1}-`);
+    }
+    if (text.length === 0) {
+      return;
+    }
+    const lastBefore = sequence.last;
+    let caughtUp = true;
+    const path = sequence.chat === 'public-chat' ? 'public' : `private/${encodeURIComponent(sequence.chat)}`;
+    try {
+      const response = await axios.get(`${API_URL}/api/messages/${path}/missing`, {
+        params: { ranges: text.join(',') },
+        headers: { 'Authorization': `Bearer ${token}` }
+      });
+      const { messages: found, latestSeq, complete } = response.data;
+      found.forEach(receive);
+      caughtUp = complete || sequence.last === lastBefore; // all sent, or no progress to build on
+      if (complete) {
+        // Numbers the history has passed but didn't send were never stored: stop waiting for them
+        sequence.missing.forEach(seq => { if (seq <= latestSeq) sequence.missing.delete(seq); });
+      }
+    } catch (error) {
+      console.error('Resync failed:', error);
+    }
+    if (catchUp) {
+      sequence.catchingUp = false;
+      if (!caughtUp) {
+        resync(key, true);
+        return;
+      }
+    }
+    if (sequence.missing.size > 0 && ++sequence.attempts <= MAX_RESYNC_ATTEMPTS) {
+      sequence.timer = sequence.timer || setTimeout(() => resync(key, false), GAP_GRACE_MS);
+    } else {
+      sequence.missing.clear();
+      sequence.attempts = 0;
+    }
+  };
+
   const onPublicMessageReceived = (payload) => {
-    const msg = JSON.parse(payload.body);
-    // Add all public messages to the 'public-chat'
-    addMessageToChat('public-chat', msg);
+    receiveLive(JSON.parse(payload.body));
   };
   
-  // --- NEW: Handler for PRIVATE messages ---
   const onPrivateMessageReceived = (payload) => {
-    const msg = JSON.parse(payload.body);
-    // A private message's "chatName" is the sender's username
-    addMessageToChat(msg.sender, msg);
+    receiveLive(JSON.parse(payload.body));
+  };
+
+  const receiveLive = (msg) => {
+    if (heldBack) {
+      heldBack.push(msg);
+    } else {
+      receive(msg);
+    }
   };
   
   // --- UPDATED: Send message logic ---
@@ -243,21 +429,108 @@ function ChatApp({ currentUser, token, onLogout }) {
         ? '/app/chat.sendMessage'       // Public
         : '/app/chat.sendPrivateMessage'; // Private
 
+      // It shows up when the server sends it back, numbered (private ones too)
       stompClient.publish({
         destination: destination,
         body: JSON.stringify(chatMessage),
       });
 
-      // --- NEW: Add your own sent message to the correct chat window ---
-      if (!isPublic) {
-        addMessageToChat(activeChat, chatMessage);
+      setMessage('');
+    }
+  };
+
+  const onTyping = (payload) => {
+    const event = JSON.parse(payload.body);
+    if (event.sender === currentUser) {
+      return;
+    }
+    const chatName = event.recipient ? event.sender : 'public-chat';
+    setTyping(prev => ({ ...prev, [chatName]: { ...prev[chatName], [event.sender]: Date.now() } }));
+    setTimeout(() => setTyping(prev => {
+      const chat = { ...prev[chatName] };
+      if (Date.now() - chat[event.sender] >= TYPING_SHOW_MS) {
+        delete chat[event.sender];
       }
-      // --- END NEW ---
+      return { ...prev, [chatName]: chat };
+    }), TYPING_SHOW_MS);
+  };
 
-      setMessage('');
+  const onMessageChange = (e) => {
+    setMessage(e.target.value);
+    const now = Date.now();
+    if (stompClient && e.target.value && now - lastTypingSent.current >= TYPING_SEND_MS) {
+      lastTypingSent.current = now;
+      stompClient.publish({
+        destination: '/app/chat.typing',
+        body: JSON.stringify({ type: 'TYPING', recipient: activeChat === 'public-chat' ? null : activeChat }),
+      });
     }
   };
 
+  // Uploads the file in chunks, then sends a message that references it
+  const sendAttachment = async (file) => {
+    const auth = { headers: { Authorization: `Bearer ${token}` } };
+    try {
+      const started = await axios.post(`${API_URL}/api/attachments`,
+        { filename: file.name, contentType: file.type, size: file.size }, auth);
+      const id = started.data.id;
+      let offset = 0;
+      let failures = 0;
+      while (offset < file.size) {
+        setUploading(`${file.name} ${Math.floor(offset * 100 / file.size)}%`);
+        try {
+          const chunk = file.slice(offset, offset + CHUNK_SIZE);
+          const response = await axios.put(`${API_URL}/api/attachments/uploads/${id}?offset=${offset}`, chunk,
+            { headers: { ...auth.headers, 'Content-Type': 'application/octet-stream' } });
+          offset = response.data.offset;
+          failures = 0;
+        } catch (error) {
+          if (++failures > 5) throw error;
+          // Ask the server how far it got and carry on from there
+          const status = await axios.get(`${API_URL}/api/attachments/uploads/${id}`, auth);
+          offset = status.data.offset;
+        }
+      }
+      const isPublic = activeChat === 'public-chat';
+      const chatMessage = {
+        sender: currentUser,
+        content: file.name,
+        attachment: id,
+        type: 'CHAT',
+        recipient: isPublic ? null : activeChat
+      };
+      stompClient.publish({
+        destination: isPublic ? '/app/chat.sendMessage' : '/app/chat.sendPrivateMessage',
+        body: JSON.stringify(chatMessage),
+      });
+    } catch (error) {
+      console.error('Upload failed:', error);
+      alert('Upload failed');
+    } finally {
+      setUploading(null);
+    }
+  };
+
+  const onFileChosen = (event) => {
+    const file = event.target.files[0];
+    event.target.value = '';
+    if (file && stompClient) {
+      sendAttachment(file);
+    }
+  };
+
+  // Downloads with the token (a plain link can't send it), then saves under the original name
+  const downloadAttachment = async (msg) => {
+    const response = await axios.get(`${API_URL}/api/attachments/${msg.attachment}`,
+      { headers: { Authorization: `Bearer ${token}` }, responseType: 'blob' });
+    const url = URL.createObjectURL(response.data);
+    const link = document.createElement('a');
+    link.href = url;
+    link.download = msg.content || 'attachment';
+    link.click();
+    URL.revokeObjectURL(url);
+  };
+
   // --- RENDER LOGIC UPDATED ---
   const currentChatMessages = messages[activeChat] || []; // Get messages for active chat
 
@@ -307,10 +580,21 @@ function ChatApp({ currentUser, token, onLogout }) {
               <span className="message-content">
                 {msg.type === 'EVENT' ? `${msg.sender} ${msg.type.toLowerCase()}!` : msg.content}
               </span>
+              {msg.attachment && (
+                <button type="button" className="message-attachment" onClick={() => downloadAttachment(msg)}>
+                  📎 Download
+                </button>
+              )}
             </li>
           ))}
         </ul>
 
+        {Object.keys(typing[activeChat] || {}).length > 0 && (
+          <div className="typing-indicator">
+            {Object.keys(typing[activeChat]).join(', ')} typing…
+          </div>
+        )}
+
         <form
           className="input-area"
           onSubmit={sendMessage}
@@ -320,10 +604,14 @@ function ChatApp({ currentUser, token, onLogout }) {
             type="text"
             placeholder="Type a message..."
             value={message}
-            onChange={(e) => setMessage(e.target.value)}
+            onChange={onMessageChange}
             // --- UPDATED: Now enabled for all chats ---
             disabled={!stompClient} 
           />
+          <input type="file" ref={fileInputRef} style={{ display: 'none' }} onChange={onFileChosen} />
+          <button type="button" onClick={() => fileInputRef.current.click()} disabled={!stompClient || uploading}>
+            {uploading || '📎'}
+          </button>
           <button type="submit" disabled={!stompClient}>
             Send
           </button>
@@ -352,9 +640,19 @@ function App() {
   };
 
   const handleLogout = () => {
+    // Revoke the token on the server too, so a copy of it is no good either
+    if (auth) {
+      axios.post(`${API_URL}/api/auth/logout`, null, { headers: { Authorization: `Bearer ${auth.token}` } })
+        .catch(error => console.error('Logout failed:', error));
+    }
     localStorage.removeItem('authToken');
     localStorage.removeItem('username');
     setAuth(null);
+    resumeToken = null;
+    lastMessageId = null;
+    localNode = null;
+    sequences = {};
+    heldBack = null;
     
     if (stompClient) {
       stompClient.deactivate();
@@ -0,0 +1,283 @@
+package com.example.demo.attachment;
+
+import com.example.demo.model.Attachment;
+import com.example.demo.repository.AttachmentRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Files attached to chat messages, kept on local disk so they never go through the broker: a message
+ * only carries the attachment's id.
+ *
+ * A file is uploaded in chunks, each appended at the offset the previous one ended (uploads/{id}). The
+ * part file is the upload's state, so after a dropped connection, or a restart, the client asks for the
+ * offset and sends the rest. When the last byte is in, the file is hashed and moved to
+ * blobs/{first 2 hex digits}/{sha-256}, or just deleted if that content is already there: identical
+ * files are stored once however many times they're attached. Uploads not finished within
+ * upload-expiry are deleted.
+ *
+ * Metrics: chat.attachments.uploaded{dedup=true|false}, chat.attachments.upload.bytes.
+ */
+@Service
+public class AttachmentService {
+
+    private static final Logger log = LoggerFactory.getLogger(AttachmentService.class);
+
+    private final AttachmentRepository repository;
+    private final Path uploads;
+    private final Path blobs;
+    private final long maxSize;
+    private final long maxChunkSize;
+    private final Duration uploadExpiry;
+
+    private final SecureRandom random = new SecureRandom();
+    // Uploads a chunk is being written to right now: one at a time each
+    private final Set<String> writing = ConcurrentHashMap.newKeySet();
+
+    private final Counter storedCounter;
+    private final Counter dedupCounter;
+    private final Counter bytesCounter;
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "attachment-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public AttachmentService(AttachmentRepository repository,
+                             MeterRegistry meterRegistry,
+                             @Value("${chat.attachments.dir:data/attachments}") Path directory,
+                             @Value("${chat.attachments.max-size:100MB}") DataSize maxSize,
+                             @Value("${chat.attachments.max-chunk-size:8MB}") DataSize maxChunkSize,
+                             @Value("${chat.attachments.upload-expiry:24h}") Duration uploadExpiry) {
+        this.repository = repository;
+        this.uploads = directory.resolve("uploads");
+        this.blobs = directory.resolve("blobs");
+        this.maxSize = maxSize.toBytes();
+        this.maxChunkSize = maxChunkSize.toBytes();
+        this.uploadExpiry = uploadExpiry;
+
+        this.storedCounter = Counter.builder("chat.attachments.uploaded")
+                .tag("dedup", "false")
+                .description("Finished uploads")
+                .register(meterRegistry);
+        this.dedupCounter = Counter.builder("chat.attachments.uploaded")
+                .tag("dedup", "true")
+                .description("Finished uploads")
+                .register(meterRegistry);
+        this.bytesCounter = Counter.builder("chat.attachments.upload.bytes")
+                .description("Bytes received in upload chunks")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(uploads);
+        Files.createDirectories(blobs);
+        long sweepMillis = Math.max(60_000, uploadExpiry.toMillis() / 4);
+        sweeper.scheduleWithFixedDelay(this::deleteExpiredUploads, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sweeper.shutdownNow();
+    }
+
+    /** Starts an upload; throws IllegalArgumentException for a missing name or a size out of bounds. */
+    public Attachment create(String owner, String filename, String contentType, long size) throws IOException {
+        if (filename == null || filename.isBlank()) {
+            throw new IllegalArgumentException("Filename is required");
+        }
+        if (size <= 0 || size > maxSize) {
+            throw new IllegalArgumentException("Size must be between 1 and " + maxSize + " bytes");
+        }
+        // Only the name: a client's directories are nobody's business
+        String name = filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1).strip();
+
+        Attachment attachment = new Attachment();
+        attachment.setId(newId());
+        attachment.setOwner(owner);
+        attachment.setFilename(name.isEmpty() ? "file" : name);
+        attachment.setContentType(contentType == null || contentType.isBlank() ? "application/octet-stream" : contentType);
+        attachment.setSize(size);
+        attachment.setCreatedAt(System.currentTimeMillis());
+        Files.createFile(part(attachment));
+        return repository.save(attachment);
+    }
+
+    public Optional<Attachment> find(String id) {
+        return repository.findById(id);
+    }
+
+    /** Whether the id is a finished attachment, one a message may reference. */
+    public boolean isComplete(String id) {
+        return repository.findById(id).map(Attachment::isComplete).orElse(false);
+    }
+
+    /** How many bytes of the attachment the server has. */
+    public long offset(Attachment attachment) throws IOException {
+        if (attachment.isComplete()) {
+            return attachment.getSize();
+        }
+        Path part = part(attachment);
+        return Files.exists(part) ? Files.size(part) : 0;
+    }
+
+    /**
+     * Appends a chunk of {@code length} bytes (-1 if unknown) read from {@code in}, which must start at
+     * {@code offset}, and finishes the upload if that was the last of it. Returns the new offset.
+     *
+     * Throws IllegalStateException if the offset isn't where the upload is, the upload is finished or
+     * another chunk is being written to it, and IllegalArgumentException if the chunk is larger than
+     * max-chunk-size or goes past the file's size. Whatever was written before the stream ended stays.
+     */
+    public long append(Attachment attachment, long offset, long length, InputStream in) throws IOException {
+        if (attachment.isComplete()) {
+            throw new IllegalStateException("Upload is already complete");
+        }
+        if (!writing.add(attachment.getId())) {
+            throw new IllegalStateException("Another chunk of this upload is being written");
+        }
+        try {
+            long end;
+            String sha256 = null;
+            try (FileChannel part = FileChannel.open(part(attachment), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long current = part.size();
+                if (offset != current) {
+                    throw new IllegalStateException("Upload is at offset " + current);
+                }
+                long limit = Math.min(attachment.getSize() - current, maxChunkSize);
+                if (length > limit) {
+                    throw new IllegalArgumentException("At most " + limit + " bytes may be sent from offset " + current);
+                }
+                // Straight from the request into the file, no copy of the chunk in memory
+                ReadableByteChannel source = Channels.newChannel(in);
+                long written = 0;
+                while (written < limit) {
+                    long n = part.transferFrom(source, current + written, limit - written);
+                    if (n <= 0) {
+                        break;
+                    }
+                    written += n;
+                }
+                bytesCounter.increment(written);
+                end = current + written;
+                if (written == limit && in.read() >= 0) {
+                    throw new IllegalArgumentException("At most " + limit + " bytes may be sent from offset " + current);
+                }
+                if (end == attachment.getSize()) {
+                    part.force(false);
+                    sha256 = sha256(part);
+                }
+            }
+            if (sha256 != null) {
+                store(attachment, sha256);
+            }
+            return end;
+        } finally {
+            writing.remove(attachment.getId());
+        }
+    }
+
+    /** Where a finished attachment's bytes are. */
+    public Path blob(Attachment attachment) {
+        return blob(attachment.getSha256());
+    }
+
+    private Path blob(String sha256) {
+        return blobs.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    // Moves the finished upload into the content-addressed store, unless the same content is already there
+    private void store(Attachment attachment, String sha256) throws IOException {
+        Path part = part(attachment);
+        Path blob = blob(sha256);
+        if (Files.exists(blob)) {
+            Files.delete(part);
+            dedupCounter.increment();
+        } else {
+            Files.createDirectories(blob.getParent());
+            // Two identical uploads finishing together both get here; either copy will do
+            Files.move(part, blob, StandardCopyOption.ATOMIC_MOVE);
+            storedCounter.increment();
+        }
+        attachment.setSha256(sha256);
+        repository.save(attachment);
+    }
+
+    private void deleteExpiredUploads() {
+        try {
+            long cutoff = System.currentTimeMillis() - uploadExpiry.toMillis();
+            for (Attachment attachment : repository.findBySha256IsNullAndCreatedAtBefore(cutoff)) {
+                if (writing.contains(attachment.getId())) {
+                    continue;
+                }
+                Files.deleteIfExists(part(attachment));
+                repository.delete(attachment);
+                log.debug("Deleted unfinished upload {} of {}", attachment.getId(), attachment.getOwner());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not delete expired uploads", e);
+        }
+    }
+
+    private Path part(Attachment attachment) {
+        return uploads.resolve(attachment.getId());
+    }
+
+    private static String sha256(FileChannel file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        long position = 0;
+        int n;
+        while ((n = file.read(buffer, position)) > 0) {
+            position += n;
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.demo.broker;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+/**
+ * Puts a {@link BroadcastStompEncoder} on the STOMP protocol handler. The handler is created by the
+ * endpoint registry and not exposed as a bean, so this runs once every singleton exists.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.broker.mode", havingValue = "sharded", matchIfMissing = true)
+public class BroadcastEncoderInstaller implements SmartInitializingSingleton {
+
+    private final WebSocketHandler subProtocolWebSocketHandler;
+
+    public BroadcastEncoderInstaller(@Qualifier("subProtocolWebSocketHandler") WebSocketHandler subProtocolWebSocketHandler) {
+        this.subProtocolWebSocketHandler = subProtocolWebSocketHandler;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (subProtocolWebSocketHandler instanceof SubProtocolWebSocketHandler handler) {
+            for (SubProtocolHandler protocolHandler : handler.getProtocolHandlers()) {
+                if (protocolHandler instanceof StompSubProtocolHandler stompHandler) {
+                    stompHandler.setEncoder(new BroadcastStompEncoder());
+                }
+            }
+        }
+    }
+}
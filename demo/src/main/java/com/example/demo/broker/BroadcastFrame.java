@@ -0,0 +1,162 @@
+package com.example.demo.broker;
+
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderInitializer;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a broadcast that are the same for every subscriber, worked out once per broadcast.
+ *
+ * The payload is the byte[] the message converter produced (ChatMessage JSON is serialized once, by
+ * SimpMessagingTemplate) and every subscriber's message points at that same array. The shared STOMP
+ * header lines are encoded to bytes once as well; {@link BroadcastStompEncoder} then builds each
+ * session's frame by copying those bytes, the session's subscription header and the payload into a
+ * single array. Per subscriber only the session and subscription headers are new.
+ *
+ * The per-subscriber headers are still complete STOMP headers, so the frame also encodes correctly
+ * with the stock StompEncoder.
+ */
+final class BroadcastFrame {
+
+    // Message header carrying the BroadcastFrame to the encoder
+    static final String HEADER = BroadcastFrame.class.getName();
+
+    private static final byte[] SUBSCRIPTION = "subscription:".getBytes(StandardCharsets.UTF_8);
+
+    private final Object payload;
+
+    private final String destination;
+
+    @Nullable
+    private final MimeType contentType;
+
+    private final String messageId;
+
+    // Any other native headers the publisher set, shared read-only by every subscriber
+    private final Map<String, List<String>> nativeHeaders;
+
+    @Nullable
+    private final MessageHeaderInitializer headerInitializer;
+
+    // "MESSAGE\n" and every header line except subscription (null if the payload isn't a byte[])
+    @Nullable
+    private final byte[] encodedPrefix;
+
+    // "content-length:N\n\n"
+    @Nullable
+    private final byte[] encodedSuffix;
+
+    BroadcastFrame(String destination, Message<?> message, @Nullable MessageHeaderInitializer headerInitializer) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageHeaderAccessor source = SimpMessageHeaderAccessor.wrap(message);
+
+        this.payload = message.getPayload();
+        // User destinations (/user/queue/...) reach the broker translated; clients expect the original
+        String originalDestination = source.getFirstNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION);
+        this.destination = originalDestination != null ? originalDestination : destination;
+        this.contentType = source.getContentType();
+        this.messageId = String.valueOf(headers.getId());
+
+        Map<String, List<String>> extra = new LinkedHashMap<>();
+        source.toNativeHeaderMap().forEach((name, values) -> {
+            if (!name.equals(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION)
+                    && !name.equals(StompHeaderAccessor.STOMP_DESTINATION_HEADER)
+                    && !name.equals(StompHeaderAccessor.STOMP_CONTENT_TYPE_HEADER)) {
+                extra.put(name, values);
+            }
+        });
+        this.nativeHeaders = extra;
+        this.headerInitializer = headerInitializer;
+
+        if (payload instanceof byte[] bytes) {
+            StringBuilder prefix = new StringBuilder(128).append("MESSAGE\n");
+            appendHeader(prefix, StompHeaderAccessor.STOMP_DESTINATION_HEADER, this.destination);
+            if (contentType != null) {
+                appendHeader(prefix, StompHeaderAccessor.STOMP_CONTENT_TYPE_HEADER, contentType.toString());
+            }
+            nativeHeaders.forEach((name, values) -> values.forEach(value -> appendHeader(prefix, name, value)));
+            appendHeader(prefix, StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER, messageId);
+            this.encodedPrefix = prefix.toString().getBytes(StandardCharsets.UTF_8);
+            this.encodedSuffix = ("content-length:" + bytes.length + "\n\n").getBytes(StandardCharsets.UTF_8);
+        } else {
+            this.encodedPrefix = null;
+            this.encodedSuffix = null;
+        }
+    }
+
+    // The destination subscribers see (the original one for user destinations)
+    String destination() {
+        return destination;
+    }
+
+    // Builds the MESSAGE for one subscriber around the shared payload
+    Message<?> forSubscriber(String sessionId, String subscriptionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        if (headerInitializer != null) {
+            headerInitializer.initHeaders(accessor);
+        }
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        if (contentType != null) {
+            accessor.setContentType(contentType);
+        }
+        nativeHeaders.forEach(accessor::setNativeHeaderValues);
+        accessor.setNativeHeader(StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER, messageId);
+        accessor.setHeader(HEADER, this);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    /**
+     * Encodes the complete STOMP frame for one subscription: the shared prefix, the subscription header,
+     * the shared suffix and the shared payload, copied into one exact-size array.
+     * Returns null if this broadcast can't be encoded this way or the payload isn't this frame's own.
+     */
+    @Nullable
+    byte[] encode(String subscriptionId, byte[] payloadToSend) {
+        if (encodedPrefix == null || encodedSuffix == null || payloadToSend != payload) {
+            return null;
+        }
+        byte[] subscription = escape(subscriptionId).getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[encodedPrefix.length + SUBSCRIPTION.length + subscription.length + 1
+                + encodedSuffix.length + payloadToSend.length + 1];
+        int position = 0;
+        position = put(frame, position, encodedPrefix);
+        position = put(frame, position, SUBSCRIPTION);
+        position = put(frame, position, subscription);
+        frame[position++] = '\n';
+        position = put(frame, position, encodedSuffix);
+        position = put(frame, position, payloadToSend);
+        frame[position] = 0;
+        return frame;
+    }
+
+    private static int put(byte[] frame, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, frame, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private static void appendHeader(StringBuilder frame, String name, String value) {
+        frame.append(escape(name)).append(':').append(escape(value)).append('\n');
+    }
+
+    // STOMP 1.2 header escaping, as StompEncoder does for MESSAGE frames
+    private static String escape(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf(':') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace(":", "\\c").replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.demo.broker;
+
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+
+import java.util.Map;
+
+/**
+ * StompEncoder that builds broadcast frames from their pre-encoded {@link BroadcastFrame}
+ * (one array copy per session) and encodes everything else the usual way.
+ */
+public class BroadcastStompEncoder extends StompEncoder {
+
+    @Override
+    public byte[] encode(Map<String, Object> headers, byte[] payload) {
+        if (headers.get(BroadcastFrame.HEADER) instanceof BroadcastFrame frame) {
+            String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+            byte[] encoded = subscriptionId != null ? frame.encode(subscriptionId, payload) : null;
+            if (encoded != null) {
+                return encoded;
+            }
+        }
+        return super.encode(headers, payload);
+    }
+}
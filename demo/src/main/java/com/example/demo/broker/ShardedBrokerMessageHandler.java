@@ -0,0 +1,250 @@
+package com.example.demo.broker;
+
+import com.example.demo.metrics.DestinationTimers;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process broker that fans broadcasts out in parallel.
+ *
+ * Subscriptions are spread over a {@link ShardedSubscriptionRegistry} and every shard has its own
+ * single delivery thread. A broadcast is queued on each shard that has subscribers, and each shard
+ * sends to its own sessions. CONNECT/SUBSCRIBE/DISCONNECT handling is inherited from the SimpleBroker.
+ *
+ * The payload and shared headers are prepared once per broadcast (see {@link BroadcastFrame}).
+ *
+ * Ordering: all shards are handed the messages for a destination under that destination's lock, and
+ * each shard delivers in queue order, so every subscriber sees a destination's messages in one order.
+ *
+ * Partitioned destinations (see setPartitionedDestinations, used for chat rooms) take another path:
+ * each destination maps to one of a fixed set of partition threads, which delivers its broadcasts to
+ * all subscribers on its own. Order within a destination comes from its single queue, and a busy
+ * destination only delays the destinations that share its partition, not the shards everyone uses.
+ *
+ * If fan-out timers are set, each broadcast's time from publish until the last shard has handed it to
+ * every subscriber is recorded per destination.
+ */
+public class ShardedBrokerMessageHandler extends SimpleBrokerMessageHandler {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final ShardedSubscriptionRegistry registry;
+
+    private final ExecutorService[] shardExecutors;
+
+    // ReentrantLock, not synchronized: publishers may be virtual threads, which must not block in a monitor
+    private final ReentrantLock[] destinationLocks = new ReentrantLock[LOCK_STRIPES];
+
+    // One outbound channel per session: with preservePublishOrder each is an ordering decorator,
+    // and a fresh decorator per message would order nothing
+    private final ConcurrentHashMap<String, MessageChannel> sessionChannels = new ConcurrentHashMap<>();
+
+    @Nullable
+    private DestinationTimers fanOutTimers;
+
+    @Nullable
+    private String partitionedPrefix;
+    private ExecutorService[] partitionExecutors = new ExecutorService[0];
+
+    public ShardedBrokerMessageHandler(SubscribableChannel clientInboundChannel, MessageChannel clientOutboundChannel,
+                                       SubscribableChannel brokerChannel, Collection<String> destinationPrefixes,
+                                       int shardCount) {
+        super(clientInboundChannel, clientOutboundChannel, brokerChannel, destinationPrefixes);
+        this.registry = new ShardedSubscriptionRegistry(shardCount);
+        setSubscriptionRegistry(this.registry);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("broker-shard-");
+        threadFactory.setDaemon(true);
+        this.shardExecutors = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shardExecutors[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            destinationLocks[i] = new ReentrantLock();
+        }
+    }
+
+    public void setFanOutTimers(@Nullable DestinationTimers fanOutTimers) {
+        this.fanOutTimers = fanOutTimers;
+    }
+
+    /**
+     * Destinations starting with {@code prefix} are each dispatched by one of {@code partitions} threads,
+     * chosen by destination, instead of by the shards. Call before the broker is started.
+     */
+    public void setPartitionedDestinations(String prefix, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be at least 1");
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("broker-partition-");
+        threadFactory.setDaemon(true);
+        ExecutorService[] executors = new ExecutorService[partitions];
+        for (int i = 0; i < partitions; i++) {
+            executors[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        this.partitionedPrefix = prefix;
+        this.partitionExecutors = executors;
+    }
+
+    @Override
+    protected void sendMessageToSubscribers(@Nullable String destination, Message<?> message) {
+        if (destination == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        // Shared headers and payload are prepared once; subscribers only add their own ids
+        BroadcastFrame frame = new BroadcastFrame(destination, message, getHeaderInitializer());
+        if (partitionedPrefix != null && destination.startsWith(partitionedPrefix)) {
+            sendToPartition(destination, message, frame, start);
+            return;
+        }
+        // Only broadcasts that reach someone are timed (the broker also sees e.g. /user/{name}/... sends)
+        FanOut fanOut = null;
+        ReentrantLock lock = destinationLocks[Math.floorMod(destination.hashCode(), LOCK_STRIPES)];
+        lock.lock();
+        try {
+            for (int i = 0; i < shardExecutors.length; i++) {
+                if (registry.hasSubscribers(i, destination)) {
+                    int shard = i;
+                    if (fanOutTimers != null) {
+                        if (fanOut == null) {
+                            fanOut = new FanOut(fanOutTimers.get(frame.destination()), start);
+                        }
+                        fanOut.pending.incrementAndGet();
+                    }
+                    FanOut shardFanOut = fanOut;
+                    shardExecutors[i].execute(() -> deliver(shard, destination, message, frame, shardFanOut));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (fanOut != null) {
+            fanOut.done();
+        }
+    }
+
+    // One queue per destination, so no lock: the partition thread delivers to every shard's subscribers in turn
+    private void sendToPartition(String destination, Message<?> message, BroadcastFrame frame, long start) {
+        boolean subscribed = false;
+        for (int i = 0; i < shardExecutors.length && !subscribed; i++) {
+            subscribed = registry.hasSubscribers(i, destination);
+        }
+        if (!subscribed) {
+            return;
+        }
+        FanOut fanOut = fanOutTimers != null ? new FanOut(fanOutTimers.get(frame.destination()), start) : null;
+        ExecutorService partition = partitionExecutors[Math.floorMod(destination.hashCode(), partitionExecutors.length)];
+        partition.execute(() -> {
+            try {
+                for (int shard = 0; shard < shardExecutors.length; shard++) {
+                    deliver(shard, destination, message, frame);
+                }
+            } finally {
+                if (fanOut != null) {
+                    fanOut.done();
+                }
+            }
+        });
+    }
+
+    // Runs on the shard's thread: one MESSAGE per subscription held in this shard
+    private void deliver(int shard, String destination, Message<?> message, BroadcastFrame frame,
+                         @Nullable FanOut fanOut) {
+        try {
+            deliver(shard, destination, message, frame);
+        } finally {
+            if (fanOut != null) {
+                fanOut.done();
+            }
+        }
+    }
+
+    private void deliver(int shard, String destination, Message<?> message, BroadcastFrame frame) {
+        registry.forEachSubscription(shard, destination, (sessionId, subscriptionId) -> {
+            MessageChannel channel = isPreservePublishOrder() ? sessionChannels.get(sessionId) : getClientOutboundChannel();
+            if (channel == null) {
+                return; // disconnected since this broadcast was queued
+            }
+            Message<?> reply = frame.forSubscriber(sessionId, subscriptionId);
+            try {
+                channel.send(reply);
+            } catch (Throwable ex) {
+                if (logger.isErrorEnabled()) {
+                    logger.error("Failed to send " + message, ex);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void handleMessageInternal(Message<?> message) {
+        super.handleMessageInternal(message);
+        if (SimpMessageType.DISCONNECT.equals(SimpMessageHeaderAccessor.getMessageType(message.getHeaders()))) {
+            String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+            if (sessionId != null) {
+                sessionChannels.remove(sessionId);
+            }
+        }
+    }
+
+    // Called by the SimpleBroker on CONNECT, so every connected session has its channel here
+    @Override
+    protected MessageChannel getClientOutboundChannelForSession(String sessionId) {
+        if (!isPreservePublishOrder()) {
+            return getClientOutboundChannel();
+        }
+        return sessionChannels.computeIfAbsent(sessionId, super::getClientOutboundChannelForSession);
+    }
+
+    @Override
+    public void stopInternal() {
+        super.stopInternal();
+        for (ExecutorService executor : shardExecutors) {
+            executor.shutdown();
+        }
+        for (ExecutorService executor : partitionExecutors) {
+            executor.shutdown();
+        }
+    }
+
+    // Records a broadcast's fan-out time once the publisher and every shard it was queued on are done
+    private static final class FanOut {
+
+        private final Timer timer;
+        private final long start;
+        // The publisher holds one count until it has queued the broadcast on every shard
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        FanOut(Timer timer, long start) {
+            this.timer = timer;
+            this.start = start;
+        }
+
+        void done() {
+            if (pending.decrementAndGet() == 0) {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedBrokerMessageHandler [" + registry + "]";
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.demo.broker;
+
+import com.example.demo.metrics.DestinationTimers;
+import com.example.demo.room.RoomService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Swaps the SimpleBroker created by WebSocketConfig for a {@link ShardedBrokerMessageHandler}.
+ * The SimpleBroker's channels and settings are carried over, so WebSocketConfig keeps
+ * configuring the broker through the normal registry calls.
+ *
+ * Chat room topics are dispatched per room on chat.rooms.partitions threads (see
+ * ShardedBrokerMessageHandler#setPartitionedDestinations).
+ *
+ * Set chat.broker.mode=simple to keep the stock SimpleBroker.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.broker.mode", havingValue = "sharded", matchIfMissing = true)
+public class ShardedBrokerPostProcessor implements BeanPostProcessor {
+
+    private final int shardCount;
+    private final int roomPartitions;
+    private final int maxDestinations;
+
+    // Looked up lazily: a post-processor that pulls in the MeterRegistry would create it
+    // before Micrometer's own post-processors could configure it
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public ShardedBrokerPostProcessor(@Value("${chat.broker.shards:0}") int shards,
+                                      @Value("${chat.rooms.partitions:0}") int roomPartitions,
+                                      @Value("${chat.metrics.max-destinations:100}") int maxDestinations,
+                                      ObjectProvider<MeterRegistry> meterRegistry) {
+        // 0 means one shard (or room partition) per core
+        this.shardCount = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+        this.roomPartitions = roomPartitions > 0 ? roomPartitions : Runtime.getRuntime().availableProcessors();
+        this.maxDestinations = maxDestinations;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof SimpleBrokerMessageHandler simple) || bean instanceof ShardedBrokerMessageHandler) {
+            return bean;
+        }
+        ShardedBrokerMessageHandler sharded = new ShardedBrokerMessageHandler(
+                simple.getClientInboundChannel(),
+                simple.getClientOutboundChannel(),
+                simple.getBrokerChannel(),
+                simple.getDestinationPrefixes(),
+                shardCount);
+        sharded.setPreservePublishOrder(simple.isPreservePublishOrder());
+        sharded.setTaskScheduler(simple.getTaskScheduler());
+        sharded.setHeartbeatValue(simple.getHeartbeatValue());
+        sharded.setHeaderInitializer(simple.getHeaderInitializer());
+        sharded.setApplicationEventPublisher(simple.getApplicationEventPublisher());
+        sharded.setAutoStartup(simple.isAutoStartup());
+        sharded.setPhase(simple.getPhase());
+        sharded.setPartitionedDestinations(RoomService.TOPIC_PREFIX, roomPartitions);
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry != null) {
+            sharded.setFanOutTimers(new DestinationTimers(registry, "chat.broker.fanout",
+                    "Time from publishing a broadcast until every subscriber's message is handed to its session",
+                    maxDestinations));
+        }
+        return sharded;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.demo.broker;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Subscription registry split into shards by session id.
+ * Every session lives in exactly one shard, so a shard can be fanned out on its own thread
+ * without touching the others. Destinations are matched exactly (no Ant patterns or selectors),
+ * which is all the chat destinations need.
+ */
+public class ShardedSubscriptionRegistry implements SubscriptionRegistry {
+
+    private final Shard[] shards;
+
+    public ShardedSubscriptionRegistry(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(String sessionId) {
+        int h = sessionId.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    @Override
+    public void registerSubscription(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        shards[shardOf(sessionId)].add(sessionId, subscriptionId, destination);
+    }
+
+    @Override
+    public void unregisterSubscription(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+        if (sessionId == null || subscriptionId == null) {
+            return;
+        }
+        shards[shardOf(sessionId)].remove(sessionId, subscriptionId);
+    }
+
+    @Override
+    public void unregisterAllSubscriptions(String sessionId) {
+        shards[shardOf(sessionId)].removeSession(sessionId);
+    }
+
+    @Override
+    public MultiValueMap<String, String> findSubscriptions(Message<?> message) {
+        MultiValueMap<String, String> result = new LinkedMultiValueMap<>();
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null) {
+            return result;
+        }
+        for (int i = 0; i < shards.length; i++) {
+            forEachSubscription(i, destination, result::add);
+        }
+        return result;
+    }
+
+    // True if the given shard has at least one subscriber to the destination
+    public boolean hasSubscribers(int shard, String destination) {
+        return shards[shard].byDestination.containsKey(destination);
+    }
+
+    // Calls action(sessionId, subscriptionId) for every subscription to the destination in one shard
+    public void forEachSubscription(int shard, String destination, BiConsumer<String, String> action) {
+        Subscribers subscribers = shards[shard].byDestination.get(destination);
+        if (subscribers == null) {
+            return;
+        }
+        for (Subscription subscription : subscribers.snapshot()) {
+            action.accept(subscription.sessionId(), subscription.subscriptionId());
+        }
+    }
+
+    public int getSubscriptionCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            for (Map<String, String> subscriptions : shard.bySession.values()) {
+                count += subscriptions.size();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedSubscriptionRegistry[shards=" + shards.length + ", subscriptions=" + getSubscriptionCount() + "]";
+    }
+
+    private record Subscription(String sessionId, String subscriptionId) {
+    }
+
+    /**
+     * Subscribers of one destination within one shard. Broadcasts vastly outnumber
+     * subscribe/unsubscribe calls, so fan-out reads a cached array. Mutations only
+     * invalidate it; the next broadcast rebuilds it once, even after a burst of subscribes.
+     */
+    private static final class Subscribers {
+
+        private final Set<Subscription> subscriptions = new HashSet<>();
+
+        private volatile Subscription[] snapshot;
+
+        synchronized void add(Subscription subscription) {
+            if (subscriptions.add(subscription)) {
+                snapshot = null;
+            }
+        }
+
+        // Returns true if no subscriptions are left
+        synchronized boolean remove(Subscription subscription) {
+            if (subscriptions.remove(subscription)) {
+                snapshot = null;
+            }
+            return subscriptions.isEmpty();
+        }
+
+        Subscription[] snapshot() {
+            Subscription[] current = snapshot;
+            if (current != null) {
+                return current;
+            }
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = subscriptions.toArray(new Subscription[0]);
+                }
+                return snapshot;
+            }
+        }
+    }
+
+    private static final class Shard {
+
+        // destination -> its subscribers in this shard (read by the fan-out thread)
+        private final ConcurrentHashMap<String, Subscribers> byDestination = new ConcurrentHashMap<>();
+
+        // sessionId -> subscriptionId -> destination (used to undo subscriptions)
+        private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> bySession = new ConcurrentHashMap<>();
+
+        void add(String sessionId, String subscriptionId, String destination) {
+            bySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+            byDestination.compute(destination, (d, subscribers) -> {
+                if (subscribers == null) {
+                    subscribers = new Subscribers();
+                }
+                subscribers.add(new Subscription(sessionId, subscriptionId));
+                return subscribers;
+            });
+        }
+
+        void remove(String sessionId, String subscriptionId) {
+            Map<String, String> subscriptions = bySession.get(sessionId);
+            if (subscriptions == null) {
+                return;
+            }
+            String destination = subscriptions.remove(subscriptionId);
+            if (destination != null) {
+                removeFromDestination(destination, sessionId, subscriptionId);
+            }
+        }
+
+        void removeSession(String sessionId) {
+            Map<String, String> subscriptions = bySession.remove(sessionId);
+            if (subscriptions == null) {
+                return;
+            }
+            subscriptions.forEach((subscriptionId, destination) ->
+                    removeFromDestination(destination, sessionId, subscriptionId));
+        }
+
+        private void removeFromDestination(String destination, String sessionId, String subscriptionId) {
+            byDestination.computeIfPresent(destination, (d, subscribers) ->
+                    subscribers.remove(new Subscription(sessionId, subscriptionId)) ? null : subscribers);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.demo.cluster;
+
+/**
+ * Carries {@link ClusterMessage}s between the nodes of a chat cluster.
+ *
+ * Delivery is at most once and in order per pair of nodes: a message queued while a link is down, or
+ * in flight when it breaks, may be lost. State that must survive that (who is where) is re-sent in
+ * full whenever a link comes back, see {@link Listener#onNodeUp}.
+ *
+ * {@link TcpClusterBus} is the implementation; another transport only has to implement this.
+ */
+public interface ClusterBus {
+
+    /** This node's id, unique in the cluster. */
+    String nodeId();
+
+    /** Starts talking to the other nodes; everything they send goes to the listener. */
+    void start(Listener listener);
+
+    void stop();
+
+    /** Queues the message for every other node. Never blocks; drops it if a node's queue is full. */
+    void publish(ClusterMessage message);
+
+    /** Queues the message for one node; false if there's no such node or its queue is full. */
+    boolean send(String nodeId, ClusterMessage message);
+
+    interface Listener {
+
+        /** A message from another node, in the order that node sent it. */
+        void onMessage(String fromNode, ClusterMessage message);
+
+        /** This node can send to {@code nodeId} again (or for the first time). */
+        void onNodeUp(String nodeId);
+
+        /** {@code nodeId} stopped sending to this node; whatever it announced is stale. */
+        void onNodeDown(String nodeId);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.demo.cluster;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Turns this node into a cluster member when chat.cluster.enabled=true (see ClusterRelay).
+ * The bus is {@link TcpClusterBus} unless the application defines its own {@link ClusterBus} bean.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "true")
+public class ClusterConfig {
+
+    @Bean
+    @ConditionalOnMissingBean(ClusterBus.class)
+    public ClusterBus clusterBus(@Value("${chat.cluster.address:localhost:9100}") String address,
+                                 @Value("${chat.cluster.peers:}") List<String> peers,
+                                 @Value("${chat.cluster.secret:}") String secret,
+                                 @Value("${chat.cluster.queue-capacity:10000}") int queueCapacity,
+                                 @Value("${chat.cluster.max-batch-size:256}") int maxBatchSize,
+                                 @Value("${chat.cluster.reconnect-delay:1s}") Duration reconnectDelay,
+                                 MeterRegistry meterRegistry) {
+        return new TcpClusterBus(address, peers, secret, queueCapacity, maxBatchSize, reconnectDelay, meterRegistry);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.demo.cluster;
+
+import org.springframework.lang.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One message between cluster nodes.
+ *
+ * - BROADCAST: a message for a /topic destination (target), with its content type and payload as
+ *   the broker got them, so the other nodes can hand it to their own subscribers.
+ * - USER: a private ChatMessage (JSON payload) for the user named by target.
+ * - ONLINE / OFFLINE: the user named by target got their first session on the sender / lost their last.
+ * - SNAPSHOT: every user with a session on the sender; replaces what the receiver knew about it.
+ *
+ * On the wire: kind byte, target and content type (modified UTF-8, content type "" if none), then the
+ * payload length and bytes.
+ */
+public record ClusterMessage(Kind kind, String target, @Nullable String contentType, byte[] payload) {
+
+    public enum Kind { BROADCAST, USER, ONLINE, OFFLINE, SNAPSHOT }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final byte[] EMPTY = new byte[0];
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    public static ClusterMessage broadcast(String destination, @Nullable String contentType, byte[] payload) {
+        return new ClusterMessage(Kind.BROADCAST, destination, contentType, payload);
+    }
+
+    public static ClusterMessage user(String username, byte[] json) {
+        return new ClusterMessage(Kind.USER, username, "application/json", json);
+    }
+
+    public static ClusterMessage online(String username) {
+        return new ClusterMessage(Kind.ONLINE, username, null, EMPTY);
+    }
+
+    public static ClusterMessage offline(String username) {
+        return new ClusterMessage(Kind.OFFLINE, username, null, EMPTY);
+    }
+
+    public static ClusterMessage snapshot(Collection<String> usernames) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(usernames.size());
+            for (String username : usernames) {
+                out.writeUTF(username);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ClusterMessage(Kind.SNAPSHOT, "", null, bytes.toByteArray());
+    }
+
+    /** The users in a SNAPSHOT. */
+    public List<String> usernames() {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int count = in.readInt();
+            List<String> usernames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                usernames.add(in.readUTF());
+            }
+            return usernames;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(kind.ordinal());
+        out.writeUTF(target);
+        out.writeUTF(contentType != null ? contentType : "");
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    static ClusterMessage readFrom(DataInputStream in) throws IOException {
+        int kind = in.readUnsignedByte();
+        if (kind >= KINDS.length) {
+            throw new IOException("Unknown cluster message kind " + kind);
+        }
+        String target = in.readUTF();
+        String contentType = in.readUTF();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Bad cluster message length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new ClusterMessage(KINDS[kind], target, contentType.isEmpty() ? null : contentType, payload);
+    }
+}
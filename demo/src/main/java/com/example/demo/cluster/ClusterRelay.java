@@ -0,0 +1,187 @@
+package com.example.demo.cluster;
+
+import com.example.demo.model.ChatMessage;
+import com.example.demo.service.OfflineMailboxService;
+import com.example.demo.service.PresenceService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Connects this node's broker to the rest of the cluster through the {@link ClusterBus}.
+ *
+ * Broadcasts: as an interceptor on the broker channel, every MESSAGE for a /topic destination that
+ * was published on this node (public chat, rooms) is also published to the other nodes, payload as is.
+ * They put it on their own broker channel, marked with the origin header so it isn't sent on again.
+ * /topic/presence isn't relayed: each node works out presence for the whole cluster from the users
+ * the others announce (ONLINE, OFFLINE, SNAPSHOT) and numbers its own deltas (see PresenceService).
+ * Relayed messages keep their origin's node id next to their sequence number, so clients don't take
+ * two nodes' numbers for one sequence (see MessageStore).
+ *
+ * Private messages: OfflineMailboxService asks forwardToUser() to send a message to the nodes the
+ * recipient has sessions on, as known by the {@link UserLocationRegistry}; nodes without the
+ * recipient never see it. The receiving node delivers it as its own private message (mailbox included).
+ */
+@Component
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "true")
+public class ClusterRelay implements ChannelInterceptor, ClusterBus.Listener, SmartLifecycle {
+
+    static final String ORIGIN_HEADER = "chat.cluster.origin";
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterRelay.class);
+
+    private final ClusterBus bus;
+    private final UserLocationRegistry locations;
+    private final ObjectMapper objectMapper;
+    // Both lead back to the broker configuration, which needs this interceptor
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectProvider<OfflineMailboxService> mailboxService;
+    private final ObjectProvider<PresenceService> presenceService;
+
+    private volatile boolean running;
+
+    public ClusterRelay(ClusterBus bus,
+                        UserLocationRegistry locations,
+                        ObjectMapper objectMapper,
+                        @Lazy SimpMessagingTemplate messagingTemplate,
+                        ObjectProvider<OfflineMailboxService> mailboxService,
+                        ObjectProvider<PresenceService> presenceService) {
+        this.bus = bus;
+        this.locations = locations;
+        this.objectMapper = objectMapper;
+        this.messagingTemplate = messagingTemplate;
+        this.mailboxService = mailboxService;
+        this.presenceService = presenceService;
+    }
+
+    // Same phase as the broker: remote messages need somewhere to go
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void start() {
+        bus.start(this);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        bus.stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Broker channel: publish local broadcasts to the other nodes
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (headers.containsKey(ORIGIN_HEADER)
+                || !SimpMessageType.MESSAGE.equals(SimpMessageHeaderAccessor.getMessageType(headers))) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination != null && destination.startsWith("/topic/") && !PresenceService.PRESENCE_TOPIC.equals(destination)
+                && message.getPayload() instanceof byte[] payload) {
+            Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+            bus.publish(ClusterMessage.broadcast(destination, contentType != null ? contentType.toString() : null, payload));
+        }
+        return message;
+    }
+
+    /**
+     * Sends a private message to the other nodes the recipient has sessions on.
+     * False if there are none; the caller then delivers (or keeps) it here.
+     */
+    public boolean forwardToUser(String recipient, ChatMessage message) {
+        Set<String> nodes = locations.nodesOf(recipient);
+        if (nodes.isEmpty()) {
+            return false;
+        }
+        ClusterMessage clusterMessage;
+        try {
+            clusterMessage = ClusterMessage.user(recipient, objectMapper.writeValueAsBytes(message));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        boolean sent = false;
+        for (String node : nodes) {
+            sent |= bus.send(node, clusterMessage);
+        }
+        return sent;
+    }
+
+    /** True if the user has a session on another node. */
+    public boolean isConnectedElsewhere(String username) {
+        return !locations.nodesOf(username).isEmpty();
+    }
+
+    @Override
+    public void onMessage(String fromNode, ClusterMessage message) {
+        switch (message.kind()) {
+            case BROADCAST -> {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+                accessor.setDestination(message.target());
+                if (message.contentType() != null) {
+                    accessor.setContentType(MimeType.valueOf(message.contentType()));
+                }
+                accessor.setHeader(ORIGIN_HEADER, fromNode);
+                messagingTemplate.getMessageChannel().send(MessageBuilder.createMessage(message.payload(), accessor.getMessageHeaders()));
+            }
+            case USER -> {
+                try {
+                    mailboxService.getObject().deliverLocally(objectMapper.readValue(message.payload(), ChatMessage.class));
+                } catch (IOException e) {
+                    log.warn("Dropping an unreadable private message from cluster node {}", fromNode, e);
+                }
+            }
+            case ONLINE -> {
+                locations.onOnline(fromNode, message.target());
+                presenceService.getObject().onRemoteChange(List.of(message.target()));
+                // Messages kept here while they were away can go to them there now
+                mailboxService.getObject().onUserReachable(message.target());
+            }
+            case OFFLINE -> {
+                locations.onOffline(fromNode, message.target());
+                presenceService.getObject().onRemoteChange(List.of(message.target()));
+            }
+            case SNAPSHOT -> presenceService.getObject().onRemoteChange(locations.onSnapshot(fromNode, message.usernames()));
+        }
+    }
+
+    @Override
+    public void onNodeUp(String nodeId) {
+        locations.sendSnapshot(nodeId);
+    }
+
+    @Override
+    public void onNodeDown(String nodeId) {
+        log.info("Cluster node {} is gone", nodeId);
+        presenceService.getObject().onRemoteChange(locations.onNodeDown(nodeId));
+    }
+}
@@ -0,0 +1,369 @@
+package com.example.demo.cluster;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ClusterBus} over plain TCP: every node listens on its own address and opens one connection
+ * to each peer for what it sends, so a pair of nodes talks over two connections, one per direction.
+ * A node's id is its address (host:port), which is also how the peers list names it.
+ *
+ * Sending never waits for the network. Each peer has a bounded queue and a writer thread that takes
+ * whatever has piled up (up to max-batch-size messages), writes it into one buffer and flushes once:
+ * under load many messages share a write, and nothing waits for an acknowledgement before the next
+ * batch goes out. A full queue drops the message (counted). A broken connection is retried every
+ * reconnect-delay; messages in the batch being written when it broke are lost.
+ *
+ * Only configured peers that know the cluster secret get in. The accepting node opens each connection
+ * with a magic number and a random challenge; the sender answers with its node id and an HMAC-SHA256 of
+ * the challenge and id under the secret. A wrong answer, or an id that isn't in the peers list, closes
+ * the connection. After that a reader thread per inbound connection hands the messages to the listener
+ * in order; when it closes, the sender is reported down. The server socket is bound to the host in this
+ * node's address only (localhost by default), never to all interfaces.
+ *
+ * Metrics: chat.cluster.sent / chat.cluster.dropped / chat.cluster.received{kind} (messages),
+ * chat.cluster.batch.size (messages per flush), chat.cluster.peers.connected.
+ */
+public class TcpClusterBus implements ClusterBus {
+
+    private static final Logger log = LoggerFactory.getLogger(TcpClusterBus.class);
+
+    private static final int MAGIC = 0x43484154; // "CHAT"
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 2000;
+    private static final int CHALLENGE_SIZE = 16;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final String nodeId;
+    private final InetSocketAddress bindAddress;
+    private final SecretKeySpec secret;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Peer> peers = new LinkedHashMap<>();
+    private final int maxBatchSize;
+    private final long reconnectDelayMillis;
+
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private volatile Listener listener;
+    private ServerSocket serverSocket;
+
+    private final Counter sentCounter;
+    private final Counter droppedCounter;
+    private final Map<ClusterMessage.Kind, Counter> receivedCounters = new EnumMap<>(ClusterMessage.Kind.class);
+    private final DistributionSummary batchSize;
+
+    private final class Peer {
+
+        private final String nodeId;
+        private final InetSocketAddress address;
+        private final BlockingQueue<ClusterMessage> queue;
+        private volatile boolean connected;
+        private Thread writer;
+
+        Peer(String nodeId, int queueCapacity) {
+            this.nodeId = nodeId;
+            this.address = parseAddress(nodeId);
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+    }
+
+    /**
+     * @param address this node's host:port, also its id
+     * @param peers   the other nodes' host:port (this node's own address is skipped if listed)
+     * @param secret  shared by all nodes of the cluster
+     */
+    public TcpClusterBus(String address, Collection<String> peers, String secret, int queueCapacity, int maxBatchSize,
+                         Duration reconnectDelay, MeterRegistry meterRegistry) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalArgumentException("A cluster secret is required");
+        }
+        this.nodeId = address;
+        this.bindAddress = parseAddress(address);
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        for (String peer : peers) {
+            String peerId = peer.trim();
+            if (!peerId.isEmpty() && !peerId.equals(address)) {
+                this.peers.put(peerId, new Peer(peerId, queueCapacity));
+            }
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.reconnectDelayMillis = reconnectDelay.toMillis();
+
+        this.sentCounter = Counter.builder("chat.cluster.sent")
+                .description("Messages written to other cluster nodes")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("chat.cluster.dropped")
+                .description("Messages for other cluster nodes dropped (queue full or connection lost)")
+                .register(meterRegistry);
+        for (ClusterMessage.Kind kind : ClusterMessage.Kind.values()) {
+            receivedCounters.put(kind, Counter.builder("chat.cluster.received")
+                    .tag("kind", kind.name().toLowerCase())
+                    .description("Messages received from other cluster nodes")
+                    .register(meterRegistry));
+        }
+        this.batchSize = DistributionSummary.builder("chat.cluster.batch.size")
+                .description("Messages per write to another cluster node")
+                .register(meterRegistry);
+        Gauge.builder("chat.cluster.peers.connected", this.peers,
+                        all -> all.values().stream().filter(peer -> peer.connected).count())
+                .description("Cluster nodes this node is connected to")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public synchronized void start(Listener listener) {
+        if (running) {
+            return;
+        }
+        this.listener = listener;
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(bindAddress);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not listen for cluster nodes on " + nodeId, e);
+        }
+        running = true;
+        Thread.ofPlatform().name("cluster-accept").daemon().start(this::acceptLoop);
+        for (Peer peer : peers.values()) {
+            peer.writer = Thread.ofPlatform().name("cluster-writer-" + peer.nodeId).daemon().start(() -> writeLoop(peer));
+        }
+        log.info("Cluster node {} listening, peers {}", nodeId, peers.keySet());
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        closeQuietly(serverSocket);
+        for (Peer peer : peers.values()) {
+            peer.writer.interrupt();
+        }
+        inbound.values().forEach(TcpClusterBus::closeQuietly);
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        for (Peer peer : peers.values()) {
+            offer(peer, message);
+        }
+    }
+
+    @Override
+    public boolean send(String nodeId, ClusterMessage message) {
+        Peer peer = peers.get(nodeId);
+        return peer != null && offer(peer, message);
+    }
+
+    private boolean offer(Peer peer, ClusterMessage message) {
+        if (peer.queue.offer(message)) {
+            return true;
+        }
+        droppedCounter.increment();
+        return false;
+    }
+
+    // One thread per peer: connect, then write batches until the connection breaks, then reconnect
+    private void writeLoop(Peer peer) {
+        List<ClusterMessage> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try (Socket socket = new Socket()) {
+                socket.connect(peer.address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+                answerChallenge(socket, out);
+                peer.connected = true;
+                log.info("Connected to cluster node {}", peer.nodeId);
+                listener.onNodeUp(peer.nodeId);
+                while (running) {
+                    batch.add(peer.queue.take());
+                    peer.queue.drainTo(batch, maxBatchSize - 1);
+                    for (ClusterMessage message : batch) {
+                        message.writeTo(out);
+                    }
+                    out.flush();
+                    sentCounter.increment(batch.size());
+                    batchSize.record(batch.size());
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (peer.connected) {
+                    log.warn("Lost connection to cluster node {}: {}", peer.nodeId, e.toString());
+                } else {
+                    log.debug("Could not connect to cluster node {}: {}", peer.nodeId, e.toString());
+                }
+                droppedCounter.increment(batch.size());
+                batch.clear();
+            } finally {
+                peer.connected = false;
+            }
+            try {
+                Thread.sleep(reconnectDelayMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofPlatform().name("cluster-reader").daemon().start(() -> readLoop(socket));
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Accepting cluster connections failed", e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        String from = null;
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            from = authenticate(socket, in);
+            if (from == null) {
+                return;
+            }
+            Thread.currentThread().setName("cluster-reader-" + from);
+            // A node that reconnects replaces its old connection
+            closeQuietly(inbound.put(from, socket));
+            while (running) {
+                ClusterMessage message = ClusterMessage.readFrom(in);
+                receivedCounters.get(message.kind()).increment();
+                try {
+                    listener.onMessage(from, message);
+                } catch (RuntimeException e) {
+                    log.error("Handling a {} message from cluster node {} failed", message.kind(), from, e);
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            log.debug("Connection from cluster node {} closed", from);
+        } catch (IOException e) {
+            log.warn("Connection from cluster node {} failed: {}", from, e.toString());
+        } finally {
+            if (from != null && inbound.remove(from, socket) && running) {
+                listener.onNodeDown(from);
+            }
+        }
+    }
+
+    // Sends a challenge and checks the answer; the sender's node id if it's a peer that knows the secret, else null
+    private String authenticate(Socket socket, DataInputStream in) throws IOException {
+        byte[] challenge = new byte[CHALLENGE_SIZE];
+        random.nextBytes(challenge);
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(MAGIC);
+        out.write(challenge);
+        out.flush();
+
+        if (in.readInt() != MAGIC) {
+            log.warn("Ignoring a connection from {}: not a cluster node", socket.getRemoteSocketAddress());
+            return null;
+        }
+        String from = in.readUTF();
+        byte[] answer = new byte[in.readUnsignedByte()];
+        in.readFully(answer);
+        if (!MessageDigest.isEqual(answer, mac(challenge, from))) {
+            log.warn("Ignoring a connection from {}: wrong cluster secret", socket.getRemoteSocketAddress());
+            return null;
+        }
+        if (!peers.containsKey(from)) {
+            log.warn("Ignoring a connection from {}: {} is not a configured peer", socket.getRemoteSocketAddress(), from);
+            return null;
+        }
+        socket.setSoTimeout(0);
+        return from;
+    }
+
+    private void answerChallenge(Socket socket, DataOutputStream out) throws IOException {
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a cluster node");
+        }
+        byte[] challenge = new byte[CHALLENGE_SIZE];
+        in.readFully(challenge);
+        byte[] answer = mac(challenge, nodeId);
+        out.writeInt(MAGIC);
+        out.writeUTF(nodeId);
+        out.writeByte(answer.length);
+        out.write(answer);
+        out.flush();
+        socket.setSoTimeout(0);
+    }
+
+    private byte[] mac(byte[] challenge, String nodeId) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(challenge);
+            return mac.doFinal(nodeId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+        }
+    }
+
+    private static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 1) {
+            throw new IllegalArgumentException("Cluster address must be host:port, got '" + address + "'");
+        }
+        return new InetSocketAddress(address.substring(0, colon).trim(), Integer.parseInt(address.substring(colon + 1).trim()));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+}
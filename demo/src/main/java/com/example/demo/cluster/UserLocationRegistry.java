@@ -0,0 +1,186 @@
+package com.example.demo.cluster;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Which cluster nodes each user has sessions on, so a private message goes only to the nodes that
+ * can deliver it instead of to all of them, and presence (see PresenceService) covers the whole cluster.
+ *
+ * Every node announces its own users: ONLINE when a user gets their first session here, OFFLINE when
+ * the last one goes. The announcement is queued inside the compute() that changes the user's count,
+ * so a user's announcements leave in the order the changes happened. The full list (SNAPSHOT) goes to
+ * a node whenever the link to it comes up and to every node each snapshot-interval, which repairs
+ * anything lost while a link was down. A node that goes down takes its users with it.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.cluster.enabled", havingValue = "true")
+public class UserLocationRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(UserLocationRegistry.class);
+
+    private final ClusterBus bus;
+    private final long snapshotIntervalMillis;
+
+    // This node: session -> user, and user -> number of sessions
+    private final ConcurrentHashMap<String, String> sessionUsers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> localUsers = new ConcurrentHashMap<>();
+
+    // Other nodes: user -> the nodes they have sessions on
+    private final ConcurrentHashMap<String, Set<String>> remoteUsers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cluster-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UserLocationRegistry(ClusterBus bus,
+                                MeterRegistry meterRegistry,
+                                @Value("${chat.cluster.snapshot-interval:30s}") Duration snapshotInterval) {
+        this.bus = bus;
+        this.snapshotIntervalMillis = snapshotInterval.toMillis();
+
+        Gauge.builder("chat.cluster.remote.users", remoteUsers, ConcurrentHashMap::size)
+                .description("Users with sessions on other cluster nodes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        snapshots.scheduleWithFixedDelay(() -> bus.publish(snapshot()),
+                snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        snapshots.shutdownNow();
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        Principal user = event.getUser();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (user == null || sessionId == null || sessionUsers.putIfAbsent(sessionId, user.getName()) != null) {
+            return;
+        }
+        localUsers.compute(user.getName(), (name, count) -> {
+            if (count == null) {
+                bus.publish(ClusterMessage.online(name));
+                return 1;
+            }
+            return count + 1;
+        });
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        // Can be published more than once per session; only the first one finds the entry
+        String username = sessionUsers.remove(event.getSessionId());
+        if (username == null) {
+            return;
+        }
+        localUsers.computeIfPresent(username, (name, count) -> {
+            if (count == 1) {
+                bus.publish(ClusterMessage.offline(name));
+                return null;
+            }
+            return count - 1;
+        });
+    }
+
+    /** The other nodes the user has sessions on (empty if none, or if they're only on this one). */
+    public Set<String> nodesOf(String username) {
+        Set<String> nodes = remoteUsers.get(username);
+        return nodes != null ? Set.copyOf(nodes) : Set.of();
+    }
+
+    /** True if the user has a session on another node. */
+    public boolean isConnectedElsewhere(String username) {
+        return remoteUsers.containsKey(username);
+    }
+
+    // Called by ClusterRelay, on the reader thread of the node that sent it
+
+    void onOnline(String node, String username) {
+        remoteUsers.compute(username, (name, nodes) -> {
+            Set<String> updated = nodes != null ? nodes : ConcurrentHashMap.newKeySet();
+            updated.add(node);
+            return updated;
+        });
+    }
+
+    void onOffline(String node, String username) {
+        remoteUsers.computeIfPresent(username, (name, nodes) -> {
+            nodes.remove(node);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    // Returns the users it announced or dropped, for presence to look at again
+    List<String> onSnapshot(String node, List<String> usernames) {
+        Set<String> current = new HashSet<>(usernames);
+        List<String> changed = new ArrayList<>();
+        for (String username : remoteUsers.keySet()) {
+            if (!current.contains(username) && isOn(node, username)) {
+                onOffline(node, username);
+                changed.add(username);
+            }
+        }
+        for (String username : current) {
+            if (!isOn(node, username)) {
+                onOnline(node, username);
+                changed.add(username);
+            }
+        }
+        log.debug("Cluster node {} has {} users", node, current.size());
+        return changed;
+    }
+
+    // Returns the users it had, for presence to look at again
+    List<String> onNodeDown(String node) {
+        List<String> changed = new ArrayList<>();
+        for (String username : remoteUsers.keySet()) {
+            if (isOn(node, username)) {
+                onOffline(node, username);
+                changed.add(username);
+            }
+        }
+        return changed;
+    }
+
+    private boolean isOn(String node, String username) {
+        Set<String> nodes = remoteUsers.get(username);
+        return nodes != null && nodes.contains(node);
+    }
+
+    void sendSnapshot(String node) {
+        bus.send(node, snapshot());
+    }
+
+    private ClusterMessage snapshot() {
+        return ClusterMessage.snapshot(List.copyOf(localUsers.keySet()));
+    }
+}
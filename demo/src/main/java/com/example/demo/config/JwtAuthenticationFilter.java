@@ -1,6 +1,8 @@
 package com.example.demo.config;
 
+import com.example.demo.revocation.RevocationService;
 import com.example.demo.service.JwtService;
+import com.example.demo.service.VerifiedToken;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -21,10 +23,13 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
+    private final RevocationService revocationService;
 
-    public JwtAuthenticationFilter(JwtService jwtService, UserDetailsService userDetailsService) {
+    public JwtAuthenticationFilter(JwtService jwtService, UserDetailsService userDetailsService,
+                                   RevocationService revocationService) {
         this.jwtService = jwtService;
         this.userDetailsService = userDetailsService;
+        this.revocationService = revocationService;
     }
 
     @Override
@@ -51,7 +56,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         final String authHeader = request.getHeader("Authorization");
         final String jwt;
-        final String username;
+        final VerifiedToken token;
 
         // If no token, pass to the next filter
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
@@ -59,27 +64,27 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             return;
         }
 
-        // Extract the token
+        // Extract the token and verify it (signature + expiry are checked once, here)
         jwt = authHeader.substring(7); // "Bearer " is 7 chars
-        username = jwtService.extractUsername(jwt);
+        // A revoked token counts as no token at all
+        VerifiedToken verified = jwtService.verifyToken(jwt);
+        token = verified != null && !revocationService.isRevoked(verified) ? verified : null;
 
-        // If we have a username and the user is not already authenticated
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
+        // If the token is valid and the user is not already authenticated
+        if (token != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+            UserDetails userDetails = this.userDetailsService.loadUserByUsername(token.username());
 
-            // If token is valid, create an auth token and set it in the security context
-            if (jwtService.validateToken(jwt, userDetails)) {
-                UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        userDetails,
-                        null, // We don't need credentials
-                        userDetails.getAuthorities()
-                );
-                authToken.setDetails(
-                        new WebAuthenticationDetailsSource().buildDetails(request)
-                );
-                // This is the line that "logs in" the user for this request
-                SecurityContextHolder.getContext().setAuthentication(authToken);
-            }
+            // Create an auth token and set it in the security context
+            UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+                    userDetails,
+                    null, // We don't need credentials
+                    userDetails.getAuthorities()
+            );
+            authToken.setDetails(
+                    new WebAuthenticationDetailsSource().buildDetails(request)
+            );
+            // This is the line that "logs in" the user for this request
+            SecurityContextHolder.getContext().setAuthentication(authToken);
         }
         // Pass to the next filter
         filterChain.doFilter(request, response);
@@ -1,6 +1,9 @@
 package com.example.demo.config;
 
+import com.example.demo.resume.SessionResumeService;
+import com.example.demo.revocation.RevocationService;
 import com.example.demo.service.JwtService;
+import com.example.demo.service.VerifiedToken;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.simp.stomp.StompCommand;
@@ -13,15 +16,22 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 @Component
 public class JwtChannelInterceptor implements ChannelInterceptor {
 
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
+    private final SessionResumeService sessionResumeService;
+    private final RevocationService revocationService;
 
-    public JwtChannelInterceptor(JwtService jwtService, UserDetailsService userDetailsService) {
+    public JwtChannelInterceptor(JwtService jwtService, UserDetailsService userDetailsService,
+                                 SessionResumeService sessionResumeService, RevocationService revocationService) {
         this.jwtService = jwtService;
         this.userDetailsService = userDetailsService;
+        this.sessionResumeService = sessionResumeService;
+        this.revocationService = revocationService;
     }
 
     @Override
@@ -32,30 +42,61 @@ public class JwtChannelInterceptor implements ChannelInterceptor {
 
         // Check if it's a CONNECT command
         if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+            // A reconnecting client may resume its previous session instead: no JWT parsing, no user lookup
+            String resumeToken = accessor.getFirstNativeHeader(SessionResumeService.RESUME_TOKEN_HEADER);
+            if (resumeToken != null) {
+                SessionResumeService.Resumed resumed = sessionResumeService.resume(resumeToken, accessor.getSessionId());
+                if (resumed != null) {
+                    // Revoking drops resume tokens too; this catches one that was being used at that moment
+                    markRevocable(accessor, resumed.token());
+                    if (!revocationService.isRevoked(resumed.token())) {
+                        accessor.setUser(resumed.user());
+                        accessor.getSessionAttributes().put(SessionResumeService.RESUMED_ATTRIBUTE, true);
+                        return message;
+                    }
+                }
+                // Expired or unknown: fall back to the JWT, if the client sent one
+            }
+
             // Get the "Authorization" header
             String authHeader = accessor.getFirstNativeHeader("Authorization");
             
             if (authHeader != null && authHeader.startsWith("Bearer ")) {
                 String jwt = authHeader.substring(7);
-                String username = jwtService.extractUsername(jwt);
-
-                if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                    UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
-                    
-                    if (jwtService.validateToken(jwt, userDetails)) {
-                        // If valid, create auth token and set it in the accessor
-                        UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                                userDetails,
-                                null,
-                                userDetails.getAuthorities()
-                        );
-                        // This 'setUser' method is key. It sets the authenticated user
-                        // for this specific WebSocket session.
-                        accessor.setUser(authToken);
+                VerifiedToken token = jwtService.verifyToken(jwt);
+                if (token != null) {
+                    // Marked first: a revocation that lands after the check below still finds this session
+                    markRevocable(accessor, token);
+                    if (revocationService.isRevoked(token)) {
+                        token = null;
                     }
                 }
+
+                if (token != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+                    UserDetails userDetails = this.userDetailsService.loadUserByUsername(token.username());
+
+                    // Token is valid, create auth token and set it in the accessor
+                    UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+                            userDetails,
+                            null,
+                            userDetails.getAuthorities()
+                    );
+                    // This 'setUser' method is key. It sets the authenticated user
+                    // for this specific WebSocket session.
+                    accessor.setUser(authToken);
+                    sessionResumeService.issue(accessor.getSessionId(), authToken, token);
+                }
             }
         }
         return message;
     }
-}
\ No newline at end of file
+
+    // So RevocationService can find the session when the user or the token is revoked
+    private static void markRevocable(StompHeaderAccessor accessor, VerifiedToken token) {
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        attributes.put(RevocationService.USER_ATTRIBUTE, token.username());
+        if (token.id() != null) {
+            attributes.put(RevocationService.TOKEN_ID_ATTRIBUTE, token.id());
+        }
+    }
+}
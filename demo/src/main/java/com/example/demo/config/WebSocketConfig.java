@@ -1,22 +1,61 @@
 package com.example.demo.config;
 
+import com.example.demo.cluster.ClusterRelay;
+import com.example.demo.metrics.InboundLatencyInterceptor;
+import com.example.demo.moderation.ModerationChannelInterceptor;
+import com.example.demo.ratelimit.RateLimitChannelInterceptor;
+import com.example.demo.room.RoomSubscriptionInterceptor;
+import com.example.demo.service.MailboxSubscriptionInterceptor;
+import com.example.demo.websocket.SlowConsumerGuard;
+import com.example.demo.wire.BinaryChatMessageConverter;
+import com.example.demo.wire.WireFormatNegotiator;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.ChannelRegistration; // <-- ADD THIS IMPORT
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
+import java.util.List;
+
 @Configuration
 @EnableWebSocketMessageBroker // This enables WebSocket message handling
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     // ADD THIS FIELD
     private final JwtChannelInterceptor jwtChannelInterceptor;
+    private final RateLimitChannelInterceptor rateLimitChannelInterceptor;
+    private final ModerationChannelInterceptor moderationChannelInterceptor;
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final WireFormatNegotiator wireFormatNegotiator;
+    private final InboundLatencyInterceptor inboundLatencyInterceptor;
+    private final RoomSubscriptionInterceptor roomSubscriptionInterceptor;
+    private final MailboxSubscriptionInterceptor mailboxSubscriptionInterceptor;
+    // Only there when clustering is enabled (chat.cluster.enabled)
+    private final ObjectProvider<ClusterRelay> clusterRelay;
 
     // ADD THIS CONSTRUCTOR
-    public WebSocketConfig(JwtChannelInterceptor jwtChannelInterceptor) {
+    public WebSocketConfig(JwtChannelInterceptor jwtChannelInterceptor,
+                           RateLimitChannelInterceptor rateLimitChannelInterceptor,
+                           ModerationChannelInterceptor moderationChannelInterceptor,
+                           SlowConsumerGuard slowConsumerGuard,
+                           WireFormatNegotiator wireFormatNegotiator,
+                           InboundLatencyInterceptor inboundLatencyInterceptor,
+                           RoomSubscriptionInterceptor roomSubscriptionInterceptor,
+                           MailboxSubscriptionInterceptor mailboxSubscriptionInterceptor,
+                           ObjectProvider<ClusterRelay> clusterRelay) {
         this.jwtChannelInterceptor = jwtChannelInterceptor;
+        this.rateLimitChannelInterceptor = rateLimitChannelInterceptor;
+        this.moderationChannelInterceptor = moderationChannelInterceptor;
+        this.slowConsumerGuard = slowConsumerGuard;
+        this.wireFormatNegotiator = wireFormatNegotiator;
+        this.inboundLatencyInterceptor = inboundLatencyInterceptor;
+        this.roomSubscriptionInterceptor = roomSubscriptionInterceptor;
+        this.mailboxSubscriptionInterceptor = mailboxSubscriptionInterceptor;
+        this.clusterRelay = clusterRelay;
     }
 
     @Override
@@ -24,13 +63,19 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // This is the endpoint the client will connect to
         // setAllowedOriginPatterns("*") allows all origins (good for development)
         registry.addEndpoint("/ws").setAllowedOriginPatterns("*").withSockJS();
+
+        // Handle each session's messages one at a time, in the order they arrived.
+        // Without this the inbound pool (platform or virtual threads) may run them out of order.
+        registry.setPreserveReceiveOrder(true);
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         // Defines prefixes for messages bound for the broker (e.g., to a topic OR a user)
         // --- THIS LINE IS MODIFIED ---
-        registry.enableSimpleBroker("/topic", "/user"); 
+        // "/queue" is needed for private messages: /user/{name}/queue/private is resolved
+        // to /queue/private-user{sessionId} before it reaches the broker
+        registry.enableSimpleBroker("/topic", "/queue", "/user");
         
         // Defines the prefix for messages from clients to the server (e.g., to a @MessageMapping)
         registry.setApplicationDestinationPrefixes("/app");
@@ -38,12 +83,52 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // --- ADD THIS LINE ---
         // This enables 1-to-1 messaging by prefixing destinations with /user
         registry.setUserDestinationPrefix("/user");
+
+        // Keep each session's messages in publish order on the way out. The broker
+        // (see ShardedBrokerMessageHandler) fans out from several threads at once.
+        registry.setPreservePublishOrder(true);
+
+        // Offline mailboxes are drained once the broker has a user's private queue subscription
+        registry.configureBrokerChannel().interceptors(mailboxSubscriptionInterceptor);
+        // In a cluster, broadcasts published here are also sent to the other nodes (see ClusterRelay)
+        clusterRelay.ifAvailable(relay -> registry.configureBrokerChannel().interceptors(relay));
     }
 
     // --- ADD THIS ENTIRE METHOD ---
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
         // This registers our interceptor to validate the JWT on CONNECT messages
-        registration.interceptors(jwtChannelInterceptor);
+        // Then throttles SEND frames per user and destination (after the JWT check, so the user is known)
+        // Then drops chat messages containing blocked terms (after the throttle, so floods aren't scanned)
+        // Then lets only members subscribe to a room's topic (see RoomSubscriptionInterceptor)
+        // Then records the wire format a client asks for on CONNECT (see WireFormatNegotiator)
+        // Finally times queue wait and @MessageMapping handling per destination (see InboundLatencyInterceptor)
+        registration.interceptors(jwtChannelInterceptor, rateLimitChannelInterceptor, moderationChannelInterceptor,
+                roomSubscriptionInterceptor, wireFormatNegotiator, inboundLatencyInterceptor);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Turns chat messages into the binary format for sessions that negotiated it
+        registration.interceptors(wireFormatNegotiator);
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // Binary ChatMessage frames, only for content-type application/octet-stream;schema=chat-message-v1.
+        // Returning true keeps the default String, byte[] and JSON converters after it.
+        messageConverters.add(new BinaryChatMessageConverter());
+        return true;
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Each session gets a bounded outbound queue with its own overflow policy (see SlowConsumerGuard).
+        // Spring's own per-session buffer sits in front of it with the same limits; since the guard
+        // never blocks a send, that buffer stays empty and only acts as a backstop.
+        registration.addDecoratorFactory(slowConsumerGuard);
+        registration.addDecoratorFactory(wireFormatNegotiator);
+        registration.setSendTimeLimit((int) slowConsumerGuard.getSendTimeLimitMillis());
+        registration.setSendBufferSizeLimit((int) slowConsumerGuard.getBufferSizeLimit());
     }
-}
\ No newline at end of file
+}
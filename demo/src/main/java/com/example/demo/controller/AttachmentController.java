@@ -0,0 +1,207 @@
+package com.example.demo.controller;
+
+import com.example.demo.attachment.AttachmentService;
+import com.example.demo.dto.AttachmentDto;
+import com.example.demo.dto.CreateAttachmentRequest;
+import com.example.demo.dto.UploadStatus;
+import com.example.demo.model.Attachment;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * File attachments (see AttachmentService). To attach a file:
+ *
+ *   POST /api/attachments {filename, contentType, size}            -> upload status, offset 0
+ *   PUT  /api/attachments/uploads/{id}?offset=N  (raw bytes)       -> new offset; repeat until complete
+ *   GET  /api/attachments/uploads/{id}                             -> the offset to resume from
+ *
+ * then send a chat message with "attachment": id. Recipients get the file with GET /api/attachments/{id}
+ * (Range requests work) and its name and size with GET /api/attachments/{id}/info.
+ */
+@RestController
+@RequestMapping("/api/attachments")
+public class AttachmentController {
+
+    // Tomcat writes the file itself (sendfile) when these request attributes are set
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final AttachmentService attachmentService;
+
+    public AttachmentController(AttachmentService attachmentService) {
+        this.attachmentService = attachmentService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> startUpload(@RequestBody CreateAttachmentRequest request, Principal principal) throws IOException {
+        try {
+            Attachment attachment = attachmentService.create(principal.getName(), request.filename(),
+                    request.contentType(), request.size());
+            return ResponseEntity.ok(new UploadStatus(attachment.getId(), attachment.getSize(), 0, false));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/uploads/{id}")
+    public ResponseEntity<UploadStatus> getUpload(@PathVariable String id, Principal principal) throws IOException {
+        Optional<Attachment> upload = ownUpload(id, principal);
+        if (upload.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status(upload.get()));
+    }
+
+    // The body is the chunk, read straight into the file. 409 with the current status if offset is wrong.
+    @PutMapping("/uploads/{id}")
+    public ResponseEntity<?> uploadChunk(@PathVariable String id,
+                                         @RequestParam long offset,
+                                         HttpServletRequest request,
+                                         Principal principal) throws IOException {
+        Optional<Attachment> upload = ownUpload(id, principal);
+        if (upload.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Attachment attachment = upload.get();
+        try {
+            attachmentService.append(attachment, offset, request.getContentLengthLong(), request.getInputStream());
+            return ResponseEntity.ok(status(attachment));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(status(attachment));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}/info")
+    public ResponseEntity<AttachmentDto> getInfo(@PathVariable String id) {
+        return ResponseEntity.of(attachmentService.find(id).filter(Attachment::isComplete).map(attachment ->
+                new AttachmentDto(attachment.getId(), attachment.getFilename(), attachment.getContentType(),
+                        attachment.getSize(), attachment.getOwner())));
+    }
+
+    /**
+     * The file, or the one byte range asked for (206). Content never changes for an id, so the ETag is
+     * its hash and it may be cached for good. Where the connector supports it, Tomcat sends the file with
+     * sendfile, so the bytes never enter the JVM; otherwise FileChannel.transferTo copies it into the
+     * response on this thread. Written to the servlet response directly, as a large file can take longer
+     * than an async request may.
+     */
+    @GetMapping("/{id}")
+    public void download(@PathVariable String id,
+                         @RequestHeader HttpHeaders headers,
+                         HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        Optional<Attachment> found = attachmentService.find(id).filter(Attachment::isComplete);
+        if (found.isEmpty()) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        Attachment attachment = found.get();
+        long length = attachment.getSize();
+        String etag = "\"" + attachment.getSha256() + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (headers.getIfNoneMatch().contains(etag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        List<HttpRange> ranges;
+        try {
+            ranges = headers.getRange();
+        } catch (IllegalArgumentException e) {
+            ranges = List.of(); // not a valid Range header: ignore it
+        }
+        if (ranges.size() == 1) { // several ranges: the whole file will do
+            start = ranges.get(0).getRangeStart(length);
+            end = ranges.get(0).getRangeEnd(length);
+            if (start >= length || start > end) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        long count = end - start + 1;
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable().getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String filename = attachment.getFilename();
+        ContentDisposition.Builder disposition = ContentDisposition.attachment();
+        if (StandardCharsets.US_ASCII.newEncoder().canEncode(filename)) {
+            disposition.filename(filename);
+        } else {
+            disposition.filename(filename, StandardCharsets.UTF_8);
+        }
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition.build().toString());
+        response.setContentType(mediaType(attachment.getContentType()).toString());
+        response.setContentLengthLong(count);
+
+        Path blob = attachmentService.blob(attachment).toRealPath();
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, blob.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel file = FileChannel.open(blob)) {
+            WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+            for (long sent = 0; sent < count; ) {
+                long n = file.transferTo(start + sent, count - sent, target);
+                if (n <= 0) {
+                    break;
+                }
+                sent += n;
+            }
+        }
+    }
+
+    private Optional<Attachment> ownUpload(String id, Principal principal) {
+        return attachmentService.find(id).filter(attachment -> attachment.getOwner().equals(principal.getName()));
+    }
+
+    private UploadStatus status(Attachment attachment) throws IOException {
+        return new UploadStatus(attachment.getId(), attachment.getSize(), attachmentService.offset(attachment),
+                attachment.isComplete());
+    }
+
+    private static MediaType mediaType(String contentType) {
+        try {
+            return MediaType.parseMediaType(contentType);
+        } catch (IllegalArgumentException e) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
+}
@@ -5,36 +5,54 @@ import com.example.demo.dto.AuthResponse;
 import com.example.demo.dto.RegisterRequest;
 import com.example.demo.model.User;
 import com.example.demo.repository.UserRepository;
+import com.example.demo.revocation.RevocationService;
+import com.example.demo.service.CachingUserDetailsService;
 import com.example.demo.service.JwtService;
+import com.example.demo.service.LoginService;
+import com.example.demo.service.UserDirectory;
+import com.example.demo.service.VerifiedToken;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
 @RestController // <-- THIS ANNOTATION IS CRITICAL
 @RequestMapping("/api/auth") // <-- THIS ANNOTATION IS CRITICAL
 public class AuthController {
 
-    private final AuthenticationManager authenticationManager;
+    private final LoginService loginService;
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final CachingUserDetailsService userDetailsService;
+    private final UserDirectory userDirectory;
     private final JwtService jwtService;
+    private final RevocationService revocationService;
 
     // Constructor-based dependency injection
-    public AuthController(AuthenticationManager authenticationManager,
+    public AuthController(LoginService loginService,
                           UserRepository userRepository,
                           PasswordEncoder passwordEncoder,
-                          JwtService jwtService) {
-        this.authenticationManager = authenticationManager;
+                          CachingUserDetailsService userDetailsService,
+                          UserDirectory userDirectory,
+                          JwtService jwtService,
+                          RevocationService revocationService) {
+        this.loginService = loginService;
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
+        this.userDetailsService = userDetailsService;
+        this.userDirectory = userDirectory;
         this.jwtService = jwtService;
+        this.revocationService = revocationService;
     }
 
     @PostMapping("/register")
@@ -51,27 +69,47 @@ public class AuthController {
         user.setPassword(passwordEncoder.encode(registerRequest.password()));
 
         userRepository.save(user);
+        // Make sure no stale entry for this username survives in the user cache
+        userDetailsService.evict(user.getUsername());
+        // Show the new user in the directory right away
+        userDirectory.add(user.getId(), user.getUsername());
 
         return ResponseEntity.ok("User registered successfully!");
     }
 
+    // The password check runs on LoginService's threads; this request thread is released meanwhile
     @PostMapping("/login")
-    public ResponseEntity<AuthResponse> authenticateUser(@RequestBody AuthRequest authRequest) {
-        // Authenticate the user
-        Authentication authentication = authenticationManager.authenticate(
-                new UsernamePasswordAuthenticationToken(
-                        authRequest.username(),
-                        authRequest.password()
-                )
-        );
-
-        // If authentication is successful, find the user and generate a token
-        var user = userRepository.findByUsername(authRequest.username())
-                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
-        
-        String jwtToken = jwtService.generateToken(user.getUsername());
+    public CompletableFuture<ResponseEntity<AuthResponse>> authenticateUser(@RequestBody AuthRequest authRequest) {
+        return loginService.login(authRequest.username(), authRequest.password())
+                .thenApply(token -> ResponseEntity.ok(new AuthResponse(token)))
+                .exceptionally(ex -> {
+                    if (ex.getCause() instanceof RejectedExecutionException) {
+                        // Overloaded: tell the client to come back shortly instead of queueing it
+                        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                .header(HttpHeaders.RETRY_AFTER, "1")
+                                .build();
+                    }
+                    // Bad credentials etc. are handled as before (MVC unwraps the CompletionException)
+                    throw ex instanceof CompletionException completion ? completion : new CompletionException(ex);
+                });
+    }
 
-        // Return the token in the response
-        return ResponseEntity.ok(new AuthResponse(jwtToken));
+    // Revokes the token sent with the request, or with everywhere=true every token of its user.
+    // Either way the sessions opened with them are closed.
+    @PostMapping("/logout")
+    public ResponseEntity<?> logout(@RequestHeader(name = HttpHeaders.AUTHORIZATION, required = false) String authHeader,
+                                    @RequestParam(defaultValue = "false") boolean everywhere) {
+        VerifiedToken token = authHeader != null && authHeader.startsWith("Bearer ")
+                ? jwtService.verifyToken(authHeader.substring(7))
+                : null;
+        if (token == null || revocationService.isRevoked(token)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (everywhere || token.id() == null) {
+            revocationService.revokeUser(token.username());
+        } else {
+            revocationService.revokeToken(token.id(), token.expiration().getTime());
+        }
+        return ResponseEntity.ok("Logged out");
     }
 }
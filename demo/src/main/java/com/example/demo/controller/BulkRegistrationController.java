@@ -0,0 +1,43 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.RegisterRequest;
+import com.example.demo.service.BulkRegistrationService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+@RestController
+@RequestMapping("/api/users")
+public class BulkRegistrationController {
+
+    private final BulkRegistrationService bulkRegistrationService;
+
+    public BulkRegistrationController(BulkRegistrationService bulkRegistrationService) {
+        this.bulkRegistrationService = bulkRegistrationService;
+    }
+
+    /**
+     * Registers many users at once (tenant onboarding); admins only (see SecurityConfig).
+     * Answers one result per user, in request order; users that can't be created don't stop the others.
+     * 503 with Retry-After if another bulk registration is still running.
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<?> registerUsers(@RequestBody List<RegisterRequest> registerRequests) {
+        try {
+            return ResponseEntity.ok(bulkRegistrationService.register(registerRequests));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body("Error: " + e.getMessage());
+        }
+    }
+}
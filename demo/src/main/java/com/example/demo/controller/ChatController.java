@@ -1,6 +1,13 @@
 package com.example.demo.controller;
 
+import com.example.demo.attachment.AttachmentService;
+import com.example.demo.ephemeral.TypingService;
 import com.example.demo.model.ChatMessage;
+import com.example.demo.resume.SessionResumeService;
+import com.example.demo.room.RoomService;
+import com.example.demo.service.OfflineMailboxService;
+import com.example.demo.service.PresenceService;
+import com.example.demo.store.MessageStore;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
@@ -17,9 +24,24 @@ public class ChatController {
 
     // --- ADD THIS (for sending private messages) ---
     private final SimpMessagingTemplate messagingTemplate;
+    private final MessageStore messageStore;
+    private final OfflineMailboxService mailboxService;
+    private final RoomService roomService;
+    private final PresenceService presenceService;
+    private final AttachmentService attachmentService;
+    private final TypingService typingService;
 
-    public ChatController(SimpMessagingTemplate messagingTemplate) {
+    public ChatController(SimpMessagingTemplate messagingTemplate, MessageStore messageStore,
+                          OfflineMailboxService mailboxService, RoomService roomService,
+                          PresenceService presenceService, AttachmentService attachmentService,
+                          TypingService typingService) {
         this.messagingTemplate = messagingTemplate;
+        this.messageStore = messageStore;
+        this.mailboxService = mailboxService;
+        this.roomService = roomService;
+        this.presenceService = presenceService;
+        this.attachmentService = attachmentService;
+        this.typingService = typingService;
     }
     // --- END ADD ---
 
@@ -27,12 +49,15 @@ public class ChatController {
     /**
      * This method handles new users joining the chat.
 ... existing code ...
-     * It then broadcasts the "JOIN" message to everyone subscribed to "/topic/public".
+     * It then broadcasts the "JOIN" message to everyone subscribed to "/topic/public",
+     * unless the user wasn't really away: a resumed session, or another tab already open (on any node).
+     * (Who is online is tracked separately from session events, see PresenceService.)
+     * The JOIN is built here: it isn't stored, so nothing in it may come from the client, least of
+     * all an id or sequence number that would look like a stored message's.
      */
     @MessageMapping("/chat.addUser")
     @SendTo("/topic/public") 
-    public ChatMessage addUser(@Payload ChatMessage chatMessage,
-                               SimpMessageHeaderAccessor headerAccessor,
+    public ChatMessage addUser(SimpMessageHeaderAccessor headerAccessor,
                                Principal principal) { // <-- Added Principal
         
         // Use the authenticated username from the Principal
@@ -40,9 +65,15 @@ public class ChatController {
         
         // Add username to the WebSocket session
         headerAccessor.getSessionAttributes().put("username", username);
+        if (Boolean.TRUE.equals(headerAccessor.getSessionAttributes().get(SessionResumeService.RESUMED_ATTRIBUTE))
+                || presenceService.hasOtherSessions(username)) {
+            return null; // nothing to announce
+        }
+        ChatMessage join = new ChatMessage();
+        join.setType(ChatMessage.MessageType.JOIN);
         // Set the sender from the authenticated principal
-        chatMessage.setSender(username); 
-        return chatMessage;
+        join.setSender(username);
+        return join;
     }
 
     /**
@@ -52,9 +83,14 @@ public class ChatController {
     @MessageMapping("/chat.sendMessage")
     @SendTo("/topic/public")
     public ChatMessage sendMessage(@Payload ChatMessage chatMessage, Principal principal) { // <-- Added Principal
+        if (isTyping(chatMessage, principal)) {
+            return null;
+        }
         // Set the sender from the authenticated principal
         chatMessage.setSender(principal.getName()); 
-        return chatMessage; 
+        checkAttachment(chatMessage);
+        // Stamp an id and queue it for the history log (written off this thread); null (nothing sent) if it's backed up
+        return messageStore.append(chatMessage);
     }
 
     // --- ADD THIS ENTIRE NEW METHOD ---
@@ -62,18 +98,76 @@ public class ChatController {
      * This method handles private chat messages.
      * A client sends a message to the "/app/chat.sendPrivateMessage" destination.
      * The method sends the message to a user-specific queue: /user/{recipient}/queue/private
+     * If the recipient isn't connected, it waits in their mailbox until they are.
+     * The sender gets a copy on their own queue, with the id and sequence number it was given, so both
+     * sides see every number of the pair's sequence and only a real gap looks like one.
      */
     @MessageMapping("/chat.sendPrivateMessage")
     public void sendPrivateMessage(@Payload ChatMessage chatMessage, Principal principal) {
+        if (isTyping(chatMessage, principal)) {
+            return;
+        }
         // Set the sender from the authenticated principal
         chatMessage.setSender(principal.getName()); 
+        checkAttachment(chatMessage);
+        // Stamp an id and queue it for the history log (written off this thread); dropped if it's backed up
+        if (messageStore.append(chatMessage) == null) {
+            return;
+        }
         
-        // Send the private message to the recipient's queue
-        messagingTemplate.convertAndSendToUser(
-            chatMessage.getRecipient(), // The recipient's username
-            "/queue/private",           // The private queue
-            chatMessage                 // The message payload
-        );
+        // Send the private message to the recipient's queue (or their mailbox if they're offline)
+        mailboxService.deliver(chatMessage);
+        if (!principal.getName().equals(chatMessage.getRecipient())) {
+            messagingTemplate.convertAndSendToUser(principal.getName(), OfflineMailboxService.PRIVATE_QUEUE, chatMessage);
+        }
     }
     // --- END NEW METHOD ---
+
+    /**
+     * Posts a message to a chat room: "/app/room.send" with the room id in the message.
+     * Only members may post; it goes to everyone subscribed to /topic/room.{id}.
+     */
+    @MessageMapping("/room.send")
+    public void sendRoomMessage(@Payload ChatMessage chatMessage, Principal principal) {
+        if (isTyping(chatMessage, principal)) {
+            return;
+        }
+        String room = chatMessage.getRoom();
+        if (room == null || !roomService.isMember(room, principal.getName())) {
+            return; // not a member (or no such room): drop it
+        }
+        chatMessage.setSender(principal.getName());
+        chatMessage.setRecipient(null);
+        checkAttachment(chatMessage);
+        // Stamp an id and queue it for the history log (written off this thread); dropped if it's backed up
+        if (messageStore.append(chatMessage) == null) {
+            return;
+        }
+        messagingTemplate.convertAndSend(RoomService.topicOf(room), chatMessage);
+    }
+
+    /**
+     * "Is typing" events: "/app/chat.typing" with a room, a recipient, or neither for the public chat.
+     * They take the ephemeral lane (see TypingService): coalesced, never stored, dropped first by slow sessions.
+     */
+    @MessageMapping("/chat.typing")
+    public void typing(@Payload ChatMessage chatMessage, Principal principal) {
+        typingService.typing(principal.getName(), chatMessage);
+    }
+
+    // A TYPING event sent to a chat destination still goes on the ephemeral lane, never into the history
+    private boolean isTyping(ChatMessage chatMessage, Principal principal) {
+        if (chatMessage.getType() != ChatMessage.MessageType.TYPING) {
+            return false;
+        }
+        typingService.typing(principal.getName(), chatMessage);
+        return true;
+    }
+
+    // A message may only point at a finished upload; any other attachment id is taken off it
+    private void checkAttachment(ChatMessage chatMessage) {
+        if (chatMessage.getAttachment() != null && !attachmentService.isComplete(chatMessage.getAttachment())) {
+            chatMessage.setAttachment(null);
+        }
+    }
 }
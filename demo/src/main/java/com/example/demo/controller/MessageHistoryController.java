@@ -0,0 +1,134 @@
+package com.example.demo.controller;
+
+import com.example.demo.room.RoomService;
+import com.example.demo.store.MessageStore;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/messages")
+public class MessageHistoryController {
+
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_MISSING = 500;
+    private static final int MAX_RANGES = 64;
+
+    private final MessageStore messageStore;
+    private final RoomService roomService;
+
+    public MessageHistoryController(MessageStore messageStore, RoomService roomService) {
+        this.messageStore = messageStore;
+        this.roomService = roomService;
+    }
+
+    // Public room history, newest first. Pass the returned nextCursor as "before" for older messages.
+    @GetMapping("/public")
+    public ResponseEntity<?> getPublicHistory(@RequestParam(required = false) String before,
+                                              @RequestParam(defaultValue = "50") int limit) {
+        return page(MessageStore.PUBLIC_CONVERSATION, before, limit);
+    }
+
+    // 1:1 history between the logged-in user and {username}, newest first
+    @GetMapping("/private/{username}")
+    public ResponseEntity<?> getPrivateHistory(@PathVariable String username,
+                                               @RequestParam(required = false) String before,
+                                               @RequestParam(defaultValue = "50") int limit,
+                                               Principal principal) {
+        return page(MessageStore.privateConversation(principal.getName(), username), before, limit);
+    }
+
+    // Chat room history, newest first; members only
+    @GetMapping("/room/{roomId}")
+    public ResponseEntity<?> getRoomHistory(@PathVariable String roomId,
+                                            @RequestParam(required = false) String before,
+                                            @RequestParam(defaultValue = "50") int limit,
+                                            Principal principal) {
+        if (!roomService.isMember(roomId, principal.getName())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Error: Not a member of this room!");
+        }
+        return page(MessageStore.roomConversation(roomId), before, limit);
+    }
+
+    /**
+     * Repairs gaps: the messages with the given sequence numbers, oldest first. ranges is a comma separated
+     * list of "from-to" (both included), "n", or "from-" for everything from there on, e.g. ranges=6-9,12,15-.
+     * A client that comes back after a while asks for "lastSeq+1-".
+     */
+    @GetMapping("/public/missing")
+    public ResponseEntity<?> getPublicMissing(@RequestParam String ranges) {
+        return missing(MessageStore.PUBLIC_CONVERSATION, ranges);
+    }
+
+    @GetMapping("/private/{username}/missing")
+    public ResponseEntity<?> getPrivateMissing(@PathVariable String username,
+                                               @RequestParam String ranges,
+                                               Principal principal) {
+        return missing(MessageStore.privateConversation(principal.getName(), username), ranges);
+    }
+
+    @GetMapping("/room/{roomId}/missing")
+    public ResponseEntity<?> getRoomMissing(@PathVariable String roomId,
+                                            @RequestParam String ranges,
+                                            Principal principal) {
+        if (!roomService.isMember(roomId, principal.getName())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Error: Not a member of this room!");
+        }
+        return missing(MessageStore.roomConversation(roomId), ranges);
+    }
+
+    private ResponseEntity<?> missing(String conversation, String ranges) {
+        List<MessageStore.SeqRange> parsed = parseRanges(ranges);
+        if (parsed == null) {
+            return ResponseEntity.badRequest().body("Error: Invalid ranges!");
+        }
+        return ResponseEntity.ok(messageStore.missing(conversation, parsed, MAX_MISSING));
+    }
+
+    // null if the text isn't a list of up to MAX_RANGES ranges
+    static List<MessageStore.SeqRange> parseRanges(String text) {
+        String[] parts = text.split(",");
+        if (parts.length > MAX_RANGES) {
+            return null;
+        }
+        List<MessageStore.SeqRange> ranges = new ArrayList<>(parts.length);
+        try {
+            for (String part : parts) {
+                String range = part.strip();
+                int dash = range.indexOf('-');
+                long from = Long.parseLong(dash < 0 ? range : range.substring(0, dash));
+                long to = dash < 0 ? from
+                        : dash == range.length() - 1 ? Long.MAX_VALUE
+                        : Long.parseLong(range.substring(dash + 1));
+                if (from < 1 || to < from) {
+                    return null;
+                }
+                ranges.add(new MessageStore.SeqRange(from, to));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return ranges;
+    }
+
+    private ResponseEntity<?> page(String conversation, String before, int limit) {
+        Long cursor = null;
+        if (before != null && !before.isBlank()) {
+            try {
+                cursor = Long.parseLong(before);
+            } catch (NumberFormatException e) {
+                return ResponseEntity.badRequest().body("Error: Invalid cursor!");
+            }
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        return ResponseEntity.ok(messageStore.page(conversation, cursor, pageSize));
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.PresenceSnapshot;
+import com.example.demo.service.PresenceService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/presence")
+public class PresenceController {
+
+    private final PresenceService presenceService;
+
+    public PresenceController(PresenceService presenceService) {
+        this.presenceService = presenceService;
+    }
+
+    // Who is online right now. Subscribe to /topic/presence first, then apply deltas newer than "version".
+    // In a cluster, fetch it again if "node" isn't the node the deltas come from.
+    @GetMapping
+    public ResponseEntity<PresenceSnapshot> getOnlineUsers() {
+        return ResponseEntity.ok(presenceService.snapshot());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.CreateRoomRequest;
+import com.example.demo.dto.RoomDto;
+import com.example.demo.room.Room;
+import com.example.demo.room.RoomService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.List;
+
+// Chat rooms. Members subscribe to /topic/room.{id} and post with /app/room.send.
+@RestController
+@RequestMapping("/api/rooms")
+public class RoomController {
+
+    private final RoomService roomService;
+
+    public RoomController(RoomService roomService) {
+        this.roomService = roomService;
+    }
+
+    @GetMapping
+    public ResponseEntity<List<RoomDto>> getRooms() {
+        return ResponseEntity.ok(roomService.list().stream().map(this::toDto).toList());
+    }
+
+    // The rooms the logged-in user is a member of
+    @GetMapping("/mine")
+    public ResponseEntity<List<RoomDto>> getMyRooms(Principal principal) {
+        return ResponseEntity.ok(roomService.roomsOf(principal.getName()).stream().map(this::toDto).toList());
+    }
+
+    @PostMapping
+    public ResponseEntity<?> createRoom(@RequestBody CreateRoomRequest request, Principal principal) {
+        try {
+            return ResponseEntity.ok(toDto(roomService.create(request.name(), principal.getName())));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/{roomId}/join")
+    public ResponseEntity<RoomDto> joinRoom(@PathVariable String roomId, Principal principal) {
+        if (!roomService.join(roomId, principal.getName())) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.of(roomService.find(roomId).map(this::toDto));
+    }
+
+    // Also ends the user's subscriptions to the room
+    @PostMapping("/{roomId}/leave")
+    public ResponseEntity<RoomDto> leaveRoom(@PathVariable String roomId, Principal principal) {
+        if (!roomService.leave(roomId, principal.getName())) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.of(roomService.find(roomId).map(this::toDto));
+    }
+
+    @GetMapping("/{roomId}/members")
+    public ResponseEntity<List<String>> getMembers(@PathVariable String roomId) {
+        if (roomService.find(roomId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(roomService.members(roomId));
+    }
+
+    private RoomDto toDto(Room room) {
+        return new RoomDto(room.id(), room.name(), room.owner(), roomService.memberCount(room.id()));
+    }
+}
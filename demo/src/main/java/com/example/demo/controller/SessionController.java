@@ -0,0 +1,45 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.SessionInfo;
+import com.example.demo.resume.SessionResumeService;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+import java.security.Principal;
+
+@Controller
+public class SessionController {
+
+    private final SessionResumeService sessionResumeService;
+
+    public SessionController(SessionResumeService sessionResumeService) {
+        this.sessionResumeService = sessionResumeService;
+    }
+
+    /**
+     * Subscribe to /app/session once connected (after the chat subscriptions) to get this session's
+     * resume token. With a "last-id" header (the id of the last message received before the
+     * connection dropped) the reply also carries the messages missed since then.
+     * The reply goes straight back to this subscription, nothing stays subscribed.
+     */
+    @SubscribeMapping("/session")
+    public SessionInfo session(@Header(name = "last-id", required = false) String lastId,
+                               SimpMessageHeaderAccessor headerAccessor,
+                               Principal principal) {
+        boolean resumed = Boolean.TRUE.equals(headerAccessor.getSessionAttributes().get(SessionResumeService.RESUMED_ATTRIBUTE));
+        return sessionResumeService.sessionInfo(headerAccessor.getSessionId(), principal.getName(), resumed, parseId(lastId));
+    }
+
+    private static Long parseId(String id) {
+        if (id == null || id.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(id.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
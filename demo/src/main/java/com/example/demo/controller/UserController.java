@@ -1,44 +1,53 @@
 package com.example.demo.controller;
 
-import com.example.demo.dto.UserDto;
-import com.example.demo.repository.UserRepository;
+import com.example.demo.dto.UserPage;
+import com.example.demo.service.UserDirectory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import java.security.Principal; // Import this
-import java.util.List;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/users")
 public class UserController {
 
-    private final UserRepository userRepository;
+    private static final int MAX_PAGE_SIZE = 200;
 
-    public UserController(UserRepository userRepository) {
-        this.userRepository = userRepository;
+    private final UserDirectory userDirectory;
+
+    public UserController(UserDirectory userDirectory) {
+        this.userDirectory = userDirectory;
     }
 
+    /**
+     * One page of the user directory, sorted by username, without the logged-in user.
+     * Optional "prefix" filters by username prefix; pass the returned nextCursor as "after" for the next page.
+     * Clients that poll can send If-None-Match and get a 304 until someone registers.
+     */
     @GetMapping
-    public ResponseEntity<List<UserDto>> getAllUsers(Principal principal) {
-        // Get the username of the currently logged-in user
-        String currentUsername = principal.getName();
-
-        // Fetch all users from the database
-        List<UserDto> users = userRepository.findAll()
-                .stream()
-                // --- ADDED FILTER ---
-                // Filter out the currently logged-in user from the list
-                .filter(user -> !user.getUsername().equals(currentUsername))
-                // ---
-                // Map each User object to a UserDto object
-                .map(user -> new UserDto(user.getId(), user.getUsername()))
-                .collect(Collectors.toList());
-        
-        // Return the list as JSON
-        return ResponseEntity.ok(users);
+    public ResponseEntity<UserPage> getAllUsers(@RequestParam(defaultValue = "") String prefix,
+                                                @RequestParam(required = false) String after,
+                                                @RequestParam(defaultValue = "50") int limit,
+                                                Principal principal,
+                                                WebRequest request) {
+        String etag = userDirectory.etag();
+        // Sets the 304 status and headers itself when the client's copy is current
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        // Filter out the currently logged-in user from the list
+        UserPage page = userDirectory.page(prefix, after, pageSize, principal.getName());
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .header(HttpHeaders.VARY, HttpHeaders.AUTHORIZATION)
+                .body(page);
     }
 }
-
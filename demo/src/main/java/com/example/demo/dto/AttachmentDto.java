@@ -0,0 +1,4 @@
+package com.example.demo.dto;
+
+public record AttachmentDto(String id, String filename, String contentType, long size, String owner) {
+}
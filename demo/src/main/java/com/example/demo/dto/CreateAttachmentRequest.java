@@ -0,0 +1,5 @@
+package com.example.demo.dto;
+
+// Starts an upload: the file's name, type (may be null) and exact size in bytes
+public record CreateAttachmentRequest(String filename, String contentType, long size) {
+}
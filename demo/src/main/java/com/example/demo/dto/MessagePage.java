@@ -0,0 +1,10 @@
+package com.example.demo.dto;
+
+import com.example.demo.model.ChatMessage;
+
+import java.util.List;
+
+// One page of history, newest first. Pass nextCursor as "before" to get the next (older) page;
+// it is null when there is nothing older.
+public record MessagePage(List<ChatMessage> messages, String nextCursor) {
+}
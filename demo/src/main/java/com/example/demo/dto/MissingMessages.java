@@ -0,0 +1,11 @@
+package com.example.demo.dto;
+
+import com.example.demo.model.ChatMessage;
+
+import java.util.List;
+
+// Messages a client asked for by sequence number, oldest first. latestSeq is the conversation's last
+// message in the history (0 if none); complete is false if the limit cut the answer short. In a cluster
+// these are the sequence numbers of the node asked (see MessageStore).
+public record MissingMessages(List<ChatMessage> messages, long latestSeq, boolean complete) {
+}
@@ -0,0 +1,9 @@
+package com.example.demo.dto;
+
+import java.util.List;
+
+// One batch of presence changes sent to /topic/presence.
+// Versions increase by one per batch; apply those newer than your snapshot's version. In a cluster each
+// node numbers its own (node is its id, null outside a cluster): only apply deltas from the snapshot's node.
+public record PresenceDelta(long version, List<String> joined, List<String> left, String node) {
+}
@@ -0,0 +1,7 @@
+package com.example.demo.dto;
+
+import java.util.List;
+
+// Everyone online, on any cluster node, as of the given version of this node's deltas (see PresenceDelta)
+public record PresenceSnapshot(long version, List<String> online, String node) {
+}
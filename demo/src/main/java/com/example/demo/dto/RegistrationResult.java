@@ -0,0 +1,11 @@
+package com.example.demo.dto;
+
+// Outcome of one user in a bulk registration; id is set when the user was created, message when it wasn't
+public record RegistrationResult(String username, Status status, Long id, String message) {
+
+    public enum Status {
+        CREATED,
+        DUPLICATE, // taken already, or earlier in the same request
+        INVALID
+    }
+}
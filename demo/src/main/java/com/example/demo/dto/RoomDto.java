@@ -0,0 +1,4 @@
+package com.example.demo.dto;
+
+public record RoomDto(String id, String name, String owner, int members) {
+}
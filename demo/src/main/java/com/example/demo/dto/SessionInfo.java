@@ -0,0 +1,12 @@
+package com.example.demo.dto;
+
+import com.example.demo.model.ChatMessage;
+
+import java.util.List;
+
+// Sent to a client subscribing to /app/session. Reconnect with resumeToken in a "resume-token" header;
+// missed holds what came after the "last-id" it gave, oldest first. If complete is false, some of it
+// was too old and the rest should be fetched from /api/messages. node is the cluster node the client is on
+// (null outside a cluster): only messages numbered by it can be asked for by sequence number here.
+public record SessionInfo(String resumeToken, boolean resumed, List<ChatMessage> missed, boolean complete, String node) {
+}
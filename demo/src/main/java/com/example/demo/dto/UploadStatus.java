@@ -0,0 +1,5 @@
+package com.example.demo.dto;
+
+// Where an upload stands. Send the next chunk from offset; once complete, id is the attachment to reference.
+public record UploadStatus(String id, long size, long offset, boolean complete) {
+}
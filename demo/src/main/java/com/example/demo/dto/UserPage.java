@@ -0,0 +1,7 @@
+package com.example.demo.dto;
+
+import java.util.List;
+
+// One page of the user directory; pass nextCursor as "after" to get the next one (null on the last page)
+public record UserPage(List<UserDto> users, String nextCursor) {
+}
@@ -0,0 +1,55 @@
+package com.example.demo.ephemeral;
+
+import com.example.demo.room.RoomService;
+
+/**
+ * The lossy lane: destinations for events that are only worth anything for a moment, like "is typing".
+ *
+ * Frames to these destinations are never stored or kept for offline users, and a session's outbound
+ * queue (see BoundedSendSession) drops them before anything else: they aren't queued at all once the
+ * session is behind, and they are the first to go when the queue is full. A late or lost one costs a
+ * flicker in the UI; a real message behind them would cost latency.
+ *
+ * Typing events go to /topic/typing (public chat), /topic/room.{id}.typing (a room, members only)
+ * and /user/queue/typing (private).
+ */
+public final class EphemeralLane {
+
+    public static final String TYPING_TOPIC = "/topic/typing";
+    // Per user, subscribed to as /user/queue/typing
+    public static final String TYPING_QUEUE = "/queue/typing";
+    private static final String USER_TYPING_QUEUE = "/user" + TYPING_QUEUE;
+    // After a room's topic
+    public static final String TYPING_SUFFIX = ".typing";
+
+    private EphemeralLane() {
+    }
+
+    /**
+     * Whether frames to this destination (as a client subscribed to it) are on the lossy lane: exactly the
+     * typing destinations above, so nothing else ends up here by the look of its name.
+     */
+    public static boolean isEphemeral(String destination) {
+        if (destination == null) {
+            return false;
+        }
+        if (destination.equals(TYPING_TOPIC) || destination.equals(USER_TYPING_QUEUE)) {
+            return true;
+        }
+        return destination.startsWith(RoomService.TOPIC_PREFIX) && destination.endsWith(TYPING_SUFFIX)
+                && isRoomId(destination, RoomService.TOPIC_PREFIX.length(), destination.length() - TYPING_SUFFIX.length());
+    }
+
+    // Room ids are decimal numbers
+    private static boolean isRoomId(String text, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
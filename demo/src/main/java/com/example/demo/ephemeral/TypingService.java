@@ -0,0 +1,92 @@
+package com.example.demo.ephemeral;
+
+import com.example.demo.model.ChatMessage;
+import com.example.demo.room.RoomService;
+import com.example.demo.service.OfflineMailboxService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Passes "is typing" events on, on the {@link EphemeralLane}.
+ *
+ * A client sends one on every few keystrokes; only the first per sender and conversation (public chat,
+ * a room or a private chat) within chat.typing.window goes out, the rest are dropped here. Clients show
+ * the indicator for a little longer than the window after the last one. The event carries no content
+ * and no id, and it isn't written to the history or put in a mailbox.
+ *
+ * Metrics: chat.typing.events{result=sent|coalesced}.
+ */
+@Service
+public class TypingService {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final OfflineMailboxService mailboxService;
+    private final RoomService roomService;
+
+    // sender + conversation -> present while an event for it went out less than a window ago
+    private final Cache<String, Boolean> recent;
+
+    private final Counter sentCounter;
+    private final Counter coalescedCounter;
+
+    public TypingService(SimpMessagingTemplate messagingTemplate,
+                         OfflineMailboxService mailboxService,
+                         RoomService roomService,
+                         MeterRegistry meterRegistry,
+                         @Value("${chat.typing.window:2s}") Duration window,
+                         @Value("${chat.typing.max-tracked:100000}") long maxTracked) {
+        this.messagingTemplate = messagingTemplate;
+        this.mailboxService = mailboxService;
+        this.roomService = roomService;
+        this.recent = Caffeine.newBuilder()
+                .expireAfterWrite(window)
+                .maximumSize(maxTracked)
+                .build();
+
+        this.sentCounter = Counter.builder("chat.typing.events")
+                .tag("result", "sent")
+                .description("Typing events received")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("chat.typing.events")
+                .tag("result", "coalesced")
+                .description("Typing events received")
+                .register(meterRegistry);
+    }
+
+    /** Sends a typing event from the sender to the event's room, recipient, or else the public chat. */
+    public void typing(String sender, ChatMessage event) {
+        String room = event.getRoom();
+        String recipient = event.getRecipient();
+        boolean isPrivate = room == null && recipient != null && !recipient.isBlank();
+        if (room != null && !roomService.isMember(room, sender)) {
+            return;
+        }
+        String conversation = room != null ? "room " + room : isPrivate ? "user " + recipient : "public";
+        if (recent.asMap().putIfAbsent(sender + '\n' + conversation, Boolean.TRUE) != null) {
+            coalescedCounter.increment();
+            return;
+        }
+        sentCounter.increment();
+
+        ChatMessage typing = new ChatMessage();
+        typing.setType(ChatMessage.MessageType.TYPING);
+        typing.setSender(sender);
+        if (room != null) {
+            typing.setRoom(room);
+            messagingTemplate.convertAndSend(RoomService.typingTopicOf(room), typing);
+        } else if (isPrivate) {
+            typing.setRecipient(recipient);
+            // Routed like a private message (other cluster nodes included), but never kept for later
+            mailboxService.deliver(typing);
+        } else {
+            messagingTemplate.convertAndSend(EphemeralLane.TYPING_TOPIC, typing);
+        }
+    }
+}
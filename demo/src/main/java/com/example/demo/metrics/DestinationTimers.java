@@ -0,0 +1,56 @@
+package com.example.demo.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One Timer per destination (p50/p99/p999), for latencies that should be broken down by destination.
+ *
+ * Clients choose destinations, so the number of tags is capped: past maxDestinations distinct
+ * destinations, the rest share a single "other" timer. Once a destination has its timer, a lookup is
+ * just a ConcurrentHashMap get.
+ */
+public class DestinationTimers {
+
+    static final String OTHER = "other";
+
+    private final MeterRegistry meterRegistry;
+    private final String name;
+    private final String description;
+    private final int maxDestinations;
+
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Timer other;
+
+    public DestinationTimers(MeterRegistry meterRegistry, String name, String description, int maxDestinations) {
+        this.meterRegistry = meterRegistry;
+        this.name = name;
+        this.description = description;
+        this.maxDestinations = maxDestinations;
+        this.other = register(OTHER);
+    }
+
+    public Timer get(String destination) {
+        if (destination == null) {
+            return other;
+        }
+        Timer timer = timers.get(destination);
+        if (timer != null) {
+            return timer;
+        }
+        if (timers.size() >= maxDestinations) {
+            return other;
+        }
+        return timers.computeIfAbsent(destination, this::register);
+    }
+
+    private Timer register(String destination) {
+        return Timer.builder(name)
+                .tag("destination", destination)
+                .description(description)
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(meterRegistry);
+    }
+}
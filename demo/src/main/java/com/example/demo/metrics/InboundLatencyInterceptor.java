@@ -0,0 +1,101 @@
+package com.example.demo.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.annotation.support.SimpAnnotationMethodMessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.messaging.support.MessageHeaderInitializer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times client SEND frames on their way to the @MessageMapping methods, per destination:
+ *
+ * - chat.inbound.wait: from the frame being decoded until a handler thread picks it up. This covers
+ *   the per-session ordering queue and the inbound channel's executor queue.
+ * - chat.inbound.handler: time spent in the @MessageMapping method (SimpAnnotationMethodMessageHandler).
+ *
+ * The decode time is stamped by this class too, as the STOMP handler's header initializer, installed
+ * once every singleton exists (the STOMP handler isn't a bean). Per message that's one header and
+ * two nanoTime() calls per timer.
+ */
+@Component
+public class InboundLatencyInterceptor implements ExecutorChannelInterceptor, MessageHeaderInitializer,
+        SmartInitializingSingleton {
+
+    static final String RECEIVED_HEADER = "chat.receivedNanos";
+
+    // Looked up once everything exists: the handler is built from WebSocketConfig, which needs this bean
+    private final ObjectProvider<WebSocketHandler> subProtocolWebSocketHandler;
+    private final DestinationTimers waitTimers;
+    private final DestinationTimers handlerTimers;
+
+    // Handler start time, per handler thread
+    private final ThreadLocal<long[]> handlerStart = ThreadLocal.withInitial(() -> new long[1]);
+
+    public InboundLatencyInterceptor(@Qualifier("subProtocolWebSocketHandler") ObjectProvider<WebSocketHandler> subProtocolWebSocketHandler,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${chat.metrics.max-destinations:100}") int maxDestinations) {
+        this.subProtocolWebSocketHandler = subProtocolWebSocketHandler;
+        this.waitTimers = new DestinationTimers(meterRegistry, "chat.inbound.wait",
+                "Time from a SEND frame being decoded until a handler thread picks it up", maxDestinations);
+        this.handlerTimers = new DestinationTimers(meterRegistry, "chat.inbound.handler",
+                "Time spent in the @MessageMapping method for a SEND frame", maxDestinations);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (subProtocolWebSocketHandler.getIfAvailable() instanceof SubProtocolWebSocketHandler handler) {
+            for (SubProtocolHandler protocolHandler : handler.getProtocolHandlers()) {
+                if (protocolHandler instanceof StompSubProtocolHandler stompHandler) {
+                    stompHandler.setHeaderInitializer(this);
+                }
+            }
+        }
+    }
+
+    // Called for every decoded frame, while its headers are still being built
+    @Override
+    public void initHeaders(MessageHeaderAccessor headerAccessor) {
+        headerAccessor.setHeader(RECEIVED_HEADER, System.nanoTime());
+    }
+
+    @Override
+    public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+        if (handler instanceof SimpAnnotationMethodMessageHandler && isSend(message)) {
+            long now = System.nanoTime();
+            if (message.getHeaders().get(RECEIVED_HEADER) instanceof Long received) {
+                waitTimers.get(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))
+                        .record(now - received, TimeUnit.NANOSECONDS);
+            }
+            handlerStart.get()[0] = now;
+        }
+        return message;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (handler instanceof SimpAnnotationMethodMessageHandler && isSend(message)) {
+            handlerTimers.get(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))
+                    .record(System.nanoTime() - handlerStart.get()[0], TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static boolean isSend(Message<?> message) {
+        return SimpMessageType.MESSAGE.equals(SimpMessageHeaderAccessor.getMessageType(message.getHeaders()));
+    }
+}
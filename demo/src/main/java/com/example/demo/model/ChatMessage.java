@@ -1,21 +1,64 @@
 package com.example.demo.model;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
+
 public class ChatMessage {
 
+    // Time-ordered id assigned by the server (sent as a string so JavaScript keeps all 64 bits)
+    @JsonFormat(shape = JsonFormat.Shape.STRING)
+    private Long id;
+    private Long timestamp; // epoch millis, set by the server
+    private Long seq; // 1, 2, 3... within its conversation, set by the server (see MessageStore)
+    private String node; // in a cluster, the node that numbered it: each node has its own sequence
     private String content;
     private String sender;
     private String recipient; // <-- ADDED THIS FIELD
+    private String room; // room id, for messages posted to a room
+    private String attachment; // attachment id (see AttachmentController); the file itself never comes through here
     private MessageType type;
 
     // Enum for message type
     public enum MessageType {
         CHAT,
         JOIN,
-        LEAVE
+        LEAVE,
+        TYPING // "is typing", sent on the ephemeral lane only (see TypingService)
     }
 
     // --- Getters and Setters ---
     
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public void setNode(String node) {
+        this.node = node;
+    }
+
     public String getContent() {
         return content;
     }
@@ -40,6 +83,22 @@ public class ChatMessage {
         this.recipient = recipient;
     }
 
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    public String getAttachment() {
+        return attachment;
+    }
+
+    public void setAttachment(String attachment) {
+        this.attachment = attachment;
+    }
+
     public MessageType getType() {
         return type;
     }
@@ -0,0 +1,175 @@
+package com.example.demo.moderation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A set of blocked terms compiled into an Aho-Corasick automaton over UTF-8 bytes, so any text can be
+ * checked for all of them in one pass, one table lookup per byte, without allocating.
+ *
+ * The automaton is a full DFA: the failure links are folded into the transition table when it is built.
+ * Bytes that occur in no term share one column of the table, so it is states x (distinct bytes + 1) ints.
+ * Matching is on substrings and ignores ASCII case (terms are lowercased, and A-Z use the a-z columns);
+ * other letters must match the case they are listed in, lowercased.
+ *
+ * Immutable, so one instance can be scanned from any number of threads; a new list is a new instance.
+ */
+public final class Blocklist {
+
+    /** Scan state before any input. */
+    public static final int START = 0;
+
+    public static final Blocklist EMPTY = compile(List.of());
+
+    private final String[] terms;
+    private final int[] columnOf;
+    private final int columns;
+    // next[state * columns + column]
+    private final int[] next;
+    // Index of a term that ends in each state, or -1
+    private final int[] termAt;
+
+    private Blocklist(String[] terms, int columns, int[] next, int[] termAt, int[] columnOf) {
+        this.terms = terms;
+        this.columns = columns;
+        this.next = next;
+        this.termAt = termAt;
+        this.columnOf = columnOf;
+    }
+
+    /** Compiles the terms; blank ones are skipped, duplicates (ignoring case) kept once. */
+    public static Blocklist compile(Collection<String> terms) {
+        Set<String> unique = new LinkedHashSet<>();
+        for (String term : terms) {
+            if (term != null && !term.isBlank()) {
+                unique.add(term.strip().toLowerCase(Locale.ROOT));
+            }
+        }
+        String[] list = unique.toArray(String[]::new);
+        byte[][] bytes = new byte[list.length][];
+        for (int i = 0; i < list.length; i++) {
+            bytes[i] = list[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        // Column 0 is for bytes that appear in no term
+        int[] columnOf = new int[256];
+        int columns = 1;
+        for (byte[] term : bytes) {
+            for (byte b : term) {
+                if (columnOf[b & 0xFF] == 0) {
+                    columnOf[b & 0xFF] = columns++;
+                }
+            }
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            columnOf[c] = columnOf[c + ('a' - 'A')];
+        }
+
+        // The trie: 0 in a row means no edge yet (state 0 is the root, never a target)
+        List<int[]> rows = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        rows.add(new int[columns]);
+        ends.add(-1);
+        for (int i = 0; i < bytes.length; i++) {
+            int state = START;
+            for (byte b : bytes[i]) {
+                int column = columnOf[b & 0xFF];
+                if (rows.get(state)[column] == 0) {
+                    rows.get(state)[column] = rows.size();
+                    rows.add(new int[columns]);
+                    ends.add(-1);
+                }
+                state = rows.get(state)[column];
+            }
+            if (ends.get(state) < 0) {
+                ends.set(state, i);
+            }
+        }
+
+        // Breadth first, so a state's failure state is complete before the state itself: missing edges
+        // take the failure state's edge, and a state matches if its failure state does
+        int states = rows.size();
+        int[] next = new int[states * columns];
+        int[] termAt = new int[states];
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        termAt[START] = -1;
+        for (int column = 0; column < columns; column++) {
+            int child = rows.get(START)[column];
+            next[column] = child;
+            if (child != 0) {
+                fail[child] = START;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int end = ends.get(state);
+            termAt[state] = end >= 0 ? end : termAt[fail[state]];
+            int[] row = rows.get(state);
+            for (int column = 0; column < columns; column++) {
+                int child = row[column];
+                if (child != 0) {
+                    fail[child] = next[fail[state] * columns + column];
+                    next[state * columns + column] = child;
+                    queue.add(child);
+                } else {
+                    next[state * columns + column] = next[fail[state] * columns + column];
+                }
+            }
+        }
+        return new Blocklist(list, columns, next, termAt, columnOf);
+    }
+
+    /** The state after reading one more byte. */
+    public int step(int state, byte b) {
+        return next[state * columns + columnOf[b & 0xFF]];
+    }
+
+    /** The index of a term that ends in this state, or -1. */
+    public int termAt(int state) {
+        return termAt[state];
+    }
+
+    /** The index of a term found in the bytes from..to (exclusive), or -1 if there is none. */
+    public int find(byte[] utf8, int from, int to) {
+        int state = START;
+        for (int i = from; i < to; i++) {
+            state = next[state * columns + columnOf[utf8[i] & 0xFF]];
+            if (termAt[state] >= 0) {
+                return termAt[state];
+            }
+        }
+        return -1;
+    }
+
+    public String term(int index) {
+        return terms[index];
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public boolean isEmpty() {
+        return terms.length == 0;
+    }
+
+    /** How many states the automaton has, for sizing: the table takes states x columns ints. */
+    public int states() {
+        return termAt.length;
+    }
+
+    @Override
+    public String toString() {
+        return "Blocklist" + Arrays.asList(terms).subList(0, Math.min(terms.length, 5))
+                + (terms.length > 5 ? " and " + (terms.length - 5) + " more" : "");
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.demo.moderation;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The current {@link Blocklist}, loaded from chat.moderation.blocklist (a text file, one term per line,
+ * # for comments) plus the link prefixes if chat.moderation.block-links is on.
+ *
+ * The file is checked every reload-interval and recompiled when its size or modification time changes;
+ * {@link #reload()} does it at once. The new automaton is built on the side and swapped in with one
+ * volatile write, so messages being scanned finish with the old list and nothing waits. A file that
+ * can't be read leaves the current list in place.
+ */
+@Service
+public class BlocklistService {
+
+    private static final Logger log = LoggerFactory.getLogger(BlocklistService.class);
+
+    static final List<String> LINK_TERMS = List.of("http://", "https://", "www.");
+
+    private final Path file;
+    private final boolean blockLinks;
+
+    private volatile Blocklist current;
+    // Size and modification time of the file last loaded
+    private volatile String loadedVersion;
+
+    private final Counter reloadedCounter;
+    private final Counter failedCounter;
+
+    private final ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "moderation-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BlocklistService(MeterRegistry meterRegistry,
+                            @Value("${chat.moderation.blocklist:}") String file,
+                            @Value("${chat.moderation.block-links:true}") boolean blockLinks,
+                            @Value("${chat.moderation.reload-interval:10s}") Duration reloadInterval) {
+        this.file = file.isBlank() ? null : Path.of(file);
+        this.blockLinks = blockLinks;
+
+        this.reloadedCounter = Counter.builder("chat.moderation.reloads")
+                .tag("result", "success")
+                .description("Blocklist reloads")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("chat.moderation.reloads")
+                .tag("result", "failure")
+                .description("Blocklist reloads")
+                .register(meterRegistry);
+        Gauge.builder("chat.moderation.terms", this, service -> service.current.size())
+                .description("Terms in the blocklist")
+                .register(meterRegistry);
+
+        // Until the file has been read (if it can't be, this stays)
+        this.current = Blocklist.compile(blockLinks ? LINK_TERMS : List.of());
+        reload();
+        if (this.file != null) {
+            long millis = reloadInterval.toMillis();
+            watcher.scheduleWithFixedDelay(this::reloadIfChanged, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** The list to scan with; read it once per message. */
+    public Blocklist current() {
+        return current;
+    }
+
+    /** Reads the file again and swaps in the new list; returns false (keeping the old one) if it can't be read. */
+    public synchronized boolean reload() {
+        List<String> terms = new ArrayList<>();
+        if (blockLinks) {
+            terms.addAll(LINK_TERMS);
+        }
+        String version = null;
+        if (file != null) {
+            try {
+                version = version();
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    if (!line.isBlank() && !line.strip().startsWith("#")) {
+                        terms.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                failedCounter.increment();
+                log.warn("Could not read blocklist {}, keeping the current {} terms", file, current.size(), e);
+                return false;
+            }
+        }
+        Blocklist blocklist = Blocklist.compile(terms);
+        current = blocklist;
+        loadedVersion = version;
+        reloadedCounter.increment();
+        log.info("Blocklist loaded: {} terms, {} automaton states", blocklist.size(), blocklist.states());
+        return true;
+    }
+
+    private void reloadIfChanged() {
+        try {
+            if (!version().equals(loadedVersion)) {
+                reload();
+            }
+        } catch (IOException e) {
+            log.debug("Could not check blocklist {}", file, e);
+        } catch (RuntimeException e) {
+            log.warn("Blocklist reload failed", e);
+        }
+    }
+
+    private String version() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.size() + "@" + attributes.lastModifiedTime().toMillis();
+    }
+
+    @PreDestroy
+    public void stop() {
+        watcher.shutdownNow();
+    }
+}
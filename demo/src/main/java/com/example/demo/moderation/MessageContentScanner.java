@@ -0,0 +1,230 @@
+package com.example.demo.moderation;
+
+import com.example.demo.wire.ChatMessageCodec;
+
+/**
+ * Looks for blocked terms in a chat message's content while it is still a SEND frame's payload, before
+ * any converter has turned it into a ChatMessage. Both wire formats are read in place, in one pass and
+ * without allocating:
+ *
+ * - JSON: the value of every "content" key is fed to the automaton with its escapes decoded, so
+ *   writing letters as \\uXXXX doesn't hide a term. Keys are compared decoded too. Other fields
+ *   aren't scanned.
+ * - the binary format (see ChatMessageCodec): the content bytes, found from the header.
+ *
+ * Malformed input is scanned as far as it goes; the converter rejects it afterwards anyway. JSON in
+ * another encoding isn't: Jackson would read UTF-16 or UTF-32 fine, but its bytes never match a term,
+ * so callers check {@link #isUtf8Object(byte[])} first.
+ */
+public final class MessageContentScanner {
+
+    private static final byte[] CONTENT_KEY = {'c', 'o', 'n', 't', 'e', 'n', 't'};
+
+    private MessageContentScanner() {
+    }
+
+    /** The index of a blocked term in the content of a JSON chat message, or -1. */
+    public static int scanJson(Blocklist blocklist, byte[] json) {
+        boolean contentValue = false; // the last thing read was a "content" key and its colon
+        int i = 0;
+        while (i < json.length) {
+            byte b = json[i];
+            if (b == '"') {
+                if (contentValue) {
+                    int result = scanString(blocklist, json, i + 1);
+                    if (result >= 0) {
+                        return result;
+                    }
+                    i = ~result;
+                    contentValue = false;
+                } else {
+                    // A key if a colon follows it
+                    int end = skipString(json, i + 1);
+                    int colon = skipWhitespace(json, end);
+                    if (colon < json.length && json[colon] == ':' && isContentKey(json, i + 1, end - 1)) {
+                        contentValue = true;
+                        i = colon + 1;
+                    } else {
+                        i = end;
+                    }
+                }
+            } else {
+                if (contentValue && !isWhitespace(b)) {
+                    contentValue = false; // not a string (null, a number...)
+                }
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether a JSON payload can only be read as UTF-8: it starts with '{' (after whitespace, so no byte
+     * order mark) and has no NUL byte, which UTF-8 JSON never contains but UTF-16 and UTF-32 text
+     * without a byte order mark always does.
+     */
+    public static boolean isUtf8Object(byte[] json) {
+        int start = skipWhitespace(json, 0);
+        if (start == json.length || json[start] != '{') {
+            return false;
+        }
+        for (int i = start + 1; i < json.length; i++) {
+            if (json[i] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The index of a blocked term in the content of a binary chat message, or -1. */
+    public static int scanBinary(Blocklist blocklist, byte[] message) {
+        long bounds = ChatMessageCodec.contentBounds(message);
+        if (bounds < 0) {
+            return -1;
+        }
+        int offset = (int) (bounds >>> 32);
+        return blocklist.find(message, offset, offset + (int) bounds);
+    }
+
+    // Scans a string's decoded bytes from just after its opening quote. Returns the index of a term found,
+    // or, if none, ~(index after the closing quote).
+    private static int scanString(Blocklist blocklist, byte[] json, int from) {
+        int state = Blocklist.START;
+        int highSurrogate = 0; // from a \\u escape, waiting for its low half
+        int i = from;
+        while (i < json.length) {
+            byte b = json[i];
+            if (b == '"') {
+                return ~(i + 1);
+            }
+            if (b != '\\') {
+                state = blocklist.step(state, b);
+                highSurrogate = 0;
+                i++;
+            } else if (i + 1 < json.length && json[i + 1] == 'u') {
+                int c = i + 6 <= json.length ? hex4(json, i + 2) : -1;
+                i += c >= 0 ? 6 : 2;
+                if (c < 0) {
+                    continue;
+                }
+                if (Character.isHighSurrogate((char) c)) {
+                    highSurrogate = c;
+                    continue;
+                }
+                int codePoint = c;
+                if (Character.isLowSurrogate((char) c)) {
+                    if (highSurrogate == 0) {
+                        continue; // a lone half isn't text
+                    }
+                    codePoint = Character.toCodePoint((char) highSurrogate, (char) c);
+                }
+                state = stepUtf8(blocklist, state, codePoint);
+                highSurrogate = 0;
+            } else if (i + 1 < json.length) {
+                state = blocklist.step(state, unescape(json[i + 1]));
+                highSurrogate = 0;
+                i += 2;
+            } else {
+                break;
+            }
+            // Terms are whole characters, so a match always ends on a character's last byte
+            if (blocklist.termAt(state) >= 0) {
+                return blocklist.termAt(state);
+            }
+        }
+        return ~json.length;
+    }
+
+    // Feeds a code point's UTF-8 bytes
+    private static int stepUtf8(Blocklist blocklist, int state, int codePoint) {
+        if (codePoint < 0x80) {
+            return blocklist.step(state, (byte) codePoint);
+        }
+        if (codePoint < 0x800) {
+            state = blocklist.step(state, (byte) (0xC0 | codePoint >> 6));
+        } else {
+            if (codePoint < 0x10000) {
+                state = blocklist.step(state, (byte) (0xE0 | codePoint >> 12));
+            } else {
+                state = blocklist.step(state, (byte) (0xF0 | codePoint >> 18));
+                state = blocklist.step(state, (byte) (0x80 | (codePoint >> 12 & 0x3F)));
+            }
+            state = blocklist.step(state, (byte) (0x80 | (codePoint >> 6 & 0x3F)));
+        }
+        return blocklist.step(state, (byte) (0x80 | (codePoint & 0x3F)));
+    }
+
+    // Index after the closing quote of a string starting at from
+    private static int skipString(byte[] json, int from) {
+        for (int i = from; i < json.length; i++) {
+            if (json[i] == '\\') {
+                i++;
+            } else if (json[i] == '"') {
+                return i + 1;
+            }
+        }
+        return json.length;
+    }
+
+    // Whether the key between from and to (exclusive, without quotes) decodes to "content"
+    private static boolean isContentKey(byte[] json, int from, int to) {
+        int matched = 0;
+        int i = from;
+        while (i < to) {
+            int c;
+            if (json[i] != '\\') {
+                c = json[i] & 0xFF;
+                i++;
+            } else if (i + 1 < to && json[i + 1] == 'u') {
+                c = i + 6 <= to ? hex4(json, i + 2) : -1;
+                i += 6;
+            } else if (i + 1 < to) {
+                c = unescape(json[i + 1]);
+                i += 2;
+            } else {
+                return false;
+            }
+            if (matched == CONTENT_KEY.length || c != CONTENT_KEY[matched]) {
+                return false;
+            }
+            matched++;
+        }
+        return matched == CONTENT_KEY.length;
+    }
+
+    private static int skipWhitespace(byte[] json, int from) {
+        int i = from;
+        while (i < json.length && isWhitespace(json[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static byte unescape(byte escaped) {
+        return switch (escaped) {
+            case 'n' -> '\n';
+            case 't' -> '\t';
+            case 'r' -> '\r';
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            default -> escaped; // \" \\ \/
+        };
+    }
+
+    // The four hex digits at from as a char, or -1
+    private static int hex4(byte[] json, int from) {
+        int value = 0;
+        for (int i = from; i < from + 4; i++) {
+            int digit = Character.digit(json[i], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.demo.moderation;
+
+import com.example.demo.ratelimit.RejectMode;
+import com.example.demo.wire.BinaryChatMessageConverter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Drops chat messages whose content contains a blocked term or link, before they reach ChatController.
+ *
+ * Runs on the inbound channel for the SEND destinations in chat.moderation.destinations, on the raw
+ * payload (see MessageContentScanner), with whatever list BlocklistService has at that moment. A blocked
+ * frame is answered like a throttled one (see RejectMode), with a message that doesn't say which term it
+ * was; the term is logged at debug level. A JSON payload that isn't UTF-8 can't be scanned and is
+ * rejected the same way.
+ */
+@Component
+public class ModerationChannelInterceptor implements ChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(ModerationChannelInterceptor.class);
+
+    private final MessageChannel clientOutboundChannel;
+    private final BlocklistService blocklistService;
+    private final RejectMode rejectMode;
+    private final Map<String, Counter> blockedCounters = new HashMap<>();
+
+    // The outbound channel is created after the configurer that registers this interceptor, hence @Lazy
+    public ModerationChannelInterceptor(@Lazy @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                                        BlocklistService blocklistService,
+                                        MeterRegistry meterRegistry,
+                                        @Value("${chat.moderation.destinations:/app/chat.sendMessage,/app/chat.sendPrivateMessage,/app/room.send}") String[] destinations,
+                                        @Value("${chat.moderation.on-reject:receipt}") RejectMode rejectMode) {
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.blocklistService = blocklistService;
+        this.rejectMode = rejectMode;
+        for (String destination : destinations) {
+            if (!destination.isBlank()) {
+                blockedCounters.put(destination.strip(), Counter.builder("chat.moderation.blocked")
+                        .tag("destination", destination.strip())
+                        .description("SEND frames dropped for containing a blocked term")
+                        .register(meterRegistry));
+            }
+        }
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.SEND.equals(accessor.getCommand())) {
+            return message;
+        }
+        String destination = accessor.getDestination();
+        Counter blocked = destination != null ? blockedCounters.get(destination) : null;
+        Blocklist blocklist = blocklistService.current();
+        if (blocked == null || blocklist.isEmpty() || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+
+        boolean binary = BinaryChatMessageConverter.MIME_TYPE.equals(accessor.getContentType());
+        if (!binary && !MessageContentScanner.isUtf8Object(payload)) {
+            blocked.increment();
+            log.debug("Blocked SEND to {} in session {}: not UTF-8 JSON", destination, accessor.getSessionId());
+            reject(accessor, "Message to " + destination + " must be UTF-8 JSON");
+            return null;
+        }
+        int term = binary
+                ? MessageContentScanner.scanBinary(blocklist, payload)
+                : MessageContentScanner.scanJson(blocklist, payload);
+        if (term < 0) {
+            return message;
+        }
+
+        blocked.increment();
+        log.debug("Blocked SEND to {} in session {}: contains \"{}\"", destination, accessor.getSessionId(), blocklist.term(term));
+        reject(accessor, "Message to " + destination + " blocked by moderation");
+        return null;
+    }
+
+    // Same replies as the rate limiter, minus retry-after: sending it again won't help
+    private void reject(StompHeaderAccessor frame, String text) {
+        StompHeaderAccessor reply = StompHeaderAccessor.create(
+                rejectMode == RejectMode.ERROR ? StompCommand.ERROR : StompCommand.RECEIPT);
+        reply.setSessionId(frame.getSessionId());
+        reply.setMessage(text);
+        if (frame.getReceipt() != null) {
+            reply.setReceiptId(frame.getReceipt());
+        }
+        clientOutboundChannel.send(MessageBuilder.createMessage(new byte[0], reply.getMessageHeaders()));
+    }
+}
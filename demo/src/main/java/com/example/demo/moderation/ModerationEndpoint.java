@@ -0,0 +1,35 @@
+package com.example.demo.moderation;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+// Shows the blocklist's size (GET /actuator/moderation, admins only); reload() reads the file again right away.
+// A reload recompiles the automaton, so it's on JMX, not the web (see application.properties)
+@Component
+@Endpoint(id = "moderation")
+public class ModerationEndpoint {
+
+    public record Status(int terms, int states, boolean reloaded) {
+    }
+
+    private final BlocklistService blocklistService;
+
+    public ModerationEndpoint(BlocklistService blocklistService) {
+        this.blocklistService = blocklistService;
+    }
+
+    @ReadOperation
+    public Status status() {
+        Blocklist blocklist = blocklistService.current();
+        return new Status(blocklist.size(), blocklist.states(), true);
+    }
+
+    @WriteOperation
+    public Status reload() {
+        boolean reloaded = blocklistService.reload();
+        Blocklist blocklist = blocklistService.current();
+        return new Status(blocklist.size(), blocklist.states(), reloaded);
+    }
+}
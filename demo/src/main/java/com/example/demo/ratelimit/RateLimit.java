@@ -0,0 +1,47 @@
+package com.example.demo.ratelimit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sustained rate (permits per second) and burst size for one destination.
+ */
+record RateLimit(double permitsPerSecond, int burst) {
+
+    RateLimit {
+        if (!(permitsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Rate limit needs a positive rate and a burst of at least 1");
+        }
+    }
+
+    long emissionIntervalNanos() {
+        return Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+    }
+
+    /**
+     * Parses "destination=rate:burst" entries separated by commas, e.g.
+     * "/app/chat.sendMessage=5:20,/app/chat.sendPrivateMessage=2.5:10". The burst defaults to 1.
+     */
+    static Map<String, RateLimit> parse(String spec) {
+        Map<String, RateLimit> limits = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int eq = entry.lastIndexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected destination=rate:burst but got '" + entry.trim() + "'");
+            }
+            String destination = entry.substring(0, eq).trim();
+            String[] rateAndBurst = entry.substring(eq + 1).trim().split(":");
+            try {
+                double rate = Double.parseDouble(rateAndBurst[0]);
+                int burst = rateAndBurst.length > 1 ? Integer.parseInt(rateAndBurst[1]) : 1;
+                limits.put(destination, new RateLimit(rate, burst));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad rate limit for " + destination + ": '" + entry.trim() + "'", e);
+            }
+        }
+        return limits;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.demo.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throttles STOMP SEND frames per user and destination with a {@link TokenBucket} each.
+ *
+ * Only destinations listed in chat.rate-limit.limits are limited. A throttled frame never reaches the
+ * controller; the client is told through a RECEIPT or ERROR frame, see {@link RejectMode}. The frame has
+ * to be answered from here: with preserveReceiveOrder the inbound channel swallows exceptions thrown by
+ * interceptors, so throwing would only drop it silently.
+ *
+ * Buckets live in a ConcurrentHashMap and are removed by a sweeper once they've been full for the
+ * idle timeout, so the map only holds users that sent something recently.
+ */
+@Component
+public class RateLimitChannelInterceptor implements ChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitChannelInterceptor.class);
+
+    private record Key(String user, String destination) {
+    }
+
+    private final MessageChannel clientOutboundChannel;
+    private final Map<String, RateLimit> limits;
+    private final RejectMode rejectMode;
+    private final long idleTimeoutNanos;
+
+    private final ConcurrentHashMap<Key, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejectedCounters = new HashMap<>();
+    private final Counter evictedCounter;
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "rate-limit-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The outbound channel is created after the configurer that registers this interceptor, hence @Lazy
+    public RateLimitChannelInterceptor(@Lazy @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${chat.rate-limit.limits:}") String limits,
+                                       @Value("${chat.rate-limit.on-reject:receipt}") RejectMode rejectMode,
+                                       @Value("${chat.rate-limit.idle-timeout:5m}") Duration idleTimeout) {
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.limits = RateLimit.parse(limits);
+        this.rejectMode = rejectMode;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+
+        for (String destination : this.limits.keySet()) {
+            rejectedCounters.put(destination, Counter.builder("chat.ratelimit.rejected")
+                    .tag("destination", destination)
+                    .description("SEND frames dropped by the rate limiter")
+                    .register(meterRegistry));
+        }
+        this.evictedCounter = Counter.builder("chat.ratelimit.evicted")
+                .description("Idle rate limit buckets removed")
+                .register(meterRegistry);
+        Gauge.builder("chat.ratelimit.buckets", buckets, ConcurrentHashMap::size)
+                .description("Rate limit buckets in memory (user and destination pairs)")
+                .register(meterRegistry);
+
+        long sweepMillis = Math.max(1000, idleTimeout.toMillis() / 2);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        log.info("Rate limits: {} (on reject: {})", this.limits, rejectMode);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.SEND.equals(accessor.getCommand())) {
+            return message;
+        }
+        String destination = accessor.getDestination();
+        RateLimit limit = destination != null ? limits.get(destination) : null;
+        if (limit == null) {
+            return message;
+        }
+
+        // Sessions without a user (no valid token on CONNECT) are limited on their own
+        Principal user = accessor.getUser();
+        Key key = new Key(user != null ? user.getName() : "session:" + accessor.getSessionId(), destination);
+        long wait = buckets.computeIfAbsent(key, k -> new TokenBucket(limit)).tryAcquire(System.nanoTime());
+        if (wait == 0) {
+            return message;
+        }
+
+        rejectedCounters.get(destination).increment();
+        reject(accessor, destination, TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+        return null;
+    }
+
+    private void reject(StompHeaderAccessor frame, String destination, long retryAfterMillis) {
+        log.debug("Throttled SEND to {} from {} in session {}", destination, frame.getUser(), frame.getSessionId());
+        StompHeaderAccessor reply = StompHeaderAccessor.create(
+                rejectMode == RejectMode.ERROR ? StompCommand.ERROR : StompCommand.RECEIPT);
+        reply.setSessionId(frame.getSessionId());
+        reply.setMessage("Rate limit exceeded for " + destination);
+        reply.setNativeHeader("retry-after", Long.toString(retryAfterMillis));
+        if (frame.getReceipt() != null) {
+            reply.setReceiptId(frame.getReceipt());
+        }
+        clientOutboundChannel.send(MessageBuilder.createMessage(new byte[0], reply.getMessageHeaders()));
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        // A bucket that's been full for the whole timeout is the same as a new one,
+        // so a sender racing with its removal gets at most one extra permit
+        buckets.values().removeIf(bucket -> {
+            if (bucket.idleSince(now, idleTimeoutNanos)) {
+                evictedCounter.increment();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        sweeper.shutdownNow();
+    }
+}
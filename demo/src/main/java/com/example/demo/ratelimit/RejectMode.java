@@ -0,0 +1,17 @@
+package com.example.demo.ratelimit;
+
+/**
+ * How a client is told that one of its SEND frames was throttled (or blocked by moderation). The frame is
+ * dropped either way.
+ */
+public enum RejectMode {
+
+    /**
+     * Reply with a RECEIPT frame carrying "message" and, when throttled, "retry-after" (milliseconds) headers,
+     * and the frame's own receipt id if it asked for one. The session stays open.
+     */
+    RECEIPT,
+
+    /** Reply with an ERROR frame, which per STOMP also closes the session. */
+    ERROR
+}
@@ -0,0 +1,45 @@
+package com.example.demo.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, kept as a single "theoretical arrival time" (the GCRA form of a token bucket).
+ *
+ * Every permit pushes the arrival time one emission interval (1 / rate) further; a permit is refused
+ * when that would put it more than burst intervals ahead of now. The whole state is one AtomicLong,
+ * so tryAcquire() is a read and a CAS, and an idle bucket is simply one whose arrival time has passed.
+ */
+class TokenBucket {
+
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+
+    // Starts far in the past, i.e. full (nanoTime() may be negative)
+    private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+    TokenBucket(RateLimit limit) {
+        this.emissionIntervalNanos = limit.emissionIntervalNanos();
+        this.burstNanos = emissionIntervalNanos * limit.burst();
+    }
+
+    /** Takes one permit; returns 0 if granted, else how many nanoseconds until one is available. */
+    long tryAcquire(long nowNanos) {
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, nowNanos) + emissionIntervalNanos;
+            long ahead = next - nowNanos;
+            if (ahead > burstNanos) {
+                return ahead - burstNanos;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /** True if the bucket has been full for at least idleNanos, so forgetting it changes nothing. */
+    boolean idleSince(long nowNanos, long idleNanos) {
+        long current = arrival.get();
+        return current == Long.MIN_VALUE || nowNanos - current >= idleNanos;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.Attachment;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface AttachmentRepository extends JpaRepository<Attachment, String> {
+    // Uploads started before the cutoff and never finished (for the expiry sweep)
+    List<Attachment> findBySha256IsNullAndCreatedAtBefore(long createdBefore);
+}
@@ -1,10 +1,26 @@
 package com.example.demo.repository;
 
+import com.example.demo.dto.UserDto;
 import com.example.demo.model.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     // This method lets us find a user by their username
     Optional<User> findByUsername(String username);
-}
\ No newline at end of file
+
+    // Keyset page of (id, username) in username order, without loading entities or password hashes
+    @Query("select new com.example.demo.dto.UserDto(u.id, u.username) from User u where u.username > :after order by u.username")
+    List<UserDto> findDirectoryPage(@Param("after") String after, Limit limit);
+
+    // Which of these usernames are taken, in one query (for bulk registration)
+    @Query("select u.username from User u where u.username in :usernames")
+    Set<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+}
@@ -0,0 +1,185 @@
+package com.example.demo.resume;
+
+import com.example.demo.dto.SessionInfo;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.revocation.TokenId;
+import com.example.demo.service.VerifiedToken;
+import com.example.demo.room.RoomService;
+import com.example.demo.store.MessageStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a client whose connection dropped come back cheaply and catch up on what it missed.
+ *
+ * Every authenticated STOMP session gets a random resume token on CONNECT (the client fetches it from
+ * /app/session, see SessionController). A later CONNECT with that token in a "resume-token" header
+ * gets the same identity back without parsing a JWT or loading the user. Tokens are single use: the
+ * resumed session gets a new one. A token is valid while its session is connected and for
+ * resume-window after it ends, and never past the expiry of the JWT the first session was opened with.
+ * Revoking that JWT, or its user, revokes the resume tokens that came from it as well.
+ *
+ * Missed messages come from MessageStore's in-memory ring of recent messages: everything after the
+ * last id the client saw in the public room, its rooms, and private messages it sent from another
+ * session. Private messages to it aren't replayed: while it had no session they went to its offline
+ * mailbox, which is drained as soon as it subscribes again.
+ */
+@Service
+public class SessionResumeService {
+
+    public static final String RESUME_TOKEN_HEADER = "resume-token";
+    // Session attribute, set on sessions opened with a resume token
+    public static final String RESUMED_ATTRIBUTE = "chat.resumed";
+
+    /** Who a resumed session belongs to, and the JWT its first session was opened with. */
+    public record Resumed(Authentication user, VerifiedToken token) {
+    }
+
+    // token: the JWT behind it, which it doesn't outlive
+    private record Resumable(Authentication user, VerifiedToken token, boolean connected) {
+
+        long notAfter() {
+            return token.expiration().getTime();
+        }
+    }
+
+    private final MessageStore messageStore;
+    private final RoomService roomService;
+    private final int maxReplay;
+    private final long windowNanos;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Cache<String, Resumable> tokens;
+    private final ConcurrentHashMap<String, String> sessionTokens = new ConcurrentHashMap<>();
+
+    private final Counter resumedCounter;
+    private final Counter rejectedCounter;
+    private final DistributionSummary replayed;
+
+    public SessionResumeService(MessageStore messageStore,
+                                RoomService roomService,
+                                MeterRegistry meterRegistry,
+                                @Value("${chat.resume.window:2m}") Duration window,
+                                @Value("${chat.resume.max-replay:500}") int maxReplay) {
+        this.messageStore = messageStore;
+        this.roomService = roomService;
+        this.maxReplay = maxReplay;
+        this.windowNanos = window.toNanos();
+        this.tokens = Caffeine.newBuilder()
+                .expireAfter(new Expiry<String, Resumable>() {
+                    @Override
+                    public long expireAfterCreate(String token, Resumable resumable, long currentTime) {
+                        return untilNotAfter(resumable);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, Resumable resumable, long currentTime, long currentDuration) {
+                        return resumable.connected() ? currentDuration : Math.min(windowNanos, untilNotAfter(resumable));
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, Resumable resumable, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+
+        this.resumedCounter = Counter.builder("chat.resume")
+                .tag("result", "resumed")
+                .description("CONNECTs with a resume token")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("chat.resume")
+                .tag("result", "rejected")
+                .description("CONNECTs with a resume token")
+                .register(meterRegistry);
+        this.replayed = DistributionSummary.builder("chat.resume.replayed")
+                .description("Messages replayed to a client that reconnected")
+                .register(meterRegistry);
+    }
+
+    private static long untilNotAfter(Resumable resumable) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(resumable.notAfter() - System.currentTimeMillis(), 0));
+    }
+
+    /** Gives a session that was authenticated with a JWT its resume token. */
+    public void issue(String sessionId, Authentication user, VerifiedToken jwt) {
+        String token = newToken();
+        tokens.put(token, new Resumable(user, jwt, true));
+        sessionTokens.put(sessionId, token);
+    }
+
+    /**
+     * The identity behind a resume token, now moved to the given session (which gets a new token),
+     * or null if the token is unknown, used or expired.
+     */
+    public Resumed resume(String token, String sessionId) {
+        Resumable resumable = tokens.asMap().remove(token);
+        if (resumable == null || resumable.notAfter() <= System.currentTimeMillis()) {
+            rejectedCounter.increment();
+            return null;
+        }
+        resumedCounter.increment();
+        issue(sessionId, resumable.user(), resumable.token());
+        return new Resumed(resumable.user(), resumable.token());
+    }
+
+    /** Drops the resume tokens that came from the JWT with this id. */
+    public void revokeToken(TokenId tokenId) {
+        tokens.asMap().values().removeIf(resumable -> tokenId.equals(resumable.token().id()));
+    }
+
+    /** Drops the user's resume tokens. */
+    public void revokeUser(String username) {
+        tokens.asMap().values().removeIf(resumable -> username.equals(resumable.user().getName()));
+    }
+
+    /** The session's resume token, and what the user missed after {@code lastId} if given. */
+    public SessionInfo sessionInfo(String sessionId, String username, boolean resumed, Long lastId) {
+        String token = sessionTokens.get(sessionId);
+        if (lastId == null) {
+            return new SessionInfo(token, resumed, List.of(), true, messageStore.node());
+        }
+        MessageStore.Replay replay = messageStore.replay(lastId, message -> isReplayedTo(message, username), maxReplay);
+        replayed.record(replay.messages().size());
+        return new SessionInfo(token, resumed, replay.messages(), replay.complete(), messageStore.node());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String token = sessionTokens.remove(event.getSessionId());
+        if (token != null) {
+            // From now on it only lasts the resume window
+            tokens.asMap().computeIfPresent(token, (t, resumable) -> new Resumable(resumable.user(), resumable.token(), false));
+        }
+    }
+
+    private boolean isReplayedTo(ChatMessage message, String username) {
+        if (message.getRoom() != null) {
+            return roomService.isMember(message.getRoom(), username);
+        }
+        String recipient = message.getRecipient();
+        return recipient == null || recipient.isBlank() || username.equals(message.getSender());
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.demo.revocation;
+
+import com.example.demo.service.JwtService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+// Revocation entries (read) and revoking any user or token id (write). Exposed on JMX only by default: on the web
+// it would let a caller log anyone out, so there it needs the ADMIN role (see SecurityConfig).
+@Component
+@Endpoint(id = "revocations")
+public class RevocationEndpoint {
+
+    public record Status(int tokens, int users, int filterBits) {
+    }
+
+    private final RevocationService revocationService;
+
+    public RevocationEndpoint(RevocationService revocationService) {
+        this.revocationService = revocationService;
+    }
+
+    @ReadOperation
+    public Status status() {
+        RevocationSet set = revocationService.current();
+        return new Status(set.tokens(), set.users(), set.filterBits());
+    }
+
+    // A token id alone doesn't say when the token expires, so it is kept for the longest a token can live
+    @WriteOperation
+    public Status revoke(@Nullable String user, @Nullable String token) {
+        if (user != null && !user.isBlank()) {
+            revocationService.revokeUser(user.strip());
+        }
+        TokenId id = TokenId.parse(token);
+        if (id != null) {
+            revocationService.revokeToken(id, System.currentTimeMillis() + JwtService.EXPIRATION_MS);
+        }
+        return status();
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.demo.revocation;
+
+import com.example.demo.resume.SessionResumeService;
+import com.example.demo.service.JwtService;
+import com.example.demo.service.VerifiedToken;
+import com.example.demo.websocket.SlowConsumerGuard;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Revoked JWTs, by token id (logout) or by user (every token the user had, e.g. after a compromise).
+ *
+ * JwtAuthenticationFilter and JwtChannelInterceptor ask {@link #isRevoked} about every token they
+ * accept. That reads the current {@link RevocationSet}, which is rebuilt on the side and swapped in
+ * with one volatile write whenever a revocation is added or purged, so the check never locks.
+ * Revoking also drops the matching resume tokens and closes the matching STOMP sessions, which carry
+ * the user and token id in their attributes from CONNECT on.
+ *
+ * An entry is only needed until the tokens it covers have expired, and is purged after that. The
+ * entries are written to chat.revocation.file after every change and read back on startup. They are
+ * local to this node.
+ *
+ * Metrics: chat.revocation.revoked{kind=token|user}, chat.revocation.rejected, chat.revocation.entries.
+ */
+@Service
+public class RevocationService {
+
+    private static final Logger log = LoggerFactory.getLogger(RevocationService.class);
+
+    // STOMP session attributes, set by JwtChannelInterceptor on CONNECT
+    public static final String USER_ATTRIBUTE = "chat.user";
+    public static final String TOKEN_ID_ATTRIBUTE = "chat.token-id";
+
+    private static final int FILE_VERSION = 1;
+
+    private final SessionResumeService sessionResumeService;
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final Path file;
+    private final Duration purgeInterval;
+
+    // Guarded by this. Token ids with the epoch millis their token expires; users with when they were revoked.
+    private final Map<TokenId, Long> tokens = new HashMap<>();
+    private final Map<String, Long> users = new HashMap<>();
+    private volatile RevocationSet current = RevocationSet.EMPTY;
+
+    private final Counter tokenCounter;
+    private final Counter userCounter;
+    private final Counter rejectedCounter;
+
+    private final ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "revocation-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RevocationService(SessionResumeService sessionResumeService,
+                             SlowConsumerGuard slowConsumerGuard,
+                             MeterRegistry meterRegistry,
+                             @Value("${chat.revocation.file:data/revocations.bin}") Path file,
+                             @Value("${chat.revocation.purge-interval:10m}") Duration purgeInterval) {
+        this.sessionResumeService = sessionResumeService;
+        this.slowConsumerGuard = slowConsumerGuard;
+        this.file = file;
+        this.purgeInterval = purgeInterval;
+
+        this.tokenCounter = Counter.builder("chat.revocation.revoked")
+                .tag("kind", "token")
+                .description("Revocations")
+                .register(meterRegistry);
+        this.userCounter = Counter.builder("chat.revocation.revoked")
+                .tag("kind", "user")
+                .description("Revocations")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("chat.revocation.rejected")
+                .description("Requests and CONNECTs turned away for a revoked token")
+                .register(meterRegistry);
+        Gauge.builder("chat.revocation.entries", this, service -> service.current.tokens() + service.current.users())
+                .description("Revoked token ids and users not yet purged")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        synchronized (this) {
+            load();
+            purge();
+        }
+        long millis = purgeInterval.toMillis();
+        purger.scheduleWithFixedDelay(this::purgeExpired, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        purger.shutdownNow();
+    }
+
+    /** Whether a verified token has been revoked since it was issued. */
+    public boolean isRevoked(VerifiedToken token) {
+        if (current.isRevoked(token.id(), token.username(), token.issuedAt())) {
+            rejectedCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /** Revokes one token, which is still valid until {@code expiresAt} (epoch millis) otherwise. */
+    public void revokeToken(TokenId id, long expiresAt) {
+        synchronized (this) {
+            tokens.merge(id, expiresAt, Math::max);
+            changed();
+        }
+        tokenCounter.increment();
+        sessionResumeService.revokeToken(id);
+        int closed = slowConsumerGuard.close(session -> id.equals(session.getAttributes().get(TOKEN_ID_ATTRIBUTE)),
+                CloseStatus.POLICY_VIOLATION.withReason("Token revoked"));
+        log.info("Revoked token {}, closed {} session(s)", id, closed);
+    }
+
+    /** Revokes every token the user has been issued so far. */
+    public void revokeUser(String username) {
+        synchronized (this) {
+            users.put(username, System.currentTimeMillis());
+            changed();
+        }
+        userCounter.increment();
+        sessionResumeService.revokeUser(username);
+        int closed = slowConsumerGuard.close(session -> username.equals(session.getAttributes().get(USER_ATTRIBUTE)),
+                CloseStatus.POLICY_VIOLATION.withReason("Tokens revoked"));
+        log.info("Revoked all tokens of {}, closed {} session(s)", username, closed);
+    }
+
+    public RevocationSet current() {
+        return current;
+    }
+
+    private void purgeExpired() {
+        try {
+            synchronized (this) {
+                if (purge()) {
+                    changed();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not purge expired revocations", e);
+        }
+    }
+
+    // Drops entries whose tokens have all expired; true if there were any. Caller holds the lock.
+    private boolean purge() {
+        long now = System.currentTimeMillis();
+        boolean purged = tokens.values().removeIf(expiresAt -> expiresAt <= now);
+        purged |= users.values().removeIf(revokedAt -> revokedAt + JwtService.EXPIRATION_MS <= now);
+        return purged;
+    }
+
+    // Publishes and saves the entries. Caller holds the lock.
+    private void changed() {
+        current = RevocationSet.build(tokens, users);
+        try {
+            save();
+        } catch (IOException e) {
+            // Still in force on this node until it restarts
+            log.error("Could not save revocations to {}", file, e);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unknown revocation file version " + version);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                tokens.put(new TokenId(in.readLong(), in.readLong()), in.readLong());
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                users.put(in.readUTF(), in.readLong());
+            }
+        }
+        current = RevocationSet.build(tokens, users);
+        log.info("Loaded {} revoked token(s) and {} revoked user(s)", tokens.size(), users.size());
+    }
+
+    // Written next to the file and moved over it, so a crash never leaves half a list
+    private void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(tokens.size());
+            for (Map.Entry<TokenId, Long> entry : tokens.entrySet()) {
+                out.writeLong(entry.getKey().high());
+                out.writeLong(entry.getKey().low());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(users.size());
+            for (Map.Entry<String, Long> entry : users.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.demo.revocation;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * A JWT's id (its "jti" claim): 128 random bits, written as 22 characters of unpadded base64url.
+ * Kept as two longs so comparing and hashing ids never touches a string.
+ */
+public record TokenId(long high, long low) implements Comparable<TokenId> {
+
+    public static TokenId random(SecureRandom random) {
+        return new TokenId(random.nextLong(), random.nextLong());
+    }
+
+    /** The id written by {@link #toString()}, or null if the text isn't one. */
+    public static TokenId parse(String text) {
+        if (text == null || text.length() != 22) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = high << 8 | (bytes[i] & 0xFF);
+            low = low << 8 | (bytes[i + 8] & 0xFF);
+        }
+        return new TokenId(high, low);
+    }
+
+    @Override
+    public int compareTo(TokenId other) {
+        int c = Long.compare(high, other.high);
+        return c != 0 ? c : Long.compare(low, other.low);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,5 @@
+package com.example.demo.room;
+
+// A chat room; its messages go to /topic/room.{id}
+public record Room(String id, String name, String owner) {
+}
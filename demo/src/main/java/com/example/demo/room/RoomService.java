@@ -0,0 +1,240 @@
+package com.example.demo.room;
+
+import com.example.demo.ephemeral.EphemeralLane;
+import com.example.demo.model.ChatMessage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chat rooms: creating them, joining and leaving, and who is in which room.
+ *
+ * Kept in memory, like presence, as two concurrent indexes: room -> members and user -> rooms, so both
+ * "who is in this room" and "which rooms am I in" are a map lookup. A user's entry is only changed
+ * inside compute() on that user, which makes join, leave and subscribe atomic per user.
+ *
+ * A room's messages go to /topic/room.{id}, its typing events to /topic/room.{id}.typing. Only members may subscribe to it (checked for every
+ * SUBSCRIBE by RoomSubscriptionInterceptor), and leaving a room ends the user's subscriptions to it at
+ * the broker, so a former member stops receiving at once. The sharded broker dispatches each room on
+ * its own partition thread (see ShardedBrokerPostProcessor).
+ */
+@Service
+public class RoomService {
+
+    public static final String TOPIC_PREFIX = "/topic/room.";
+
+    private static final int MAX_NAME_LENGTH = 100;
+
+    // Lazy: the template needs the broker, whose configuration needs RoomSubscriptionInterceptor, which needs this
+    private final SimpMessagingTemplate messagingTemplate;
+
+    // Rooms don't survive a restart but their history does, so ids continue from the clock rather than from 1
+    private final AtomicLong lastId = new AtomicLong(System.currentTimeMillis());
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> members = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Membership> users = new ConcurrentHashMap<>();
+
+    // One user's rooms, and their sessions' subscriptions to room topics
+    private static final class Membership {
+
+        // Unordered: any string from a destination may be looked up here; roomsOf() sorts
+        private final Set<String> rooms = new HashSet<>();
+        // sessionId -> subscriptionId -> room id
+        private final Map<String, Map<String, String>> subscriptions = new HashMap<>();
+    }
+
+    private record Subscription(String sessionId, String subscriptionId) {
+    }
+
+    public RoomService(@Lazy SimpMessagingTemplate messagingTemplate, MeterRegistry meterRegistry) {
+        this.messagingTemplate = messagingTemplate;
+        Gauge.builder("chat.rooms", rooms, Map::size)
+                .description("Chat rooms")
+                .register(meterRegistry);
+    }
+
+    public static String topicOf(String roomId) {
+        return TOPIC_PREFIX + roomId;
+    }
+
+    // Where the room's typing events go (see EphemeralLane); same members-only rule as the room's topic
+    public static String typingTopicOf(String roomId) {
+        return topicOf(roomId) + EphemeralLane.TYPING_SUFFIX;
+    }
+
+    // The room id of a room topic or a room's typing topic, or null for any other destination
+    public static String roomOf(String destination) {
+        if (destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+            return null;
+        }
+        String room = destination.substring(TOPIC_PREFIX.length());
+        return room.endsWith(EphemeralLane.TYPING_SUFFIX) ? room.substring(0, room.length() - EphemeralLane.TYPING_SUFFIX.length()) : room;
+    }
+
+    /** Creates a room, with its owner as the first member. Throws IllegalArgumentException for a bad name. */
+    public Room create(String name, String owner) {
+        String trimmed = name != null ? name.trim() : "";
+        if (trimmed.isEmpty() || trimmed.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Room name must be 1 to " + MAX_NAME_LENGTH + " characters");
+        }
+        Room room = new Room(Long.toString(lastId.incrementAndGet()), trimmed, owner);
+        members.put(room.id(), ConcurrentHashMap.newKeySet());
+        rooms.put(room.id(), room);
+        join(room.id(), owner);
+        return room;
+    }
+
+    public Optional<Room> find(String roomId) {
+        return Optional.ofNullable(rooms.get(roomId));
+    }
+
+    // All rooms, oldest first
+    public List<Room> list() {
+        List<Room> all = new ArrayList<>(rooms.values());
+        all.sort(Comparator.comparingLong(room -> Long.parseLong(room.id())));
+        return all;
+    }
+
+    // The user's rooms, oldest first
+    public List<Room> roomsOf(String username) {
+        List<Room> result = new ArrayList<>();
+        users.computeIfPresent(username, (user, membership) -> {
+            for (String roomId : membership.rooms) {
+                result.add(rooms.get(roomId));
+            }
+            return membership;
+        });
+        result.sort(Comparator.comparingLong(room -> Long.parseLong(room.id())));
+        return result;
+    }
+
+    public boolean isMember(String roomId, String username) {
+        Set<String> roomMembers = members.get(roomId);
+        return roomMembers != null && roomMembers.contains(username);
+    }
+
+    public int memberCount(String roomId) {
+        Set<String> roomMembers = members.get(roomId);
+        return roomMembers != null ? roomMembers.size() : 0;
+    }
+
+    // Members sorted by name
+    public List<String> members(String roomId) {
+        Set<String> roomMembers = members.get(roomId);
+        return roomMembers != null ? roomMembers.stream().sorted().toList() : List.of();
+    }
+
+    /** Adds the user to the room and tells its members; false if there's no such room. */
+    public boolean join(String roomId, String username) {
+        Set<String> roomMembers = members.get(roomId);
+        if (roomMembers == null) {
+            return false;
+        }
+        boolean[] joined = new boolean[1];
+        users.compute(username, (user, membership) -> {
+            Membership updated = membership != null ? membership : new Membership();
+            if (updated.rooms.add(roomId)) {
+                roomMembers.add(user);
+                joined[0] = true;
+            }
+            return updated;
+        });
+        if (joined[0]) {
+            announce(roomId, username, ChatMessage.MessageType.JOIN);
+        }
+        return true;
+    }
+
+    /** Removes the user from the room, ends their subscriptions to it and tells the rest; false if there's no such room. */
+    public boolean leave(String roomId, String username) {
+        Set<String> roomMembers = members.get(roomId);
+        if (roomMembers == null) {
+            return false;
+        }
+        boolean[] left = new boolean[1];
+        List<Subscription> ended = new ArrayList<>();
+        users.computeIfPresent(username, (user, membership) -> {
+            if (membership.rooms.remove(roomId)) {
+                roomMembers.remove(user);
+                left[0] = true;
+                membership.subscriptions.forEach((sessionId, subscriptions) ->
+                        subscriptions.entrySet().removeIf(subscription -> {
+                            if (!roomId.equals(subscription.getValue())) {
+                                return false;
+                            }
+                            ended.add(new Subscription(sessionId, subscription.getKey()));
+                            return true;
+                        }));
+            }
+            return membership;
+        });
+        // The broker takes UNSUBSCRIBE from the application as it does from clients
+        for (Subscription subscription : ended) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+            accessor.setSessionId(subscription.sessionId());
+            accessor.setSubscriptionId(subscription.subscriptionId());
+            messagingTemplate.getMessageChannel().send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+        }
+        if (left[0]) {
+            announce(roomId, username, ChatMessage.MessageType.LEAVE);
+        }
+        return true;
+    }
+
+    /**
+     * Records a subscription to a room topic if the user is a member; false means it must be refused.
+     * (A SUBSCRIBE still on its way to the broker when the user leaves the same room isn't undone.)
+     */
+    boolean subscribe(String sessionId, String subscriptionId, String roomId, String username) {
+        boolean[] allowed = new boolean[1];
+        users.computeIfPresent(username, (user, membership) -> {
+            if (membership.rooms.contains(roomId)) {
+                membership.subscriptions.computeIfAbsent(sessionId, id -> new HashMap<>()).put(subscriptionId, roomId);
+                allowed[0] = true;
+            }
+            return membership;
+        });
+        return allowed[0];
+    }
+
+    void unsubscribe(String sessionId, String subscriptionId, String username) {
+        users.computeIfPresent(username, (user, membership) -> {
+            Map<String, String> subscriptions = membership.subscriptions.get(sessionId);
+            if (subscriptions != null) {
+                subscriptions.remove(subscriptionId);
+            }
+            return membership;
+        });
+    }
+
+    void disconnect(String sessionId, String username) {
+        users.computeIfPresent(username, (user, membership) -> {
+            membership.subscriptions.remove(sessionId);
+            return membership;
+        });
+    }
+
+    private void announce(String roomId, String username, ChatMessage.MessageType type) {
+        ChatMessage message = new ChatMessage();
+        message.setType(type);
+        message.setSender(username);
+        message.setRoom(roomId);
+        messagingTemplate.convertAndSend(topicOf(roomId), message);
+    }
+}
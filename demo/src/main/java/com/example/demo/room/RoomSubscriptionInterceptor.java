@@ -0,0 +1,69 @@
+package com.example.demo.room;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import java.security.Principal;
+
+/**
+ * Lets only a room's members subscribe to its topic, and tells RoomService about room subscriptions
+ * as they come and go. Pattern subscriptions under /topic are refused too. A refused SUBSCRIBE is
+ * dropped; the session stays open.
+ */
+@Component
+public class RoomSubscriptionInterceptor implements ChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomSubscriptionInterceptor.class);
+
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final RoomService roomService;
+
+    public RoomSubscriptionInterceptor(RoomService roomService) {
+        this.roomService = roomService;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+        Principal user = accessor.getUser();
+        switch (accessor.getCommand()) {
+            case SUBSCRIBE -> {
+                // The simple broker matches Ant patterns, and /topic/** would take in every room
+                if (PATH_MATCHER.isPattern(accessor.getDestination()) && accessor.getDestination().startsWith("/topic")) {
+                    log.debug("Refused pattern subscription {} for {}", accessor.getDestination(), user);
+                    return null;
+                }
+                String roomId = RoomService.roomOf(accessor.getDestination());
+                if (roomId != null && (user == null || !roomService.subscribe(accessor.getSessionId(),
+                        accessor.getSubscriptionId(), roomId, user.getName()))) {
+                    log.debug("Refused subscription to room {} for {}: not a member", roomId, user);
+                    return null;
+                }
+            }
+            case UNSUBSCRIBE -> {
+                if (user != null) {
+                    roomService.unsubscribe(accessor.getSessionId(), accessor.getSubscriptionId(), user.getName());
+                }
+            }
+            case DISCONNECT -> {
+                if (user != null) {
+                    roomService.disconnect(accessor.getSessionId(), user.getName());
+                }
+            }
+            default -> {
+            }
+        }
+        return message;
+    }
+}
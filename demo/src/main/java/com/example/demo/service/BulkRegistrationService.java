@@ -0,0 +1,219 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.RegisterRequest;
+import com.example.demo.dto.RegistrationResult;
+import com.example.demo.dto.RegistrationResult.Status;
+import com.example.demo.model.User;
+import com.example.demo.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers many users in one go, for onboarding a whole tenant.
+ *
+ * Per request: one query finds which usernames are taken, passwords are hashed in parallel on the
+ * "bulk-register-" threads (half the cores by default, so logins keep the rest; idle threads go away),
+ * and the new users are inserted in a single transaction, which Hibernate sends as JDBC batches (users
+ * get ids from a pooled sequence, see User). Every user gets a result, in request order: CREATED,
+ * DUPLICATE or INVALID.
+ *
+ * Only max-concurrent requests run at a time; another one is turned away at once with
+ * RejectedExecutionException rather than queued, like a login when the login pool is full.
+ *
+ * If someone registers one of the names between the check and the insert, the insert fails on the
+ * unique constraint; the check is then run again and the insert retried once without the taken names.
+ */
+@Service
+public class BulkRegistrationService {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkRegistrationService.class);
+
+    private final UserRepository userRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final CachingUserDetailsService userDetailsService;
+    private final UserDirectory userDirectory;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxBatchSize;
+
+    private final ThreadPoolExecutor hashers;
+    private final Semaphore running;
+
+    private final Timer timer;
+    private final Map<Status, Counter> userCounters = new EnumMap<>(Status.class);
+
+    public BulkRegistrationService(UserRepository userRepository,
+                                   PasswordEncoder passwordEncoder,
+                                   CachingUserDetailsService userDetailsService,
+                                   UserDirectory userDirectory,
+                                   TransactionTemplate transactionTemplate,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${chat.registration.max-batch-size:1000}") int maxBatchSize,
+                                   @Value("${chat.registration.threads:0}") int threads,
+                                   @Value("${chat.registration.max-concurrent:1}") int maxConcurrent) {
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.userDetailsService = userDetailsService;
+        this.userDirectory = userDirectory;
+        this.transactionTemplate = transactionTemplate;
+        this.maxBatchSize = maxBatchSize;
+
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("bulk-register-");
+        threadFactory.setDaemon(true);
+        // Each running request queues at most one slice per thread, so this queue is never full
+        this.hashers = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(poolSize * maxConcurrent), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.hashers.allowCoreThreadTimeOut(true);
+        this.running = new Semaphore(maxConcurrent);
+
+        this.timer = Timer.builder("chat.registration.bulk")
+                .description("Bulk registration requests")
+                .register(meterRegistry);
+        for (Status status : Status.values()) {
+            userCounters.put(status, Counter.builder("chat.registration.bulk.users")
+                    .tag("status", status.name().toLowerCase())
+                    .description("Users in bulk registration requests, by outcome")
+                    .register(meterRegistry));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        hashers.shutdownNow();
+    }
+
+    /**
+     * Registers the users; throws IllegalArgumentException if there are more than the allowed batch size,
+     * and RejectedExecutionException if max-concurrent requests are running already.
+     */
+    public List<RegistrationResult> register(List<RegisterRequest> requests) {
+        if (requests.size() > maxBatchSize) {
+            throw new IllegalArgumentException("At most " + maxBatchSize + " users per request");
+        }
+        if (!running.tryAcquire()) {
+            throw new RejectedExecutionException("Too many bulk registrations in progress");
+        }
+        try {
+            return timer.record(() -> registerNow(requests));
+        } finally {
+            running.release();
+        }
+    }
+
+    private List<RegistrationResult> registerNow(List<RegisterRequest> requests) {
+        RegistrationResult[] results = new RegistrationResult[requests.size()];
+
+        // username -> position in the request, for the names that may be created
+        Map<String, Integer> candidates = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            RegisterRequest request = requests.get(i);
+            if (request == null || isBlank(request.username()) || isBlank(request.password())) {
+                String username = request != null ? request.username() : null;
+                results[i] = new RegistrationResult(username, Status.INVALID, null, "Username and password are required");
+            } else if (candidates.putIfAbsent(request.username(), i) != null) {
+                results[i] = new RegistrationResult(request.username(), Status.DUPLICATE, null,
+                        "Listed more than once in this request");
+            }
+        }
+        removeTaken(candidates, results);
+
+        List<User> users = hash(requests, candidates);
+        try {
+            insert(users);
+        } catch (DataIntegrityViolationException e) {
+            log.debug("Bulk insert hit a username registered meanwhile, retrying without it", e);
+            removeTaken(candidates, results);
+            users.removeIf(user -> !candidates.containsKey(user.getUsername()));
+            users.forEach(user -> user.setId(null));
+            insert(users);
+        }
+
+        for (User user : users) {
+            userDetailsService.evict(user.getUsername());
+            userDirectory.add(user.getId(), user.getUsername());
+            results[candidates.get(user.getUsername())] =
+                    new RegistrationResult(user.getUsername(), Status.CREATED, user.getId(), null);
+        }
+        for (RegistrationResult result : results) {
+            userCounters.get(result.status()).increment();
+        }
+        return Arrays.asList(results);
+    }
+
+    // One query for all candidates; taken names get their result and leave the candidates
+    private void removeTaken(Map<String, Integer> candidates, RegistrationResult[] results) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        Set<String> taken = userRepository.findExistingUsernames(candidates.keySet());
+        for (Iterator<Map.Entry<String, Integer>> it = candidates.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Integer> candidate = it.next();
+            if (taken.contains(candidate.getKey())) {
+                results[candidate.getValue()] = new RegistrationResult(candidate.getKey(), Status.DUPLICATE, null,
+                        "Username is already taken");
+                it.remove();
+            }
+        }
+    }
+
+    // bcrypt is the expensive part: split the candidates into one slice per hashing thread
+    private List<User> hash(List<RegisterRequest> requests, Map<String, Integer> candidates) {
+        List<Integer> positions = new ArrayList<>(candidates.values());
+        int slices = Math.min(hashers.getMaximumPoolSize(), positions.size());
+        List<CompletableFuture<List<User>>> hashed = new ArrayList<>(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            List<Integer> mine = positions.subList(positions.size() * slice / slices, positions.size() * (slice + 1) / slices);
+            hashed.add(CompletableFuture.supplyAsync(() -> {
+                List<User> users = new ArrayList<>(mine.size());
+                for (int position : mine) {
+                    RegisterRequest request = requests.get(position);
+                    User user = new User();
+                    user.setUsername(request.username());
+                    user.setPassword(passwordEncoder.encode(request.password()));
+                    users.add(user);
+                }
+                return users;
+            }, hashers));
+        }
+        List<User> users = new ArrayList<>(positions.size());
+        for (CompletableFuture<List<User>> slice : hashed) {
+            users.addAll(slice.join());
+        }
+        return users;
+    }
+
+    private void insert(List<User> users) {
+        if (!users.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> userRepository.saveAll(users));
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
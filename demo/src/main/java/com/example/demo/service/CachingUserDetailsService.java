@@ -0,0 +1,62 @@
+package com.example.demo.service;
+
+import com.example.demo.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * UserDetailsService that keeps recently used users in memory.
+ * A miss loads from UserRepository exactly once per username, even if many threads miss at the same time.
+ * Hit/miss counters are published to Micrometer as the "userDetails" cache.
+ * Every user has the USER role; the ones named in chat.admin.users have ADMIN too.
+ */
+public class CachingUserDetailsService implements UserDetailsService, MeterBinder {
+
+    private final LoadingCache<String, UserDetails> cache;
+
+    public CachingUserDetailsService(UserRepository userRepository, long maxSize, Duration ttl, Set<String> admins) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build(username -> userRepository.findByUsername(username)
+                        .map(user -> User.builder()
+                                .username(user.getUsername())
+                                .password(user.getPassword())
+                                .roles(admins.contains(user.getUsername()) ? new String[] {"USER", "ADMIN"} : new String[] {"USER"})
+                                .build())
+                        .orElseThrow(() -> new UsernameNotFoundException("User not found")));
+    }
+
+    @Override
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        // Hand out a copy: ProviderManager erases credentials on the object it is given,
+        // which would wipe the password from the cached entry
+        return User.withUserDetails(cache.get(username)).build();
+    }
+
+    // Drops a cached user so the next lookup goes back to the database
+    public void evict(String username) {
+        cache.invalidate(username);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "userDetails");
+    }
+}
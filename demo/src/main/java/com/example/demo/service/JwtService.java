@@ -1,17 +1,28 @@
 package com.example.demo.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import com.example.demo.revocation.TokenId;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
 import java.security.Key;
+import java.security.SecureRandom;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Service
@@ -21,6 +32,56 @@ public class JwtService {
     // Generate one here: https://www.allkeysgenerator.com/Random/Security-Key-Generator.aspx
     public static final String SECRET = "5367566B59703373367639792F423F4528482B4D6251655468576D5A71347437";
 
+    public static final long EXPIRATION_MS = 1000 * 60 * 60 * 10; // 10 hours
+
+    // The key and parser never change, so build them once instead of on every call
+    private final Key signKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET));
+    private final JwtParser parser = Jwts.parserBuilder().setSigningKey(signKey).build();
+    // For token ids (the jti claim), by which a single token can be revoked
+    private final SecureRandom random = new SecureRandom();
+
+    // Tokens that already passed signature verification. Each entry is dropped when its token expires.
+    private final Cache<String, VerifiedToken> verifiedTokens;
+
+    // verifyToken() time by outcome: served from the cache, signature checked, or rejected
+    private final Timer cachedTimer;
+    private final Timer verifiedTimer;
+    private final Timer rejectedTimer;
+
+    public JwtService(@Value("${chat.jwt.cache.max-size:10000}") long cacheMaxSize, MeterRegistry meterRegistry) {
+        this.cachedTimer = verifyTimer(meterRegistry, "cached");
+        this.verifiedTimer = verifyTimer(meterRegistry, "verified");
+        this.rejectedTimer = verifyTimer(meterRegistry, "rejected");
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String token, VerifiedToken verified, long currentTime) {
+                        long millisLeft = verified.expiration().getTime() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(millisLeft, 0));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, VerifiedToken verified, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, VerifiedToken verified, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    private static Timer verifyTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("chat.jwt.verify")
+                .tag("result", result)
+                .description("Time to verify a JWT")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(meterRegistry);
+    }
+
     // Generates a JWT token for a given username
     public String generateToken(String username) {
         Map<String, Object> claims = new HashMap<>();
@@ -29,22 +90,56 @@ public class JwtService {
 
     // Creates the token with claims, subject, issued time, expiration, and signing key
     private String createToken(Map<String, Object> claims, String username) {
+        long now = System.currentTimeMillis();
         return Jwts.builder()
                 .setClaims(claims)
                 .setSubject(username)
-                .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60 * 10)) // 10 hours
-                .signWith(getSignKey(), SignatureAlgorithm.HS256)
+                .setId(TokenId.random(random).toString())
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + EXPIRATION_MS))
+                .signWith(signKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
-    // Gets the signing key from the secret
-    private Key getSignKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(SECRET);
-        return Keys.hmacShaKeyFor(keyBytes);
+    // --- Token Validation Methods ---
+
+    /**
+     * Parses and verifies the token once, returning its username and expiry.
+     * Returns null if the signature is bad, the token is malformed or it has expired.
+     * Verified tokens are cached until they expire, so repeat callers skip the HMAC check.
+     */
+    public VerifiedToken verifyToken(String token) {
+        long start = System.nanoTime();
+        VerifiedToken cached = verifiedTokens.getIfPresent(token);
+        if (cached != null) {
+            cachedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return cached;
+        }
+        VerifiedToken verified = parseAndVerify(token);
+        Timer timer = verified != null ? verifiedTimer : rejectedTimer;
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return verified;
     }
 
-    // --- Token Validation Methods ---
+    private VerifiedToken parseAndVerify(String token) {
+        final Claims claims;
+        try {
+            claims = extractAllClaims(token);
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+        if (claims.getSubject() == null || claims.getExpiration() == null) {
+            return null;
+        }
+
+        VerifiedToken verified = new VerifiedToken(claims.getSubject(), claims.getExpiration(),
+                claims.getIssuedAt() != null ? claims.getIssuedAt().getTime() : 0, TokenId.parse(claims.getId()));
+        if (verified.isExpired()) {
+            return null;
+        }
+        verifiedTokens.put(token, verified);
+        return verified;
+    }
 
     // Extracts the username (subject) from the token
     public String extractUsername(String token) {
@@ -53,13 +148,8 @@ public class JwtService {
 
     // Checks if the token is valid for the given user details
     public Boolean validateToken(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
-    }
-
-    // Checks if the token is expired
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+        VerifiedToken verified = verifyToken(token);
+        return verified != null && verified.username().equals(userDetails.getUsername());
     }
 
     // Extracts the expiration date from the token
@@ -75,11 +165,6 @@ public class JwtService {
 
     // Parses the token to get all claims
     private Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
-                .setSigningKey(getSignKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return parser.parseClaimsJws(token).getBody();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,127 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks passwords and issues tokens off the request threads.
+ *
+ * bcrypt is deliberately slow (tens of ms of CPU per check), so a login storm after an outage would
+ * otherwise occupy every Tomcat thread. Logins run on a fixed pool of "login-" threads instead, behind a
+ * bounded queue. When the queue is full, or a login has already waited longer than max-wait by the time
+ * a thread gets to it, the future fails with RejectedExecutionException right away and the caller
+ * answers 503; the client was going to time out anyway.
+ *
+ * The user is loaded once per login, by the AuthenticationManager; the token is issued for the name it
+ * authenticated.
+ *
+ * Metrics: chat.login{result=success|failure|rejected} (submit to done), chat.login.queue.wait, and the
+ * pool's executor.* gauges tagged name=login.
+ */
+@Service
+public class LoginService {
+
+    private final AuthenticationManager authenticationManager;
+    private final JwtService jwtService;
+    private final long maxWaitNanos;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Timer successTimer;
+    private final Timer failureTimer;
+    private final Timer rejectedTimer;
+    private final Timer queueWaitTimer;
+
+    public LoginService(AuthenticationManager authenticationManager,
+                        JwtService jwtService,
+                        MeterRegistry meterRegistry,
+                        @Value("${chat.login.threads:0}") int threads,
+                        @Value("${chat.login.queue-capacity:64}") int queueCapacity,
+                        @Value("${chat.login.max-wait:3s}") Duration maxWait) {
+        this.authenticationManager = authenticationManager;
+        this.jwtService = jwtService;
+        this.maxWaitNanos = maxWait.toNanos();
+
+        // 0 means one thread per core: more threads than cores only adds queueing inside the CPU
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("login-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+
+        new ExecutorServiceMetrics(executor, "login", Tags.empty()).bindTo(meterRegistry);
+        this.successTimer = loginTimer(meterRegistry, "success");
+        this.failureTimer = loginTimer(meterRegistry, "failure");
+        this.rejectedTimer = loginTimer(meterRegistry, "rejected");
+        this.queueWaitTimer = Timer.builder("chat.login.queue.wait")
+                .description("Time a login waited for a login thread")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(meterRegistry);
+    }
+
+    private static Timer loginTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("chat.login")
+                .tag("result", result)
+                .description("Login requests, from being queued until answered")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Authenticates the user and returns a token for them. The future fails with the AuthenticationException
+     * for bad credentials, or with RejectedExecutionException if there's no capacity to check them.
+     */
+    public CompletableFuture<String> login(String username, String password) {
+        long queued = System.nanoTime();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> authenticate(username, password, queued, result));
+        } catch (RejectedExecutionException e) {
+            rejectedTimer.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+            result.completeExceptionally(new RejectedExecutionException("Too many logins in progress"));
+        }
+        return result;
+    }
+
+    // Runs on a login thread
+    private void authenticate(String username, String password, long queued, CompletableFuture<String> result) {
+        long started = System.nanoTime();
+        queueWaitTimer.record(started - queued, TimeUnit.NANOSECONDS);
+        if (started - queued > maxWaitNanos) {
+            rejectedTimer.record(started - queued, TimeUnit.NANOSECONDS);
+            result.completeExceptionally(new RejectedExecutionException("Login waited too long for a login thread"));
+            return;
+        }
+        try {
+            Authentication authentication = authenticationManager.authenticate(
+                    new UsernamePasswordAuthenticationToken(username, password));
+            String token = jwtService.generateToken(authentication.getName());
+            successTimer.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+            result.complete(token);
+        } catch (RuntimeException e) {
+            failureTimer.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+            result.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.demo.service;
+
+import com.example.demo.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Undelivered private messages for one recipient, oldest first.
+ *
+ * The first {@code memoryLimit} messages are kept on the heap. Anything beyond that is appended to
+ * spill chunk files of at most {@code memoryLimit} messages each, which are loaded back one at a
+ * time as the mailbox drains. Once a chunk exists, new messages always go to disk so order is kept.
+ * All other methods are called with {@link #lock()} held (see OfflineMailboxService). It is a
+ * ReentrantLock rather than a monitor because add() may write to disk, and a virtual thread that
+ * blocks inside synchronized pins its carrier thread.
+ */
+class Mailbox {
+
+    private final String recipient;
+    private final Path directory;
+    private final String filePrefix;
+    private final int memoryLimit;
+    private final ObjectMapper objectMapper;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<ChatMessage> memory = new ArrayDeque<>();
+    private final ArrayDeque<Path> chunks = new ArrayDeque<>();
+    private int tailChunkCount;
+    private long nextChunk;
+    private int size;
+    private boolean draining;
+    private boolean retired;
+
+    Mailbox(String recipient, Path directory, String filePrefix, int memoryLimit, ObjectMapper objectMapper) {
+        this.recipient = recipient;
+        this.directory = directory;
+        this.filePrefix = filePrefix;
+        this.memoryLimit = memoryLimit;
+        this.objectMapper = objectMapper;
+    }
+
+    ReentrantLock lock() {
+        return lock;
+    }
+
+    String recipient() {
+        return recipient;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isDraining() {
+        return draining;
+    }
+
+    void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    // Set once the (empty) mailbox has been removed from the map; writers must fetch a new one
+    boolean isRetired() {
+        return retired;
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    // Re-attaches a chunk file found on disk at startup
+    void adoptChunk(Path chunk, long chunkNumber) throws IOException {
+        long count;
+        try (var lines = Files.lines(chunk, StandardCharsets.UTF_8)) {
+            count = lines.filter(line -> !line.isBlank()).count();
+        }
+        chunks.addLast(chunk);
+        size += (int) count;
+        nextChunk = Math.max(nextChunk, chunkNumber + 1);
+        tailChunkCount = memoryLimit; // never append to a recovered chunk
+    }
+
+    /** Adds a message; returns true if it had to be written to disk. */
+    boolean add(ChatMessage message) throws IOException {
+        if (chunks.isEmpty() && memory.size() < memoryLimit) {
+            memory.addLast(message);
+            size++;
+            return false;
+        }
+        if (chunks.isEmpty() || tailChunkCount >= memoryLimit) {
+            chunks.addLast(directory.resolve(filePrefix + "-" + nextChunk++ + ".jsonl"));
+            tailChunkCount = 0;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(chunks.getLast(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(objectMapper.writeValueAsString(message));
+            writer.newLine();
+        }
+        tailChunkCount++;
+        size++;
+        return true;
+    }
+
+    /** Removes and returns up to {@code max} of the oldest messages. */
+    List<ChatMessage> takeBatch(int max) throws IOException {
+        if (memory.isEmpty() && !chunks.isEmpty()) {
+            loadOldestChunk();
+        }
+        List<ChatMessage> batch = new ArrayList<>(Math.min(max, memory.size()));
+        while (batch.size() < max && !memory.isEmpty()) {
+            batch.add(memory.pollFirst());
+        }
+        size -= batch.size();
+        return batch;
+    }
+
+    /** Puts messages taken by takeBatch() but not delivered back in front of everything else, in order. */
+    void requeueFront(List<ChatMessage> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            memory.addFirst(messages.get(i));
+        }
+        size += messages.size();
+    }
+
+    private void loadOldestChunk() throws IOException {
+        Path chunk = chunks.pollFirst();
+        if (chunks.isEmpty()) {
+            tailChunkCount = memoryLimit; // the tail was just loaded; start a fresh chunk next time
+        }
+        try (BufferedReader reader = Files.newBufferedReader(chunk, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    memory.addLast(objectMapper.readValue(line, ChatMessage.class));
+                }
+            }
+        }
+        Files.deleteIfExists(chunk);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+
+/**
+ * Starts draining a user's mailbox once the broker has registered their subscription to
+ * /user/queue/private, not before: a message sent to the queue any earlier would find no subscriber.
+ *
+ * Sits on the broker channel, which the translated SUBSCRIBE (/queue/private-user{session}) goes
+ * through, and reacts after the broker (sharded or simple) has handled it. The broker registers
+ * subscriptions on the calling thread, so by then it has this one.
+ */
+@Component
+public class MailboxSubscriptionInterceptor implements ExecutorChannelInterceptor {
+
+    private static final String USER_PRIVATE_QUEUE = "/user" + OfflineMailboxService.PRIVATE_QUEUE;
+
+    // The mailbox service needs the messaging template, which needs the broker configuration, which needs this
+    private final ObjectProvider<OfflineMailboxService> mailboxService;
+
+    public MailboxSubscriptionInterceptor(ObjectProvider<OfflineMailboxService> mailboxService) {
+        this.mailboxService = mailboxService;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+                                    @Nullable Exception ex) {
+        if (ex != null || !(handler instanceof SimpleBrokerMessageHandler)) {
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        if (accessor.getMessageType() != SimpMessageType.SUBSCRIBE
+                // UserDestinationMessageHandler puts what the client subscribed to in a native header
+                || !USER_PRIVATE_QUEUE.equals(accessor.getFirstNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION))) {
+            return;
+        }
+        Principal user = accessor.getUser();
+        if (user != null) {
+            mailboxService.getObject().onPrivateQueueSubscribed(user.getName());
+        }
+    }
+}
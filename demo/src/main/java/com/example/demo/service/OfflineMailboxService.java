@@ -0,0 +1,376 @@
+package com.example.demo.service;
+
+import com.example.demo.cluster.ClusterRelay;
+import com.example.demo.ephemeral.EphemeralLane;
+import com.example.demo.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Store-and-forward delivery for private messages.
+ *
+ * A message for a user who has no session subscribed to /user/queue/private goes into that user's
+ * {@link Mailbox} (memory first, spilling to disk past a threshold) instead of being dropped by the
+ * broker. Once the broker has registered the user's subscription, the mailbox is drained to them in
+ * batches on a background thread, one batch per task so a large mailbox doesn't hold up everyone else's.
+ *
+ * Only the spilled part survives a restart; every private message is in the history log regardless.
+ *
+ * In a cluster (see ClusterRelay), a recipient with sessions on other nodes gets the message there,
+ * and that node keeps it if need be. A mailbox is only filled for users who aren't connected anywhere;
+ * when they show up on another node, it is drained to that node.
+ */
+@Service
+public class OfflineMailboxService {
+
+    public static final String PRIVATE_QUEUE = "/queue/private";
+
+    private static final Logger log = LoggerFactory.getLogger(OfflineMailboxService.class);
+
+    private static final String USER_PRIVATE_QUEUE = "/user" + PRIVATE_QUEUE;
+    private static final Pattern CHUNK_FILE = Pattern.compile("([A-Za-z0-9_-]*)-(\\d+)\\.jsonl");
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final SimpUserRegistry userRegistry;
+    private final CachingUserDetailsService userDetailsService;
+    private final ObjectMapper objectMapper;
+    // Only there when clustering is enabled; the relay delivers what it receives through this service
+    private final ObjectProvider<ClusterRelay> clusterRelay;
+    private final Path directory;
+    private final int memoryThreshold;
+    private final int maxSize;
+    private final int drainBatchSize;
+    private final long forwardRetryMillis;
+
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicLong pendingMessages = new AtomicLong();
+    private final ScheduledExecutorService drainExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mailbox-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Counter storedCounter;
+    private final Counter spilledCounter;
+    private final Counter droppedCounter;
+    private final Counter deliveredCounter;
+    private final DistributionSummary drainSize;
+    private final Timer drainTimer;
+
+    public OfflineMailboxService(SimpMessagingTemplate messagingTemplate,
+                                 SimpUserRegistry userRegistry,
+                                 CachingUserDetailsService userDetailsService,
+                                 ObjectMapper objectMapper,
+                                 ObjectProvider<ClusterRelay> clusterRelay,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${chat.mailbox.dir:data/mailboxes}") Path directory,
+                                 @Value("${chat.mailbox.memory-threshold:100}") int memoryThreshold,
+                                 @Value("${chat.mailbox.max-size:10000}") int maxSize,
+                                 @Value("${chat.mailbox.drain-batch-size:100}") int drainBatchSize,
+                                 @Value("${chat.mailbox.forward-retry-delay:1s}") Duration forwardRetryDelay) {
+        this.messagingTemplate = messagingTemplate;
+        this.userRegistry = userRegistry;
+        this.userDetailsService = userDetailsService;
+        this.objectMapper = objectMapper;
+        this.clusterRelay = clusterRelay;
+        this.directory = directory;
+        this.memoryThreshold = memoryThreshold;
+        this.maxSize = maxSize;
+        this.drainBatchSize = drainBatchSize;
+        this.forwardRetryMillis = forwardRetryDelay.toMillis();
+
+        Gauge.builder("chat.mailbox.messages", pendingMessages, AtomicLong::get)
+                .description("Private messages waiting in offline mailboxes")
+                .register(meterRegistry);
+        Gauge.builder("chat.mailbox.recipients", mailboxes, ConcurrentHashMap::size)
+                .description("Users with a non-empty offline mailbox")
+                .register(meterRegistry);
+        this.storedCounter = meterRegistry.counter("chat.mailbox.stored");
+        this.spilledCounter = meterRegistry.counter("chat.mailbox.spilled");
+        this.droppedCounter = meterRegistry.counter("chat.mailbox.dropped");
+        this.deliveredCounter = meterRegistry.counter("chat.mailbox.delivered");
+        this.drainSize = DistributionSummary.builder("chat.mailbox.drain.size")
+                .description("Mailbox size when a drain starts")
+                .register(meterRegistry);
+        this.drainTimer = Timer.builder("chat.mailbox.drain")
+                .description("Time to deliver a whole mailbox once its owner is back")
+                .register(meterRegistry);
+    }
+
+    // Picks up mailboxes that were spilled to disk before a restart
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        TreeMap<String, TreeMap<Long, Path>> chunksByPrefix = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = CHUNK_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    chunksByPrefix.computeIfAbsent(matcher.group(1), p -> new TreeMap<>())
+                            .put(Long.parseLong(matcher.group(2)), file);
+                }
+            });
+        }
+        for (var entry : chunksByPrefix.entrySet()) {
+            String recipient = new String(Base64.getUrlDecoder().decode(entry.getKey()), StandardCharsets.UTF_8);
+            Mailbox mailbox = newMailbox(recipient);
+            for (var chunk : entry.getValue().entrySet()) {
+                mailbox.adoptChunk(chunk.getValue(), chunk.getKey());
+            }
+            mailboxes.put(recipient, mailbox);
+            pendingMessages.addAndGet(mailbox.size());
+        }
+        if (!mailboxes.isEmpty()) {
+            log.info("Recovered {} offline messages for {} users", pendingMessages.get(), mailboxes.size());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        drainExecutor.shutdownNow();
+    }
+
+    /**
+     * Sends a private message to its recipient right away if they are listening,
+     * otherwise keeps it until they are.
+     */
+    public void deliver(ChatMessage message) {
+        String recipient = message.getRecipient();
+        if (recipient == null || recipient.isBlank()) {
+            return;
+        }
+        // Sessions on other nodes get it through the cluster; only keep it here if there are none
+        ClusterRelay cluster = clusterRelay.getIfAvailable();
+        if (cluster != null && !mailboxes.containsKey(recipient) && cluster.forwardToUser(recipient, message)
+                && !isListening(recipient)) {
+            return;
+        }
+        deliverLocally(message);
+    }
+
+    /** deliver() for this node's sessions only; used for messages forwarded by other cluster nodes. */
+    public void deliverLocally(ChatMessage message) {
+        String recipient = message.getRecipient();
+        if (recipient == null || recipient.isBlank()) {
+            return;
+        }
+        // Typing events are for whoever is there right now, and are never kept
+        if (message.getType() == ChatMessage.MessageType.TYPING) {
+            messagingTemplate.convertAndSendToUser(recipient, EphemeralLane.TYPING_QUEUE, message);
+            return;
+        }
+        // Anything already waiting goes first, so only skip the mailbox when it is empty
+        if (!mailboxes.containsKey(recipient) && isListening(recipient)) {
+            messagingTemplate.convertAndSendToUser(recipient, PRIVATE_QUEUE, message);
+            return;
+        }
+        if (!userExists(recipient)) {
+            log.debug("Dropping private message for unknown user {}", recipient);
+            droppedCounter.increment();
+            return;
+        }
+        store(recipient, message);
+        // They may have subscribed while we were storing
+        if (isListening(recipient)) {
+            scheduleDrain(recipient, 0);
+        }
+    }
+
+    public int pendingFor(String recipient) {
+        Mailbox mailbox = mailboxes.get(recipient);
+        if (mailbox == null) {
+            return 0;
+        }
+        mailbox.lock().lock();
+        try {
+            return mailbox.size();
+        } finally {
+            mailbox.lock().unlock();
+        }
+    }
+
+    // The user connected to another cluster node: what's kept here can go there
+    public void onUserReachable(String username) {
+        if (mailboxes.containsKey(username)) {
+            scheduleDrain(username, 0);
+        }
+    }
+
+    // The broker has registered a subscription of the user's to their private queue (see MailboxSubscriptionInterceptor)
+    public void onPrivateQueueSubscribed(String username) {
+        if (mailboxes.containsKey(username)) {
+            scheduleDrain(username, 0);
+        }
+    }
+
+    private void store(String recipient, ChatMessage message) {
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(recipient, this::newMailbox);
+            mailbox.lock().lock();
+            try {
+                if (mailbox.isRetired()) {
+                    continue;
+                }
+                if (mailbox.size() >= maxSize) {
+                    log.warn("Mailbox for {} is full ({} messages), dropping message", recipient, maxSize);
+                    droppedCounter.increment();
+                    return;
+                }
+                try {
+                    if (mailbox.add(message)) {
+                        spilledCounter.increment();
+                    }
+                    storedCounter.increment();
+                    pendingMessages.incrementAndGet();
+                } catch (IOException e) {
+                    log.error("Could not spill a message for {} to disk, dropping it", recipient, e);
+                    droppedCounter.increment();
+                }
+                return;
+            } finally {
+                mailbox.lock().unlock();
+            }
+        }
+    }
+
+    private void scheduleDrain(String recipient, long delayMillis) {
+        Mailbox mailbox = mailboxes.get(recipient);
+        if (mailbox == null) {
+            return;
+        }
+        mailbox.lock().lock();
+        try {
+            if (mailbox.isDraining() || mailbox.isRetired()) {
+                return;
+            }
+            mailbox.setDraining(true);
+            drainSize.record(mailbox.size());
+        } finally {
+            mailbox.lock().unlock();
+        }
+        long start = System.nanoTime();
+        drainExecutor.schedule(() -> drainBatch(mailbox, start), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Delivers one batch, then queues the next one behind any other drains (or, if the peer node
+    // wouldn't take a message, waits forward-retry-delay before trying again)
+    private void drainBatch(Mailbox mailbox, long start) {
+        String recipient = mailbox.recipient();
+        List<ChatMessage> batch;
+        boolean here;
+        mailbox.lock().lock();
+        try {
+            here = isListening(recipient);
+            if (!here && !isConnectedElsewhere(recipient)) {
+                // Gone again; keep the rest for next time
+                mailbox.setDraining(false);
+                return;
+            }
+            try {
+                batch = mailbox.takeBatch(drainBatchSize);
+            } catch (IOException e) {
+                log.error("Could not read spilled messages for {}, will retry on next subscribe", recipient, e);
+                mailbox.setDraining(false);
+                return;
+            }
+            if (batch.isEmpty()) {
+                mailbox.setDraining(false);
+                mailbox.retire();
+                mailboxes.remove(recipient, mailbox);
+                drainTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return;
+            }
+        } finally {
+            mailbox.lock().unlock();
+        }
+        pendingMessages.addAndGet(-batch.size());
+        int sent = 0;
+        for (ChatMessage message : batch) {
+            if (here) {
+                messagingTemplate.convertAndSendToUser(recipient, PRIVATE_QUEUE, message);
+            } else if (!clusterRelay.getObject().forwardToUser(recipient, message)) {
+                break;
+            }
+            sent++;
+        }
+        deliveredCounter.increment(sent);
+        if (sent < batch.size()) {
+            // Gone from there too, or the link is backed up: keep the rest ahead of anything that came in
+            // meanwhile, and don't spin on it until it clears
+            mailbox.lock().lock();
+            try {
+                mailbox.requeueFront(batch.subList(sent, batch.size()));
+            } finally {
+                mailbox.lock().unlock();
+            }
+            pendingMessages.addAndGet(batch.size() - sent);
+            drainExecutor.schedule(() -> drainBatch(mailbox, start), forwardRetryMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        drainExecutor.execute(() -> drainBatch(mailbox, start));
+    }
+
+    // True if at least one of the user's sessions is subscribed to their private queue
+    private boolean isListening(String username) {
+        SimpUser user = userRegistry.getUser(username);
+        if (user == null) {
+            return false;
+        }
+        return user.getSessions().stream()
+                .flatMap(session -> session.getSubscriptions().stream())
+                .anyMatch(subscription -> USER_PRIVATE_QUEUE.equals(subscription.getDestination()));
+    }
+
+    private boolean isConnectedElsewhere(String username) {
+        ClusterRelay cluster = clusterRelay.getIfAvailable();
+        return cluster != null && cluster.isConnectedElsewhere(username);
+    }
+
+    private boolean userExists(String username) {
+        try {
+            userDetailsService.loadUserByUsername(username);
+            return true;
+        } catch (UsernameNotFoundException e) {
+            return false;
+        }
+    }
+
+    private Mailbox newMailbox(String recipient) {
+        // Usernames are free text, so encode them for the file name
+        String prefix = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(recipient.getBytes(StandardCharsets.UTF_8));
+        return new Mailbox(recipient, directory, prefix, memoryThreshold, objectMapper);
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.demo.service;
+
+import com.example.demo.cluster.ClusterBus;
+import com.example.demo.cluster.UserLocationRegistry;
+import com.example.demo.dto.PresenceDelta;
+import com.example.demo.dto.PresenceSnapshot;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Who is online, driven by STOMP session connect/disconnect events.
+ *
+ * A user is online while they have at least one session. Connect and disconnect only touch the
+ * user's own entries in two ConcurrentHashMaps and mark the user dirty; they never broadcast.
+ * A single flusher thread wakes up every flush interval, compares each dirty user with what was
+ * last published and sends the net changes as a few {@link PresenceDelta} batches on /topic/presence.
+ * A user who drops and reconnects within one interval produces no message at all.
+ *
+ * In a cluster a user is online while they have a session on any node: the other nodes' users come from
+ * the {@link UserLocationRegistry}, and ClusterRelay marks them dirty as they come and go. Every node
+ * publishes its own deltas for the whole cluster (presence isn't relayed), so versions only mean something
+ * with the node that numbered them; deltas and snapshots say which one that is.
+ */
+@Service
+public class PresenceService {
+
+    public static final String PRESENCE_TOPIC = "/topic/presence";
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long flushIntervalMillis;
+    private final int maxBatchSize;
+    private final ObjectProvider<UserLocationRegistry> userLocations;
+    private final String node; // null outside a cluster
+    private volatile UserLocationRegistry locations; // likewise; set by start()
+
+    private final ConcurrentHashMap<String, String> sessionUsers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> sessionCounts = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    // Online users as of the last published delta; guarded by "this", like version
+    private final Set<String> published = new HashSet<>();
+    private long version;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "presence-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Counter deltaCounter;
+
+    public PresenceService(SimpMessagingTemplate messagingTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${chat.presence.flush-interval:250ms}") Duration flushInterval,
+                           @Value("${chat.presence.max-batch-size:1000}") int maxBatchSize,
+                           ObjectProvider<ClusterBus> clusterBus,
+                           ObjectProvider<UserLocationRegistry> userLocations) {
+        this.messagingTemplate = messagingTemplate;
+        this.flushIntervalMillis = flushInterval.toMillis();
+        this.maxBatchSize = maxBatchSize;
+        this.userLocations = userLocations;
+        ClusterBus bus = clusterBus.getIfAvailable();
+        this.node = bus != null ? bus.nodeId() : null;
+
+        Gauge.builder("chat.presence.users", sessionCounts, ConcurrentHashMap::size)
+                .description("Users with at least one session")
+                .register(meterRegistry);
+        Gauge.builder("chat.presence.sessions", sessionUsers, ConcurrentHashMap::size)
+                .description("Connected STOMP sessions")
+                .register(meterRegistry);
+        this.deltaCounter = meterRegistry.counter("chat.presence.deltas");
+    }
+
+    @PostConstruct
+    public void start() {
+        locations = userLocations.getIfAvailable();
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdownNow();
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        Principal user = event.getUser();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (user == null || sessionId == null) {
+            return;
+        }
+        if (sessionUsers.putIfAbsent(sessionId, user.getName()) != null) {
+            return;
+        }
+        Integer count = sessionCounts.merge(user.getName(), 1, Integer::sum);
+        if (count == 1) {
+            dirty.add(user.getName());
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        // Can be published more than once per session; only the first one finds the entry
+        String username = sessionUsers.remove(event.getSessionId());
+        if (username == null) {
+            return;
+        }
+        Integer count = sessionCounts.computeIfPresent(username, (name, n) -> n == 1 ? null : n - 1);
+        if (count == null) {
+            dirty.add(username);
+        }
+    }
+
+    /** Online on this node or, in a cluster, on any other. */
+    public boolean isOnline(String username) {
+        return sessionCounts.containsKey(username) || isConnectedElsewhere(username);
+    }
+
+    // Sessions the user has open on this node
+    public int sessionCount(String username) {
+        return sessionCounts.getOrDefault(username, 0);
+    }
+
+    /** True if the user has a session besides the one just opened here, on this node or another. */
+    public boolean hasOtherSessions(String username) {
+        return sessionCount(username) > 1 || isConnectedElsewhere(username);
+    }
+
+    /** Users who got their first session on another node or lost their last one there; see ClusterRelay. */
+    public void onRemoteChange(Collection<String> usernames) {
+        dirty.addAll(usernames);
+    }
+
+    /** The online users that the deltas up to the returned version add up to. */
+    public synchronized PresenceSnapshot snapshot() {
+        List<String> online = new ArrayList<>(published);
+        online.sort(null);
+        return new PresenceSnapshot(version, online, node);
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Presence flush failed", e);
+        }
+    }
+
+    synchronized void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        // Remove before reading the state: a change after the read marks the user dirty again
+        for (Iterator<String> it = dirty.iterator(); it.hasNext(); ) {
+            String username = it.next();
+            it.remove();
+            if (isOnline(username)) {
+                if (published.add(username)) {
+                    joined.add(username);
+                }
+            } else if (published.remove(username)) {
+                left.add(username);
+            }
+        }
+        for (int from = 0; from < joined.size(); from += maxBatchSize) {
+            publish(joined.subList(from, Math.min(joined.size(), from + maxBatchSize)), List.of());
+        }
+        for (int from = 0; from < left.size(); from += maxBatchSize) {
+            publish(List.of(), left.subList(from, Math.min(left.size(), from + maxBatchSize)));
+        }
+    }
+
+    private boolean isConnectedElsewhere(String username) {
+        return locations != null && locations.isConnectedElsewhere(username);
+    }
+
+    private void publish(List<String> joined, List<String> left) {
+        version++;
+        messagingTemplate.convertAndSend(PRESENCE_TOPIC, new PresenceDelta(version, List.copyOf(joined), List.copyOf(left), node));
+        deltaCounter.increment();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.UserDto;
+import com.example.demo.dto.UserPage;
+import com.example.demo.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory, username-sorted index of all users (username -> id) for the directory endpoint.
+ *
+ * Loaded from the database once at startup, in keyset pages of (id, username) projections,
+ * then kept up to date by registration. Pages and prefix searches are range scans over the
+ * skip list, so a request costs O(log n + page size) and never touches the database.
+ */
+@Service
+public class UserDirectory {
+
+    private static final Logger log = LoggerFactory.getLogger(UserDirectory.class);
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final UserRepository userRepository;
+    private final ConcurrentSkipListMap<String, Long> users = new ConcurrentSkipListMap<>();
+
+    // Bumped on every change, so a version identifies the directory's contents (see etag())
+    private final AtomicLong version = new AtomicLong();
+    private final long instanceId = System.currentTimeMillis();
+
+    public UserDirectory(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @PostConstruct
+    public void load() {
+        String after = "";
+        List<UserDto> batch;
+        do {
+            batch = userRepository.findDirectoryPage(after, Limit.of(LOAD_BATCH_SIZE));
+            for (UserDto user : batch) {
+                users.put(user.username(), user.id());
+            }
+            if (!batch.isEmpty()) {
+                after = batch.get(batch.size() - 1).username();
+            }
+        } while (batch.size() == LOAD_BATCH_SIZE);
+        version.incrementAndGet();
+        log.info("Loaded {} users into the directory", users.size());
+    }
+
+    public void add(Long id, String username) {
+        users.put(username, id);
+        version.incrementAndGet();
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * Up to {@code limit} users whose name starts with {@code prefix} (may be empty) and sorts after
+     * {@code after} (null for the first page), skipping {@code exclude}.
+     */
+    public UserPage page(String prefix, String after, int limit, String exclude) {
+        String from = after != null && after.compareTo(prefix) > 0 ? after : prefix;
+        boolean inclusive = after == null || after.compareTo(prefix) < 0;
+
+        List<UserDto> page = new ArrayList<>(limit);
+        String last = null;
+        boolean more = false;
+        for (Map.Entry<String, Long> entry : users.tailMap(from, inclusive).entrySet()) {
+            String username = entry.getKey();
+            if (!username.startsWith(prefix)) {
+                break;
+            }
+            if (username.equals(exclude)) {
+                continue;
+            }
+            if (page.size() == limit) {
+                more = true;
+                break;
+            }
+            page.add(new UserDto(entry.getValue(), username));
+            last = username;
+        }
+        return new UserPage(page, more ? last : null);
+    }
+
+    // Strong validator for everything the directory can return; changes whenever a user is added
+    public String etag() {
+        return "\"" + Long.toHexString(instanceId) + "-" + version.get() + "\"";
+    }
+}
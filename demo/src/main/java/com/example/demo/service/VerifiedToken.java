@@ -0,0 +1,14 @@
+package com.example.demo.service;
+
+import com.example.demo.revocation.TokenId;
+
+import java.util.Date;
+
+// The result of parsing and verifying a JWT once: who it belongs to and when it stops being valid.
+// id is null for tokens issued without one; issuedAt is epoch millis, 0 if the token doesn't say.
+public record VerifiedToken(String username, Date expiration, long issuedAt, TokenId id) {
+
+    public boolean isExpired() {
+        return expiration.before(new Date());
+    }
+}
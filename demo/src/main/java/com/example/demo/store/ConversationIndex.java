@@ -0,0 +1,94 @@
+package com.example.demo.store;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ids, sequence numbers and log positions of one conversation's messages, in id order, as three
+ * primitive arrays (24 bytes per message). One writer appends; readers see everything up to the
+ * volatile size.
+ *
+ * Sequence numbers go 1, 2, 3... per conversation and are handed out by {@link #nextSeq()} in the
+ * same order as ids, so both arrays are sorted: MessageStore takes the id, the sequence number and the
+ * writer queue's slot under this conversation's {@link #appendLock}, so the writer adds them in order.
+ */
+class ConversationIndex {
+
+    /** Position of a message that has neither a record nor a tombstone in the log. */
+    static final long NOT_LOGGED = -1;
+
+    private long[] ids = new long[16];
+    private long[] seqs = new long[16];
+    private long[] positions = new long[16];
+    private volatile int size;
+
+    // Held by MessageStore.append; conversations don't wait for each other
+    final ReentrantLock appendLock = new ReentrantLock();
+
+    // The last sequence number handed out; under appendLock (or recovery, before any append)
+    private long lastSeq;
+
+    long nextSeq() {
+        return ++lastSeq;
+    }
+
+    // Takes back the number nextSeq() just handed out, for a message that wasn't queued after all
+    void releaseSeq() {
+        lastSeq--;
+    }
+
+    // Writer thread only
+    void add(long id, long seq, long position) {
+        int n = size;
+        if (n == ids.length) {
+            ids = Arrays.copyOf(ids, n * 2);
+            seqs = Arrays.copyOf(seqs, n * 2);
+            positions = Arrays.copyOf(positions, n * 2);
+        }
+        ids[n] = id;
+        seqs[n] = seq;
+        positions[n] = position;
+        size = n + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Number of messages with an id lower than the given one, i.e. the index to page back from. */
+    int countBefore(long id, int limit) {
+        return search(ids, id, limit);
+    }
+
+    /** Number of messages with a sequence number lower than the given one. */
+    int countBeforeSeq(long seq, int limit) {
+        return search(seqs, seq, limit);
+    }
+
+    long idAt(int index) {
+        return ids[index];
+    }
+
+    long seqAt(int index) {
+        return seqs[index];
+    }
+
+    long positionAt(int index) {
+        return positions[index];
+    }
+
+    // Gets the array as a parameter, so a larger copy the writer swaps in meanwhile doesn't matter
+    private static int search(long[] array, long key, int limit) {
+        int low = 0;
+        int high = limit;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
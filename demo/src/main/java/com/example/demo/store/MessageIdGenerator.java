@@ -0,0 +1,32 @@
+package com.example.demo.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free, time-ordered 64-bit message ids.
+ *
+ * Layout: milliseconds since 2024-01-01 in the high bits, a 12-bit counter in the low bits
+ * (4096 ids per millisecond before borrowing from the next one). Ids never go backwards,
+ * even if the wall clock does, so sorting by id is sorting by time.
+ */
+public class MessageIdGenerator {
+
+    private static final long EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int SEQUENCE_BITS = 12;
+
+    private final AtomicLong last = new AtomicLong();
+
+    public long nextId() {
+        long candidate = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        return last.accumulateAndGet(candidate, (previous, now) -> Math.max(previous + 1, now));
+    }
+
+    // Makes sure ids handed out from now on are larger than one recovered from disk
+    public void advancePast(long id) {
+        last.accumulateAndGet(id, Math::max);
+    }
+
+    public static long timestampOf(long id) {
+        return (id >>> SEQUENCE_BITS) + EPOCH;
+    }
+}
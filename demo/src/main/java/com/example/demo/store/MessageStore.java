@@ -0,0 +1,323 @@
+package com.example.demo.store;
+
+import com.example.demo.cluster.ClusterBus;
+import com.example.demo.dto.MessagePage;
+import com.example.demo.dto.MissingMessages;
+import com.example.demo.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Durable chat history for the public room, every chat room and every 1:1 conversation.
+ *
+ * append() stamps the message with a time-ordered id and hands it to a single writer thread,
+ * so the caller (a STOMP inbound thread) never waits on serialization or disk: if the writer is
+ * queue-capacity messages behind, the message is refused (chat.history.rejected) instead. The writer stores
+ * it in a {@link SegmentedMessageLog} and fsyncs on a fixed interval. Each conversation keeps an
+ * in-memory index of (id, log position), so a page of history reads only that page from disk.
+ *
+ * The most recent messages are also kept in memory ({@link RecentMessages}) so that a client coming
+ * back from a dropped connection can be sent what it missed, see replay().
+ *
+ * Each message also gets a sequence number within its conversation (1, 2, 3... for the public chat,
+ * each room and each 1:1 pair), so a client that sees 7 follow 5 knows it lost 6 and can ask for just
+ * that, see missing(). The counter belongs to the conversation's index, and so does the lock it's taken
+ * under, together with the id and the writer queue's slot: messages to one conversation are numbered
+ * one at a time, messages to different ones never wait for each other. After a restart the log's order
+ * numbers each conversation again, so numbers go on where they stopped. They are local to the node,
+ * like the history: in a cluster every message also carries the id of the node that numbered it, and a
+ * client follows one sequence per conversation and node. Only the node it's connected to can fill gaps
+ * in its own sequence (see missing()); messages relayed from other nodes are shown as they come.
+ *
+ * A message the writer can't log still has its number, since it may have been delivered already: the
+ * writer logs an empty record (a tombstone) in its place, so the numbers after it survive a restart,
+ * and page() and missing() leave it out. If even that fails, the tombstone is only in the index.
+ */
+@Service
+public class MessageStore {
+
+    public static final String PUBLIC_CONVERSATION = "public";
+
+    private static final Logger log = LoggerFactory.getLogger(MessageStore.class);
+
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private record PendingAppend(long id, long seq, String conversation, ConversationIndex index, ChatMessage message) {
+    }
+
+    /** Sequence numbers from {@code from} to {@code to}, both included. */
+    public record SeqRange(long from, long to) {
+    }
+
+    /** Messages a client missed, oldest first; complete is false if some were too old to still be here. */
+    public record Replay(List<ChatMessage> messages, boolean complete) {
+    }
+
+    private final SegmentedMessageLog messageLog;
+    private final ObjectMapper objectMapper;
+    private final long fsyncIntervalNanos;
+    private final MessageIdGenerator idGenerator = new MessageIdGenerator();
+    private final ConcurrentHashMap<String, ConversationIndex> indexes = new ConcurrentHashMap<>();
+    private final BlockingQueue<PendingAppend> pending;
+    private final RecentMessages recent;
+    private final Counter rejectedCounter;
+    private final String node; // null outside a cluster
+
+    private final Thread writer = new Thread(this::writeLoop, "message-log-writer");
+    private volatile boolean running = true;
+
+    public MessageStore(ObjectMapper objectMapper,
+                        @Value("${chat.history.dir:data/messages}") Path directory,
+                        @Value("${chat.history.segment-size:64MB}") DataSize segmentSize,
+                        @Value("${chat.history.fsync-interval:1s}") Duration fsyncInterval,
+                        @Value("${chat.history.queue-capacity:65536}") int queueCapacity,
+                        @Value("${chat.resume.replay-buffer-size:10000}") int replayBufferSize,
+                        MeterRegistry meterRegistry,
+                        ObjectProvider<ClusterBus> clusterBus) {
+        this.objectMapper = objectMapper;
+        this.messageLog = new SegmentedMessageLog(directory, (int) segmentSize.toBytes());
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.pending = new ArrayBlockingQueue<>(queueCapacity);
+        this.recent = new RecentMessages(replayBufferSize);
+        this.rejectedCounter = Counter.builder("chat.history.rejected")
+                .description("Messages refused because the history writer was too far behind")
+                .register(meterRegistry);
+        ClusterBus bus = clusterBus.getIfAvailable();
+        this.node = bus != null ? bus.nodeId() : null;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        long start = System.nanoTime();
+        messageLog.open((id, conversation, position) -> {
+            ConversationIndex index = indexes.computeIfAbsent(conversation, c -> new ConversationIndex());
+            index.add(id, index.nextSeq(), position);
+            idGenerator.advancePast(id);
+        });
+        log.info("Recovered {} conversations from the message log in {} ms",
+                indexes.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        messageLog.close();
+    }
+
+    /**
+     * Gives the message its id, timestamp and sequence number and queues it to be written, or returns
+     * null if the writer's queue is full: the caller drops the message rather than wait for the disk.
+     * The message must not be changed after this call; the writer serializes it later.
+     */
+    public ChatMessage append(ChatMessage message) {
+        String conversation = conversationOf(message);
+        ConversationIndex index = indexes.computeIfAbsent(conversation, c -> new ConversationIndex());
+        // Taken and queued under the conversation's lock, so the writer sees its ids and numbers in increasing order
+        index.appendLock.lock();
+        try {
+            long id = idGenerator.nextId();
+            long seq = index.nextSeq();
+            message.setId(id);
+            message.setTimestamp(MessageIdGenerator.timestampOf(id));
+            message.setSeq(seq);
+            message.setNode(node);
+            if (!pending.offer(new PendingAppend(id, seq, conversation, index, message))) {
+                index.releaseSeq();
+                message.setId(null);
+                message.setTimestamp(null);
+                message.setSeq(null);
+                message.setNode(null);
+                rejectedCounter.increment();
+                return null;
+            }
+            recent.add(id, message);
+        } finally {
+            index.appendLock.unlock();
+        }
+        return message;
+    }
+
+    /** The cluster node whose sequence numbers this store hands out, or null outside a cluster. */
+    public String node() {
+        return node;
+    }
+
+    /** Up to {@code limit} messages older than {@code before} (or the newest ones if null), newest first. */
+    public MessagePage page(String conversation, Long before, int limit) {
+        ConversationIndex index = indexes.get(conversation);
+        if (index == null) {
+            return new MessagePage(List.of(), null);
+        }
+        int size = index.size();
+        int end = before == null ? size : index.countBefore(before, size);
+        int start = Math.max(0, end - limit);
+
+        List<ChatMessage> messages = new ArrayList<>(end - start);
+        for (int i = end - 1; i >= start; i--) {
+            ChatMessage message = read(index, i);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        String nextCursor = start > 0 ? Long.toString(index.idAt(start)) : null;
+        return new MessagePage(messages, nextCursor);
+    }
+
+    /**
+     * The messages with sequence numbers in the given ranges, oldest first, at most {@code limit}. Ranges
+     * may come in any order and overlap. Messages appended but not written yet aren't found; the result's
+     * latestSeq says how far the history goes, so anything asked for up to there that isn't in it is gone
+     * (including messages that couldn't be logged).
+     */
+    public MissingMessages missing(String conversation, List<SeqRange> ranges, int limit) {
+        ConversationIndex index = indexes.get(conversation);
+        int size = index == null ? 0 : index.size();
+        if (size == 0) {
+            return new MissingMessages(List.of(), 0, true);
+        }
+        List<SeqRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(SeqRange::from));
+        List<ChatMessage> messages = new ArrayList<>();
+        int next = 0; // index past the last message taken, so overlapping ranges don't repeat any
+        for (SeqRange range : sorted) {
+            int i = Math.max(next, index.countBeforeSeq(range.from(), size));
+            for (; i < size && index.seqAt(i) <= range.to(); i++) {
+                ChatMessage message = read(index, i);
+                if (message == null) {
+                    continue;
+                }
+                if (messages.size() == limit) {
+                    return new MissingMessages(messages, index.seqAt(size - 1), false);
+                }
+                messages.add(message);
+            }
+            next = Math.max(next, i);
+        }
+        return new MissingMessages(messages, index.seqAt(size - 1), true);
+    }
+
+    /** Recent messages with an id above {@code afterId} that pass the filter, oldest first, at most {@code limit}. */
+    public Replay replay(long afterId, Predicate<ChatMessage> filter, int limit) {
+        return recent.after(afterId, filter, limit);
+    }
+
+    public static String conversationOf(ChatMessage message) {
+        if (message.getRoom() != null) {
+            return roomConversation(message.getRoom());
+        }
+        String recipient = message.getRecipient();
+        if (recipient == null || recipient.isBlank()) {
+            return PUBLIC_CONVERSATION;
+        }
+        return privateConversation(message.getSender(), recipient);
+    }
+
+    public static String roomConversation(String roomId) {
+        return "room:" + roomId;
+    }
+
+    // Same key whichever side sends; the length prefix keeps "a:b" + "c" apart from "a" + "b:c"
+    public static String privateConversation(String userA, String userB) {
+        String first = userA.compareTo(userB) <= 0 ? userA : userB;
+        String second = first.equals(userA) ? userB : userA;
+        return "dm:" + first.length() + ":" + first + ":" + second;
+    }
+
+    private void writeLoop() {
+        List<PendingAppend> batch = new ArrayList<>(256);
+        long lastForce = System.nanoTime();
+        while (running || !pending.isEmpty()) {
+            try {
+                PendingAppend first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, 255);
+                    for (PendingAppend append : batch) {
+                        write(append);
+                    }
+                    batch.clear();
+                }
+                if (System.nanoTime() - lastForce >= fsyncIntervalNanos) {
+                    messageLog.force();
+                    lastForce = System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Message log writer failed, continuing", e);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(PendingAppend append) {
+        long position;
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(append.message());
+            position = messageLog.append(append.id(), append.conversation(), payload);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not write message {} to the history log, writing a tombstone", append.id(), e);
+            position = tombstone(append);
+        }
+        append.index().add(append.id(), append.seq(), position);
+    }
+
+    // Keeps the message's place, so the conversation isn't renumbered from it on after a restart
+    private long tombstone(PendingAppend append) {
+        try {
+            return messageLog.append(append.id(), append.conversation(), TOMBSTONE);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not write a tombstone for message {}, {} will be renumbered after a restart",
+                    append.id(), append.conversation(), e);
+            return ConversationIndex.NOT_LOGGED;
+        }
+    }
+
+    // Null for a tombstone. Messages logged before sequence numbers existed get theirs from the index
+    private ChatMessage read(ConversationIndex index, int i) {
+        long position = index.positionAt(i);
+        if (position == ConversationIndex.NOT_LOGGED) {
+            return null;
+        }
+        byte[] payload = messageLog.read(position).payload();
+        if (payload.length == 0) {
+            return null;
+        }
+        ChatMessage message = decode(payload);
+        message.setSeq(index.seqAt(i));
+        return message;
+    }
+
+    private ChatMessage decode(byte[] payload) {
+        try {
+            return objectMapper.readValue(payload, ChatMessage.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unreadable message in the history log", e);
+        }
+    }
+}
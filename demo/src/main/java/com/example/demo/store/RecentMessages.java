@@ -0,0 +1,74 @@
+package com.example.demo.store;
+
+import com.example.demo.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The last {@code capacity} messages appended to the store, in a ring indexed by sequence number:
+ * message n (counting from 0 since startup) is in slot n % capacity until n + capacity overwrites it.
+ * The ring is kept sorted by id, so a binary search finds where a client left off. Used to replay what
+ * a reconnecting client missed without touching the log.
+ */
+class RecentMessages {
+
+    private final long[] ids;
+    private final ChatMessage[] messages;
+    private long next; // sequence number of the next message
+
+    RecentMessages(int capacity) {
+        this.ids = new long[capacity];
+        this.messages = new ChatMessage[capacity];
+    }
+
+    // Ids come from one generator but different conversations' locks, so one that lost a race to a
+    // later id arrives just after it; it's moved back into place (a slot or two, if any)
+    synchronized void add(long id, ChatMessage message) {
+        long oldest = Math.max(0, next + 1 - ids.length);
+        long at = next;
+        while (at > oldest && ids[slot(at - 1)] > id) {
+            ids[slot(at)] = ids[slot(at - 1)];
+            messages[slot(at)] = messages[slot(at - 1)];
+            at--;
+        }
+        ids[slot(at)] = id;
+        messages[slot(at)] = message;
+        next++;
+    }
+
+    /** Up to {@code limit} messages with an id above {@code afterId} that pass the filter, oldest first. */
+    synchronized MessageStore.Replay after(long afterId, Predicate<ChatMessage> filter, int limit) {
+        long oldest = Math.max(0, next - ids.length);
+        // Nothing is missing only if the oldest message here isn't newer than the client's last one
+        // (if it is, what came between may have been overwritten, or be from before a restart)
+        boolean complete = next == oldest || ids[slot(oldest)] <= afterId;
+        long low = oldest;
+        long high = next;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (ids[slot(mid)] <= afterId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<ChatMessage> result = new ArrayList<>();
+        for (long seq = low; seq < next; seq++) {
+            ChatMessage message = messages[slot(seq)];
+            if (filter.test(message)) {
+                if (result.size() == limit) {
+                    complete = false;
+                    break;
+                }
+                result.add(message);
+            }
+        }
+        return new MessageStore.Replay(result, complete);
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % ids.length);
+    }
+}
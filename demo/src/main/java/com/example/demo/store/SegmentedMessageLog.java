@@ -0,0 +1,208 @@
+package com.example.demo.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of records split over fixed-size, memory-mapped segment files
+ * (segment-00000.log, segment-00001.log, ...).
+ *
+ * Record layout: [int length][int crc][long id][short keyLength][key bytes][payload bytes]
+ * where length counts everything after itself and the CRC covers everything after the CRC.
+ * The length is written last, and unused space in a segment is zero, so recovery reads records
+ * until it finds a zero length or a record whose CRC doesn't match (a torn write at crash time).
+ *
+ * Appends and force() must come from a single thread. Reads may come from any thread, for
+ * positions that have already been returned by append().
+ */
+public class SegmentedMessageLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedMessageLog.class);
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 2;
+
+    public record Entry(long id, String key, byte[] payload) {
+    }
+
+    @FunctionalInterface
+    public interface RecoveryListener {
+        void recovered(long id, String key, long position);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+
+    // Mapped segments; only the writer adds to it, readers use the volatile snapshot
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private int writeSegment;
+    private int writeOffset;
+    private int forcedOffset;
+
+    public SegmentedMessageLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Maps every existing segment, replays all intact records to the listener (in log order)
+     * and positions the writer right after the last intact record.
+     */
+    public void open(RecoveryListener listener) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(p -> p.getFileName().toString().matches("segment-\\d{5}\\.log")).sorted().toList();
+        }
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        for (Path file : files) {
+            mapped.add(map(file));
+        }
+        if (mapped.isEmpty()) {
+            mapped.add(map(segmentPath(0)));
+        }
+        segments = mapped.toArray(new MappedByteBuffer[0]);
+
+        for (int s = 0; s < segments.length; s++) {
+            int end = replay(s, listener);
+            boolean last = s == segments.length - 1;
+            if (last) {
+                writeSegment = s;
+                writeOffset = end;
+                forcedOffset = end;
+            } else if (end < segmentSize && segments[s].getInt(end) != 0) {
+                log.warn("Segment {} is corrupt after offset {}, the rest of it is skipped", s, end);
+            }
+        }
+    }
+
+    // Replays one segment and returns the offset just past its last intact record
+    private int replay(int segment, RecoveryListener listener) {
+        MappedByteBuffer buffer = segments[segment];
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentSize) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < HEADER_BYTES - 4 || offset + 4 + length > segmentSize
+                    || buffer.getInt(offset + 4) != crc(buffer, offset + 8, length - 4)) {
+                if (segment == segments.length - 1) {
+                    log.warn("Discarding torn record at segment {} offset {}", segment, offset);
+                    zero(buffer, offset);
+                }
+                break;
+            }
+            long id = buffer.getLong(offset + 8);
+            short keyLength = buffer.getShort(offset + 16);
+            byte[] key = new byte[keyLength];
+            buffer.get(offset + HEADER_BYTES, key);
+            listener.recovered(id, new String(key, StandardCharsets.UTF_8), position(segment, offset));
+            offset += 4 + length;
+        }
+        return offset;
+    }
+
+    /** Appends a record and returns its position. Writer thread only. */
+    public long append(long id, String key, byte[] payload) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = HEADER_BYTES + keyBytes.length + payload.length;
+        if (recordBytes > segmentSize) {
+            throw new IOException("Record of " + recordBytes + " bytes does not fit in a segment");
+        }
+        if (writeOffset + recordBytes > segmentSize) {
+            roll();
+        }
+        MappedByteBuffer buffer = segments[writeSegment];
+        int offset = writeOffset;
+        buffer.putLong(offset + 8, id);
+        buffer.putShort(offset + 16, (short) keyBytes.length);
+        buffer.put(offset + HEADER_BYTES, keyBytes);
+        buffer.put(offset + HEADER_BYTES + keyBytes.length, payload);
+        buffer.putInt(offset + 4, crc(buffer, offset + 8, recordBytes - 8));
+        buffer.putInt(offset, recordBytes - 4);
+        writeOffset += recordBytes;
+        return position(writeSegment, offset);
+    }
+
+    /** Reads the record at a position returned by append() or recovery. Safe from any thread. */
+    public Entry read(long position) {
+        MappedByteBuffer buffer = segments[(int) (position >>> 32)];
+        int offset = (int) position;
+        int length = buffer.getInt(offset);
+        long id = buffer.getLong(offset + 8);
+        short keyLength = buffer.getShort(offset + 16);
+        byte[] key = new byte[keyLength];
+        buffer.get(offset + HEADER_BYTES, key);
+        byte[] payload = new byte[length + 4 - HEADER_BYTES - keyLength];
+        buffer.get(offset + HEADER_BYTES + keyLength, payload);
+        return new Entry(id, new String(key, StandardCharsets.UTF_8), payload);
+    }
+
+    /** Flushes everything appended since the last call to disk. Writer thread only. */
+    public void force() {
+        if (writeOffset > forcedOffset) {
+            segments[writeSegment].force(forcedOffset, writeOffset - forcedOffset);
+            forcedOffset = writeOffset;
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    private void roll() throws IOException {
+        segments[writeSegment].force();
+        MappedByteBuffer[] current = segments;
+        MappedByteBuffer[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = map(segmentPath(current.length));
+        segments = next;
+        writeSegment = current.length;
+        writeOffset = 0;
+        forcedOffset = 0;
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new IOException("Could not map " + file, e);
+        }
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("segment-%05d.log", index));
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int crc(MappedByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private void zero(MappedByteBuffer buffer, int from) {
+        byte[] zeros = new byte[8192];
+        for (int offset = from; offset < segmentSize; offset += zeros.length) {
+            buffer.put(offset, zeros, 0, Math.min(zeros.length, segmentSize - offset));
+        }
+        buffer.force();
+    }
+}
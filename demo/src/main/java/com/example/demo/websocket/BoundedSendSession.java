@@ -0,0 +1,324 @@
+package com.example.demo.websocket;
+
+import com.example.demo.ephemeral.EphemeralLane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Session decorator with a bounded outbound queue and its own writer.
+ *
+ * sendMessage() only queues the frame and returns, so a broker or outbound-channel thread never
+ * waits on a slow socket. One writer task per session (on the shared executor) sends queued frames
+ * in order. When queued bytes go over the limit, the {@link OverflowPolicy} decides what is dropped.
+ * A write that has been in progress longer than the send time limit closes the session,
+ * checked on the next send, as ConcurrentWebSocketSessionDecorator does.
+ *
+ * Frames on the {@link EphemeralLane} (typing events) come last in every way: one isn't queued at all
+ * when the ephemeral queue limit's worth of bytes is already waiting, and they are dropped before
+ * anything else when the queue goes over its limit, whatever the policy.
+ */
+class BoundedSendSession extends WebSocketSessionDecorator {
+
+    private static final Logger log = LoggerFactory.getLogger(BoundedSendSession.class);
+
+    private record Queued(WebSocketMessage<?> message, int bytes, String subscription, boolean ephemeral,
+                          long enqueuedNanos) {
+
+        boolean droppable() {
+            return subscription != null;
+        }
+    }
+
+    private final SlowConsumerGuard guard;
+    private final Executor writer;
+    private final long bufferSizeLimit;
+    private final long ephemeralQueueLimit;
+    private final long sendTimeLimitNanos;
+    private final OverflowPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+    private long queuedBytes;
+    private boolean writing;
+
+    private volatile long sendStartNanos;
+    private volatile boolean closing;
+
+    BoundedSendSession(WebSocketSession delegate, SlowConsumerGuard guard, Executor writer,
+                       long bufferSizeLimit, long ephemeralQueueLimit, long sendTimeLimitMillis, OverflowPolicy policy) {
+        super(delegate);
+        this.guard = guard;
+        this.writer = writer;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.ephemeralQueueLimit = ephemeralQueueLimit;
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMillis);
+        this.policy = policy;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (closing) {
+            return;
+        }
+        long started = sendStartNanos;
+        if (started != 0 && System.nanoTime() - started > sendTimeLimitNanos) {
+            closeAsSlow("send time limit exceeded");
+            return;
+        }
+        String headers = messageHeaders(message);
+        boolean ephemeral = headers != null && EphemeralLane.isEphemeral(header(headers, "destination"));
+        Queued queued = new Queued(message, message.getPayloadLength(), subscriptionOf(headers), ephemeral, System.nanoTime());
+        boolean startWriter;
+        lock.lock();
+        try {
+            if (ephemeral && queuedBytes >= ephemeralQueueLimit) {
+                // Behind already: by the time it got out it would be stale, and it would hold up what's queued after it
+                guard.droppedEphemeral();
+                return;
+            }
+            queue.addLast(queued);
+            queuedBytes += queued.bytes();
+            guard.queued(1, queued.bytes());
+            if (queuedBytes > bufferSizeLimit && !makeRoom()) {
+                closeAsSlow("send buffer limit exceeded");
+                return;
+            }
+            guard.depth(queue.size());
+            startWriter = !writing;
+            writing = true;
+        } finally {
+            lock.unlock();
+        }
+        if (startWriter) {
+            writer.execute(this::writeQueued);
+        }
+    }
+
+    // Applies the overflow policy; returns false if the session has to be closed instead
+    private boolean makeRoom() {
+        // Ephemeral frames go first, whatever the policy
+        for (Iterator<Queued> it = queue.iterator(); queuedBytes > bufferSizeLimit && it.hasNext(); ) {
+            Queued queued = it.next();
+            if (queued.ephemeral()) {
+                it.remove();
+                dropped(queued);
+            }
+        }
+        if (queuedBytes <= bufferSizeLimit) {
+            return true;
+        }
+        if (policy == OverflowPolicy.DISCONNECT) {
+            return false;
+        }
+        if (policy == OverflowPolicy.COALESCE) {
+            dropSuperseded();
+        }
+        for (Iterator<Queued> it = queue.iterator(); queuedBytes > bufferSizeLimit && it.hasNext(); ) {
+            Queued queued = it.next();
+            if (queued.droppable()) {
+                it.remove();
+                dropped(queued);
+            }
+        }
+        return true;
+    }
+
+    // Drops, oldest first, frames that have a newer frame queued for the same subscription
+    private void dropSuperseded() {
+        Set<String> newer = new HashSet<>();
+        Set<Queued> superseded = new HashSet<>();
+        for (Iterator<Queued> it = queue.descendingIterator(); it.hasNext(); ) {
+            Queued queued = it.next();
+            if (queued.droppable() && !newer.add(queued.subscription())) {
+                superseded.add(queued);
+            }
+        }
+        for (Iterator<Queued> it = queue.iterator(); queuedBytes > bufferSizeLimit && it.hasNext(); ) {
+            Queued queued = it.next();
+            if (superseded.contains(queued)) {
+                it.remove();
+                dropped(queued);
+            }
+        }
+    }
+
+    private void dropped(Queued queued) {
+        queuedBytes -= queued.bytes();
+        guard.queued(-1, -queued.bytes());
+        if (queued.ephemeral()) {
+            guard.droppedEphemeral();
+        } else {
+            guard.dropped(policy);
+        }
+    }
+
+    // Writer task: sends until the queue is empty. Only one runs per session at a time.
+    private void writeQueued() {
+        while (true) {
+            Queued next;
+            lock.lock();
+            try {
+                next = queue.pollFirst();
+                if (next == null) {
+                    writing = false;
+                    return;
+                }
+                queuedBytes -= next.bytes();
+            } finally {
+                lock.unlock();
+            }
+            guard.queued(-1, -next.bytes());
+            if (closing) {
+                continue;
+            }
+            sendStartNanos = System.nanoTime();
+            try {
+                getDelegate().sendMessage(next.message());
+            } catch (IOException | RuntimeException e) {
+                log.debug("Send to session {} failed, closing it", getId(), e);
+                closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+            } finally {
+                sendStartNanos = 0;
+            }
+        }
+    }
+
+    private void closeAsSlow(String reason) {
+        if (closing) {
+            return;
+        }
+        log.info("Closing slow session {} ({}): {} frames, {} bytes queued", getId(), reason, queuedMessages(), queuedBytes());
+        closing = true;
+        guard.disconnected();
+        // Closing can block behind a stuck write, so don't do it on the sender's thread
+        writer.execute(() -> closeQuietly(CloseStatus.SESSION_NOT_RELIABLE));
+    }
+
+    // Closes the session on the writer, behind any write in progress, without waiting for it
+    void closeLater(CloseStatus status) {
+        closing = true;
+        writer.execute(() -> closeQuietly(status));
+    }
+
+    private void closeQuietly(CloseStatus status) {
+        closing = true;
+        try {
+            getDelegate().close(status);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to close session {}", getId(), e);
+        }
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        closing = true;
+        super.close(status);
+    }
+
+    // Called once the session is gone: releases whatever is still queued
+    void discard() {
+        closing = true;
+        lock.lock();
+        try {
+            guard.queued(-queue.size(), -queuedBytes);
+            queue.clear();
+            queuedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queuedMessages() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long queuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long oldestQueuedMillis() {
+        lock.lock();
+        try {
+            Queued oldest = queue.peekFirst();
+            return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedNanos());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long sendingMillis() {
+        long started = sendStartNanos;
+        return started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    /**
+     * The header lines of a STOMP MESSAGE frame, or null for any other frame (CONNECTED, RECEIPT,
+     * ERROR, heartbeat), which must never be dropped.
+     */
+    static String messageHeaders(WebSocketMessage<?> message) {
+        String frame;
+        if (message instanceof TextMessage text) {
+            frame = text.getPayload();
+        } else if (message instanceof BinaryMessage binary) {
+            ByteBuffer payload = binary.getPayload().duplicate();
+            byte[] head = new byte[Math.min(payload.remaining(), 1024)];
+            payload.get(head);
+            frame = new String(head, StandardCharsets.ISO_8859_1);
+        } else {
+            return null;
+        }
+        if (!frame.startsWith("MESSAGE")) {
+            return null;
+        }
+        int headersEnd = frame.indexOf("\n\n");
+        return headersEnd >= 0 ? frame.substring(0, headersEnd) : frame;
+    }
+
+    /** The subscription id of a MESSAGE frame with these headers ("" if it has none), null if not a MESSAGE. */
+    static String subscriptionOf(String headers) {
+        if (headers == null) {
+            return null;
+        }
+        String subscription = header(headers, "subscription");
+        return subscription != null ? subscription : "";
+    }
+
+    private static String header(String headers, String name) {
+        String prefix = "\n" + name + ":";
+        int start = headers.indexOf(prefix);
+        if (start < 0) {
+            return null;
+        }
+        start += prefix.length();
+        int end = headers.indexOf('\n', start);
+        String value = headers.substring(start, end < 0 ? headers.length() : end);
+        return value.endsWith("\r") ? value.substring(0, value.length() - 1) : value;
+    }
+}
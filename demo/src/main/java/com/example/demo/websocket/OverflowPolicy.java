@@ -0,0 +1,21 @@
+package com.example.demo.websocket;
+
+/**
+ * What a session's outbound queue does when it goes over its byte limit.
+ * Only MESSAGE frames are ever dropped; CONNECTED, RECEIPT, ERROR and heartbeats are always kept.
+ */
+public enum OverflowPolicy {
+
+    /** Drop the oldest queued MESSAGE frames until the queue fits again. */
+    DROP_OLDEST,
+
+    /**
+     * First drop queued MESSAGE frames that have a newer frame queued for the same subscription,
+     * oldest first, then fall back to DROP_OLDEST. A slow client still gets the latest frame of each
+     * subscription.
+     */
+    COALESCE,
+
+    /** Close the session with SESSION_NOT_RELIABLE; the client is expected to reconnect. */
+    DISCONNECT
+}
@@ -0,0 +1,41 @@
+package com.example.demo.websocket;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// GET /actuator/sessionqueues?limit=20 lists the sessions with the fullest outbound queues (admins only, see SecurityConfig)
+@Component
+@Endpoint(id = "sessionqueues")
+public class SessionQueuesEndpoint {
+
+    private final SlowConsumerGuard guard;
+    private final SimpUserRegistry userRegistry;
+
+    public SessionQueuesEndpoint(SlowConsumerGuard guard, SimpUserRegistry userRegistry) {
+        this.guard = guard;
+        this.userRegistry = userRegistry;
+    }
+
+    @ReadOperation
+    public List<SlowConsumerGuard.SessionQueue> stragglers(@Nullable Integer limit) {
+        // Users authenticate in the STOMP CONNECT frame, so the WebSocket session doesn't know them
+        Map<String, String> users = new HashMap<>();
+        for (SimpUser user : userRegistry.getUsers()) {
+            for (SimpSession session : user.getSessions()) {
+                users.put(session.getId(), user.getName());
+            }
+        }
+        return guard.stragglers(limit != null ? limit : 20).stream()
+                .map(queue -> queue.user() != null ? queue : queue.withUser(users.get(queue.sessionId())))
+                .toList();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.demo.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Puts every WebSocket session behind a {@link BoundedSendSession}, so a client that stops reading
+ * costs at most chat.websocket.send-buffer-size-limit of heap and never blocks a broker thread.
+ *
+ * Writes run on virtual threads: a write stuck on a stalled socket parks a virtual thread instead of
+ * holding one of a fixed pool's platform threads. Totals are published to Micrometer and the worst
+ * sessions can be listed through the "sessionqueues" actuator endpoint.
+ */
+@Component
+public class SlowConsumerGuard implements WebSocketHandlerDecoratorFactory {
+
+    private final long bufferSizeLimit;
+    private final long ephemeralQueueLimit;
+    private final long sendTimeLimitMillis;
+    private final OverflowPolicy policy;
+
+    private final ExecutorService writer = Executors.newVirtualThreadPerTaskExecutor();
+    private final ConcurrentHashMap<String, BoundedSendSession> sessions = new ConcurrentHashMap<>();
+
+    private final LongAdder queuedMessages = new LongAdder();
+    private final LongAdder queuedBytes = new LongAdder();
+    private final Map<OverflowPolicy, Counter> droppedCounters = new EnumMap<>(OverflowPolicy.class);
+    private final Counter ephemeralDroppedCounter;
+    private final Counter disconnectedCounter;
+    private final DistributionSummary depthSummary;
+
+    public SlowConsumerGuard(MeterRegistry meterRegistry,
+                             @Value("${chat.websocket.send-buffer-size-limit:512KB}") DataSize bufferSizeLimit,
+                             @Value("${chat.websocket.ephemeral-queue-limit:16KB}") DataSize ephemeralQueueLimit,
+                             @Value("${chat.websocket.send-time-limit:10s}") Duration sendTimeLimit,
+                             @Value("${chat.websocket.overflow-policy:drop-oldest}") OverflowPolicy policy) {
+        this.bufferSizeLimit = bufferSizeLimit.toBytes();
+        this.ephemeralQueueLimit = ephemeralQueueLimit.toBytes();
+        this.sendTimeLimitMillis = sendTimeLimit.toMillis();
+        this.policy = policy;
+
+        Gauge.builder("chat.websocket.outbound.queued.messages", queuedMessages, LongAdder::sum)
+                .description("Frames waiting in per-session outbound queues")
+                .register(meterRegistry);
+        Gauge.builder("chat.websocket.outbound.queued.bytes", queuedBytes, LongAdder::sum)
+                .description("Bytes waiting in per-session outbound queues")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        for (OverflowPolicy p : OverflowPolicy.values()) {
+            droppedCounters.put(p, Counter.builder("chat.websocket.outbound.dropped")
+                    .tag("policy", p.name().toLowerCase())
+                    .description("Frames dropped because a session's outbound queue was full")
+                    .register(meterRegistry));
+        }
+        // Typing events and the like (see EphemeralLane), whatever the policy
+        this.ephemeralDroppedCounter = Counter.builder("chat.websocket.outbound.dropped")
+                .tag("policy", "ephemeral")
+                .description("Frames dropped because a session's outbound queue was full")
+                .register(meterRegistry);
+        this.disconnectedCounter = Counter.builder("chat.websocket.outbound.disconnected")
+                .description("Sessions closed for being too slow")
+                .register(meterRegistry);
+        this.depthSummary = DistributionSummary.builder("chat.websocket.outbound.depth")
+                .description("Per-session outbound queue depth, sampled on every send")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(meterRegistry);
+    }
+
+    public long getBufferSizeLimit() {
+        return bufferSizeLimit;
+    }
+
+    public long getSendTimeLimitMillis() {
+        return sendTimeLimitMillis;
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                BoundedSendSession bounded = new BoundedSendSession(session, SlowConsumerGuard.this, writer,
+                        bufferSizeLimit, ephemeralQueueLimit, sendTimeLimitMillis, policy);
+                sessions.put(session.getId(), bounded);
+                super.afterConnectionEstablished(bounded);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                BoundedSendSession bounded = sessions.get(session.getId());
+                super.handleMessage(bounded != null ? bounded : session, message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                BoundedSendSession bounded = sessions.remove(session.getId());
+                if (bounded != null) {
+                    bounded.discard();
+                }
+                super.afterConnectionClosed(bounded != null ? bounded : session, closeStatus);
+            }
+        };
+    }
+
+    /** The sessions with the most bytes queued, worst first. */
+    public List<SessionQueue> stragglers(int limit) {
+        return sessions.values().stream()
+                .map(session -> new SessionQueue(session.getId(),
+                        session.getPrincipal() != null ? session.getPrincipal().getName() : null,
+                        session.queuedMessages(), session.queuedBytes(),
+                        session.oldestQueuedMillis(), session.sendingMillis()))
+                .filter(queue -> queue.queuedMessages() > 0 || queue.sendingMillis() > 0)
+                .sorted(Comparator.comparingLong(SessionQueue::queuedBytes).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Closes every open session the filter picks, returning how many. The filter sees the session's
+     * attributes (the STOMP session attributes); the closes happen on the writer threads, after this returns.
+     */
+    public int close(Predicate<WebSocketSession> filter, CloseStatus status) {
+        int closed = 0;
+        for (BoundedSendSession session : sessions.values()) {
+            if (filter.test(session)) {
+                session.closeLater(status);
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    void queued(int messages, long bytes) {
+        queuedMessages.add(messages);
+        queuedBytes.add(bytes);
+    }
+
+    void depth(int queuedMessages) {
+        depthSummary.record(queuedMessages);
+    }
+
+    void dropped(OverflowPolicy reason) {
+        droppedCounters.get(reason).increment();
+    }
+
+    void droppedEphemeral() {
+        ephemeralDroppedCounter.increment();
+    }
+
+    void disconnected() {
+        disconnectedCounter.increment();
+    }
+
+    @PreDestroy
+    public void stop() {
+        writer.shutdownNow();
+    }
+
+    public record SessionQueue(String sessionId, String user, int queuedMessages, long queuedBytes,
+                               long oldestQueuedMillis, long sendingMillis) {
+
+        SessionQueue withUser(String user) {
+            return new SessionQueue(sessionId, user, queuedMessages, queuedBytes, oldestQueuedMillis, sendingMillis);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.demo.wire;
+
+import com.example.demo.model.ChatMessage;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeType;
+
+import java.util.Map;
+
+/**
+ * Reads and writes {@link ChatMessage} payloads in the {@link ChatMessageCodec} format.
+ *
+ * Only used when a frame's content-type is exactly {@link #MIME_TYPE}; anything else (including
+ * frames with no content-type) is left to the JSON converter. The type is application/octet-stream
+ * because that's what makes StompSubProtocolHandler send a binary WebSocket frame; the "schema"
+ * parameter is what tells it apart from other binary payloads.
+ */
+public class BinaryChatMessageConverter extends AbstractMessageConverter {
+
+    public static final MimeType MIME_TYPE =
+            new MimeType("application", "octet-stream", Map.of("schema", "chat-message-v1"));
+
+    public BinaryChatMessageConverter() {
+        super(MIME_TYPE);
+        setStrictContentTypeMatch(true);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ChatMessage.class == clazz;
+    }
+
+    @Override
+    protected boolean supportsMimeType(MessageHeaders headers) {
+        MimeType mimeType = getMimeType(headers);
+        return mimeType != null && MIME_TYPE.equals(mimeType);
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        if (!(message.getPayload() instanceof byte[] bytes)) {
+            return null;
+        }
+        try {
+            return ChatMessageCodec.decode(bytes);
+        } catch (IllegalArgumentException e) {
+            throw new MessageConversionException(message, "Could not read binary chat message: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        return ChatMessageCodec.encode((ChatMessage) payload);
+    }
+}
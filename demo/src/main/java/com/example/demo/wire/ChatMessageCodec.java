@@ -0,0 +1,287 @@
+package com.example.demo.wire;
+
+import com.example.demo.model.ChatMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of a {@link ChatMessage}, for clients on metered links.
+ *
+ * Layout (version 1):
+ * <pre>
+ *   byte     version (1)
+ *   byte     which fields follow: bit 0 id, 1 timestamp, 2 content, 3 sender, 4 recipient, 5 type, 6 room,
+ *            7 attachment
+ *   varint   id                        (unsigned LEB128, as protobuf)
+ *   varint   timestamp                 (epoch millis)
+ *   varint + UTF-8 bytes   content     (byte length, then the bytes)
+ *   varint + UTF-8 bytes   sender
+ *   varint + UTF-8 bytes   recipient
+ *   byte     type                      (MessageType ordinal: CHAT 0, JOIN 1, LEAVE 2, TYPING 3)
+ *   varint + UTF-8 bytes   room        (after the original fields, so older readers can ignore it)
+ *   varint + UTF-8 bytes   attachment  (attachment id, likewise)
+ *   byte     more fields, only if any follow: bit 0 seq, 1 node
+ *   varint   seq                       (sequence number in the conversation)
+ *   varint + UTF-8 bytes   node        (cluster node that numbered it)
+ * </pre>
+ * The first byte of fields is full, so later fields get a byte of their own at the end, left out when
+ * none of them is there; older readers stop before it.
+ * Absent (null) fields take no space at all. A typical chat line is less than half its JSON size,
+ * since field names, quotes and the id-as-string go away.
+ */
+public final class ChatMessageCodec {
+
+    static final byte VERSION = 1;
+
+    private static final int ID = 1;
+    private static final int TIMESTAMP = 1 << 1;
+    private static final int CONTENT = 1 << 2;
+    private static final int SENDER = 1 << 3;
+    private static final int RECIPIENT = 1 << 4;
+    private static final int TYPE = 1 << 5;
+    private static final int ROOM = 1 << 6;
+    private static final int ATTACHMENT = 1 << 7;
+    // In the second byte of fields
+    private static final int SEQ = 1;
+    private static final int NODE = 1 << 1;
+
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+
+    private ChatMessageCodec() {
+    }
+
+    public static byte[] encode(ChatMessage message) {
+        byte[] content = utf8(message.getContent());
+        byte[] sender = utf8(message.getSender());
+        byte[] recipient = utf8(message.getRecipient());
+        byte[] room = utf8(message.getRoom());
+        byte[] attachment = utf8(message.getAttachment());
+        byte[] node = utf8(message.getNode());
+
+        int fields = 0;
+        int size = 2;
+        if (message.getId() != null) {
+            fields |= ID;
+            size += varintSize(message.getId());
+        }
+        if (message.getTimestamp() != null) {
+            fields |= TIMESTAMP;
+            size += varintSize(message.getTimestamp());
+        }
+        if (content != null) {
+            fields |= CONTENT;
+            size += varintSize(content.length) + content.length;
+        }
+        if (sender != null) {
+            fields |= SENDER;
+            size += varintSize(sender.length) + sender.length;
+        }
+        if (recipient != null) {
+            fields |= RECIPIENT;
+            size += varintSize(recipient.length) + recipient.length;
+        }
+        if (message.getType() != null) {
+            fields |= TYPE;
+            size += 1;
+        }
+        if (room != null) {
+            fields |= ROOM;
+            size += varintSize(room.length) + room.length;
+        }
+        if (attachment != null) {
+            fields |= ATTACHMENT;
+            size += varintSize(attachment.length) + attachment.length;
+        }
+        int moreFields = 0;
+        if (message.getSeq() != null) {
+            moreFields |= SEQ;
+            size += varintSize(message.getSeq());
+        }
+        if (node != null) {
+            moreFields |= NODE;
+            size += varintSize(node.length) + node.length;
+        }
+        if (moreFields != 0) {
+            size += 1;
+        }
+
+        byte[] out = new byte[size];
+        out[0] = VERSION;
+        out[1] = (byte) fields;
+        int position = 2;
+        if ((fields & ID) != 0) {
+            position = putVarint(out, position, message.getId());
+        }
+        if ((fields & TIMESTAMP) != 0) {
+            position = putVarint(out, position, message.getTimestamp());
+        }
+        position = putBytes(out, position, content);
+        position = putBytes(out, position, sender);
+        position = putBytes(out, position, recipient);
+        if ((fields & TYPE) != 0) {
+            out[position++] = (byte) message.getType().ordinal();
+        }
+        position = putBytes(out, position, room);
+        position = putBytes(out, position, attachment);
+        if (moreFields != 0) {
+            out[position++] = (byte) moreFields;
+            if ((moreFields & SEQ) != 0) {
+                position = putVarint(out, position, message.getSeq());
+            }
+            putBytes(out, position, node);
+        }
+        return out;
+    }
+
+    /** Decodes a message; throws IllegalArgumentException if the bytes aren't a version 1 message. */
+    public static ChatMessage decode(byte[] in) {
+        if (in.length < 2 || in[0] != VERSION) {
+            throw new IllegalArgumentException("Not a version " + VERSION + " chat message");
+        }
+        Reader reader = new Reader(in);
+        int fields = in[1];
+        ChatMessage message = new ChatMessage();
+        if ((fields & ID) != 0) {
+            message.setId(reader.varint());
+        }
+        if ((fields & TIMESTAMP) != 0) {
+            message.setTimestamp(reader.varint());
+        }
+        if ((fields & CONTENT) != 0) {
+            message.setContent(reader.string());
+        }
+        if ((fields & SENDER) != 0) {
+            message.setSender(reader.string());
+        }
+        if ((fields & RECIPIENT) != 0) {
+            message.setRecipient(reader.string());
+        }
+        if ((fields & TYPE) != 0) {
+            int type = reader.next();
+            if (type >= TYPES.length) {
+                throw new IllegalArgumentException("Unknown message type " + type);
+            }
+            message.setType(TYPES[type]);
+        }
+        if ((fields & ROOM) != 0) {
+            message.setRoom(reader.string());
+        }
+        if ((fields & ATTACHMENT) != 0) {
+            message.setAttachment(reader.string());
+        }
+        if (reader.hasMore()) {
+            int moreFields = reader.next();
+            if ((moreFields & SEQ) != 0) {
+                message.setSeq(reader.varint());
+            }
+            if ((moreFields & NODE) != 0) {
+                message.setNode(reader.string());
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Where the content's UTF-8 bytes are in an encoded message, without decoding it: the offset in the
+     * high 32 bits and the length in the low 32, or -1 if there is no content or the bytes are malformed.
+     */
+    public static long contentBounds(byte[] in) {
+        if (in.length < 2 || in[0] != VERSION || (in[1] & CONTENT) == 0) {
+            return -1;
+        }
+        int position = 2;
+        int varints = ((in[1] & ID) != 0 ? 1 : 0) + ((in[1] & TIMESTAMP) != 0 ? 1 : 0) + 1; // the last is the length
+        long length = 0;
+        for (int i = 0; i < varints; i++) {
+            length = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (position >= in.length || shift >= 64) {
+                    return -1;
+                }
+                int b = in[position++];
+                length |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+        }
+        if (length < 0 || length > in.length - position) {
+            return -1;
+        }
+        return (long) position << 32 | length;
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int putVarint(byte[] out, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    private static int putBytes(byte[] out, int position, byte[] bytes) {
+        if (bytes == null) {
+            return position;
+        }
+        position = putVarint(out, position, bytes.length);
+        System.arraycopy(bytes, 0, out, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private static final class Reader {
+
+        private final byte[] in;
+        private int position = 2;
+
+        Reader(byte[] in) {
+            this.in = in;
+        }
+
+        boolean hasMore() {
+            return position < in.length;
+        }
+
+        int next() {
+            if (position >= in.length) {
+                throw new IllegalArgumentException("Truncated chat message");
+            }
+            return in[position++] & 0xFF;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = next();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String string() {
+            long length = varint();
+            if (length > in.length - position) {
+                throw new IllegalArgumentException("Truncated chat message");
+            }
+            String value = new String(in, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.demo.wire;
+
+import com.example.demo.model.ChatMessage;
+import com.example.demo.room.RoomService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the wire format of each connection: JSON (the default) or {@link BinaryChatMessageConverter#MIME_TYPE}.
+ *
+ * A client asks for the binary format by sending that content-type on CONNECT. Its SEND frames then
+ * carry the same content-type and are read by the binary converter. Chat messages broadcast to it are
+ * transcoded from the shared JSON payload on the way out. Each broadcast is transcoded once and the
+ * result is cached by payload identity. Other destinations (presence etc.) stay JSON.
+ *
+ * Binary needs a plain WebSocket connection (/ws/websocket). SockJS only carries text, so SockJS
+ * sessions that ask for binary get JSON.
+ *
+ * Registered on the inbound channel (CONNECT), the outbound channel (MESSAGE) and as a WebSocket
+ * handler decorator (to know the transport).
+ */
+@Component
+public class WireFormatNegotiator implements ChannelInterceptor, WebSocketHandlerDecoratorFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(WireFormatNegotiator.class);
+
+    // Destinations whose payload is a ChatMessage, as the client subscribed to them (and every room topic)
+    private static final Set<String> CHAT_DESTINATIONS = Set.of("/topic/public", "/user/queue/private");
+
+    private final ObjectMapper objectMapper;
+
+    // Sessions on a plain WebSocket, and the ones among them that negotiated binary
+    private final Set<String> webSocketSessions = ConcurrentHashMap.newKeySet();
+    private final Set<String> binarySessions = ConcurrentHashMap.newKeySet();
+
+    // JSON payload (by identity) -> binary payload, so a broadcast is transcoded once
+    private final Cache<byte[], byte[]> transcoded = Caffeine.newBuilder().weakKeys().maximumSize(1024).build();
+
+    private final Counter transcodedCounter;
+    private final Counter bytesSavedCounter;
+
+    public WireFormatNegotiator(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+
+        Gauge.builder("chat.wire.binary.sessions", binarySessions, Set::size)
+                .description("Sessions using the binary chat message format")
+                .register(meterRegistry);
+        this.transcodedCounter = Counter.builder("chat.wire.transcoded")
+                .description("Chat messages sent to binary sessions")
+                .register(meterRegistry);
+        this.bytesSavedCounter = Counter.builder("chat.wire.bytes.saved")
+                .description("Payload bytes saved by sending binary instead of JSON")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                if (!(WebSocketSessionDecorator.unwrap(session) instanceof SockJsSession)) {
+                    webSocketSessions.add(session.getId());
+                }
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                webSocketSessions.remove(session.getId());
+                binarySessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, SimpMessageHeaderAccessor.class);
+        if (accessor == null) {
+            return message;
+        }
+        if (accessor instanceof StompHeaderAccessor stomp && StompCommand.CONNECT.equals(stomp.getCommand())) {
+            negotiate(stomp);
+            return message;
+        }
+        if (SimpMessageType.MESSAGE.equals(accessor.getMessageType())
+                && accessor.getSessionId() != null && binarySessions.contains(accessor.getSessionId())) {
+            return toBinary(message, accessor);
+        }
+        return message;
+    }
+
+    private void negotiate(StompHeaderAccessor connect) {
+        if (!BinaryChatMessageConverter.MIME_TYPE.equals(connect.getContentType())) {
+            return;
+        }
+        String sessionId = connect.getSessionId();
+        if (webSocketSessions.contains(sessionId)) {
+            binarySessions.add(sessionId);
+        } else {
+            log.debug("Session {} asked for binary messages over SockJS, using JSON", sessionId);
+        }
+    }
+
+    private Message<?> toBinary(Message<?> message, SimpMessageHeaderAccessor accessor) {
+        MimeType contentType = accessor.getContentType();
+        if (!(message.getPayload() instanceof byte[] json)
+                || contentType == null || !MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType)) {
+            return message;
+        }
+        String destination = accessor.getFirstNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION);
+        if (!isChatDestination(destination != null ? destination : accessor.getDestination())) {
+            return message;
+        }
+
+        byte[] binary = transcoded.get(json, this::transcode);
+        if (binary == null) {
+            return message;
+        }
+        transcodedCounter.increment();
+        bytesSavedCounter.increment(json.length - binary.length);
+
+        SimpMessageHeaderAccessor headers = accessor.isMutable() ? accessor : SimpMessageHeaderAccessor.wrap(message);
+        headers.setContentType(BinaryChatMessageConverter.MIME_TYPE);
+        return MessageBuilder.createMessage(binary, headers.getMessageHeaders());
+    }
+
+    private static boolean isChatDestination(String destination) {
+        return CHAT_DESTINATIONS.contains(destination) || RoomService.roomOf(destination) != null;
+    }
+
+    private byte[] transcode(byte[] json) {
+        try {
+            return ChatMessageCodec.encode(objectMapper.readValue(json, ChatMessage.class));
+        } catch (IOException e) {
+            log.warn("Could not transcode a chat message to binary, sending JSON", e);
+            return null;
+        }
+    }
+}
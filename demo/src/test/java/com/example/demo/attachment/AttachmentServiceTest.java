@@ -0,0 +1,156 @@
+package com.example.demo.attachment;
+
+import com.example.demo.model.Attachment;
+import com.example.demo.repository.AttachmentRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class AttachmentServiceTest {
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Map<String, Attachment> saved = new HashMap<>();
+    private AttachmentService service;
+
+    @BeforeEach
+    void open() throws IOException {
+        AttachmentRepository repository = mock(AttachmentRepository.class);
+        doAnswer(invocation -> {
+            Attachment attachment = invocation.getArgument(0);
+            saved.put(attachment.getId(), attachment);
+            return attachment;
+        }).when(repository).save(any());
+        doAnswer(invocation -> Optional.ofNullable(saved.get(invocation.<String>getArgument(0))))
+                .when(repository).findById(any());
+        // Chunks of at most 4 bytes
+        service = new AttachmentService(repository, registry, directory, DataSize.ofBytes(20), DataSize.ofBytes(4),
+                Duration.ofHours(1));
+        service.open();
+    }
+
+    @AfterEach
+    void stop() {
+        service.stop();
+    }
+
+    @Test
+    void resumesAnUploadFromTheOffsetTheServerHas() throws Exception {
+        Attachment attachment = service.create("alice", "digits.txt", "text/plain", CONTENT.length);
+
+        assertEquals(4, append(attachment, 0, 0, 4));
+        assertEquals(4, service.offset(attachment));
+        // A chunk sent again after a dropped response
+        assertThrows(IllegalStateException.class, () -> append(attachment, 0, 0, 4));
+        assertEquals(8, append(attachment, 4, 4, 8));
+        assertFalse(service.isComplete(attachment.getId()));
+        assertEquals(10, append(attachment, 8, 8, 10));
+
+        assertTrue(service.isComplete(attachment.getId()));
+        assertEquals(sha256(CONTENT), attachment.getSha256());
+        assertArrayEquals(CONTENT, Files.readAllBytes(service.blob(attachment)));
+        assertEquals(10, service.offset(attachment));
+        assertEquals(10, registry.get("chat.attachments.upload.bytes").counter().count());
+        assertThrows(IllegalStateException.class, () -> append(attachment, 10, 0, 1));
+    }
+
+    @Test
+    void keepsWhatArrivedBeforeTheStreamEnded() throws Exception {
+        Attachment attachment = service.create("alice", "digits.txt", "text/plain", CONTENT.length);
+
+        // The client said 4 bytes but the connection dropped after 3
+        assertEquals(3, service.append(attachment, 0, 4, new ByteArrayInputStream(CONTENT, 0, 3)));
+
+        assertEquals(3, service.offset(attachment));
+        assertEquals(7, append(attachment, 3, 3, 7));
+        assertEquals(10, append(attachment, 7, 7, 10));
+        assertArrayEquals(CONTENT, Files.readAllBytes(service.blob(attachment)));
+    }
+
+    @Test
+    void refusesChunksLargerThanAllowed() throws Exception {
+        Attachment attachment = service.create("alice", "digits.txt", "text/plain", 6);
+
+        assertThrows(IllegalArgumentException.class, () -> service.append(attachment, 0, 5, new ByteArrayInputStream(CONTENT)));
+        assertEquals(0, service.offset(attachment));
+
+        // No length given: the first 4 bytes are kept, then the chunk is refused
+        assertThrows(IllegalArgumentException.class, () -> service.append(attachment, 0, -1, new ByteArrayInputStream(CONTENT)));
+        assertEquals(4, service.offset(attachment));
+        // Past the end of the file
+        assertThrows(IllegalArgumentException.class, () -> append(attachment, 4, 4, 7));
+        assertEquals(4, service.offset(attachment));
+    }
+
+    @Test
+    void storesIdenticalFilesOnce() throws Exception {
+        Attachment first = upload("bob", "a.txt");
+        Attachment second = upload("carol", "b.txt");
+
+        assertEquals(first.getSha256(), second.getSha256());
+        assertEquals(service.blob(first), service.blob(second));
+        assertEquals(1, registry.get("chat.attachments.uploaded").tag("dedup", "false").counter().count());
+        assertEquals(1, registry.get("chat.attachments.uploaded").tag("dedup", "true").counter().count());
+        try (var uploads = Files.list(directory.resolve("uploads"))) {
+            assertEquals(0, uploads.count());
+        }
+    }
+
+    @Test
+    void checksWhatAnUploadIsStartedWith() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> service.create("alice", " ", null, 10));
+        assertThrows(IllegalArgumentException.class, () -> service.create("alice", "a.txt", null, 0));
+        assertThrows(IllegalArgumentException.class, () -> service.create("alice", "a.txt", null, 21));
+
+        Attachment attachment = service.create("alice", "C:\\Users\\alice/notes.txt", " ", 20);
+
+        assertEquals("notes.txt", attachment.getFilename());
+        assertEquals("application/octet-stream", attachment.getContentType());
+        assertEquals("file", service.create("alice", "dir/", null, 1).getFilename());
+    }
+
+    private Attachment upload(String owner, String filename) throws IOException {
+        Attachment attachment = service.create(owner, filename, "text/plain", CONTENT.length);
+        for (int offset = 0; offset < CONTENT.length; offset += 4) {
+            append(attachment, offset, offset, Math.min(offset + 4, CONTENT.length));
+        }
+        return attachment;
+    }
+
+    // Sends CONTENT[from, to) as a chunk starting at offset
+    private long append(Attachment attachment, long offset, int from, int to) throws IOException {
+        return service.append(attachment, offset, to - from, new ByteArrayInputStream(CONTENT, from, to - from));
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
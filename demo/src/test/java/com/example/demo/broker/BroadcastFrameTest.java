@@ -0,0 +1,113 @@
+package com.example.demo.broker;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BroadcastFrameTest {
+
+    private static final byte[] PAYLOAD = "{\"type\":\"CHAT\",\"content\":\"hello\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void everySubscriberSharesThePayload() {
+        BroadcastFrame frame = new BroadcastFrame("/topic/public", broadcast("/topic/public", PAYLOAD), null);
+
+        Message<?> first = frame.forSubscriber("s1", "sub-1");
+        Message<?> second = frame.forSubscriber("s2", "sub-2");
+
+        assertSame(PAYLOAD, first.getPayload());
+        assertSame(PAYLOAD, second.getPayload());
+        assertEquals("s2", SimpMessageHeaderAccessor.getSessionId(second.getHeaders()));
+        assertEquals("sub-2", SimpMessageHeaderAccessor.getSubscriptionId(second.getHeaders()));
+    }
+
+    @Test
+    void encodesTheSameFrameAsTheStockEncoder() {
+        BroadcastFrame frame = new BroadcastFrame("/topic/public", broadcast("/topic/public", PAYLOAD), null);
+        Message<?> reply = frame.forSubscriber("s1", "sub-1");
+
+        Message<byte[]> ours = decode(new BroadcastStompEncoder().encode(reply.getHeaders(), PAYLOAD));
+        Message<byte[]> stock = decode(new StompEncoder().encode(reply.getHeaders(), PAYLOAD));
+
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(ours);
+        assertEquals(StompCommand.MESSAGE, headers.getCommand());
+        assertEquals("/topic/public", headers.getDestination());
+        assertEquals("sub-1", headers.getSubscriptionId());
+        assertEquals(MimeTypeUtils.APPLICATION_JSON, headers.getContentType());
+        assertEquals(StompHeaderAccessor.wrap(stock).toNativeHeaderMap(), headers.toNativeHeaderMap());
+        assertArrayEquals(PAYLOAD, ours.getPayload());
+    }
+
+    @Test
+    void escapesHeaderValues() {
+        BroadcastFrame frame = new BroadcastFrame("/topic/a:b", broadcast("/topic/a:b", PAYLOAD), null);
+
+        Message<byte[]> decoded = decode(frame.encode("sub:\n1", PAYLOAD));
+
+        assertEquals("/topic/a:b", StompHeaderAccessor.wrap(decoded).getDestination());
+        assertEquals("sub:\n1", StompHeaderAccessor.wrap(decoded).getSubscriptionId());
+    }
+
+    @Test
+    void leavesOtherPayloadsToTheStockEncoder() {
+        BroadcastFrame frame = new BroadcastFrame("/topic/public", broadcast("/topic/public", PAYLOAD), null);
+        byte[] copy = PAYLOAD.clone();
+
+        assertNull(frame.encode("sub-1", copy));
+        Message<?> reply = frame.forSubscriber("s1", "sub-1");
+        assertArrayEquals(copy, decode(new BroadcastStompEncoder().encode(reply.getHeaders(), copy)).getPayload());
+    }
+
+    @Test
+    void givesUserDestinationsBackAsTheClientSubscribedToThem() {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination("/queue/private-user123");
+        accessor.setNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION, "/user/queue/private");
+        Message<byte[]> message = MessageBuilder.createMessage(PAYLOAD, accessor.getMessageHeaders());
+
+        BroadcastFrame frame = new BroadcastFrame("/queue/private-user123", message, null);
+
+        assertEquals("/user/queue/private", frame.destination());
+        Message<?> reply = frame.forSubscriber("s1", "sub-1");
+        assertEquals("/user/queue/private", SimpMessageHeaderAccessor.getDestination(reply.getHeaders()));
+        assertNull(StompHeaderAccessor.wrap(decode(frame.encode("sub-1", PAYLOAD)))
+                .getFirstNativeHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION));
+    }
+
+    @Test
+    void encodesEachSubscriberIntoItsOwnArray() {
+        BroadcastFrame frame = new BroadcastFrame("/topic/public", broadcast("/topic/public", PAYLOAD), null);
+
+        assertNotSame(frame.encode("sub-1", PAYLOAD), frame.encode("sub-1", PAYLOAD));
+    }
+
+    private static Message<byte[]> broadcast(String destination, byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> decode(byte[] frame) {
+        List<Message<byte[]>> messages = new StompDecoder().decode(ByteBuffer.wrap(frame));
+        assertEquals(1, messages.size());
+        return messages.get(0);
+    }
+}
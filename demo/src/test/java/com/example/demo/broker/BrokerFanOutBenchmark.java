@@ -0,0 +1,125 @@
+package com.example.demo.broker;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broadcast latency and allocation of the SimpleBroker vs the sharded broker for 10k, 50k and 100k
+ * subscribers of /topic/public. The outbound channel does what StompSubProtocolHandler does before a
+ * socket write (resolve STOMP headers, encode the frame) and then drops the bytes, so this measures
+ * the broker's fan-out plus frame encoding, not socket I/O.
+ *
+ * Not a unit test; run it with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.broker.BrokerFanOutBenchmark
+ */
+public class BrokerFanOutBenchmark {
+
+    private static final String DESTINATION = "/topic/public";
+    private static final int WARMUP = 20;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int shards = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-8s %-10s %12s %12s %16s%n", "broker", "subs", "p50 (ms)", "max (ms)", "alloc/broadcast");
+        for (int subscribers : new int[] {10_000, 50_000, 100_000}) {
+            run("simple", subscribers, shards);
+            run("sharded", subscribers, shards);
+        }
+    }
+
+    private static void run(String mode, int subscribers, int shards) throws InterruptedException {
+        AtomicLong delivered = new AtomicLong();
+        StompEncoder encoder = mode.equals("simple") ? new StompEncoder() : new BroadcastStompEncoder();
+        MessageChannel outbound = (message, timeout) -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+                encoder.encode(stompHeaders(message).getMessageHeaders(), (byte[]) message.getPayload());
+                delivered.incrementAndGet();
+            }
+            return true;
+        };
+        List<String> prefixes = List.of("/topic");
+        AbstractBrokerMessageHandler broker = mode.equals("simple")
+                ? new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(), outbound, new ExecutorSubscribableChannel(), prefixes)
+                : new ShardedBrokerMessageHandler(new ExecutorSubscribableChannel(), outbound, new ExecutorSubscribableChannel(), prefixes, shards);
+        broker.start();
+
+        for (int i = 0; i < subscribers; i++) {
+            String sessionId = "s" + i;
+            broker.handleMessage(frame(SimpMessageType.CONNECT, sessionId, null));
+            broker.handleMessage(frame(SimpMessageType.SUBSCRIBE, sessionId, "sub-0"));
+        }
+
+        Message<byte[]> broadcast = frame(SimpMessageType.MESSAGE, null, null);
+        long[] latencies = new long[ROUNDS];
+        long allocatedBefore = 0;
+        for (int round = 0; round < WARMUP + ROUNDS; round++) {
+            if (round == WARMUP) {
+                allocatedBefore = allocatedBytes();
+            }
+            long target = delivered.get() + subscribers;
+            long start = System.nanoTime();
+            broker.handleMessage(broadcast);
+            while (delivered.get() < target) {
+                Thread.yield();
+            }
+            if (round >= WARMUP) {
+                latencies[round - WARMUP] = System.nanoTime() - start;
+            }
+        }
+        long allocatedPerBroadcast = (allocatedBytes() - allocatedBefore) / ROUNDS;
+        broker.stop();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %-10d %12.2f %12.2f %13.1f MB%n", mode, subscribers,
+                latencies[ROUNDS / 2] / 1e6, latencies[ROUNDS - 1] / 1e6, allocatedPerBroadcast / 1e6);
+    }
+
+    // Same header resolution StompSubProtocolHandler does before encoding a frame
+    private static StompHeaderAccessor stompHeaders(Message<?> message) {
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, MessageHeaderAccessor.class);
+        if (accessor instanceof StompHeaderAccessor stompAccessor) {
+            return stompAccessor;
+        }
+        StompHeaderAccessor stompAccessor = StompHeaderAccessor.wrap(message);
+        stompAccessor.updateStompCommandAsServerMessage();
+        return stompAccessor;
+    }
+
+    // Bytes allocated so far by all live threads (main + broker shard threads)
+    private static long allocatedBytes() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(allocated, 0);
+        }
+        return total;
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(DESTINATION);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        byte[] payload = "{\"type\":\"CHAT\",\"content\":\"hello\",\"sender\":\"bench\"}".getBytes(StandardCharsets.UTF_8);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+}
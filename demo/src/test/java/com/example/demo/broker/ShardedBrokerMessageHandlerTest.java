@@ -0,0 +1,267 @@
+package com.example.demo.broker;
+
+import com.example.demo.metrics.DestinationTimers;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedBrokerMessageHandlerTest {
+
+    private static final String PUBLIC = "/topic/public";
+    private static final String ROOM = "/topic/room.";
+
+    // Per session: "destination subscription payload" of every MESSAGE it was sent, in order
+    private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+    private final AtomicInteger delivered = new AtomicInteger();
+    // Sends to the "stuck" session wait for this, as if its socket had stopped taking data
+    private final CountDownLatch unstick = new CountDownLatch(1);
+    private ShardedBrokerMessageHandler broker;
+
+    @AfterEach
+    void stop() {
+        unstick.countDown();
+        broker.stop();
+    }
+
+    @Test
+    void deliversEveryBroadcastToEverySubscriberOnce() throws Exception {
+        start(4);
+        for (int i = 0; i < 100; i++) {
+            subscribe("s" + i, "sub-" + i, PUBLIC);
+        }
+
+        publish(PUBLIC, "hello");
+
+        await(() -> delivered.get() == 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(List.of(PUBLIC + " sub-" + i + " hello"), received.get("s" + i));
+        }
+    }
+
+    @Test
+    void everySubscriberSeesADestinationsMessagesInTheSameOrder() throws Exception {
+        start(4);
+        for (int i = 0; i < 64; i++) {
+            subscribe("s" + i, "sub", PUBLIC);
+        }
+        int publishers = 4;
+        int perPublisher = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(publishers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            int publisher = p;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perPublisher; i++) {
+                    publish(PUBLIC, publisher + "-" + i);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        await(() -> delivered.get() == 64 * publishers * perPublisher);
+        List<String> first = received.get("s0");
+        assertEquals(publishers * perPublisher, first.size());
+        for (int i = 1; i < 64; i++) {
+            assertEquals(first, received.get("s" + i), "s" + i);
+        }
+        // And each publisher's own messages in the order it sent them
+        for (int p = 0; p < publishers; p++) {
+            String prefix = PUBLIC + " sub " + p + "-";
+            List<String> own = first.stream().filter(line -> line.startsWith(prefix)).toList();
+            for (int i = 0; i < perPublisher; i++) {
+                assertEquals(prefix + i, own.get(i));
+            }
+        }
+    }
+
+    @Test
+    void sendsOnlyToTheDestinationsSubscribers() throws Exception {
+        start(2);
+        subscribe("a", "sub", PUBLIC);
+        subscribe("b", "sub", "/topic/other");
+
+        publish("/topic/other", "x");
+        publish(PUBLIC, "y");
+
+        await(() -> delivered.get() == 2);
+        assertEquals(List.of(PUBLIC + " sub y"), received.get("a"));
+        assertEquals(List.of("/topic/other sub x"), received.get("b"));
+    }
+
+    @Test
+    void stopsSendingToUnsubscribedAndDisconnectedSessions() throws Exception {
+        start(2);
+        subscribe("a", "sub", PUBLIC);
+        subscribe("b", "sub", PUBLIC);
+        subscribe("c", "sub", PUBLIC);
+        broker.handleMessage(frame(SimpMessageType.UNSUBSCRIBE, "a", "sub", null, null));
+        broker.handleMessage(frame(SimpMessageType.DISCONNECT, "b", null, null, null));
+
+        publish(PUBLIC, "hello");
+
+        await(() -> delivered.get() == 1);
+        Thread.sleep(50);
+        assertEquals(1, delivered.get());
+        assertEquals(List.of(PUBLIC + " sub hello"), received.get("c"));
+    }
+
+    @Test
+    void timesTheFanOutOfEachBroadcast() throws Exception {
+        start(4);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        broker.setFanOutTimers(new DestinationTimers(registry, "chat.broker.fanout", "fan-out", 100));
+        for (int i = 0; i < 16; i++) {
+            subscribe("s" + i, "sub", PUBLIC);
+        }
+
+        publish(PUBLIC, "hello");
+        publish("/topic/nobody", "hello");
+
+        await(() -> delivered.get() == 16);
+        Timer timer = registry.get("chat.broker.fanout").tag("destination", PUBLIC).timer();
+        await(() -> timer.count() == 1);
+        assertNull(registry.find("chat.broker.fanout").tag("destination", "/topic/nobody").timer());
+    }
+
+    @Test
+    void keepsEachRoomsOrderOnItsPartition() throws Exception {
+        start(4, 4);
+        int rooms = 8;
+        int perRoom = 200;
+        for (int r = 0; r < rooms; r++) {
+            for (int i = 0; i < 4; i++) {
+                subscribe("r" + r + "-s" + i, "sub", ROOM + r);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(rooms);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int r = 0; r < rooms; r++) {
+            int room = r;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perRoom; i++) {
+                    publish(ROOM + room, Integer.toString(i));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        await(() -> delivered.get() == rooms * 4 * perRoom);
+        for (int r = 0; r < rooms; r++) {
+            String prefix = ROOM + r + " sub ";
+            List<String> expected = IntStream.range(0, perRoom).mapToObj(i -> prefix + i).toList();
+            for (int i = 0; i < 4; i++) {
+                assertEquals(expected, received.get("r" + r + "-s" + i));
+            }
+        }
+    }
+
+    @Test
+    void aStalledRoomDoesNotHoldUpRoomsOnOtherPartitions() throws Exception {
+        start(2, 4);
+        String busy = ROOM + "1";
+        String other = IntStream.range(2, 100).mapToObj(r -> ROOM + r)
+                .filter(room -> Math.floorMod(room.hashCode(), 4) != Math.floorMod(busy.hashCode(), 4))
+                .findFirst().orElseThrow();
+        subscribe("stuck", "sub", busy);
+        subscribe("a", "sub", other);
+
+        publish(busy, "1");
+        publish(busy, "2");
+        publish(other, "hello");
+
+        await(() -> received.containsKey("a"));
+        assertEquals(List.of(other + " sub hello"), received.get("a"));
+        assertEquals(List.of(busy + " sub 1"), received.get("stuck"));
+        unstick.countDown();
+        await(() -> received.get("stuck").size() == 2);
+    }
+
+    private void start(int shards) {
+        start(shards, 0);
+    }
+
+    private void start(int shards, int roomPartitions) {
+        broker = new ShardedBrokerMessageHandler(new ExecutorSubscribableChannel(), (message, timeout) -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+                String line = SimpMessageHeaderAccessor.getDestination(message.getHeaders()) + " "
+                        + SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders()) + " "
+                        + new String((byte[]) message.getPayload(), StandardCharsets.UTF_8);
+                received.computeIfAbsent(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()),
+                        s -> Collections.synchronizedList(new ArrayList<>())).add(line);
+                delivered.incrementAndGet();
+                if ("stuck".equals(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))) {
+                    try {
+                        unstick.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            return true;
+        }, new ExecutorSubscribableChannel(), List.of("/topic"), shards);
+        if (roomPartitions > 0) {
+            broker.setPartitionedDestinations(ROOM, roomPartitions);
+        }
+        broker.start();
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        broker.handleMessage(frame(SimpMessageType.CONNECT, sessionId, null, null, null));
+        broker.handleMessage(frame(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination, null));
+    }
+
+    private void publish(String destination, String payload) {
+        broker.handleMessage(frame(SimpMessageType.MESSAGE, null, null, destination, payload));
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId,
+                                         String destination, String payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setContentType(MimeTypeUtils.TEXT_PLAIN);
+        byte[] bytes = payload != null ? payload.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        return MessageBuilder.createMessage(bytes, accessor.getMessageHeaders());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
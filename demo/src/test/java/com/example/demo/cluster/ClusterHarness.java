@@ -0,0 +1,262 @@
+package com.example.demo.cluster;
+
+import com.example.demo.DemoApplication;
+import com.example.demo.dto.AuthRequest;
+import com.example.demo.dto.AuthResponse;
+import com.example.demo.dto.RegisterRequest;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.service.OfflineMailboxService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A chat cluster of N nodes in this JVM, talking over loopback TCP, and a few checks that messages
+ * cross it:
+ *
+ * - a public message sent on node 0 reaches users on every node;
+ * - a private message goes only to the node its recipient is connected to;
+ * - a private message for a user who is offline everywhere waits in the sender's node's mailbox and
+ *   follows them to whichever node they connect to next.
+ *
+ * Each node gets its own HTTP port, cluster port and data directories; all share one in-memory H2
+ * database, as nodes behind a load balancer would share the real one. Options are Spring properties
+ * passed to every node (e.g. --chat.cluster.max-batch-size=16), plus --cluster.nodes=3.
+ *
+ * Exits with status 1 if a check fails. Not a unit test; run it with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.cluster.ClusterHarness
+ */
+public class ClusterHarness {
+
+    private static final String PASSWORD = "cluster-test-password";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final List<ConfigurableApplicationContext> nodes;
+    private final WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+    private final Map<String, BlockingQueue<ChatMessage>> inboxes = new ConcurrentHashMap<>();
+    private final List<String> failures = new ArrayList<>();
+
+    ClusterHarness(List<ConfigurableApplicationContext> nodes) {
+        this.nodes = nodes;
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter(nodes.get(0).getBean(ObjectMapper.class)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = 3;
+        List<String> common = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--cluster.nodes=")) {
+                count = Integer.parseInt(arg.substring("--cluster.nodes=".length()));
+            } else {
+                common.add(arg);
+            }
+        }
+        if (count < 2) {
+            throw new IllegalArgumentException("cluster.nodes must be at least 2");
+        }
+
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            addresses.add("127.0.0.1:" + freePort());
+        }
+        Path dataDir = Files.createTempDirectory("chat-cluster");
+        String secret = UUID.randomUUID().toString();
+        List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+        int status;
+        try {
+            for (int i = 0; i < count; i++) {
+                List<String> nodeArgs = new ArrayList<>(List.of(
+                        "--server.port=0",
+                        "--logging.level.root=WARN",
+                        "--spring.jmx.enabled=false", // the nodes would register the same MBean names
+                        "--spring.datasource.url=jdbc:h2:mem:chat-cluster;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.hibernate.ddl-auto=update",
+                        "--chat.history.dir=" + dataDir.resolve("node" + i).resolve("messages"),
+                        "--chat.mailbox.dir=" + dataDir.resolve("node" + i).resolve("mailboxes"),
+                        "--chat.cluster.enabled=true",
+                        "--chat.cluster.address=" + addresses.get(i),
+                        "--chat.cluster.peers=" + String.join(",", addresses),
+                        "--chat.cluster.secret=" + secret));
+                nodeArgs.addAll(common); // last one wins
+                nodes.add(SpringApplication.run(DemoApplication.class, nodeArgs.toArray(String[]::new)));
+            }
+            System.out.printf("Started %d nodes: %s%n", count, addresses);
+            status = new ClusterHarness(nodes).run();
+        } finally {
+            for (ConfigurableApplicationContext node : nodes) {
+                node.close();
+            }
+            FileSystemUtils.deleteRecursively(dataDir);
+        }
+        System.exit(status);
+    }
+
+    int run() throws Exception {
+        int last = nodes.size() - 1;
+        await("all nodes connected", () -> nodes.stream()
+                .allMatch(node -> gauge(node, "chat.cluster.peers.connected") == nodes.size() - 1));
+
+        String alice = "alice", bob = "bob", carol = "carol";
+        for (String user : List.of(alice, bob, carol)) {
+            http(0).post().uri("/api/auth/register").body(new RegisterRequest(user, PASSWORD)).retrieve().toBodilessEntity();
+        }
+        StompSession aliceSession = connect(0, alice);
+        StompSession bobSession = connect(1, bob);
+        connect(last, carol);
+        await("node 0 knows where bob and carol are", () -> locations(0).nodesOf(bob).size() == 1
+                && !locations(0).nodesOf(carol).isEmpty());
+
+        // 1. Broadcasts reach every node
+        aliceSession.send("/app/chat.sendMessage", chat("hello everyone", null));
+        for (String user : List.of(alice, bob, carol)) {
+            expect(user + " gets alice's public message", user, "hello everyone");
+        }
+
+        // 2. Private messages go only to the recipient's node
+        double[] before = new double[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            before[i] = received(i, "user");
+        }
+        aliceSession.send("/app/chat.sendPrivateMessage", chat("psst bob", bob));
+        expect("bob gets alice's private message on node 1", bob, "psst bob");
+        for (int i = 0; i < nodes.size(); i++) {
+            double forwarded = received(i, "user") - before[i];
+            check("node " + i + " received " + (i == 1 ? "one" : "no") + " forwarded private message",
+                    forwarded == (i == 1 ? 1 : 0));
+        }
+
+        // 3. Offline everywhere: kept on the sender's node, then sent to wherever they reconnect
+        bobSession.disconnect();
+        await("node 0 sees bob leave", () -> locations(0).nodesOf(bob).isEmpty());
+        aliceSession.send("/app/chat.sendPrivateMessage", chat("while you were out", bob));
+        await("node 0 keeps it for bob", () -> nodes.get(0).getBean(OfflineMailboxService.class).pendingFor(bob) == 1);
+        connect(last, bob);
+        expect("bob gets it after reconnecting to node " + last, bob, "while you were out");
+
+        double dropped = nodes.stream().mapToDouble(node -> counter(node, "chat.cluster.dropped")).sum();
+        check("no cluster messages dropped", dropped == 0);
+        System.out.println(failures.isEmpty() ? "PASS" : "FAIL: " + String.join(", ", failures));
+        stompClient.stop();
+        return failures.isEmpty() ? 0 : 1;
+    }
+
+    private StompSession connect(int node, String username) throws Exception {
+        String token = http(node).post().uri("/api/auth/login").body(new AuthRequest(username, PASSWORD))
+                .retrieve().body(AuthResponse.class).token();
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token);
+        StompSession session = stompClient.connectAsync("ws://localhost:" + port(node) + "/ws/websocket",
+                new WebSocketHttpHeaders(), connectHeaders, new StompSessionHandlerAdapter() {
+                }).get(TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+        BlockingQueue<ChatMessage> inbox = inboxes.computeIfAbsent(username, name -> new LinkedBlockingQueue<>());
+        StompFrameHandler receiver = new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return ChatMessage.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                inbox.add((ChatMessage) payload);
+            }
+        };
+        session.subscribe("/topic/public", receiver);
+        session.subscribe("/user/queue/private", receiver);
+        return session;
+    }
+
+    private void expect(String description, String username, String content) throws InterruptedException {
+        BlockingQueue<ChatMessage> inbox = inboxes.get(username);
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        ChatMessage message;
+        do {
+            message = inbox.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } while (message != null && !content.equals(message.getContent()));
+        check(description, message != null);
+    }
+
+    private void await(String description, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                check(description, false);
+                return;
+            }
+            Thread.sleep(20);
+        }
+        check(description, true);
+    }
+
+    private void check(String description, boolean passed) {
+        System.out.printf("%-4s %s%n", passed ? "ok" : "FAIL", description);
+        if (!passed) {
+            failures.add(description);
+        }
+    }
+
+    private static ChatMessage chat(String content, String recipient) {
+        ChatMessage message = new ChatMessage();
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setContent(content);
+        message.setRecipient(recipient);
+        return message;
+    }
+
+    private RestClient http(int node) {
+        return RestClient.create("http://localhost:" + port(node));
+    }
+
+    private String port(int node) {
+        return nodes.get(node).getEnvironment().getProperty("local.server.port");
+    }
+
+    private UserLocationRegistry locations(int node) {
+        return nodes.get(node).getBean(UserLocationRegistry.class);
+    }
+
+    private double received(int node, String kind) {
+        return nodes.get(node).getBean(MeterRegistry.class).get("chat.cluster.received").tag("kind", kind).counter().count();
+    }
+
+    private static double gauge(ConfigurableApplicationContext node, String name) {
+        return node.getBean(MeterRegistry.class).get(name).gauge().value();
+    }
+
+    private static double counter(ConfigurableApplicationContext node, String name) {
+        return node.getBean(MeterRegistry.class).find(name).counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
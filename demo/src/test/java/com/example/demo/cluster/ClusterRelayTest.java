@@ -0,0 +1,119 @@
+package com.example.demo.cluster;
+
+import com.example.demo.dto.PresenceDelta;
+import com.example.demo.service.OfflineMailboxService;
+import com.example.demo.service.PresenceService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class ClusterRelayTest {
+
+    private static final String NODE_B = "node-b:9100";
+    private static final String NODE_C = "node-c:9100";
+
+    private final LinkedBlockingQueue<PresenceDelta> deltas = new LinkedBlockingQueue<>();
+    private PresenceService presence;
+    private ClusterRelay relay;
+
+    @BeforeEach
+    void start() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Neither is started: nothing goes out, and the relay is fed by hand
+        ClusterBus bus = new TcpClusterBus("node-a:9100", List.of(NODE_B, NODE_C), "secret", 16, 16, Duration.ofSeconds(1), registry);
+        UserLocationRegistry locations = new UserLocationRegistry(bus, registry, Duration.ofMinutes(1));
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> {
+            if (PresenceService.PRESENCE_TOPIC.equals(message.getHeaders().get("simpDestination"))) {
+                deltas.add((PresenceDelta) message.getPayload());
+            }
+            return true;
+        });
+        presence = new PresenceService(messagingTemplate, registry, Duration.ofMillis(10), 1000, provider(bus), provider(locations));
+        presence.start();
+        relay = new ClusterRelay(bus, locations, new ObjectMapper(), messagingTemplate,
+                provider(mock(OfflineMailboxService.class)), provider(presence));
+    }
+
+    @AfterEach
+    void stop() {
+        presence.stop();
+    }
+
+    @Test
+    void countsUsersOnOtherNodesAsOnline() throws Exception {
+        relay.onMessage(NODE_B, ClusterMessage.online("bob"));
+
+        PresenceDelta delta = nextDelta();
+        assertEquals(List.of("bob"), delta.joined());
+        assertEquals("node-a:9100", delta.node());
+        assertTrue(presence.isOnline("bob"));
+        assertTrue(presence.hasOtherSessions("bob")); // a first session here wouldn't announce a JOIN
+        assertEquals(List.of("bob"), presence.snapshot().online());
+        assertEquals(delta.version(), presence.snapshot().version());
+
+        relay.onMessage(NODE_B, ClusterMessage.offline("bob"));
+
+        assertEquals(List.of("bob"), nextDelta().left());
+        assertFalse(presence.isOnline("bob"));
+        assertFalse(presence.hasOtherSessions("bob"));
+    }
+
+    @Test
+    void keepsAUserOnlineWhileAnyNodeHasThem() throws Exception {
+        relay.onMessage(NODE_B, ClusterMessage.online("bob"));
+        relay.onMessage(NODE_C, ClusterMessage.online("bob"));
+        assertEquals(List.of("bob"), nextDelta().joined());
+
+        relay.onMessage(NODE_B, ClusterMessage.offline("bob"));
+        assertNull(deltas.poll(100, TimeUnit.MILLISECONDS));
+
+        relay.onNodeDown(NODE_C);
+        assertEquals(List.of("bob"), nextDelta().left());
+    }
+
+    @Test
+    void takesJoinsAndLeavesFromASnapshot() throws Exception {
+        relay.onMessage(NODE_B, ClusterMessage.online("bob"));
+        nextDelta();
+
+        relay.onMessage(NODE_B, ClusterMessage.snapshot(List.of("carol")));
+
+        PresenceDelta joined = nextDelta();
+        PresenceDelta left = nextDelta();
+        assertEquals(List.of("carol"), joined.joined());
+        assertEquals(List.of("bob"), left.left());
+        assertEquals(joined.version() + 1, left.version());
+        assertEquals(List.of("carol"), presence.snapshot().online());
+    }
+
+    private PresenceDelta nextDelta() throws InterruptedException {
+        PresenceDelta delta = deltas.poll(5, TimeUnit.SECONDS);
+        assertNotNull(delta, "no presence delta");
+        return delta;
+    }
+
+    private static <T> ObjectProvider<T> provider(T bean) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("bean", bean);
+        @SuppressWarnings("unchecked")
+        ObjectProvider<T> provider = (ObjectProvider<T>) beans.getBeanProvider(bean.getClass());
+        return provider;
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.demo.cluster;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two or three buses in this JVM, talking over loopback TCP.
+ */
+class TcpClusterBusTest {
+
+    private static final String SECRET = "cluster-secret";
+
+    private final List<TcpClusterBus> buses = new ArrayList<>();
+
+    @AfterEach
+    void stop() {
+        buses.forEach(TcpClusterBus::stop);
+    }
+
+    @Test
+    void deliversInOrderBetweenTwoNodes() throws Exception {
+        String a = address();
+        String b = address();
+        Recorder atA = new Recorder();
+        Recorder atB = new Recorder();
+        TcpClusterBus busA = start(a, List.of(a, b), SECRET, atA);
+        TcpClusterBus busB = start(b, List.of(a, b), SECRET, atB);
+        atA.awaitUp(b);
+        atB.awaitUp(a);
+
+        for (int i = 0; i < 500; i++) {
+            busA.publish(ClusterMessage.online("user" + i));
+        }
+        busA.publish(ClusterMessage.broadcast("/topic/public", "application/json", "{}".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(busB.send(a, ClusterMessage.snapshot(List.of("carol", "dave"))));
+
+        for (int i = 0; i < 500; i++) {
+            Received received = atB.next();
+            assertEquals(a, received.from());
+            assertEquals(ClusterMessage.Kind.ONLINE, received.message().kind());
+            assertEquals("user" + i, received.message().target());
+        }
+        ClusterMessage broadcast = atB.next().message();
+        assertEquals("/topic/public", broadcast.target());
+        assertEquals("application/json", broadcast.contentType());
+        assertArrayEquals("{}".getBytes(StandardCharsets.UTF_8), broadcast.payload());
+
+        Received snapshot = atA.next();
+        assertEquals(b, snapshot.from());
+        assertEquals(List.of("carol", "dave"), snapshot.message().usernames());
+    }
+
+    @Test
+    void sendsOnlyToTheNodeItNames() throws Exception {
+        String a = address();
+        String b = address();
+        String c = address();
+        Recorder atB = new Recorder();
+        Recorder atC = new Recorder();
+        TcpClusterBus busA = start(a, List.of(a, b, c), SECRET, new Recorder());
+        start(b, List.of(a, b, c), SECRET, atB);
+        start(c, List.of(a, b, c), SECRET, atC);
+        atB.awaitUp(a);
+        atC.awaitUp(a);
+
+        assertTrue(busA.send(c, ClusterMessage.online("bob")));
+        assertFalse(busA.send(address(), ClusterMessage.online("bob")));
+
+        assertEquals("bob", atC.next().message().target());
+        assertNull(atB.poll(200));
+    }
+
+    @Test
+    void turnsAwayANodeWithTheWrongSecret() throws Exception {
+        String a = address();
+        String b = address();
+        String intruder = address();
+        Recorder atA = new Recorder();
+        start(a, List.of(a, b, intruder), SECRET, atA);
+        TcpClusterBus busB = start(b, List.of(a), SECRET, new Recorder());
+        Recorder atIntruder = new Recorder();
+        TcpClusterBus busIntruder = start(intruder, List.of(a), "guessed", atIntruder);
+
+        // The intruder can't tell it was refused (nothing is acknowledged), so it sends anyway
+        atIntruder.awaitUp(a);
+        busIntruder.publish(ClusterMessage.online("mallory"));
+        busB.publish(ClusterMessage.online("bob"));
+
+        Received received = atA.next();
+        assertEquals(b, received.from());
+        assertEquals("bob", received.message().target());
+        assertNull(atA.poll(300));
+        assertTrue(atA.downs.isEmpty());
+    }
+
+    @Test
+    void turnsAwayANodeThatIsNotAPeer() throws Exception {
+        String a = address();
+        String b = address();
+        String stranger = address();
+        Recorder atA = new Recorder();
+        start(a, List.of(a, b), SECRET, atA);
+        TcpClusterBus busB = start(b, List.of(a), SECRET, new Recorder());
+        Recorder atStranger = new Recorder();
+        TcpClusterBus busStranger = start(stranger, List.of(a), SECRET, atStranger);
+
+        atStranger.awaitUp(a);
+        busStranger.publish(ClusterMessage.online("mallory"));
+        busB.publish(ClusterMessage.online("bob"));
+
+        assertEquals(b, atA.next().from());
+        assertNull(atA.poll(300));
+    }
+
+    @Test
+    void reportsANodeThatStopsAsDown() throws Exception {
+        String a = address();
+        String b = address();
+        Recorder atA = new Recorder();
+        start(a, List.of(a, b), SECRET, atA);
+        TcpClusterBus busB = start(b, List.of(a, b), SECRET, new Recorder());
+        atA.awaitUp(b);
+        busB.publish(ClusterMessage.online("bob"));
+        assertEquals("bob", atA.next().message().target());
+
+        busB.stop();
+
+        assertEquals(b, atA.downs.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void dropsWhatDoesNotFitInAPeersQueue() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Not started, so nothing leaves the queue
+        TcpClusterBus bus = new TcpClusterBus("127.0.0.1:1", List.of("127.0.0.1:2"), SECRET, 2, 16,
+                Duration.ofSeconds(1), registry);
+
+        assertTrue(bus.send("127.0.0.1:2", ClusterMessage.online("a")));
+        assertTrue(bus.send("127.0.0.1:2", ClusterMessage.online("b")));
+        assertFalse(bus.send("127.0.0.1:2", ClusterMessage.online("c")));
+        bus.publish(ClusterMessage.online("d"));
+
+        assertEquals(2, registry.get("chat.cluster.dropped").counter().count());
+    }
+
+    private TcpClusterBus start(String address, List<String> peers, String secret, Recorder listener) {
+        TcpClusterBus bus = new TcpClusterBus(address, peers, secret, 1024, 64, Duration.ofMillis(50), new SimpleMeterRegistry());
+        buses.add(bus);
+        bus.start(listener);
+        return bus;
+    }
+
+    // A free loopback port; it's released again for the bus to bind
+    private static String address() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "127.0.0.1:" + socket.getLocalPort();
+        }
+    }
+
+    private record Received(String from, ClusterMessage message) {
+    }
+
+    private static final class Recorder implements ClusterBus.Listener {
+
+        final LinkedBlockingQueue<Received> messages = new LinkedBlockingQueue<>();
+        final LinkedBlockingQueue<String> ups = new LinkedBlockingQueue<>();
+        final LinkedBlockingQueue<String> downs = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onMessage(String fromNode, ClusterMessage message) {
+            messages.add(new Received(fromNode, message));
+        }
+
+        @Override
+        public void onNodeUp(String nodeId) {
+            ups.add(nodeId);
+        }
+
+        @Override
+        public void onNodeDown(String nodeId) {
+            downs.add(nodeId);
+        }
+
+        void awaitUp(String nodeId) throws InterruptedException {
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (!ups.contains(nodeId)) {
+                assertTrue(System.nanoTime() < deadline, "timed out waiting for " + nodeId);
+                Thread.sleep(5);
+            }
+        }
+
+        Received next() throws InterruptedException {
+            Received received = messages.poll(5, TimeUnit.SECONDS);
+            assertNotNull(received, "no message");
+            return received;
+        }
+
+        Received poll(long millis) throws InterruptedException {
+            return messages.poll(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
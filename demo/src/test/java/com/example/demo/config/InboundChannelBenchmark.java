@@ -0,0 +1,136 @@
+package com.example.demo.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.OrderedMessageChannelDecorator;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * STOMP inbound channel on platform vs virtual threads with 10k concurrent sessions.
+ *
+ * Every session sends a few messages through its own OrderedMessageChannelDecorator, as
+ * StompSubProtocolHandler does with preserveReceiveOrder. One message in 50 stands in for a handler that
+ * waits on the database (20 ms sleep), the rest are quick. Reports the time to handle everything, the
+ * queueing latency of the quick messages and the number of per-session ordering violations (must be 0).
+ *
+ * "platform" is the channel's default pool (2 threads per core), "virtual" is what
+ * spring.threads.virtual.enabled=true gives it. Not a unit test; run it with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.config.InboundChannelBenchmark
+ */
+public class InboundChannelBenchmark {
+
+    private static final int SESSIONS = 10_000;
+    private static final int MESSAGES_PER_SESSION = 5;
+    private static final int BLOCKING_EVERY = 50;
+    private static final long BLOCKING_MILLIS = 20;
+
+    private static final Log logger = LogFactory.getLog(InboundChannelBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-9s %10s %12s %12s %12s %12s%n",
+                "mode", "messages", "total (ms)", "p50 (ms)", "p99 (ms)", "reordered");
+        for (int round = 0; round < 2; round++) { // first round is warm-up
+            run("platform", platformExecutor(), round == 1);
+            run("virtual", virtualExecutor(), round == 1);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, Executor executor, boolean print) throws InterruptedException {
+        int total = SESSIONS * MESSAGES_PER_SESSION;
+        CountDownLatch done = new CountDownLatch(total);
+        int[] lastSeq = new int[SESSIONS];
+        Arrays.fill(lastSeq, -1);
+        AtomicInteger reordered = new AtomicInteger();
+        long[] latencies = new long[total];
+        AtomicInteger quick = new AtomicInteger();
+
+        ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel(executor);
+        OrderedMessageChannelDecorator.configureInterceptor(inbound, true);
+        inbound.subscribe(message -> {
+            long waited = System.nanoTime() - (long) message.getHeaders().get("sent");
+            int session = (int) message.getHeaders().get("session");
+            int seq = (int) message.getHeaders().get("seq");
+            if (lastSeq[session] != seq - 1) {
+                reordered.incrementAndGet();
+            }
+            lastSeq[session] = seq;
+            if ((session * MESSAGES_PER_SESSION + seq) % BLOCKING_EVERY == 0) {
+                try {
+                    Thread.sleep(BLOCKING_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                latencies[quick.getAndIncrement()] = waited;
+            }
+            done.countDown();
+        });
+
+        MessageChannel[] sessions = new MessageChannel[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions[i] = new OrderedMessageChannelDecorator(inbound, logger);
+        }
+
+        long start = System.nanoTime();
+        for (int seq = 0; seq < MESSAGES_PER_SESSION; seq++) {
+            for (int session = 0; session < SESSIONS; session++) {
+                sessions[session].send(message(session, seq));
+            }
+        }
+        if (!done.await(5, TimeUnit.MINUTES)) {
+            throw new IllegalStateException(mode + " did not finish");
+        }
+        long elapsed = System.nanoTime() - start;
+        if (executor instanceof ThreadPoolTaskExecutor pool) {
+            pool.shutdown();
+        }
+
+        if (print) {
+            long[] sorted = Arrays.copyOf(latencies, quick.get());
+            Arrays.sort(sorted);
+            System.out.printf("%-9s %10d %12.1f %12.1f %12.1f %12d%n", mode, total, elapsed / 1e6,
+                    sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6, reordered.get());
+        }
+    }
+
+    private static Message<byte[]> message(int session, int seq) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId("s" + session);
+        accessor.setHeader("session", session);
+        accessor.setHeader("seq", seq);
+        accessor.setHeader("sent", System.nanoTime());
+        // The ordering decorator adds its callback header, so the headers must stay mutable
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    // Same sizing as the default clientInboundChannel pool
+    private static Executor platformExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Runtime.getRuntime().availableProcessors() * 2);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("platform-");
+        executor.initialize();
+        return executor;
+    }
+
+    private static Executor virtualExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("virtual-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+}
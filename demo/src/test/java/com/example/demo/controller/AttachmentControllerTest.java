@@ -0,0 +1,196 @@
+package com.example.demo.controller;
+
+import com.example.demo.attachment.AttachmentService;
+import com.example.demo.dto.CreateAttachmentRequest;
+import com.example.demo.dto.UploadStatus;
+import com.example.demo.model.Attachment;
+import com.example.demo.repository.AttachmentRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class AttachmentControllerTest {
+
+    private static final String CONTENT = "0123456789";
+
+    @TempDir
+    Path directory;
+
+    private final Map<String, Attachment> saved = new HashMap<>();
+    private AttachmentService service;
+    private AttachmentController controller;
+    private Attachment attachment;
+
+    @BeforeEach
+    void upload() throws IOException {
+        AttachmentRepository repository = mock(AttachmentRepository.class);
+        doAnswer(invocation -> {
+            Attachment attachment = invocation.getArgument(0);
+            saved.put(attachment.getId(), attachment);
+            return attachment;
+        }).when(repository).save(any());
+        doAnswer(invocation -> Optional.ofNullable(saved.get(invocation.<String>getArgument(0))))
+                .when(repository).findById(any());
+        service = new AttachmentService(repository, new SimpleMeterRegistry(), directory, DataSize.ofKilobytes(1),
+                DataSize.ofBytes(6), Duration.ofHours(1));
+        service.open();
+        controller = new AttachmentController(service);
+
+        String id = startUpload("alice", CONTENT.length()).id();
+        assertEquals(6, ((UploadStatus) put(id, 0, "012345", "alice").getBody()).offset());
+        assertTrue(((UploadStatus) put(id, 6, "6789", "alice").getBody()).complete());
+        attachment = saved.get(id);
+    }
+
+    @AfterEach
+    void stop() {
+        service.stop();
+    }
+
+    @Test
+    void tellsAnUploaderWhereToResumeFrom() throws IOException {
+        String id = startUpload("bob", 8).id();
+        put(id, 0, "0123", "bob");
+
+        assertEquals(4, controller.getUpload(id, () -> "bob").getBody().offset());
+        ResponseEntity<?> conflict = put(id, 2, "2345", "bob");
+        assertEquals(409, conflict.getStatusCode().value());
+        assertEquals(4, ((UploadStatus) conflict.getBody()).offset());
+        assertEquals(400, put(id, 4, "4567890", "bob").getStatusCode().value());
+        // Someone else's upload isn't there for them
+        assertEquals(404, controller.getUpload(id, () -> "alice").getStatusCode().value());
+        assertEquals(404, put(id, 4, "4567", "alice").getStatusCode().value());
+        assertEquals(404, controller.getInfo(id).getStatusCode().value());
+    }
+
+    @Test
+    void sendsTheWholeFile() throws IOException {
+        MockHttpServletResponse response = download(new HttpHeaders());
+
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+        assertEquals(10, response.getContentLengthLong());
+        assertEquals("\"" + attachment.getSha256() + "\"", response.getHeader(HttpHeaders.ETAG));
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals("attachment; filename=\"digits.txt\"", response.getHeader(HttpHeaders.CONTENT_DISPOSITION));
+        assertEquals("text/plain", response.getContentType());
+    }
+
+    @Test
+    void sendsTheRangeAskedFor() throws IOException {
+        assertPartial("bytes=2-5", "2345", "bytes 2-5/10");
+        assertPartial("bytes=7-", "789", "bytes 7-9/10");
+        assertPartial("bytes=-3", "789", "bytes 7-9/10");
+        assertPartial("bytes=8-100", "89", "bytes 8-9/10");
+    }
+
+    @Test
+    void refusesARangePastTheEnd() throws IOException {
+        MockHttpServletResponse response = download(range("bytes=10-"));
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("", response.getContentAsString());
+    }
+
+    @Test
+    void sendsTheWholeFileForSeveralOrMalformedRanges() throws IOException {
+        for (String header : new String[] {"bytes=0-1,4-5", "bytes=5-2", "pages=1"}) {
+            MockHttpServletResponse response = download(range(header));
+
+            assertEquals(200, response.getStatus(), header);
+            assertEquals(CONTENT, response.getContentAsString(), header);
+        }
+    }
+
+    @Test
+    void answersACachedCopyWith304() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch("\"" + attachment.getSha256() + "\"");
+
+        MockHttpServletResponse response = download(headers);
+
+        assertEquals(304, response.getStatus());
+        assertEquals("", response.getContentAsString());
+    }
+
+    @Test
+    void leavesTheCopyingToTomcatWhenItCanSendfile() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/attachments/" + attachment.getId());
+        request.setAttribute("org.apache.tomcat.sendfile.support", true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.download(attachment.getId(), range("bytes=2-5"), request, response);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("", response.getContentAsString());
+        assertEquals(service.blob(attachment).toRealPath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(2L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(6L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+    }
+
+    @Test
+    void findsNothingForAnUnknownId() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.download("missing", new HttpHeaders(), new MockHttpServletRequest(), response);
+
+        assertEquals(404, response.getStatus());
+    }
+
+    private void assertPartial(String header, String body, String contentRange) throws IOException {
+        MockHttpServletResponse response = download(range(header));
+
+        assertEquals(206, response.getStatus(), header);
+        assertEquals(body, response.getContentAsString(), header);
+        assertEquals(body.length(), response.getContentLengthLong(), header);
+        assertEquals(contentRange, response.getHeader(HttpHeaders.CONTENT_RANGE), header);
+    }
+
+    private MockHttpServletResponse download(HttpHeaders headers) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.download(attachment.getId(), headers, new MockHttpServletRequest("GET", "/api/attachments/" + attachment.getId()),
+                response);
+        return response;
+    }
+
+    private UploadStatus startUpload(String owner, long size) throws IOException {
+        ResponseEntity<?> response = controller.startUpload(
+                new CreateAttachmentRequest("digits.txt", "text/plain", size), () -> owner);
+        return assertInstanceOf(UploadStatus.class, response.getBody());
+    }
+
+    private ResponseEntity<?> put(String id, long offset, String chunk, String owner) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/api/attachments/uploads/" + id);
+        request.setContent(chunk.getBytes(StandardCharsets.US_ASCII));
+        return controller.uploadChunk(id, offset, request, () -> owner);
+    }
+
+    private static HttpHeaders range(String value) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, value);
+        return headers;
+    }
+}
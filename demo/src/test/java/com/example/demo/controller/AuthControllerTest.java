@@ -0,0 +1,65 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.AuthRequest;
+import com.example.demo.dto.AuthResponse;
+import com.example.demo.repository.UserRepository;
+import com.example.demo.revocation.RevocationService;
+import com.example.demo.service.CachingUserDetailsService;
+import com.example.demo.service.JwtService;
+import com.example.demo.service.LoginService;
+import com.example.demo.service.UserDirectory;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuthControllerTest {
+
+    private final LoginService loginService = mock(LoginService.class);
+    private final AuthController controller = new AuthController(loginService, mock(UserRepository.class),
+            mock(PasswordEncoder.class), mock(CachingUserDetailsService.class), mock(UserDirectory.class),
+            mock(JwtService.class), mock(RevocationService.class));
+
+    @Test
+    void answersWithTheToken() throws Exception {
+        when(loginService.login("alice", "secret")).thenReturn(CompletableFuture.completedFuture("token"));
+
+        ResponseEntity<AuthResponse> response = controller.authenticateUser(new AuthRequest("alice", "secret")).get();
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("token", response.getBody().token());
+    }
+
+    @Test
+    void answers503WhenLoginsAreBackedUp() throws Exception {
+        when(loginService.login("alice", "secret"))
+                .thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("Too many logins in progress")));
+
+        ResponseEntity<AuthResponse> response = controller.authenticateUser(new AuthRequest("alice", "secret")).get();
+
+        assertEquals(503, response.getStatusCode().value());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void leavesBadCredentialsToTheUsualHandling() {
+        when(loginService.login("alice", "wrong"))
+                .thenReturn(CompletableFuture.failedFuture(new BadCredentialsException("Bad credentials")));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> controller.authenticateUser(new AuthRequest("alice", "wrong")).get());
+
+        assertInstanceOf(BadCredentialsException.class, e.getCause());
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.demo.controller;
+
+import com.example.demo.store.MessageStore.SeqRange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MessageHistoryControllerTest {
+
+    @Test
+    void parsesSingleNumbersClosedAndOpenRanges() {
+        assertEquals(List.of(new SeqRange(6, 9), new SeqRange(12, 12), new SeqRange(15, Long.MAX_VALUE)),
+                MessageHistoryController.parseRanges("6-9,12,15-"));
+    }
+
+    @Test
+    void anOpenRangeAloneIsACatchUp() {
+        assertEquals(List.of(new SeqRange(15, Long.MAX_VALUE)), MessageHistoryController.parseRanges("15-"));
+    }
+
+    @Test
+    void keepsOverlappingAndUnorderedRangesForTheStore() {
+        assertEquals(List.of(new SeqRange(3, 7), new SeqRange(1, 5), new SeqRange(4, 4)),
+                MessageHistoryController.parseRanges("3-7, 1-5 ,4"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "-5", "0", "0-3", "5-3", "abc", "1-x", "1-2-3", "1,,2", "9999999999999999999"})
+    void rejectsWhatIsntARange(String text) {
+        assertNull(MessageHistoryController.parseRanges(text));
+    }
+
+    @Test
+    void takesAtMost64Ranges() {
+        String ranges64 = IntStream.rangeClosed(1, 64).mapToObj(i -> Integer.toString(2 * i)).collect(Collectors.joining(","));
+
+        assertEquals(64, MessageHistoryController.parseRanges(ranges64).size());
+        assertNull(MessageHistoryController.parseRanges(ranges64 + ",200"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.UserDto;
+import com.example.demo.dto.UserPage;
+import com.example.demo.repository.UserRepository;
+import com.example.demo.service.UserDirectory;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+class UserControllerTest {
+
+    private final UserDirectory directory = new UserDirectory(mock(UserRepository.class));
+    private final UserController controller = new UserController(directory);
+
+    @Test
+    void answersAPollWithTheCurrentEtagWith304() {
+        directory.add(1L, "alice");
+        directory.add(2L, "bob");
+        ResponseEntity<?> first = get(null, 50, new MockHttpServletResponse());
+        String etag = first.getHeaders().getETag();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(get(etag, 50, response));
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+
+        directory.add(3L, "carol");
+        assertEquals(200, get(etag, 50, new MockHttpServletResponse()).getStatusCode().value());
+    }
+
+    @Test
+    void capsThePageSize() {
+        IntStream.range(0, 300).forEach(i -> directory.add((long) i, String.format("user%03d", i)));
+
+        assertEquals(200, users(get(null, 10_000, new MockHttpServletResponse())).size());
+        assertEquals(1, users(get(null, 0, new MockHttpServletResponse())).size());
+    }
+
+    private ResponseEntity<UserPage> get(String ifNoneMatch, int limit, MockHttpServletResponse response) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return controller.getAllUsers("", null, limit, () -> "alice", new ServletWebRequest(request, response));
+    }
+
+    private static List<UserDto> users(ResponseEntity<UserPage> response) {
+        return response.getBody().users();
+    }
+}
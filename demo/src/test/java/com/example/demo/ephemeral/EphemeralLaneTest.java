@@ -0,0 +1,28 @@
+package com.example.demo.ephemeral;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EphemeralLaneTest {
+
+    @Test
+    void coversTheTypingDestinations() {
+        assertTrue(EphemeralLane.isEphemeral("/topic/typing"));
+        assertTrue(EphemeralLane.isEphemeral("/user/queue/typing"));
+        assertTrue(EphemeralLane.isEphemeral("/topic/room.42.typing"));
+    }
+
+    @Test
+    void coversNothingThatOnlyLooksLikeThem() {
+        assertFalse(EphemeralLane.isEphemeral(null));
+        assertFalse(EphemeralLane.isEphemeral("/topic/public"));
+        assertFalse(EphemeralLane.isEphemeral("/topic/room.42"));
+        assertFalse(EphemeralLane.isEphemeral("/topic/room..typing"));
+        assertFalse(EphemeralLane.isEphemeral("/topic/room.news.typing"));
+        assertFalse(EphemeralLane.isEphemeral("/topic/typing.extra"));
+        assertFalse(EphemeralLane.isEphemeral("/queue/typing"));
+        assertFalse(EphemeralLane.isEphemeral("/user/queue/private"));
+    }
+}
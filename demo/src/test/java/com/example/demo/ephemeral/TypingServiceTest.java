@@ -0,0 +1,126 @@
+package com.example.demo.ephemeral;
+
+import com.example.demo.model.ChatMessage;
+import com.example.demo.room.Room;
+import com.example.demo.room.RoomService;
+import com.example.demo.service.OfflineMailboxService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class TypingServiceTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // "destination sender" of everything sent to the broker
+    private final List<String> sent = new ArrayList<>();
+    private final SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> {
+        sent.add(SimpMessageHeaderAccessor.getDestination(message.getHeaders()) + " "
+                + ((ChatMessage) message.getPayload()).getSender());
+        return true;
+    });
+    private final OfflineMailboxService mailboxService = mock(OfflineMailboxService.class);
+    private final RoomService roomService = new RoomService(messagingTemplate, registry);
+
+    @Test
+    void sendsTheFirstEventOfEachSenderAndConversationInAWindow() {
+        TypingService typing = newService(Duration.ofMinutes(1));
+        Room room = roomService.create("general", "alice");
+        sent.clear();
+
+        typing.typing("alice", event(null, null));
+        typing.typing("alice", event(null, null));
+        typing.typing("bob", event(null, null));
+        typing.typing("alice", event(room.id(), null));
+        typing.typing("alice", event(room.id(), null));
+
+        assertEquals(List.of("/topic/typing alice", "/topic/typing bob", "/topic/room." + room.id() + ".typing alice"), sent);
+        assertEquals(3, registry.get("chat.typing.events").tag("result", "sent").counter().count());
+        assertEquals(2, registry.get("chat.typing.events").tag("result", "coalesced").counter().count());
+    }
+
+    @Test
+    void sendsAgainOnceTheWindowHasPassed() throws Exception {
+        TypingService typing = newService(Duration.ofMillis(50));
+
+        typing.typing("alice", event(null, null));
+        Thread.sleep(100);
+        typing.typing("alice", event(null, null));
+
+        assertEquals(List.of("/topic/typing alice", "/topic/typing alice"), sent);
+    }
+
+    @Test
+    void sendsPrivateEventsThroughTheMailboxAsTyping() {
+        TypingService typing = newService(Duration.ofMinutes(1));
+
+        typing.typing("alice", event(null, "bob"));
+        typing.typing("alice", event(null, "bob"));
+        typing.typing("alice", event(null, "carol"));
+
+        verify(mailboxService, times(2)).deliver(any());
+        verify(mailboxService).deliver(argThat(message ->
+                message.getType() == ChatMessage.MessageType.TYPING && "bob".equals(message.getRecipient())
+                        && "alice".equals(message.getSender()) && message.getContent() == null && message.getId() == null));
+        assertEquals(List.of(), sent);
+    }
+
+    @Test
+    void ignoresEventsForARoomTheSenderIsNotIn() {
+        TypingService typing = newService(Duration.ofMinutes(1));
+        Room room = roomService.create("general", "alice");
+        sent.clear();
+
+        typing.typing("mallory", event(room.id(), null));
+        typing.typing("mallory", event("999", null));
+
+        assertEquals(List.of(), sent);
+        verify(mailboxService, never()).deliver(any());
+        assertEquals(0, registry.get("chat.typing.events").tag("result", "sent").counter().count());
+    }
+
+    @Test
+    void carriesNothingButWhoIsTyping() {
+        List<ChatMessage> payloads = new ArrayList<>();
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> {
+            payloads.add((ChatMessage) message.getPayload());
+            return true;
+        });
+        TypingService typing = new TypingService(template, mailboxService, roomService, registry, Duration.ofMinutes(1), 1000);
+        ChatMessage event = event(null, null);
+        event.setContent("what they've typed so far");
+
+        typing.typing("alice", event);
+
+        ChatMessage forwarded = payloads.get(0);
+        assertEquals(ChatMessage.MessageType.TYPING, forwarded.getType());
+        assertEquals("alice", forwarded.getSender());
+        assertNull(forwarded.getContent());
+        assertNull(forwarded.getId());
+    }
+
+    private TypingService newService(Duration window) {
+        return new TypingService(messagingTemplate, mailboxService, roomService, registry, window, 1000);
+    }
+
+    private static ChatMessage event(String room, String recipient) {
+        ChatMessage event = new ChatMessage();
+        event.setType(ChatMessage.MessageType.TYPING);
+        event.setRoom(room);
+        event.setRecipient(recipient);
+        return event;
+    }
+}
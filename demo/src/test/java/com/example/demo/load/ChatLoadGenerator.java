@@ -0,0 +1,418 @@
+package com.example.demo.load;
+
+import com.example.demo.DemoApplication;
+import com.example.demo.dto.AuthRequest;
+import com.example.demo.dto.AuthResponse;
+import com.example.demo.dto.RegisterRequest;
+import com.example.demo.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Soak test: the whole server in this JVM on a random port, driven by N synthetic users.
+ *
+ * Users are registered and logged in through /api/auth, then each opens a STOMP session on /ws (the
+ * plain WebSocket transport, /ws/websocket) and subscribes to /topic/public and /user/queue/private.
+ * One pacing thread sends at a fixed total rate, picking a random user and a message kind by the mix:
+ * public (/app/chat.sendMessage), private to another random user (/app/chat.sendPrivateMessage) or
+ * JOIN (/app/chat.addUser). Sends are scheduled open-loop and each message carries its scheduled send
+ * time, so a stalled sender shows up as latency instead of hiding it.
+ *
+ * Delivery latency is scheduled send to receipt by each subscriber. Every report interval prints
+ * throughput, p50/p99/p999/max latency, heap used and GC activity; the warm-up intervals are printed
+ * but not counted. Heap and GC are the whole JVM's, clients included, so compare runs with each other
+ * rather than with production.
+ *
+ * Options are Spring properties, so server settings can be changed on the same command line
+ * (e.g. --chat.broker.shards=4):
+ *   --load.users=100                    sessions (one per user)
+ *   --load.rate=200                     messages sent per second, all users together
+ *   --load.mix=public=80,private=15,join=5
+ *   --load.duration=60s --load.warmup=10s --load.report-interval=5s
+ *   --load.max-p99=250ms                fail if the overall p99 is higher (not checked by default)
+ *
+ * The run fails (exit status 1) if a message was lost, rate-limited or couldn't be sent, or the p99
+ * gate is exceeded, so it can gate a release. Not a unit test; run it with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.load.ChatLoadGenerator \
+ *       -Dexec.args="--load.users=200 --load.rate=400"
+ */
+public class ChatLoadGenerator {
+
+    private static final String PASSWORD = "load-test-password";
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(10);
+
+    private enum Kind { PUBLIC, PRIVATE, JOIN }
+
+    private final ConfigurableApplicationContext context;
+    private final int users;
+    private final double rate;
+    private final Map<Kind, Integer> mix;
+    private final Duration duration;
+    private final Duration warmup;
+    private final Duration reportInterval;
+    private final Duration maxP99;
+
+    private final List<String> usernames = new ArrayList<>();
+    private final List<StompSession> sessions = new ArrayList<>();
+
+    private final Recorder latencies = new Recorder(3);
+    private final Histogram total = new Histogram(3);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder deliveredInInterval = new LongAdder();
+
+    // Only messages scheduled at or after this count as deliveries; set when the sender starts
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    ChatLoadGenerator(ConfigurableApplicationContext context) {
+        Environment env = context.getEnvironment();
+        this.context = context;
+        this.users = env.getProperty("load.users", Integer.class, 100);
+        this.rate = env.getProperty("load.rate", Double.class, 200.0);
+        this.mix = parseMix(env.getProperty("load.mix", "public=80,private=15,join=5"));
+        this.duration = env.getProperty("load.duration", Duration.class, Duration.ofSeconds(60));
+        this.warmup = env.getProperty("load.warmup", Duration.class, Duration.ofSeconds(10));
+        this.reportInterval = env.getProperty("load.report-interval", Duration.class, Duration.ofSeconds(5));
+        this.maxP99 = env.getProperty("load.max-p99", Duration.class);
+        if (users < 2) {
+            throw new IllegalArgumentException("load.users must be at least 2 (private messages need a recipient)");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dataDir = Files.createTempDirectory("chat-load");
+        // System properties rank above application.properties; command line arguments still win
+        setIfAbsent("server.port", "0");
+        setIfAbsent("chat.history.dir", dataDir.resolve("messages").toString());
+        setIfAbsent("chat.mailbox.dir", dataDir.resolve("mailboxes").toString());
+        setIfAbsent("logging.level.root", "WARN");
+
+        int status;
+        try (ConfigurableApplicationContext context = SpringApplication.run(DemoApplication.class, args)) {
+            status = new ChatLoadGenerator(context).run();
+        } finally {
+            FileSystemUtils.deleteRecursively(dataDir);
+        }
+        System.exit(status);
+    }
+
+    int run() throws Exception {
+        String port = context.getEnvironment().getProperty("local.server.port");
+        System.out.printf("%d users, %.0f msg/s, mix %s, %ss + %ss warm-up%n",
+                users, rate, mix, duration.toSeconds(), warmup.toSeconds());
+
+        long started = System.nanoTime();
+        List<String> tokens = logIn("http://localhost:" + port);
+        System.out.printf("Registered and logged in %d users in %d ms%n", users, millisSince(started));
+
+        started = System.nanoTime();
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter(context.getBean(ObjectMapper.class)));
+        for (int i = 0; i < users; i++) {
+            sessions.add(connect(stompClient, "ws://localhost:" + port + "/ws/websocket", tokens.get(i)));
+        }
+        System.out.printf("Connected %d STOMP sessions in %d ms%n%n", users, millisSince(started));
+
+        Thread sender = Thread.ofPlatform().name("load-sender").start(this::send);
+        report();
+        sender.join();
+        drain();
+        int status = summarize();
+        for (StompSession session : sessions) {
+            if (session.isConnected()) {
+                session.disconnect();
+            }
+        }
+        stompClient.stop();
+        return status;
+    }
+
+    private List<String> logIn(String baseUrl) throws Exception {
+        RestClient http = RestClient.create(baseUrl);
+        // bcrypt dominates: hash on every core
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<String>> tokens = new ArrayList<>(users);
+            for (int i = 0; i < users; i++) {
+                String username = "load" + i;
+                usernames.add(username);
+                tokens.add(executor.submit(() -> {
+                    http.post().uri("/api/auth/register").body(new RegisterRequest(username, PASSWORD))
+                            .retrieve().toBodilessEntity();
+                    return http.post().uri("/api/auth/login").body(new AuthRequest(username, PASSWORD))
+                            .retrieve().body(AuthResponse.class).token();
+                }));
+            }
+            List<String> result = new ArrayList<>(users);
+            for (Future<String> token : tokens) {
+                result.add(token.get());
+            }
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private StompSession connect(WebSocketStompClient stompClient, String url, String token) throws Exception {
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token);
+        StompSession session = stompClient.connectAsync(url, new WebSocketHttpHeaders(), connectHeaders,
+                new StompSessionHandlerAdapter() {
+                    @Override
+                    public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                                byte[] payload, Throwable exception) {
+                        clientError(exception);
+                    }
+
+                    @Override
+                    public void handleTransportError(StompSession session, Throwable exception) {
+                        clientError(exception);
+                    }
+                }).get(10, TimeUnit.SECONDS);
+        StompFrameHandler receiver = new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return ChatMessage.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received((ChatMessage) payload);
+            }
+        };
+        session.subscribe("/topic/public", receiver);
+        session.subscribe("/user/queue/private", receiver);
+        return session;
+    }
+
+    // Only the first one is printed; the rest are counted
+    private void clientError(Throwable exception) {
+        clientErrors.increment();
+        if (clientErrors.sum() == 1) {
+            System.err.println("Client error: " + exception);
+        }
+    }
+
+    // Runs on the sender thread for warm-up + duration
+    private void send() {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long measureStart = start + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        measureFrom = measureStart;
+        int mixTotal = mix.values().stream().mapToInt(Integer::intValue).sum();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (long scheduled = start; scheduled < end; scheduled += interval) {
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int from = random.nextInt(users);
+            Kind kind = pick(random.nextInt(mixTotal));
+            ChatMessage message = new ChatMessage();
+            message.setType(kind == Kind.JOIN ? ChatMessage.MessageType.JOIN : ChatMessage.MessageType.CHAT);
+            message.setContent(Long.toString(scheduled));
+            String destination = switch (kind) {
+                case PUBLIC -> "/app/chat.sendMessage";
+                case JOIN -> "/app/chat.addUser";
+                case PRIVATE -> {
+                    int to = (from + 1 + random.nextInt(users - 1)) % users;
+                    message.setRecipient(usernames.get(to));
+                    yield "/app/chat.sendPrivateMessage";
+                }
+            };
+            try {
+                sessions.get(from).send(destination, message);
+                sent.increment();
+                if (scheduled >= measureStart) {
+                    expected.add(kind == Kind.PRIVATE ? 1 : users);
+                }
+            } catch (RuntimeException e) {
+                sendFailures.increment();
+            }
+        }
+    }
+
+    private Kind pick(int roll) {
+        for (Map.Entry<Kind, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    // Runs on the client's receiving threads
+    private void received(ChatMessage message) {
+        long scheduled;
+        try {
+            scheduled = Long.parseLong(message.getContent());
+        } catch (NumberFormatException | NullPointerException e) {
+            return; // not ours
+        }
+        latencies.recordValue(Math.max(System.nanoTime() - scheduled, 0));
+        deliveredInInterval.increment();
+        if (scheduled >= measureFrom) {
+            delivered.increment();
+        }
+    }
+
+    // Prints one line per interval until the sender is done
+    private void report() {
+        System.out.printf("%8s %-7s %10s %12s %9s %9s %9s %9s %9s %8s %8s%n", "time (s)", "phase", "sent/s",
+                "delivered/s", "p50 (ms)", "p99 (ms)", "p999 (ms)", "max (ms)", "heap (MB)", "gc", "gc (ms)");
+        long start = System.nanoTime();
+        long end = start + warmup.toNanos() + duration.toNanos();
+        long lastSent = 0;
+        long[] lastGc = gc();
+        Histogram interval = null;
+        for (long next = start + reportInterval.toNanos(); next < end + reportInterval.toNanos() / 2;
+             next += reportInterval.toNanos()) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            double seconds = reportInterval.toNanos() / 1e9;
+            long sentNow = sent.sum();
+            long[] gcNow = gc();
+            interval = latencies.getIntervalHistogram(interval);
+            boolean measuring = System.nanoTime() - start > warmup.toNanos() + reportInterval.toNanos() / 2;
+            if (measuring) {
+                total.add(interval);
+            }
+            System.out.printf("%8.0f %-7s %10.0f %12.0f %9.2f %9.2f %9.2f %9.2f %9.1f %8d %8d%n",
+                    (System.nanoTime() - start) / 1e9, measuring ? "measure" : "warm-up",
+                    (sentNow - lastSent) / seconds, deliveredInInterval.sumThenReset() / seconds,
+                    millis(interval, 50), millis(interval, 99), millis(interval, 99.9), interval.getMaxValue() / 1e6,
+                    heapMegabytes(), gcNow[0] - lastGc[0], gcNow[1] - lastGc[1]);
+            lastSent = sentNow;
+            lastGc = gcNow;
+        }
+    }
+
+    // Waits for messages still in flight, then adds their latencies to the total
+    private void drain() {
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (delivered.sum() < expected.sum() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        total.add(latencies.getIntervalHistogram());
+    }
+
+    private int summarize() {
+        long expectedCount = expected.sum();
+        long deliveredCount = delivered.sum();
+        double rejected = context.getBean(MeterRegistry.class).find("chat.ratelimit.rejected").counters().stream()
+                .mapToDouble(Counter::count).sum();
+        long[] gc = gc();
+
+        System.out.printf("%nSent %d messages (%d failed), %d of %d deliveries measured, %.0f deliveries/s%n",
+                sent.sum(), sendFailures.sum(), deliveredCount, expectedCount,
+                deliveredCount / (duration.toNanos() / 1e9));
+        System.out.printf("Latency (ms): p50 %.2f  p99 %.2f  p999 %.2f  max %.2f%n",
+                millis(total, 50), millis(total, 99), millis(total, 99.9), total.getMaxValue() / 1e6);
+        System.out.printf("Heap used %.1f MB, %d GCs taking %d ms in total%n", heapMegabytes(), gc[0], gc[1]);
+
+        List<String> failures = new ArrayList<>();
+        if (deliveredCount < expectedCount) {
+            failures.add((expectedCount - deliveredCount) + " deliveries missing");
+        }
+        if (sendFailures.sum() > 0) {
+            failures.add(sendFailures.sum() + " sends failed");
+        }
+        if (clientErrors.sum() > 0) {
+            failures.add(clientErrors.sum() + " client errors");
+        }
+        if (rejected > 0) {
+            failures.add(String.format("%.0f SENDs rate-limited (lower load.rate or raise chat.rate-limit.limits)", rejected));
+        }
+        if (maxP99 != null && total.getValueAtPercentile(99) > maxP99.toNanos()) {
+            failures.add("p99 over " + maxP99.toMillis() + " ms");
+        }
+        System.out.println(failures.isEmpty() ? "PASS" : "FAIL: " + String.join(", ", failures));
+        return failures.isEmpty() ? 0 : 1;
+    }
+
+    private static Map<Kind, Integer> parseMix(String spec) {
+        Map<Kind, Integer> mix = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] kindAndWeight = entry.trim().split("=");
+            if (kindAndWeight.length != 2) {
+                throw new IllegalArgumentException("Expected kind=weight but got '" + entry.trim() + "'");
+            }
+            int weight = Integer.parseInt(kindAndWeight[1].trim());
+            if (weight > 0) {
+                mix.put(Kind.valueOf(kindAndWeight[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("load.mix has no message kind with a positive weight");
+        }
+        return mix;
+    }
+
+    // {collections, total collection millis} over all collectors
+    private static long[] gc() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(collector.getCollectionCount(), 0);
+            totals[1] += Math.max(collector.getCollectionTime(), 0);
+        }
+        return totals;
+    }
+
+    private static double heapMegabytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1e6;
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static void setIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.demo.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DestinationTimersTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final DestinationTimers timers = new DestinationTimers(registry, "chat.test", "test", 2);
+
+    @Test
+    void keepsOneTimerPerDestination() {
+        timers.get("/app/chat.sendMessage").record(5, TimeUnit.MILLISECONDS);
+        timers.get("/app/chat.sendMessage").record(7, TimeUnit.MILLISECONDS);
+
+        Timer timer = registry.get("chat.test").tag("destination", "/app/chat.sendMessage").timer();
+        assertSame(timer, timers.get("/app/chat.sendMessage"));
+        assertEquals(2, timer.count());
+        assertEquals(12, timer.totalTime(TimeUnit.MILLISECONDS), 0.001);
+    }
+
+    @Test
+    void publishesThePercentiles() {
+        Timer timer = timers.get("/app/chat.sendMessage");
+        timer.record(1, TimeUnit.MILLISECONDS);
+
+        Set<Double> percentiles = Arrays.stream(timer.takeSnapshot().percentileValues())
+                .map(ValueAtPercentile::percentile)
+                .collect(Collectors.toSet());
+        assertEquals(Set.of(0.5, 0.99, 0.999), percentiles);
+    }
+
+    @Test
+    void sendsDestinationsPastTheCapToOther() {
+        timers.get("/app/a");
+        timers.get("/app/b");
+
+        Timer other = registry.get("chat.test").tag("destination", DestinationTimers.OTHER).timer();
+        assertSame(other, timers.get("/app/c"));
+        assertSame(other, timers.get(null));
+        assertNotSame(other, timers.get("/app/a"));
+        // other, /app/a and /app/b
+        assertEquals(3, registry.find("chat.test").timers().size());
+    }
+}
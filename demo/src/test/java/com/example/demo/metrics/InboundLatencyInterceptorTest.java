@@ -0,0 +1,88 @@
+package com.example.demo.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.annotation.support.SimpAnnotationMethodMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.WebSocketHandler;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class InboundLatencyInterceptorTest {
+
+    private static final String DESTINATION = "/app/chat.sendMessage";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final InboundLatencyInterceptor interceptor = new InboundLatencyInterceptor(
+            new StaticListableBeanFactory().getBeanProvider(WebSocketHandler.class), registry, 100);
+    private final ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+    private final MessageHandler annotationHandler = mock(SimpAnnotationMethodMessageHandler.class);
+
+    @Test
+    void timesTheWaitAndTheHandlerPerDestination() throws Exception {
+        Message<byte[]> message = frame(SimpMessageType.MESSAGE, true);
+        Thread.sleep(20); // queued
+
+        interceptor.beforeHandle(message, channel, annotationHandler);
+        Thread.sleep(10); // handling
+        interceptor.afterMessageHandled(message, channel, annotationHandler, null);
+
+        assertEquals(1, timer("chat.inbound.wait").count());
+        assertTrue(timer("chat.inbound.wait").totalTime(TimeUnit.MILLISECONDS) >= 20);
+        assertEquals(1, timer("chat.inbound.handler").count());
+        assertTrue(timer("chat.inbound.handler").totalTime(TimeUnit.MILLISECONDS) >= 10);
+    }
+
+    @Test
+    void timesOnlySendFramesOnTheirWayToAMessageMapping() {
+        Message<byte[]> send = frame(SimpMessageType.MESSAGE, true);
+        Message<byte[]> subscribe = frame(SimpMessageType.SUBSCRIBE, true);
+        MessageHandler broker = mock(MessageHandler.class);
+
+        interceptor.beforeHandle(send, channel, broker);
+        interceptor.afterMessageHandled(send, channel, broker, null);
+        interceptor.beforeHandle(subscribe, channel, annotationHandler);
+        interceptor.afterMessageHandled(subscribe, channel, annotationHandler, null);
+
+        assertNull(registry.find("chat.inbound.wait").tag("destination", DESTINATION).timer());
+        assertNull(registry.find("chat.inbound.handler").tag("destination", DESTINATION).timer());
+    }
+
+    @Test
+    void timesTheHandlerOfAFrameItDidNotStamp() {
+        // e.g. sent by the server to an /app destination rather than decoded from a client
+        Message<byte[]> message = frame(SimpMessageType.MESSAGE, false);
+
+        interceptor.beforeHandle(message, channel, annotationHandler);
+        interceptor.afterMessageHandled(message, channel, annotationHandler, new IllegalStateException());
+
+        assertNull(registry.find("chat.inbound.wait").tag("destination", DESTINATION).timer());
+        assertEquals(1, timer("chat.inbound.handler").count());
+    }
+
+    private Timer timer(String name) {
+        return registry.get(name).tag("destination", DESTINATION).timer();
+    }
+
+    private Message<byte[]> frame(SimpMessageType type, boolean decoded) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        if (decoded) {
+            interceptor.initHeaders(accessor);
+        }
+        accessor.setDestination(DESTINATION);
+        accessor.setSessionId("s1");
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.demo.moderation;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlocklistTest {
+
+    @Test
+    void findsATermAnywhereInTheText() {
+        Blocklist blocklist = Blocklist.compile(List.of("spam", "scam"));
+
+        assertEquals(0, find(blocklist, "spam"));
+        assertEquals(1, find(blocklist, "this is a scam!"));
+        assertEquals(-1, find(blocklist, "spa m"));
+    }
+
+    @Test
+    void followsFailureLinksAcrossPartialMatches() {
+        Blocklist blocklist = Blocklist.compile(List.of("he", "she", "hers", "abx", "bcd"));
+
+        // "abc" dead-ends in the trie; the automaton carries on from "bc"
+        assertEquals(4, find(blocklist, "abcd"));
+        // "sh" then "e": the longer term ending here wins
+        assertEquals(1, find(blocklist, "ushers"));
+        assertEquals(0, find(blocklist, "ahem"));
+    }
+
+    @Test
+    void reportsTheFirstTermToEnd() {
+        Blocklist blocklist = Blocklist.compile(List.of("abcdef", "cd"));
+
+        assertEquals(1, find(blocklist, "abcdef"));
+    }
+
+    @Test
+    void ignoresAsciiCaseOnly() {
+        Blocklist blocklist = Blocklist.compile(List.of("BadWord", "straße"));
+
+        assertEquals(0, find(blocklist, "BADWORD"));
+        assertEquals(0, find(blocklist, "badword"));
+        assertEquals(1, find(blocklist, "Straße"));
+        assertEquals(-1, find(blocklist, "STRASSE"));
+    }
+
+    @Test
+    void matchesMultiByteCharacters() {
+        Blocklist blocklist = Blocklist.compile(List.of("日本", "👎"));
+
+        assertEquals(0, find(blocklist, "こんにちは日本"));
+        assertEquals(1, find(blocklist, "ok 👎"));
+        assertEquals(-1, find(blocklist, "日曜日"));
+    }
+
+    @Test
+    void scansOnlyTheRangeGiven() {
+        Blocklist blocklist = Blocklist.compile(List.of("spam"));
+        byte[] text = "xspamx".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(0, blocklist.find(text, 1, 5));
+        assertEquals(-1, blocklist.find(text, 2, 6));
+        assertEquals(-1, blocklist.find(text, 0, 4));
+    }
+
+    @Test
+    void stepsByteByByteLikeFind() {
+        Blocklist blocklist = Blocklist.compile(List.of("spam"));
+        int state = Blocklist.START;
+        for (byte b : "no spam".getBytes(StandardCharsets.UTF_8)) {
+            state = blocklist.step(state, b);
+        }
+
+        assertEquals(0, blocklist.termAt(state));
+        assertEquals(-1, blocklist.termAt(Blocklist.START));
+    }
+
+    @Test
+    void skipsBlankAndDuplicateTerms() {
+        Blocklist blocklist = Blocklist.compile(Arrays.asList("spam", " ", null, "SPAM", " spam "));
+
+        assertEquals(1, blocklist.size());
+        assertEquals("spam", blocklist.term(0));
+    }
+
+    @Test
+    void emptyListFindsNothing() {
+        assertTrue(Blocklist.EMPTY.isEmpty());
+        assertEquals(1, Blocklist.EMPTY.states());
+        assertEquals(-1, find(Blocklist.EMPTY, "anything"));
+    }
+
+    private static int find(Blocklist blocklist, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return blocklist.find(bytes, 0, bytes.length);
+    }
+}
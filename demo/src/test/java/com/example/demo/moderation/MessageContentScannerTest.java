@@ -0,0 +1,85 @@
+package com.example.demo.moderation;
+
+import com.example.demo.model.ChatMessage;
+import com.example.demo.wire.ChatMessageCodec;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageContentScannerTest {
+
+    private final Blocklist blocklist = Blocklist.compile(List.of("badword", "👎"));
+
+    @Test
+    void findsATermInTheContent() {
+        assertEquals(0, scanJson("{\"type\":\"CHAT\",\"content\":\"what a badword\"}"));
+        assertEquals(0, scanJson("{ \"content\" :\n\"BADWORD\" }"));
+        assertEquals(-1, scanJson("{\"type\":\"CHAT\",\"content\":\"all fine\"}"));
+    }
+
+    @Test
+    void scansNoOtherField() {
+        assertEquals(-1, scanJson("{\"sender\":\"badword\",\"content\":\"fine\",\"room\":\"badword\"}"));
+        assertEquals(-1, scanJson("{\"type\":\"content\",\"x\":\"badword\"}"));
+        assertEquals(-1, scanJson("{\"content\":null,\"x\":\"badword\"}"));
+        assertEquals(-1, scanJson("{\"content\":1,\"x\":\"badword\"}"));
+    }
+
+    @Test
+    void decodesEscapesInTheContent() {
+        assertEquals(0, scanJson("{\"content\":\"\\u0062ad\\u0057ord\"}"));
+        assertEquals(1, scanJson("{\"content\":\"\\ud83d\\udc4e\"}"));
+        assertEquals(0, scanJson("{\"content\":\"say \\\"badword\\\"\"}"));
+    }
+
+    @Test
+    void decodesEscapesInTheKey() {
+        assertEquals(0, scanJson("{\"c\\u006fntent\":\"badword\"}"));
+        assertEquals(-1, scanJson("{\"contents\":\"badword\"}"));
+    }
+
+    @Test
+    void aLoneSurrogateIsNotText() {
+        assertEquals(-1, scanJson("{\"content\":\"\\udc4e\"}"));
+    }
+
+    @Test
+    void scansMalformedJsonAsFarAsItGoes() {
+        assertEquals(0, scanJson("{\"content\":\"badword"));
+        assertEquals(-1, scanJson("{\"content\":\"bad\\"));
+    }
+
+    @Test
+    void findsATermInBinaryContentOnly() {
+        ChatMessage message = new ChatMessage();
+        message.setId(361357482287104L);
+        message.setSender("badword");
+        message.setContent("fine");
+        assertEquals(-1, MessageContentScanner.scanBinary(blocklist, ChatMessageCodec.encode(message)));
+
+        message.setContent("not 👎 fine");
+        assertEquals(1, MessageContentScanner.scanBinary(blocklist, ChatMessageCodec.encode(message)));
+    }
+
+    @Test
+    void acceptsOnlyUtf8Objects() {
+        String json = "{\"content\":\"badword\"}";
+
+        assertTrue(MessageContentScanner.isUtf8Object(json.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(MessageContentScanner.isUtf8Object((" \r\n" + json).getBytes(StandardCharsets.UTF_8)));
+        assertFalse(MessageContentScanner.isUtf8Object(json.getBytes(StandardCharsets.UTF_16LE)));
+        assertFalse(MessageContentScanner.isUtf8Object(json.getBytes(StandardCharsets.UTF_16)));
+        assertFalse(MessageContentScanner.isUtf8Object(("\uFEFF" + json).getBytes(StandardCharsets.UTF_8)));
+        assertFalse(MessageContentScanner.isUtf8Object("[]".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(MessageContentScanner.isUtf8Object(new byte[0]));
+    }
+
+    private int scanJson(String json) {
+        return MessageContentScanner.scanJson(blocklist, json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.demo.ratelimit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void grantsTheBurstAtOnceThenRefuses() {
+        TokenBucket bucket = new TokenBucket(new RateLimit(5, 3));
+        long now = 42 * SECOND;
+
+        assertEquals(0, bucket.tryAcquire(now));
+        assertEquals(0, bucket.tryAcquire(now));
+        assertEquals(0, bucket.tryAcquire(now));
+        assertEquals(SECOND / 5, bucket.tryAcquire(now));
+    }
+
+    @Test
+    void refillsAtTheSustainedRate() {
+        TokenBucket bucket = new TokenBucket(new RateLimit(10, 1));
+        long now = 0;
+
+        assertEquals(0, bucket.tryAcquire(now));
+        assertEquals(SECOND / 10, bucket.tryAcquire(now));
+        assertEquals(SECOND / 20, bucket.tryAcquire(now + SECOND / 20));
+        assertEquals(0, bucket.tryAcquire(now + SECOND / 10));
+    }
+
+    @Test
+    void refusedAttemptsDontUseUpPermits() {
+        TokenBucket bucket = new TokenBucket(new RateLimit(1, 1));
+
+        assertEquals(0, bucket.tryAcquire(0));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(SECOND / 2) > 0);
+        }
+        assertEquals(0, bucket.tryAcquire(SECOND));
+    }
+
+    @Test
+    void idleTimeDoesntSaveUpMoreThanTheBurst() {
+        TokenBucket bucket = new TokenBucket(new RateLimit(1, 2));
+        long later = 3600 * SECOND;
+
+        assertEquals(0, bucket.tryAcquire(later));
+        assertEquals(0, bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later) > 0);
+    }
+
+    @Test
+    void worksWithNegativeNanoTime() {
+        TokenBucket bucket = new TokenBucket(new RateLimit(1, 1));
+
+        assertEquals(0, bucket.tryAcquire(-5 * SECOND));
+        assertEquals(SECOND, bucket.tryAcquire(-5 * SECOND));
+    }
+
+    @Test
+    void isIdleOnlyOnceFullForTheGivenTime() {
+        TokenBucket bucket = new TokenBucket(new RateLimit(1, 1));
+        assertTrue(bucket.idleSince(0, SECOND));
+
+        bucket.tryAcquire(0);
+        assertFalse(bucket.idleSince(SECOND, SECOND));
+        assertTrue(bucket.idleSince(2 * SECOND, SECOND));
+    }
+
+    @Test
+    void parsesDestinationsWithRatesAndBursts() {
+        Map<String, RateLimit> limits = RateLimit.parse(" /app/a=5:20, /app/b=2.5 ,,");
+
+        assertEquals(2, limits.size());
+        assertEquals(new RateLimit(5, 20), limits.get("/app/a"));
+        assertEquals(new RateLimit(2.5, 1), limits.get("/app/b"));
+        assertEquals(400_000_000L, limits.get("/app/b").emissionIntervalNanos());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"/app/a", "=5:1", "/app/a=fast", "/app/a=5:x", "/app/a=0:1", "/app/a=5:0"})
+    void rejectsMalformedLimits(String spec) {
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse(spec));
+    }
+}
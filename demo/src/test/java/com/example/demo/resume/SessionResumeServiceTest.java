@@ -0,0 +1,211 @@
+package com.example.demo.resume;
+
+import com.example.demo.cluster.ClusterBus;
+import com.example.demo.dto.SessionInfo;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.revocation.TokenId;
+import com.example.demo.room.Room;
+import com.example.demo.room.RoomService;
+import com.example.demo.service.VerifiedToken;
+import com.example.demo.store.MessageStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionResumeServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RoomService roomService = new RoomService(new SimpMessagingTemplate((message, timeout) -> true), registry);
+    private MessageStore messageStore;
+    private SessionResumeService service;
+
+    @BeforeEach
+    void open() throws IOException {
+        // The replay ring keeps the last 6 messages
+        messageStore = new MessageStore(new ObjectMapper(), directory, DataSize.ofMegabytes(1), Duration.ofMillis(10), 1024, 6,
+                registry, new StaticListableBeanFactory().getBeanProvider(ClusterBus.class));
+        messageStore.open();
+        service = new SessionResumeService(messageStore, roomService, registry, Duration.ofMillis(100), 500);
+    }
+
+    @AfterEach
+    void close() throws InterruptedException {
+        messageStore.close();
+    }
+
+    @Test
+    void resumesOnceAndHandsTheNewSessionAFreshToken() {
+        Authentication bob = user("bob");
+        VerifiedToken jwt = jwt("bob", 60_000);
+        service.issue("s1", bob, jwt);
+        String first = token("s1");
+
+        SessionResumeService.Resumed resumed = service.resume(first, "s2");
+
+        assertNotNull(resumed);
+        assertSame(bob, resumed.user());
+        assertSame(jwt, resumed.token());
+        assertNull(service.resume(first, "s3"));
+        String second = token("s2");
+        assertNotEquals(first, second);
+        assertNotNull(service.resume(second, "s4"));
+        assertEquals(2, registry.get("chat.resume").tag("result", "resumed").counter().count());
+        assertEquals(1, registry.get("chat.resume").tag("result", "rejected").counter().count());
+    }
+
+    @Test
+    void keepsATokenForTheResumeWindowAfterItsSessionEnds() throws Exception {
+        service.issue("s1", user("bob"), jwt("bob", 60_000));
+        service.issue("s2", user("bob"), jwt("bob", 60_000));
+        String soon = token("s1");
+        String late = token("s2");
+        disconnect("s1");
+        disconnect("s2");
+
+        assertNotNull(service.resume(soon, "s3"));
+        Thread.sleep(200);
+        assertNull(service.resume(late, "s4"));
+    }
+
+    @Test
+    void keepsATokenWhileItsSessionIsConnected() throws Exception {
+        service.issue("s1", user("bob"), jwt("bob", 60_000));
+
+        Thread.sleep(200); // longer than the window
+
+        assertNotNull(service.resume(token("s1"), "s2"));
+    }
+
+    @Test
+    void neverOutlivesTheJwtItCameFrom() throws Exception {
+        service.issue("s1", user("bob"), jwt("bob", 50));
+
+        Thread.sleep(100);
+
+        assertNull(service.resume(token("s1"), "s2"));
+    }
+
+    @Test
+    void dropsTheTokensOfARevokedJwtOrUser() {
+        VerifiedToken revoked = jwt("bob", 60_000);
+        service.issue("s1", user("bob"), revoked);
+        service.issue("s2", user("bob"), jwt("bob", 60_000));
+        service.issue("s3", user("alice"), jwt("alice", 60_000));
+
+        service.revokeToken(revoked.id());
+        assertNull(service.resume(token("s1"), "s4"));
+        service.revokeUser("bob");
+        assertNull(service.resume(token("s2"), "s5"));
+
+        assertNotNull(service.resume(token("s3"), "s6"));
+    }
+
+    @Test
+    void replaysWhatTheUserMissedAndMayRead() {
+        Room room = roomService.create("general", "bob");
+        Room other = roomService.create("other", "carol");
+        service.issue("s1", user("bob"), jwt("bob", 60_000));
+        long lastSeen = messageStore.append(publicMessage("seen")).getId();
+
+        messageStore.append(publicMessage("public"));
+        messageStore.append(roomMessage(room.id(), "in my room"));
+        messageStore.append(roomMessage(other.id(), "in another room"));
+        messageStore.append(privateMessage("bob", "carol", "sent from my other tab"));
+        messageStore.append(privateMessage("carol", "bob", "in my mailbox"));
+
+        SessionInfo info = service.sessionInfo("s1", "bob", true, lastSeen);
+
+        assertEquals(List.of("public", "in my room", "sent from my other tab"),
+                info.missed().stream().map(ChatMessage::getContent).toList());
+        assertTrue(info.complete());
+        assertTrue(info.resumed());
+        assertEquals(token("s1"), info.resumeToken());
+    }
+
+    @Test
+    void saysSoWhenTheGapIsOlderThanTheRing() {
+        service.issue("s1", user("bob"), jwt("bob", 60_000));
+        long lastSeen = messageStore.append(publicMessage("seen")).getId();
+        for (int i = 1; i <= 7; i++) {
+            messageStore.append(publicMessage("m" + i));
+        }
+
+        SessionInfo info = service.sessionInfo("s1", "bob", true, lastSeen);
+
+        assertFalse(info.complete());
+        assertEquals(List.of("m2", "m3", "m4", "m5", "m6", "m7"), info.missed().stream().map(ChatMessage::getContent).toList());
+    }
+
+    private String token(String sessionId) {
+        return service.sessionInfo(sessionId, "bob", false, null).resumeToken();
+    }
+
+    private void disconnect(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        accessor.setSessionId(sessionId);
+        service.onDisconnect(new SessionDisconnectEvent(this, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()),
+                sessionId, CloseStatus.NORMAL));
+    }
+
+    private static Authentication user(String username) {
+        return UsernamePasswordAuthenticationToken.authenticated(username, null, AuthorityUtils.createAuthorityList("ROLE_USER"));
+    }
+
+    private static VerifiedToken jwt(String username, long validMillis) {
+        long now = System.currentTimeMillis();
+        return new VerifiedToken(username, new Date(now + validMillis), now, TokenId.random(new SecureRandom()));
+    }
+
+    private static ChatMessage publicMessage(String content) {
+        ChatMessage message = new ChatMessage();
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSender("carol");
+        message.setContent(content);
+        return message;
+    }
+
+    private static ChatMessage roomMessage(String room, String content) {
+        ChatMessage message = publicMessage(content);
+        message.setRoom(room);
+        return message;
+    }
+
+    private static ChatMessage privateMessage(String sender, String recipient, String content) {
+        ChatMessage message = publicMessage(content);
+        message.setSender(sender);
+        message.setRecipient(recipient);
+        return message;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.demo.revocation;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RevocationSetTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    void emptySetRevokesNothing() {
+        assertFalse(RevocationSet.EMPTY.isRevoked(new TokenId(1, 2), "alice", 0));
+        assertFalse(RevocationSet.EMPTY.isRevoked(null, null, 0));
+        assertEquals(0, RevocationSet.EMPTY.tokens());
+        assertEquals(0, RevocationSet.EMPTY.users());
+    }
+
+    @Test
+    void revokesExactlyTheListedTokens() {
+        Map<TokenId, Boolean> revoked = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            revoked.put(new TokenId(random.nextLong(), random.nextLong()), true);
+        }
+        RevocationSet set = RevocationSet.build(revoked, Map.of());
+
+        assertEquals(1000, set.tokens());
+        for (TokenId id : revoked.keySet()) {
+            assertTrue(set.isRevoked(id, "alice", 0), id::toString);
+        }
+        // Whatever the filter says, the exact set has the last word
+        for (int i = 0; i < 100_000; i++) {
+            TokenId other = new TokenId(random.nextLong(), random.nextLong());
+            assertEquals(revoked.containsKey(other), set.isRevoked(other, "alice", 0));
+        }
+    }
+
+    @Test
+    void tellsTokenIdsApartByBothHalves() {
+        RevocationSet set = RevocationSet.build(Map.of(new TokenId(7, 8), true), Map.of());
+
+        assertTrue(set.isRevoked(new TokenId(7, 8), null, 0));
+        assertFalse(set.isRevoked(new TokenId(7, 9), null, 0));
+        assertFalse(set.isRevoked(new TokenId(8, 8), null, 0));
+    }
+
+    @Test
+    void revokesAUsersTokensIssuedUpToTheRevocation() {
+        RevocationSet set = RevocationSet.build(Map.of(), Map.of("alice", 5_000L, "bob", 9_000L));
+
+        assertEquals(2, set.users());
+        assertTrue(set.isRevoked(null, "alice", 4_999));
+        assertTrue(set.isRevoked(new TokenId(1, 1), "alice", 5_000));
+        assertFalse(set.isRevoked(new TokenId(1, 1), "alice", 5_001));
+        assertTrue(set.isRevoked(null, "bob", 9_000));
+        assertFalse(set.isRevoked(null, "carol", 0));
+        assertFalse(set.isRevoked(null, null, 0));
+    }
+
+    @Test
+    void sizesTheFilterAtTenToTwentyBitsPerEntry() {
+        Map<TokenId, Boolean> revoked = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            revoked.put(new TokenId(random.nextLong(), random.nextLong()), true);
+        }
+        int bits = RevocationSet.build(revoked, Map.of()).filterBits();
+
+        assertEquals(1, Integer.bitCount(bits));
+        assertTrue(bits >= 10 * 1000 && bits <= 20 * 1000, () -> bits + " bits");
+    }
+
+    @Test
+    void writesAndParsesTokenIds() {
+        TokenId id = TokenId.random(new SecureRandom());
+        String text = id.toString();
+
+        assertEquals(22, text.length());
+        assertEquals(id, TokenId.parse(text));
+        assertEquals(new TokenId(-1, Long.MIN_VALUE), TokenId.parse(new TokenId(-1, Long.MIN_VALUE).toString()));
+    }
+
+    @Test
+    void parsesOnlyTokenIds() {
+        assertNull(TokenId.parse(null));
+        assertNull(TokenId.parse("too-short"));
+        assertNull(TokenId.parse("not*base64url*at*all!!"));
+        assertNull(TokenId.parse(new TokenId(1, 2) + "A"));
+    }
+}
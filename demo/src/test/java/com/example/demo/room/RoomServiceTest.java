@@ -0,0 +1,123 @@
+package com.example.demo.room;
+
+import com.example.demo.model.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoomServiceTest {
+
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final RoomService roomService = new RoomService(new SimpMessagingTemplate((message, timeout) -> {
+        sent.add(message);
+        return true;
+    }), new SimpleMeterRegistry());
+
+    @Test
+    void makesTheOwnerTheFirstMember() {
+        Room room = roomService.create("  general ", "alice");
+
+        assertEquals("general", room.name());
+        assertEquals(List.of("alice"), roomService.members(room.id()));
+        assertEquals(List.of(room), roomService.roomsOf("alice"));
+        assertEquals(List.of(RoomService.topicOf(room.id()) + " JOIN alice"), announcements());
+    }
+
+    @Test
+    void refusesBadNames() {
+        assertThrows(IllegalArgumentException.class, () -> roomService.create("  ", "alice"));
+        assertThrows(IllegalArgumentException.class, () -> roomService.create(null, "alice"));
+        assertThrows(IllegalArgumentException.class, () -> roomService.create("x".repeat(101), "alice"));
+        assertEquals(List.of(), roomService.list());
+    }
+
+    @Test
+    void announcesJoinsAndLeavesOnce() {
+        Room room = roomService.create("general", "alice");
+        sent.clear();
+
+        assertTrue(roomService.join(room.id(), "bob"));
+        assertTrue(roomService.join(room.id(), "bob"));
+        assertEquals(List.of("alice", "bob"), roomService.members(room.id()));
+        assertTrue(roomService.leave(room.id(), "bob"));
+        assertTrue(roomService.leave(room.id(), "bob"));
+
+        String topic = RoomService.topicOf(room.id());
+        assertEquals(List.of(topic + " JOIN bob", topic + " LEAVE bob"), announcements());
+        assertFalse(roomService.isMember(room.id(), "bob"));
+        assertFalse(roomService.join("nope", "bob"));
+        assertFalse(roomService.leave("nope", "bob"));
+    }
+
+    @Test
+    void listsRoomsOldestFirst() {
+        Room first = roomService.create("first", "alice");
+        Room second = roomService.create("second", "bob");
+        roomService.join(first.id(), "bob");
+
+        assertEquals(List.of(first, second), roomService.list());
+        assertEquals(List.of(first, second), roomService.roomsOf("bob"));
+        assertEquals(List.of(), roomService.roomsOf("carol"));
+    }
+
+    @Test
+    void letsOnlyMembersSubscribe() {
+        Room room = roomService.create("general", "alice");
+
+        assertTrue(roomService.subscribe("s1", "sub-1", room.id(), "alice"));
+        assertFalse(roomService.subscribe("s2", "sub-1", room.id(), "bob"));
+        assertFalse(roomService.subscribe("s1", "sub-2", "nope", "alice"));
+    }
+
+    @Test
+    void endsTheSubscriptionsOfAUserWhoLeaves() {
+        Room room = roomService.create("general", "alice");
+        Room other = roomService.create("other", "alice");
+        roomService.subscribe("s1", "sub-1", room.id(), "alice");
+        roomService.subscribe("s1", "sub-2", other.id(), "alice");
+        roomService.subscribe("s2", "sub-1", room.id(), "alice");
+        roomService.subscribe("s3", "sub-1", room.id(), "alice");
+        roomService.unsubscribe("s2", "sub-1", "alice");
+        roomService.disconnect("s3", "alice");
+        sent.clear();
+
+        roomService.leave(room.id(), "alice");
+
+        List<String> unsubscribes = sent.stream()
+                .filter(message -> SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.UNSUBSCRIBE)
+                .map(message -> SimpMessageHeaderAccessor.getSessionId(message.getHeaders()) + " "
+                        + SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders()))
+                .toList();
+        assertEquals(List.of("s1 sub-1"), unsubscribes);
+        assertFalse(roomService.subscribe("s1", "sub-3", room.id(), "alice"));
+    }
+
+    @Test
+    void findsTheRoomOfItsTopics() {
+        assertEquals("42", RoomService.roomOf(RoomService.topicOf("42")));
+        assertEquals("42", RoomService.roomOf(RoomService.typingTopicOf("42")));
+        assertNull(RoomService.roomOf("/topic/public"));
+        assertNull(RoomService.roomOf(null));
+    }
+
+    // "destination type sender" of every ChatMessage sent
+    private List<String> announcements() {
+        return sent.stream()
+                .filter(message -> message.getPayload() instanceof ChatMessage)
+                .map(message -> SimpMessageHeaderAccessor.getDestination(message.getHeaders()) + " "
+                        + ((ChatMessage) message.getPayload()).getType() + " " + ((ChatMessage) message.getPayload()).getSender())
+                .toList();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.demo.room;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RoomSubscriptionInterceptorTest {
+
+    // UNSUBSCRIBEs sent by RoomService.leave()
+    private final List<Message<?>> unsubscribes = new ArrayList<>();
+    private final RoomService roomService = new RoomService(new SimpMessagingTemplate((message, timeout) -> {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.UNSUBSCRIBE) {
+            unsubscribes.add(message);
+        }
+        return true;
+    }), new SimpleMeterRegistry());
+    private final RoomSubscriptionInterceptor interceptor = new RoomSubscriptionInterceptor(roomService);
+    private final ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel();
+
+    @Test
+    void letsMembersSubscribeToTheRoomAndItsTypingEvents() {
+        Room room = roomService.create("general", "alice");
+
+        assertPassed(subscribe("alice", RoomService.topicOf(room.id())));
+        assertPassed(subscribe("alice", RoomService.typingTopicOf(room.id())));
+        assertPassed(subscribe("bob", "/topic/public"));
+    }
+
+    @Test
+    void dropsSubscriptionsOfNonMembersAndAnonymousSessions() {
+        Room room = roomService.create("general", "alice");
+
+        assertNull(interceptor.preSend(subscribe("bob", RoomService.topicOf(room.id())), channel));
+        assertNull(interceptor.preSend(subscribe("bob", RoomService.typingTopicOf(room.id())), channel));
+        assertNull(interceptor.preSend(subscribe(null, RoomService.topicOf(room.id())), channel));
+    }
+
+    @Test
+    void dropsPatternSubscriptionsUnderTopic() {
+        assertNull(interceptor.preSend(subscribe("alice", "/topic/**"), channel));
+        assertNull(interceptor.preSend(subscribe("alice", "/topic/room.*"), channel));
+    }
+
+    @Test
+    void tellsTheRoomServiceAboutSubscriptions() {
+        Room room = roomService.create("general", "alice");
+        assertPassed(subscribe("alice", RoomService.topicOf(room.id())));
+
+        roomService.leave(room.id(), "alice");
+
+        assertEquals(1, unsubscribes.size());
+        assertEquals("sub-1", SimpMessageHeaderAccessor.getSubscriptionId(unsubscribes.get(0).getHeaders()));
+    }
+
+    @Test
+    void forgetsSubscriptionsAsTheyEnd() {
+        Room room = roomService.create("general", "alice");
+        assertPassed(subscribe("alice", RoomService.topicOf(room.id())));
+        assertPassed(frame(StompCommand.UNSUBSCRIBE, "alice", null));
+
+        roomService.leave(room.id(), "alice");
+
+        assertEquals(List.of(), unsubscribes);
+    }
+
+    private void assertPassed(Message<byte[]> message) {
+        assertSame(message, interceptor.preSend(message, channel));
+    }
+
+    private static Message<byte[]> subscribe(String username, String destination) {
+        return frame(StompCommand.SUBSCRIBE, username, destination);
+    }
+
+    private static Message<byte[]> frame(StompCommand command, String username, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId("s1");
+        accessor.setSubscriptionId("sub-1");
+        accessor.setDestination(destination);
+        if (username != null) {
+            accessor.setUser((Principal) () -> username);
+        }
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
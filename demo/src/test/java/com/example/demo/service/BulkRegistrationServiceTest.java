@@ -0,0 +1,159 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.RegisterRequest;
+import com.example.demo.dto.RegistrationResult;
+import com.example.demo.dto.RegistrationResult.Status;
+import com.example.demo.dto.UserDto;
+import com.example.demo.model.User;
+import com.example.demo.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkRegistrationServiceTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+    private final CachingUserDetailsService userDetailsService = mock(CachingUserDetailsService.class);
+    private final UserDirectory userDirectory = new UserDirectory(mock(UserRepository.class));
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // Usernames of every saveAll() call, in order
+    private final List<List<String>> inserts = new ArrayList<>();
+    private final AtomicLong ids = new AtomicLong();
+    private BulkRegistrationService service;
+
+    @AfterEach
+    void stop() {
+        service.stop();
+    }
+
+    @Test
+    void reportsEveryUserInRequestOrder() {
+        service = newService(1000, 2, 1);
+        when(userRepository.findExistingUsernames(anyCollection())).thenReturn(Set.of("bob"));
+
+        List<RegistrationResult> results = service.register(Arrays.asList(
+                request("alice"), request("bob"), request("alice"), new RegisterRequest(" ", "secret"), null,
+                request("carol")));
+
+        assertEquals(List.of(Status.CREATED, Status.DUPLICATE, Status.DUPLICATE, Status.INVALID, Status.INVALID, Status.CREATED),
+                results.stream().map(RegistrationResult::status).toList());
+        assertEquals("Username is already taken", results.get(1).message());
+        assertEquals("Listed more than once in this request", results.get(2).message());
+        assertNotNull(results.get(0).id());
+        // One existence query and one insert for the whole request
+        verify(userRepository, times(1)).findExistingUsernames(anyCollection());
+        assertEquals(List.of(List.of("alice", "carol")), inserts);
+        verify(passwordEncoder, times(2)).encode(anyString());
+        verify(userDetailsService).evict("alice");
+        assertEquals(2, userDirectory.size());
+        assertEquals(2, registry.get("chat.registration.bulk.users").tag("status", "created").counter().count());
+        assertEquals(2, registry.get("chat.registration.bulk.users").tag("status", "duplicate").counter().count());
+    }
+
+    @Test
+    void retriesWithoutANameThatWasRegisteredMeanwhile() {
+        service = newService(1000, 2, 1);
+        when(userRepository.findExistingUsernames(anyCollection())).thenReturn(Set.of(), Set.of("carol"));
+        doAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            inserts.add(users.stream().map(User::getUsername).toList());
+            if (inserts.size() == 1) {
+                users.forEach(user -> user.setId(ids.incrementAndGet())); // as if flushed before the violation
+                throw new DataIntegrityViolationException("unique constraint");
+            }
+            users.forEach(user -> user.setId(ids.incrementAndGet()));
+            return users;
+        }).when(userRepository).saveAll(any());
+
+        List<RegistrationResult> results = service.register(List.of(request("alice"), request("carol")));
+
+        assertEquals(List.of(Status.CREATED, Status.DUPLICATE), results.stream().map(RegistrationResult::status).toList());
+        assertEquals(List.of(List.of("alice", "carol"), List.of("alice")), inserts);
+        assertEquals(3L, results.get(0).id());
+        assertEquals(List.of("alice"), userDirectory.page("", null, 10, null).users().stream().map(UserDto::username).toList());
+    }
+
+    @Test
+    void hashesThePasswordsOnSeveralThreads() {
+        service = newService(1000, 4, 1);
+        when(userRepository.findExistingUsernames(anyCollection())).thenReturn(Set.of());
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        doAnswer(invocation -> {
+            threads.add(Thread.currentThread().getName());
+            return "{hashed}" + invocation.getArgument(0);
+        }).when(passwordEncoder).encode(anyString());
+
+        List<RegistrationResult> results = service.register(IntStream.range(0, 40).mapToObj(i -> request("user" + i)).toList());
+
+        assertEquals(40, results.stream().filter(result -> result.status() == Status.CREATED).count());
+        assertEquals(4, threads.size());
+        threads.forEach(name -> assertEquals("bulk-register-", name.substring(0, name.length() - 1)));
+    }
+
+    @Test
+    void refusesTooManyUsersAndTooManyRequestsAtOnce() throws Exception {
+        service = newService(3, 2, 1);
+        assertThrows(IllegalArgumentException.class,
+                () -> service.register(List.of(request("a"), request("b"), request("c"), request("d"))));
+
+        CountDownLatch checking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userRepository.findExistingUsernames(anyCollection())).thenAnswer(invocation -> {
+            checking.countDown();
+            release.await();
+            return Set.of();
+        });
+        CompletableFuture<List<RegistrationResult>> first = CompletableFuture.supplyAsync(() -> service.register(List.of(request("a"))));
+        checking.await(5, TimeUnit.SECONDS);
+
+        assertThrows(RejectedExecutionException.class, () -> service.register(List.of(request("b"))));
+        release.countDown();
+        assertEquals(Status.CREATED, first.get(5, TimeUnit.SECONDS).get(0).status());
+        assertEquals(Status.CREATED, service.register(List.of(request("b"))).get(0).status());
+    }
+
+    private BulkRegistrationService newService(int maxBatchSize, int threads, int maxConcurrent) {
+        when(passwordEncoder.encode(anyString())).thenAnswer(invocation -> "{hashed}" + invocation.getArgument(0));
+        when(userRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            inserts.add(users.stream().map(User::getUsername).toList());
+            users.forEach(user -> user.setId(ids.incrementAndGet()));
+            return users;
+        });
+        return new BulkRegistrationService(userRepository, passwordEncoder, userDetailsService, userDirectory,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), registry, maxBatchSize, threads, maxConcurrent);
+    }
+
+    private static RegisterRequest request(String username) {
+        return new RegisterRequest(username, "secret");
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.demo.service;
+
+import com.example.demo.model.User;
+import com.example.demo.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.CredentialsContainer;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingUserDetailsServiceTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final CachingUserDetailsService service =
+            new CachingUserDetailsService(userRepository, 100, Duration.ofMinutes(10), Set.of("root"));
+
+    @Test
+    void loadsEachUserFromTheDatabaseOnce() {
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user("alice")));
+
+        service.loadUserByUsername("alice");
+        service.loadUserByUsername("alice");
+
+        verify(userRepository, times(1)).findByUsername("alice");
+        assertEquals(1, service.stats().hitCount());
+        assertEquals(1, service.stats().missCount());
+    }
+
+    @Test
+    void loadsOnceWhenManyMissAtTheSameTime() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        when(userRepository.findByUsername("alice")).thenAnswer(invocation -> {
+            loading.await();
+            return Optional.of(user("alice"));
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<UserDetails>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> service.loadUserByUsername("alice")));
+        }
+        Thread.sleep(50);
+        loading.countDown();
+        for (Future<UserDetails> future : futures) {
+            assertEquals("alice", future.get().getUsername());
+        }
+        executor.shutdown();
+
+        verify(userRepository, times(1)).findByUsername("alice");
+    }
+
+    @Test
+    void findsAUserRegisteredAfterAMissOnceEvicted() {
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.empty());
+        assertThrows(UsernameNotFoundException.class, () -> service.loadUserByUsername("alice"));
+
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user("alice")));
+        service.evict("alice");
+
+        assertEquals("alice", service.loadUserByUsername("alice").getUsername());
+    }
+
+    @Test
+    void handsOutACopyWhosePasswordCanBeErased() {
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user("alice")));
+
+        ((CredentialsContainer) service.loadUserByUsername("alice")).eraseCredentials();
+
+        assertEquals("{noop}secret", service.loadUserByUsername("alice").getPassword());
+    }
+
+    @Test
+    void grantsAdminOnlyToTheConfiguredUsers() {
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user("alice")));
+        when(userRepository.findByUsername("root")).thenReturn(Optional.of(user("root")));
+
+        assertEquals(Set.of("ROLE_USER"), roles(service.loadUserByUsername("alice")));
+        assertEquals(Set.of("ROLE_USER", "ROLE_ADMIN"), roles(service.loadUserByUsername("root")));
+    }
+
+    private static Set<String> roles(UserDetails user) {
+        return Set.copyOf(user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
+    }
+
+    private static User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("{noop}secret");
+        return user;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.demo.service;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtServiceTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final JwtService jwtService = new JwtService(100, registry);
+
+    @Test
+    void verifiesATokenItIssued() {
+        long before = System.currentTimeMillis();
+        VerifiedToken verified = jwtService.verifyToken(jwtService.generateToken("alice"));
+
+        assertNotNull(verified);
+        assertEquals("alice", verified.username());
+        assertNotNull(verified.id());
+        assertTrue(verified.issuedAt() >= before / 1000 * 1000);
+        assertTrue(verified.expiration().getTime() >= before + JwtService.EXPIRATION_MS - 1000);
+    }
+
+    @Test
+    void checksTheSignatureOnlyOnce() {
+        String token = jwtService.generateToken("alice");
+
+        VerifiedToken first = jwtService.verifyToken(token);
+        VerifiedToken second = jwtService.verifyToken(token);
+
+        assertSame(first, second);
+        assertEquals(1, verifyCount("verified"));
+        assertEquals(1, verifyCount("cached"));
+    }
+
+    @Test
+    void rejectsATamperedToken() {
+        String token = jwtService.generateToken("alice");
+        String[] parts = token.split("\\.");
+        String forged = parts[0] + "." + Jwts.builder().setSubject("mallory").compact().split("\\.")[1] + "." + parts[2];
+
+        assertNull(jwtService.verifyToken(forged));
+        assertNull(jwtService.verifyToken(token.substring(0, token.length() - 2)));
+        assertEquals(2, verifyCount("rejected"));
+    }
+
+    @Test
+    void rejectsATokenSignedWithAnotherKey() {
+        String token = Jwts.builder()
+                .setSubject("alice")
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(Keys.secretKeyFor(SignatureAlgorithm.HS256))
+                .compact();
+
+        assertNull(jwtService.verifyToken(token));
+    }
+
+    @Test
+    void rejectsExpiredTokensAndTokensWithoutSubjectOrExpiry() {
+        long now = System.currentTimeMillis();
+
+        assertNull(jwtService.verifyToken(signed("alice", new Date(now - 1000))));
+        assertNull(jwtService.verifyToken(signed(null, new Date(now + 60_000))));
+        assertNull(jwtService.verifyToken(signed("alice", null)));
+        assertNull(jwtService.verifyToken("not a token"));
+        assertNull(jwtService.verifyToken(""));
+    }
+
+    @Test
+    void validatesAgainstTheUser() {
+        String token = jwtService.generateToken("alice");
+
+        assertTrue(jwtService.validateToken(token, User.withUsername("alice").password("x").build()));
+        assertFalse(jwtService.validateToken(token, User.withUsername("bob").password("x").build()));
+    }
+
+    private static String signed(String subject, Date expiration) {
+        return Jwts.builder()
+                .setSubject(subject)
+                .setExpiration(expiration)
+                .signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(JwtService.SECRET)), SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    private long verifyCount(String result) {
+        return registry.get("chat.jwt.verify").tag("result", result).timer().count();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LoginServiceTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AuthenticationManager authenticationManager = mock(AuthenticationManager.class);
+    private final JwtService jwtService = new JwtService(100, registry);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private LoginService loginService;
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        loginService.stop();
+    }
+
+    @Test
+    void issuesATokenForTheUserTheManagerAuthenticated() throws Exception {
+        loginService = new LoginService(authenticationManager, jwtService, registry, 2, 8, Duration.ofSeconds(3));
+        when(authenticationManager.authenticate(any())).thenReturn(
+                UsernamePasswordAuthenticationToken.authenticated("alice", null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+
+        String token = loginService.login("alice", "secret").get(5, TimeUnit.SECONDS);
+
+        assertEquals("alice", jwtService.verifyToken(token).username());
+        verify(authenticationManager, times(1)).authenticate(any());
+        assertEquals(1, registry.get("chat.login").tag("result", "success").timer().count());
+        assertEquals(1, registry.get("chat.login.queue.wait").timer().count());
+    }
+
+    @Test
+    void failsWithTheManagersExceptionForBadCredentials() {
+        loginService = new LoginService(authenticationManager, jwtService, registry, 2, 8, Duration.ofSeconds(3));
+        when(authenticationManager.authenticate(any())).thenThrow(new BadCredentialsException("Bad credentials"));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> loginService.login("alice", "wrong").get(5, TimeUnit.SECONDS));
+
+        assertInstanceOf(BadCredentialsException.class, e.getCause());
+        assertEquals(1, registry.get("chat.login").tag("result", "failure").timer().count());
+    }
+
+    @Test
+    void rejectsRightAwayWhenTheQueueIsFull() throws Exception {
+        loginService = new LoginService(authenticationManager, jwtService, registry, 1, 1, Duration.ofSeconds(3));
+        blockLogins();
+
+        CompletableFuture<String> running = loginService.login("a", "x");
+        CompletableFuture<String> queued = loginService.login("b", "x");
+        CompletableFuture<String> rejected = loginService.login("c", "x");
+
+        assertTrue(rejected.isCompletedExceptionally());
+        assertRejected(rejected);
+        assertEquals(1, registry.get("chat.login").tag("result", "rejected").timer().count());
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void rejectsALoginThatWaitedLongerThanMaxWait() throws Exception {
+        loginService = new LoginService(authenticationManager, jwtService, registry, 1, 4, Duration.ofMillis(50));
+        blockLogins();
+
+        CompletableFuture<String> running = loginService.login("a", "x");
+        CompletableFuture<String> stale = loginService.login("b", "x");
+        Thread.sleep(100);
+        release.countDown();
+
+        running.get(5, TimeUnit.SECONDS);
+        assertRejected(stale);
+        verify(authenticationManager, times(1)).authenticate(any());
+    }
+
+    // Logins wait in the manager until release is counted down
+    private void blockLogins() {
+        when(authenticationManager.authenticate(any())).thenAnswer(invocation -> {
+            release.await();
+            return UsernamePasswordAuthenticationToken.authenticated("alice", null, AuthorityUtils.createAuthorityList("ROLE_USER"));
+        });
+    }
+
+    private static void assertRejected(CompletableFuture<String> login) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> login.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.demo.service;
+
+import com.example.demo.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MailboxTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsTheFirstMessagesOnTheHeapAndSpillsTheRest() throws IOException {
+        Mailbox mailbox = mailbox(3);
+
+        for (int i = 1; i <= 3; i++) {
+            assertFalse(mailbox.add(message("m" + i)));
+        }
+        assertTrue(mailbox.add(message("m4")));
+        assertEquals(4, mailbox.size());
+        assertEquals(1, chunkFiles());
+    }
+
+    @Test
+    void drainsOldestFirstAcrossChunks() throws IOException {
+        Mailbox mailbox = mailbox(3);
+        for (int i = 1; i <= 10; i++) {
+            mailbox.add(message("m" + i));
+        }
+        assertEquals(3, chunkFiles()); // 4-6, 7-9, 10
+
+        assertEquals(contents(1, 10), drain(mailbox, 4));
+        assertTrue(mailbox.isEmpty());
+        assertEquals(0, chunkFiles());
+    }
+
+    @Test
+    void keepsTheOrderWhenAddingWhileDraining() throws IOException {
+        Mailbox mailbox = mailbox(2);
+        for (int i = 1; i <= 5; i++) {
+            mailbox.add(message("m" + i));
+        }
+        List<String> drained = new ArrayList<>(contents(mailbox.takeBatch(3)));
+        for (int i = 6; i <= 8; i++) {
+            mailbox.add(message("m" + i));
+        }
+        drained.addAll(drain(mailbox, 3));
+
+        assertEquals(contents(1, 8), drained);
+    }
+
+    @Test
+    void putsRequeuedMessagesBackInFront() throws IOException {
+        Mailbox mailbox = mailbox(2);
+        for (int i = 1; i <= 6; i++) {
+            mailbox.add(message("m" + i));
+        }
+        List<ChatMessage> batch = mailbox.takeBatch(2);
+        mailbox.add(message("m7"));
+
+        mailbox.requeueFront(batch);
+
+        assertEquals(7, mailbox.size());
+        assertEquals(contents(1, 7), drain(mailbox, 3));
+    }
+
+    @Test
+    void picksUpChunksLeftOnDisk() throws IOException {
+        Mailbox before = mailbox(2);
+        for (int i = 1; i <= 7; i++) {
+            before.add(message("m" + i));
+        }
+        // Only the spilled part survives a restart
+        Mailbox after = mailbox(2);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path chunk : files.sorted().toList()) {
+                String name = chunk.getFileName().toString();
+                after.adoptChunk(chunk, Long.parseLong(name.substring(name.lastIndexOf('-') + 1, name.indexOf('.'))));
+            }
+        }
+        after.add(message("m8"));
+
+        assertEquals(6, after.size());
+        assertEquals(contents(3, 8), drain(after, 4));
+    }
+
+    private Mailbox mailbox(int memoryLimit) {
+        return new Mailbox("bob", directory, "Ym9i", memoryLimit, new ObjectMapper());
+    }
+
+    private long chunkFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static List<String> drain(Mailbox mailbox, int batchSize) throws IOException {
+        List<String> drained = new ArrayList<>();
+        for (List<ChatMessage> batch = mailbox.takeBatch(batchSize); !batch.isEmpty(); batch = mailbox.takeBatch(batchSize)) {
+            drained.addAll(contents(batch));
+        }
+        return drained;
+    }
+
+    private static List<String> contents(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getContent).toList();
+    }
+
+    private static List<String> contents(int from, int to) {
+        return IntStream.rangeClosed(from, to).mapToObj(i -> "m" + i).toList();
+    }
+
+    private static ChatMessage message(String content) {
+        ChatMessage message = new ChatMessage();
+        message.setSender("alice");
+        message.setRecipient("bob");
+        message.setContent(content);
+        return message;
+    }
+}
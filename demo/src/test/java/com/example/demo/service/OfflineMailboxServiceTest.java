@@ -0,0 +1,224 @@
+package com.example.demo.service;
+
+import com.example.demo.cluster.ClusterRelay;
+import com.example.demo.ephemeral.EphemeralLane;
+import com.example.demo.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpSubscription;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OfflineMailboxServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final ClusterRelay relay = mock(ClusterRelay.class);
+    private final SimpUserRegistry userRegistry = mock(SimpUserRegistry.class);
+    private final CachingUserDetailsService userDetailsService = mock(CachingUserDetailsService.class);
+    private final List<String> forwarded = new CopyOnWriteArrayList<>();
+    // "destination content" of everything sent to a local user
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private OfflineMailboxService service;
+
+    @AfterEach
+    void close() {
+        service.close();
+    }
+
+    @Test
+    void keepsTheOrderWhenAForwardFailsHalfwayThroughABatch() throws Exception {
+        // Batches of 4, three messages on the heap and the rest spilled to disk
+        service = newService(3, 4);
+        for (int i = 1; i <= 10; i++) {
+            service.deliver(message("m" + i));
+        }
+        assertEquals(10, service.pendingFor("bob"));
+
+        // The seventh forward (the third of the second batch) doesn't go through
+        AtomicInteger calls = new AtomicInteger();
+        when(relay.isConnectedElsewhere("bob")).thenReturn(true);
+        when(relay.forwardToUser(eq("bob"), any())).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 7) {
+                return false;
+            }
+            forwarded.add(invocation.<ChatMessage>getArgument(1).getContent());
+            return true;
+        });
+        service.onUserReachable("bob");
+
+        await(() -> forwarded.size() == 10);
+        assertEquals(IntStream.rangeClosed(1, 10).mapToObj(i -> "m" + i).toList(), forwarded);
+        await(() -> service.pendingFor("bob") == 0);
+    }
+
+    @Test
+    void keepsWhatWasLeftWhenTheUserIsGoneEverywhere() throws Exception {
+        service = newService(100, 100);
+        for (int i = 1; i <= 5; i++) {
+            service.deliver(message("m" + i));
+        }
+        // They disconnect from the other node while the second message is on its way
+        AtomicInteger calls = new AtomicInteger();
+        when(relay.isConnectedElsewhere("bob")).thenReturn(true);
+        when(relay.forwardToUser(eq("bob"), any())).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 2) {
+                when(relay.isConnectedElsewhere("bob")).thenReturn(false);
+                return false;
+            }
+            forwarded.add(invocation.<ChatMessage>getArgument(1).getContent());
+            return true;
+        });
+        service.onUserReachable("bob");
+
+        await(() -> service.pendingFor("bob") == 4);
+        Thread.sleep(50); // the retry finds them gone and stops
+        assertEquals(4, service.pendingFor("bob"));
+        assertEquals(List.of("m1"), forwarded);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void drainsToTheUserInOrderOnceTheySubscribe() throws Exception {
+        service = newService(3, 4);
+        for (int i = 1; i <= 10; i++) {
+            service.deliver(message("m" + i));
+        }
+        assertEquals(List.of(), sent);
+
+        listening("bob");
+        service.onPrivateQueueSubscribed("bob");
+
+        await(() -> sent.size() == 10);
+        assertEquals(IntStream.rangeClosed(1, 10).mapToObj(i -> "/user/bob/queue/private m" + i).toList(), sent);
+        await(() -> service.pendingFor("bob") == 0);
+    }
+
+    @Test
+    void sendsStraightToAListeningUserWithNothingWaiting() {
+        service = newService(100, 100);
+        listening("bob");
+
+        service.deliver(message("hi"));
+
+        assertEquals(List.of("/user/bob/queue/private hi"), sent);
+        assertEquals(0, service.pendingFor("bob"));
+    }
+
+    @Test
+    void dropsMessagesForUnknownUsersAndForFullMailboxes() {
+        service = newService(2, 5, 100);
+        when(userDetailsService.loadUserByUsername("nobody")).thenThrow(new UsernameNotFoundException("nobody"));
+
+        ChatMessage stray = message("hello?");
+        stray.setRecipient("nobody");
+        service.deliver(stray);
+        for (int i = 1; i <= 8; i++) {
+            service.deliver(message("m" + i));
+        }
+
+        assertEquals(0, service.pendingFor("nobody"));
+        assertEquals(5, service.pendingFor("bob"));
+    }
+
+    @Test
+    void neverKeepsTypingEvents() {
+        service = newService(100, 100);
+        ChatMessage typing = message(null);
+        typing.setType(ChatMessage.MessageType.TYPING);
+
+        service.deliverLocally(typing);
+
+        assertEquals(0, service.pendingFor("bob"));
+        assertEquals(List.of("/user/bob" + EphemeralLane.TYPING_QUEUE + " null"), sent);
+    }
+
+    @Test
+    void picksUpSpilledMessagesAfterARestart() throws Exception {
+        service = newService(2, 100);
+        for (int i = 1; i <= 5; i++) {
+            service.deliver(message("m" + i));
+        }
+        service.close();
+
+        // What was on the heap is gone; what was spilled comes back
+        service = newService(2, 100);
+        service.open();
+        assertEquals(3, service.pendingFor("bob"));
+        listening("bob");
+        service.onPrivateQueueSubscribed("bob");
+
+        await(() -> sent.size() == 3);
+        assertEquals(List.of("/user/bob/queue/private m3", "/user/bob/queue/private m4", "/user/bob/queue/private m5"), sent);
+    }
+
+    private OfflineMailboxService newService(int memoryThreshold, int drainBatchSize) {
+        return newService(memoryThreshold, 10_000, drainBatchSize);
+    }
+
+    private OfflineMailboxService newService(int memoryThreshold, int maxSize, int drainBatchSize) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("clusterRelay", relay);
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> {
+            sent.add(SimpMessageHeaderAccessor.getDestination(message.getHeaders()) + " "
+                    + ((ChatMessage) message.getPayload()).getContent());
+            return true;
+        });
+        return new OfflineMailboxService(messagingTemplate, userRegistry, userDetailsService,
+                new ObjectMapper(), beans.getBeanProvider(ClusterRelay.class), new SimpleMeterRegistry(),
+                directory, memoryThreshold, maxSize, drainBatchSize, Duration.ofMillis(10));
+    }
+
+    // Until this is called nobody is listening here, so everything goes through the mailbox
+    private void listening(String username) {
+        SimpSubscription subscription = mock(SimpSubscription.class);
+        when(subscription.getDestination()).thenReturn("/user" + OfflineMailboxService.PRIVATE_QUEUE);
+        SimpSession session = mock(SimpSession.class);
+        when(session.getSubscriptions()).thenReturn(Set.of(subscription));
+        SimpUser user = mock(SimpUser.class);
+        when(user.getSessions()).thenReturn(Set.of(session));
+        when(userRegistry.getUser(username)).thenReturn(user);
+    }
+
+    private static ChatMessage message(String content) {
+        ChatMessage message = new ChatMessage();
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSender("alice");
+        message.setRecipient("bob");
+        message.setContent(content);
+        return message;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
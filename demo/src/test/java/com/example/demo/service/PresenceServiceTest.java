@@ -0,0 +1,151 @@
+package com.example.demo.service;
+
+import com.example.demo.cluster.ClusterBus;
+import com.example.demo.cluster.UserLocationRegistry;
+import com.example.demo.dto.PresenceDelta;
+import com.example.demo.dto.PresenceSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresenceServiceTest {
+
+    private final List<PresenceDelta> deltas = new ArrayList<>();
+
+    @Test
+    void publishesEveryoneWhoJoinedInOneInterval() {
+        PresenceService presence = newService(1000);
+        connect(presence, "s1", "alice");
+        connect(presence, "s2", "bob");
+        connect(presence, "s3", "carol");
+        assertEquals(List.of(), deltas);
+
+        presence.flush();
+
+        assertEquals(1, deltas.size());
+        assertEquals(Set.of("alice", "bob", "carol"), Set.copyOf(deltas.get(0).joined()));
+        assertEquals(List.of(), deltas.get(0).left());
+        assertEquals(1, deltas.get(0).version());
+        assertNull(deltas.get(0).node());
+    }
+
+    @Test
+    void saysNothingAboutAUserWhoReconnectsWithinAnInterval() {
+        PresenceService presence = newService(1000);
+        connect(presence, "s1", "alice");
+        presence.flush();
+        deltas.clear();
+
+        disconnect(presence, "s1", "alice");
+        connect(presence, "s2", "alice");
+        presence.flush();
+
+        assertEquals(List.of(), deltas);
+        assertTrue(presence.isOnline("alice"));
+        assertEquals(1, presence.snapshot().version());
+    }
+
+    @Test
+    void keepsAUserOnlineUntilTheirLastSessionCloses() {
+        PresenceService presence = newService(1000);
+        connect(presence, "s1", "alice");
+        connect(presence, "s2", "alice");
+        assertTrue(presence.hasOtherSessions("alice"));
+        presence.flush();
+        deltas.clear();
+
+        disconnect(presence, "s1", "alice");
+        disconnect(presence, "s1", "alice"); // published again for the same session
+        presence.flush();
+        assertEquals(List.of(), deltas);
+        assertEquals(1, presence.sessionCount("alice"));
+
+        disconnect(presence, "s2", "alice");
+        presence.flush();
+        assertEquals(1, deltas.size());
+        assertEquals(List.of("alice"), deltas.get(0).left());
+        assertFalse(presence.isOnline("alice"));
+    }
+
+    @Test
+    void splitsLargeChangesIntoNumberedBatches() {
+        PresenceService presence = newService(2);
+        for (int i = 1; i <= 5; i++) {
+            connect(presence, "s" + i, "user" + i);
+        }
+
+        presence.flush();
+
+        assertEquals(List.of(2, 2, 1), deltas.stream().map(delta -> delta.joined().size()).toList());
+        assertEquals(List.of(1L, 2L, 3L), deltas.stream().map(PresenceDelta::version).toList());
+        PresenceSnapshot snapshot = presence.snapshot();
+        assertEquals(3, snapshot.version());
+        assertEquals(List.of("user1", "user2", "user3", "user4", "user5"), snapshot.online());
+    }
+
+    @Test
+    void publishesJoinsBeforeLeaves() {
+        PresenceService presence = newService(1000);
+        connect(presence, "s1", "alice");
+        presence.flush();
+        deltas.clear();
+
+        disconnect(presence, "s1", "alice");
+        connect(presence, "s2", "bob");
+        presence.flush();
+
+        assertEquals(2, deltas.size());
+        assertEquals(List.of("bob"), deltas.get(0).joined());
+        assertEquals(List.of("alice"), deltas.get(1).left());
+        assertEquals(List.of("bob"), presence.snapshot().online());
+    }
+
+    // Not started: the tests flush by hand
+    private PresenceService newService(int maxBatchSize) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> {
+            deltas.add((PresenceDelta) message.getPayload());
+            return true;
+        });
+        return new PresenceService(messagingTemplate, new SimpleMeterRegistry(), Duration.ofMinutes(1), maxBatchSize,
+                beans.getBeanProvider(ClusterBus.class), beans.getBeanProvider(UserLocationRegistry.class));
+    }
+
+    private static void connect(PresenceService presence, String sessionId, String username) {
+        presence.onConnected(new SessionConnectedEvent(presence, frame(SimpMessageType.CONNECT_ACK, sessionId), user(username)));
+    }
+
+    private static void disconnect(PresenceService presence, String sessionId, String username) {
+        presence.onDisconnect(new SessionDisconnectEvent(presence, frame(SimpMessageType.DISCONNECT, sessionId),
+                sessionId, CloseStatus.NORMAL, user(username)));
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Principal user(String username) {
+        return () -> username;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.demo.service;
+
+import com.example.demo.dto.UserDto;
+import com.example.demo.dto.UserPage;
+import com.example.demo.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserDirectoryTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final UserDirectory directory = new UserDirectory(userRepository);
+
+    @Test
+    void loadsTheUsersInKeysetPages() {
+        List<UserDto> all = IntStream.range(0, 2500).mapToObj(i -> new UserDto((long) i, String.format("user%04d", i))).toList();
+        when(userRepository.findDirectoryPage(eq(""), any())).thenReturn(all.subList(0, 1000));
+        when(userRepository.findDirectoryPage(eq("user0999"), any())).thenReturn(all.subList(1000, 2000));
+        when(userRepository.findDirectoryPage(eq("user1999"), any())).thenReturn(all.subList(2000, 2500));
+
+        directory.load();
+
+        assertEquals(2500, directory.size());
+        verify(userRepository, times(3)).findDirectoryPage(any(), eq(Limit.of(1000)));
+        assertEquals(List.of(new UserDto(2499L, "user2499")), directory.page("user2499", null, 10, null).users());
+    }
+
+    @Test
+    void walksThePagesWithTheCursor() {
+        add("dave", "alice", "carol", "bob", "erin");
+
+        UserPage first = directory.page("", null, 2, null);
+        UserPage second = directory.page("", first.nextCursor(), 2, null);
+        UserPage third = directory.page("", second.nextCursor(), 2, null);
+
+        assertEquals(List.of("alice", "bob"), names(first));
+        assertEquals(List.of("carol", "dave"), names(second));
+        assertEquals(List.of("erin"), names(third));
+        assertEquals("bob", first.nextCursor());
+        assertNull(third.nextCursor());
+    }
+
+    @Test
+    void searchesByPrefix() {
+        add("al", "alice", "alicia", "allan", "bob", "ali");
+
+        assertEquals(List.of("ali", "alice", "alicia"), names(directory.page("ali", null, 10, null)));
+        assertEquals(List.of("alicia"), names(directory.page("ali", "alice", 10, null)));
+        // A cursor before the prefix starts at the prefix; one past it ends the search
+        assertEquals(List.of("ali", "alice", "alicia"), names(directory.page("ali", "aaa", 10, null)));
+        assertEquals(List.of(), names(directory.page("ali", "b", 10, null)));
+        assertEquals(List.of(), names(directory.page("zed", null, 10, null)));
+    }
+
+    @Test
+    void leavesOutTheUserAsking() {
+        add("alice", "bob", "carol");
+
+        UserPage page = directory.page("", null, 2, "bob");
+
+        assertEquals(List.of("alice", "carol"), names(page));
+        assertNull(page.nextCursor());
+    }
+
+    @Test
+    void changesTheEtagWhenSomeoneRegisters() {
+        add("alice");
+        String before = directory.etag();
+        assertEquals(before, directory.etag());
+
+        directory.add(99L, "bob");
+
+        assertNotEquals(before, directory.etag());
+        assertEquals(List.of("alice", "bob"), names(directory.page("", null, 10, null)));
+    }
+
+    private void add(String... usernames) {
+        for (int i = 0; i < usernames.length; i++) {
+            directory.add((long) i, usernames[i]);
+        }
+    }
+
+    private static List<String> names(UserPage page) {
+        return page.users().stream().map(UserDto::username).toList();
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.demo.store;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConversationIndexTest {
+
+    @Test
+    void keepsEntriesInOrderPastTheInitialCapacity() {
+        ConversationIndex index = new ConversationIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add(1000 + 10L * i, index.nextSeq(), 64L * i);
+        }
+
+        assertEquals(100, index.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1000 + 10L * i, index.idAt(i));
+            assertEquals(i + 1, index.seqAt(i));
+            assertEquals(64L * i, index.positionAt(i));
+        }
+    }
+
+    @Test
+    void countsIdsBelowOne() {
+        ConversationIndex index = indexWithIds(10, 20, 30);
+
+        assertEquals(0, index.countBefore(5, index.size()));
+        assertEquals(0, index.countBefore(10, index.size()));
+        assertEquals(1, index.countBefore(11, index.size()));
+        assertEquals(2, index.countBefore(30, index.size()));
+        assertEquals(3, index.countBefore(Long.MAX_VALUE, index.size()));
+    }
+
+    @Test
+    void countsOnlyUpToTheLimitGiven() {
+        ConversationIndex index = indexWithIds(10, 20, 30);
+
+        assertEquals(2, index.countBefore(Long.MAX_VALUE, 2));
+        assertEquals(0, index.countBefore(Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    void countsSequenceNumbersBelowOne() {
+        ConversationIndex index = indexWithIds(10, 20, 30);
+
+        assertEquals(0, index.countBeforeSeq(1, index.size()));
+        assertEquals(2, index.countBeforeSeq(3, index.size()));
+        assertEquals(3, index.countBeforeSeq(4, index.size()));
+    }
+
+    @Test
+    void handsOutSequenceNumbersWithoutGaps() {
+        ConversationIndex index = new ConversationIndex();
+
+        assertEquals(1, index.nextSeq());
+        assertEquals(2, index.nextSeq());
+        assertEquals(3, index.nextSeq());
+    }
+
+    @Test
+    void emptyIndexHasNothingBeforeAnything() {
+        ConversationIndex index = new ConversationIndex();
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.countBefore(Long.MAX_VALUE, 0));
+        assertEquals(0, index.countBeforeSeq(Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    void reusesAReleasedSequenceNumber() {
+        ConversationIndex index = indexWithIds(10, 20);
+
+        assertEquals(3, index.nextSeq());
+        index.releaseSeq();
+        assertEquals(3, index.nextSeq());
+        assertEquals(4, index.nextSeq());
+    }
+
+    private static ConversationIndex indexWithIds(long... ids) {
+        ConversationIndex index = new ConversationIndex();
+        for (long id : ids) {
+            index.add(id, index.nextSeq(), 0);
+        }
+        return index;
+    }
+}
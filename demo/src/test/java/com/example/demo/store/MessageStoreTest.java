@@ -0,0 +1,299 @@
+package com.example.demo.store;
+
+import com.example.demo.cluster.ClusterBus;
+import com.example.demo.cluster.TcpClusterBus;
+import com.example.demo.dto.MissingMessages;
+import com.example.demo.model.ChatMessage;
+import com.example.demo.store.MessageStore.SeqRange;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageStoreTest {
+
+    private static final String DM = MessageStore.privateConversation("alice", "bob");
+
+    @TempDir
+    Path directory;
+
+    @TempDir
+    Path otherDirectory;
+
+    private MessageStore store;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new MessageStore(new ObjectMapper(), directory, DataSize.ofMegabytes(1), Duration.ofMillis(10), 65536, 100,
+                new SimpleMeterRegistry(), clusterBus());
+        store.open();
+    }
+
+    @AfterEach
+    void close() throws InterruptedException {
+        store.close();
+    }
+
+    @Test
+    void numbersEachConversationFromOne() {
+        assertEquals(1, store.append(publicMessage("a")).getSeq());
+        assertEquals(1, store.append(privateMessage("alice", "bob", "b")).getSeq());
+        assertEquals(2, store.append(publicMessage("c")).getSeq());
+        // Either side of a pair continues the same sequence
+        assertEquals(2, store.append(privateMessage("bob", "alice", "d")).getSeq());
+        assertEquals(1, store.append(roomMessage("7", "e")).getSeq());
+    }
+
+    @Test
+    void stampsAnIdAndTimestamp() {
+        ChatMessage first = store.append(publicMessage("a"));
+        ChatMessage second = store.append(publicMessage("b"));
+
+        assertTrue(second.getId() > first.getId());
+        assertEquals(MessageIdGenerator.timestampOf(first.getId()), first.getTimestamp());
+    }
+
+    @Test
+    void namesTheNodeThatNumberedTheMessageInACluster() {
+        // Not started, it only names the node
+        ClusterBus bus = new TcpClusterBus("node-a:9100", List.of(), "secret", 16, 16, Duration.ofSeconds(1), new SimpleMeterRegistry());
+        MessageStore clustered = new MessageStore(new ObjectMapper(), otherDirectory, DataSize.ofMegabytes(1),
+                Duration.ofMillis(10), 16, 100, new SimpleMeterRegistry(), clusterBus(bus));
+
+        assertEquals("node-a:9100", clustered.node());
+        assertEquals("node-a:9100", clustered.append(publicMessage("a")).getNode());
+        assertNull(store.node());
+        assertNull(store.append(publicMessage("b")).getNode());
+    }
+
+    @Test
+    void findsMissingRangesOldestFirstWithoutRepeats() throws Exception {
+        appendPublic(10);
+        restart(); // everything written
+
+        MissingMessages missing = store.missing(MessageStore.PUBLIC_CONVERSATION,
+                List.of(new SeqRange(9, 10), new SeqRange(2, 3), new SeqRange(3, 4)), 500);
+
+        assertEquals(List.of(2L, 3L, 4L, 9L, 10L), seqs(missing));
+        assertEquals(List.of("m2", "m3", "m4", "m9", "m10"), missing.messages().stream().map(ChatMessage::getContent).toList());
+        assertEquals(10, missing.latestSeq());
+        assertTrue(missing.complete());
+    }
+
+    @Test
+    void catchesUpFromAnOpenRange() throws Exception {
+        appendPublic(10);
+        restart();
+
+        MissingMessages missing = store.missing(MessageStore.PUBLIC_CONVERSATION, List.of(new SeqRange(8, Long.MAX_VALUE)), 500);
+
+        assertEquals(List.of(8L, 9L, 10L), seqs(missing));
+        assertTrue(missing.complete());
+    }
+
+    @Test
+    void stopsAtTheLimit() throws Exception {
+        appendPublic(10);
+        restart();
+
+        MissingMessages missing = store.missing(MessageStore.PUBLIC_CONVERSATION, List.of(new SeqRange(1, Long.MAX_VALUE)), 3);
+
+        assertEquals(List.of(1L, 2L, 3L), seqs(missing));
+        assertEquals(10, missing.latestSeq());
+        assertFalse(missing.complete());
+    }
+
+    @Test
+    void saysHowFarTheHistoryGoes() throws Exception {
+        appendPublic(3);
+        restart();
+
+        MissingMessages beyond = store.missing(MessageStore.PUBLIC_CONVERSATION, List.of(new SeqRange(4, 9)), 500);
+        MissingMessages unknown = store.missing(DM, List.of(new SeqRange(1, 9)), 500);
+
+        assertEquals(List.of(), beyond.messages());
+        assertEquals(3, beyond.latestSeq());
+        assertTrue(beyond.complete());
+        assertEquals(List.of(), unknown.messages());
+        assertEquals(0, unknown.latestSeq());
+        assertTrue(unknown.complete());
+    }
+
+    @Test
+    void renumbersFromTheLogOnRecoveryAndGoesOn() throws Exception {
+        appendPublic(3);
+        store.append(privateMessage("alice", "bob", "x"));
+        store.append(privateMessage("bob", "alice", "y"));
+        restart();
+
+        assertEquals(List.of(1L, 2L, 3L),
+                seqs(store.missing(MessageStore.PUBLIC_CONVERSATION, List.of(new SeqRange(1, Long.MAX_VALUE)), 500)));
+        assertEquals(List.of("x", "y"), store.missing(DM, List.of(new SeqRange(1, 2)), 500)
+                .messages().stream().map(ChatMessage::getContent).toList());
+        assertEquals(4, store.append(publicMessage("m4")).getSeq());
+        assertEquals(3, store.append(privateMessage("alice", "bob", "z")).getSeq());
+    }
+
+    @Test
+    void keepsIdsIncreasingAcrossRestarts() throws Exception {
+        long before = store.append(publicMessage("a")).getId();
+        restart();
+
+        assertTrue(store.append(publicMessage("b")).getId() > before);
+    }
+
+    @Test
+    void numbersConversationsAppendedToConcurrently() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String room = Integer.toString(t % 2);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    store.append(roomMessage(room, "m"));
+                    store.append(publicMessage("m"));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        restart();
+
+        for (String conversation : List.of(MessageStore.roomConversation("0"), MessageStore.PUBLIC_CONVERSATION)) {
+            List<ChatMessage> messages = store.missing(conversation, List.of(new SeqRange(1, Long.MAX_VALUE)), 10_000).messages();
+            int expected = conversation.equals(MessageStore.PUBLIC_CONVERSATION) ? threads * perThread : threads / 2 * perThread;
+            assertEquals(expected, messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                assertEquals(i + 1, messages.get(i).getSeq());
+                if (i > 0) {
+                    assertTrue(messages.get(i).getId() > messages.get(i - 1).getId());
+                }
+            }
+        }
+    }
+
+    @Test
+    void replaysRecentMessagesInIdOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String room = Integer.toString(t);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    store.append(roomMessage(room, "m"));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        List<ChatMessage> replayed = store.replay(0, message -> true, 1000).messages();
+        assertEquals(100, replayed.size()); // the 100 newest
+        for (int i = 1; i < replayed.size(); i++) {
+            assertTrue(replayed.get(i).getId() > replayed.get(i - 1).getId());
+        }
+    }
+
+    @Test
+    void keepsTheNumberOfAMessageThatCouldntBeLogged() throws Exception {
+        store.append(publicMessage("m1"));
+        store.append(publicMessage("x".repeat(2 * 1024 * 1024))); // doesn't fit in a 1 MB segment
+        store.append(publicMessage("m3"));
+        restart();
+
+        MissingMessages missing = store.missing(MessageStore.PUBLIC_CONVERSATION, List.of(new SeqRange(1, Long.MAX_VALUE)), 500);
+        assertEquals(List.of(1L, 3L), seqs(missing));
+        assertEquals(3, missing.latestSeq());
+        assertTrue(missing.complete());
+        assertEquals(List.of("m3", "m1"), store.page(MessageStore.PUBLIC_CONVERSATION, null, 10)
+                .messages().stream().map(ChatMessage::getContent).toList());
+        assertEquals(4, store.append(publicMessage("m4")).getSeq());
+    }
+
+    @Test
+    void dropsAndCountsWhatTheWriterHasNoRoomFor() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Never opened, so nothing drains the two queue slots
+        MessageStore stalled = new MessageStore(new ObjectMapper(), otherDirectory, DataSize.ofMegabytes(1),
+                Duration.ofMillis(10), 2, 100, registry, clusterBus());
+        stalled.append(publicMessage("a"));
+        stalled.append(roomMessage("7", "b"));
+
+        ChatMessage refused = publicMessage("c");
+        assertNull(stalled.append(refused));
+        assertNull(refused.getId());
+        assertNull(refused.getSeq());
+        assertNull(stalled.append(roomMessage("7", "d")));
+        assertEquals(2, registry.counter("chat.history.rejected").count());
+        assertEquals(2, stalled.replay(0, message -> true, 10).messages().size());
+    }
+
+    private void restart() throws Exception {
+        close();
+        open();
+    }
+
+    private void appendPublic(int count) {
+        for (int i = 1; i <= count; i++) {
+            store.append(publicMessage("m" + i));
+        }
+    }
+
+    private static ObjectProvider<ClusterBus> clusterBus(ClusterBus... bus) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        for (ClusterBus b : bus) {
+            beans.addBean("clusterBus", b);
+        }
+        return beans.getBeanProvider(ClusterBus.class);
+    }
+
+    private static List<Long> seqs(MissingMessages missing) {
+        return missing.messages().stream().map(ChatMessage::getSeq).toList();
+    }
+
+    private static ChatMessage publicMessage(String content) {
+        ChatMessage message = new ChatMessage();
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSender("alice");
+        message.setContent(content);
+        return message;
+    }
+
+    private static ChatMessage privateMessage(String sender, String recipient, String content) {
+        ChatMessage message = publicMessage(content);
+        message.setSender(sender);
+        message.setRecipient(recipient);
+        return message;
+    }
+
+    private static ChatMessage roomMessage(String room, String content) {
+        ChatMessage message = publicMessage(content);
+        message.setRoom(room);
+        return message;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.demo.websocket;
+
+import com.example.demo.ephemeral.EphemeralLane;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BoundedSendSessionTest {
+
+    // Every test frame is this many bytes, so limits can be given in frames
+    private static final int FRAME = message("sub-a", "m0").getPayloadLength();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final WebSocketSession delegate = mock(WebSocketSession.class);
+    // "subscription body" of every MESSAGE frame written to the socket, "CONNECTED" for that frame
+    private final List<String> written = new CopyOnWriteArrayList<>();
+    // The writer tasks; they only run when the test says so, as if the client weren't reading
+    private final List<Runnable> writerTasks = new ArrayList<>();
+
+    @BeforeEach
+    void recordWrites() throws Exception {
+        when(delegate.getId()).thenReturn("s1");
+        doAnswer(invocation -> {
+            written.add(describe(invocation.getArgument(0)));
+            return null;
+        }).when(delegate).sendMessage(any());
+    }
+
+    @Test
+    void dropsTheOldestMessagesButNeverOtherFrames() throws Exception {
+        TextMessage connected = new TextMessage("CONNECTED\nversion:1.2\n\n\0");
+        // Room for the CONNECTED frame and three messages
+        BoundedSendSession session = newSession(connected.getPayloadLength() + 3 * FRAME, OverflowPolicy.DROP_OLDEST);
+        session.sendMessage(connected);
+        for (int i = 1; i <= 5; i++) {
+            session.sendMessage(message("sub-a", "m" + i));
+        }
+
+        runWriter();
+
+        assertEquals(List.of("CONNECTED", "sub-a m3", "sub-a m4", "sub-a m5"), written);
+        assertEquals(2, dropped("drop_oldest"));
+        verify(delegate, never()).close(any());
+    }
+
+    @Test
+    void keepsTheLatestMessageOfEachSubscriptionWhenCoalescing() throws Exception {
+        BoundedSendSession session = newSession(3 * FRAME, OverflowPolicy.COALESCE);
+        session.sendMessage(message("sub-a", "a1"));
+        session.sendMessage(message("sub-b", "b1"));
+        session.sendMessage(message("sub-a", "a2"));
+        session.sendMessage(message("sub-a", "a3"));
+        session.sendMessage(message("sub-c", "c1"));
+
+        runWriter();
+
+        assertEquals(List.of("sub-b b1", "sub-a a3", "sub-c c1"), written);
+        assertEquals(2, dropped("coalesce"));
+    }
+
+    @Test
+    void closesTheSessionInsteadWhenSetToDisconnect() throws Exception {
+        BoundedSendSession session = newSession(3 * FRAME, OverflowPolicy.DISCONNECT);
+        for (int i = 1; i <= 4; i++) {
+            session.sendMessage(message("sub-a", "m" + i));
+        }
+        session.sendMessage(message("sub-a", "m5")); // ignored once closing
+
+        runWriter();
+
+        verify(delegate).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(1, registry.get("chat.websocket.outbound.disconnected").counter().count());
+        // What was queued is thrown away rather than written to a session that's going
+        assertEquals(List.of(), written);
+        assertEquals(0, session.queuedMessages());
+        assertEquals(0, registry.get("chat.websocket.outbound.queued.bytes").gauge().value());
+    }
+
+    @Test
+    void dropsTypingEventsFirstAndStopsQueueingThemWhenBehind() throws Exception {
+        BoundedSendSession session = newSession(3 * FRAME, FRAME, OverflowPolicy.DROP_OLDEST);
+        session.sendMessage(typing("t1"));
+        session.sendMessage(typing("t2")); // a frame's worth already waiting
+        session.sendMessage(message("sub-a", "m1"));
+        session.sendMessage(message("sub-a", "m2"));
+        session.sendMessage(message("sub-a", "m3")); // over the limit: t1 goes, not m1
+
+        runWriter();
+
+        assertEquals(List.of("sub-a m1", "sub-a m2", "sub-a m3"), written);
+        assertEquals(2, dropped("ephemeral"));
+        assertEquals(0, dropped("drop_oldest"));
+    }
+
+    @Test
+    void closesASessionWhoseWriteTakesTooLong() throws Exception {
+        CountDownLatch stuck = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            stuck.await();
+            return null;
+        }).when(delegate).sendMessage(any());
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            SlowConsumerGuard guard = new SlowConsumerGuard(registry, DataSize.ofKilobytes(64), DataSize.ofKilobytes(16),
+                    Duration.ofMillis(50), OverflowPolicy.DROP_OLDEST);
+            BoundedSendSession session = new BoundedSendSession(delegate, guard, executor,
+                    guard.getBufferSizeLimit(), 16 * 1024, guard.getSendTimeLimitMillis(), OverflowPolicy.DROP_OLDEST);
+            session.sendMessage(message("sub-a", "m1"));
+            verify(delegate, timeout(5000)).sendMessage(any());
+            Thread.sleep(100);
+            assertTrue(session.sendingMillis() >= 50);
+
+            session.sendMessage(message("sub-a", "m2"));
+
+            // The close is queued behind the stuck write rather than waiting for it
+            assertEquals(1, registry.get("chat.websocket.outbound.disconnected").counter().count());
+            stuck.countDown();
+            verify(delegate, timeout(5000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        } finally {
+            stuck.countDown();
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void readsTheSubscriptionOfMessageFramesOnly() {
+        assertEquals("sub-a", BoundedSendSession.subscriptionOf(BoundedSendSession.messageHeaders(message("sub-a", "x"))));
+        assertEquals("sub-b", BoundedSendSession.subscriptionOf(
+                BoundedSendSession.messageHeaders(new TextMessage("MESSAGE\r\nsubscription:sub-b\r\n\n\0"))));
+        assertEquals("", BoundedSendSession.subscriptionOf(
+                BoundedSendSession.messageHeaders(new TextMessage("MESSAGE\ndestination:/topic/public\n\n\0"))));
+        assertEquals(null, BoundedSendSession.messageHeaders(new TextMessage("RECEIPT\nreceipt-id:1\n\n\0")));
+        assertEquals(null, BoundedSendSession.messageHeaders(new TextMessage("\n")));
+    }
+
+    private BoundedSendSession newSession(int bufferSizeLimit, OverflowPolicy policy) {
+        return newSession(bufferSizeLimit, bufferSizeLimit, policy);
+    }
+
+    private BoundedSendSession newSession(int bufferSizeLimit, int ephemeralQueueLimit, OverflowPolicy policy) {
+        SlowConsumerGuard guard = new SlowConsumerGuard(registry, DataSize.ofBytes(bufferSizeLimit),
+                DataSize.ofBytes(ephemeralQueueLimit), Duration.ofSeconds(10), policy);
+        return new BoundedSendSession(delegate, guard, writerTasks::add, bufferSizeLimit, ephemeralQueueLimit,
+                guard.getSendTimeLimitMillis(), policy);
+    }
+
+    private void runWriter() {
+        while (!writerTasks.isEmpty()) {
+            writerTasks.remove(0).run();
+        }
+    }
+
+    private double dropped(String policy) {
+        return registry.get("chat.websocket.outbound.dropped").tag("policy", policy).counter().count();
+    }
+
+    private static TextMessage message(String subscription, String body) {
+        return new TextMessage("MESSAGE\ndestination:/topic/public\nsubscription:" + subscription + "\n\n" + body + "\0");
+    }
+
+    // Same length as message(): "/topic/public" and "/topic/typing" are
+    private static TextMessage typing(String body) {
+        return new TextMessage("MESSAGE\ndestination:" + EphemeralLane.TYPING_TOPIC + "\nsubscription:sub-t\n\n" + body + "\0");
+    }
+
+    private static String describe(WebSocketMessage<?> message) {
+        String frame = ((TextMessage) message).getPayload();
+        if (!frame.startsWith("MESSAGE")) {
+            return frame.substring(0, frame.indexOf('\n'));
+        }
+        String subscription = BoundedSendSession.subscriptionOf(BoundedSendSession.messageHeaders(message));
+        return subscription + " " + frame.substring(frame.indexOf("\n\n") + 2, frame.length() - 1);
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.demo.websocket;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Heap use while broadcasting to 1000 sessions of which 1% never read (their socket write blocks
+ * until the session is closed), with an unbounded queue vs each overflow policy.
+ *
+ * Every row broadcasts 1 KB MESSAGE frames to all sessions and reports the heap after a GC, at a few
+ * checkpoints. With a bound, the stalled sessions hold at most the buffer limit each, so the heap
+ * should stay flat. The send time limit is set high so that only the buffer limit is measured.
+ *
+ * Not a unit test; run it with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.websocket.SlowConsumerBenchmark
+ */
+public class SlowConsumerBenchmark {
+
+    private static final int SESSIONS = 1000;
+    private static final int STALLED_EVERY = 100;
+    private static final int BROADCASTS = 2000;
+    private static final int CHECKPOINTS = 5;
+    private static final DataSize BUFFER_LIMIT = DataSize.ofKilobytes(512);
+    // Only broadcasts are sent here, none on the ephemeral lane; the default limit will do
+    private static final DataSize EPHEMERAL_LIMIT = DataSize.ofKilobytes(16);
+
+    public static void main(String[] args) throws Exception {
+        byte[] frame = ("MESSAGE\nsubscription:sub-0\ndestination:/topic/public\n"
+                + "content-type:application/json\n\n" + "x".repeat(1024) + "\0").getBytes(StandardCharsets.UTF_8);
+        System.out.printf("%-12s %s%n", "policy", "heap used after GC (MB) at each checkpoint, then dropped / disconnected");
+        run("unbounded", OverflowPolicy.DROP_OLDEST, DataSize.ofGigabytes(16), frame);
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            run(policy.name().toLowerCase(), policy, BUFFER_LIMIT, frame);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, OverflowPolicy policy, DataSize limit, byte[] frame) throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SlowConsumerGuard guard = new SlowConsumerGuard(registry, limit, EPHEMERAL_LIMIT, Duration.ofHours(1), policy);
+        ExecutorService writer = Executors.newVirtualThreadPerTaskExecutor();
+        StubSession[] stubs = new StubSession[SESSIONS];
+        BoundedSendSession[] sessions = new BoundedSendSession[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            stubs[i] = new StubSession("s" + i, i % STALLED_EVERY == 0);
+            sessions[i] = new BoundedSendSession(stubs[i], guard, writer, limit.toBytes(),
+                    EPHEMERAL_LIMIT.toBytes(), Duration.ofHours(1).toMillis(), policy);
+        }
+
+        StringBuilder row = new StringBuilder(String.format("%-12s", name));
+        long start = System.nanoTime();
+        for (int b = 1; b <= BROADCASTS; b++) {
+            for (BoundedSendSession session : sessions) {
+                // Every session gets its own encoded copy, as with a real broadcast
+                session.sendMessage(new TextMessage(frame.clone()));
+            }
+            if (b % (BROADCASTS / CHECKPOINTS) == 0) {
+                row.append(String.format(" %7.1f", usedHeapMb()));
+            }
+        }
+        row.append(String.format("   %,d / %,d  (%d ms)",
+                (long) registry.find("chat.websocket.outbound.dropped").counters().stream().mapToDouble(c -> c.count()).sum(),
+                (long) registry.get("chat.websocket.outbound.disconnected").counter().count(),
+                (System.nanoTime() - start) / 1_000_000));
+        System.out.println(row);
+
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions[i].discard();
+            stubs[i].close();
+        }
+        writer.shutdownNow();
+        usedHeapMb();
+    }
+
+    private static double usedHeapMb() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed() / (1024.0 * 1024.0);
+    }
+
+    // A session that either accepts every frame immediately or blocks until it is closed
+    private static class StubSession implements WebSocketSession {
+
+        private final String id;
+        private final CountDownLatch stall;
+        private volatile boolean open = true;
+
+        StubSession(String id, boolean stalled) {
+            this.id = id;
+            this.stall = stalled ? new CountDownLatch(1) : null;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            if (stall != null) {
+                try {
+                    stall.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+            if (stall != null) {
+                stall.countDown();
+            }
+        }
+
+        @Override
+        public void close() {
+            close(CloseStatus.NORMAL);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return "v12.stomp";
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+    }
+}
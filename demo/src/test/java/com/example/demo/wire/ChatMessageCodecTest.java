@@ -0,0 +1,166 @@
+package com.example.demo.wire;
+
+import com.example.demo.model.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChatMessageCodecTest {
+
+    @Test
+    void roundTripsEveryField() {
+        ChatMessage message = message(361357482287104L, 1792289241574L, "héllo wörld 👋");
+        message.setSender("alice");
+        message.setRecipient("bob");
+        message.setRoom("7");
+        message.setAttachment("a1b2");
+        message.setType(ChatMessage.MessageType.CHAT);
+
+        assertSameFields(message, ChatMessageCodec.decode(ChatMessageCodec.encode(message)));
+    }
+
+    @Test
+    void roundTripsTheSequenceNumberInTheExtraFieldsByte() {
+        ChatMessage message = message(361357482287104L, 1792289241574L, "hi");
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSeq(300L);
+        byte[] withSeq = ChatMessageCodec.encode(message);
+        message.setSeq(null);
+        byte[] withoutSeq = ChatMessageCodec.encode(message);
+
+        assertEquals(withoutSeq.length + 3, withSeq.length); // the byte of extra fields, then two for 300
+        assertEquals(300L, ChatMessageCodec.decode(withSeq).getSeq());
+        assertSameFields(message, ChatMessageCodec.decode(withoutSeq));
+    }
+
+    @Test
+    void roundTripsTheNodeAfterTheSequenceNumber() {
+        ChatMessage message = message(361357482287104L, 1792289241574L, "hi");
+        message.setSeq(300L);
+        message.setNode("node-a:9100");
+        ChatMessage decoded = ChatMessageCodec.decode(ChatMessageCodec.encode(message));
+        assertEquals(300L, decoded.getSeq());
+        assertEquals("node-a:9100", decoded.getNode());
+
+        message.setSeq(null);
+        decoded = ChatMessageCodec.decode(ChatMessageCodec.encode(message));
+        assertNull(decoded.getSeq());
+        assertEquals("node-a:9100", decoded.getNode());
+    }
+
+    @Test
+    void olderReadersCanStopBeforeTheSequenceNumber() {
+        ChatMessage message = message(1L, 2L, "hi");
+        message.setSeq(5L);
+        byte[] encoded = ChatMessageCodec.encode(message);
+        byte[] withoutExtraFields = Arrays.copyOf(encoded, encoded.length - 2);
+
+        ChatMessage decoded = ChatMessageCodec.decode(withoutExtraFields);
+        assertNull(decoded.getSeq());
+        assertEquals("hi", decoded.getContent());
+    }
+
+    @Test
+    void leavesAbsentFieldsOut() {
+        byte[] encoded = ChatMessageCodec.encode(new ChatMessage());
+
+        assertArrayEquals(new byte[]{ChatMessageCodec.VERSION, 0}, encoded);
+        assertSameFields(new ChatMessage(), ChatMessageCodec.decode(encoded));
+    }
+
+    @Test
+    void roundTripsEveryType() {
+        for (ChatMessage.MessageType type : ChatMessage.MessageType.values()) {
+            assertEquals(type, ChatMessageCodec.decode(ChatMessageCodec.encode(typed(type))).getType());
+        }
+    }
+
+    @Test
+    void writesIdsAsUnsignedVarints() {
+        ChatMessage small = message(127L, null, null);
+        ChatMessage large = message(-1L, null, null);
+
+        assertEquals(3, ChatMessageCodec.encode(small).length);
+        assertEquals(12, ChatMessageCodec.encode(large).length);
+        assertEquals(-1L, ChatMessageCodec.decode(ChatMessageCodec.encode(large)).getId());
+        assertEquals(Long.MAX_VALUE, ChatMessageCodec.decode(ChatMessageCodec.encode(message(Long.MAX_VALUE, null, null))).getId());
+    }
+
+    @Test
+    void rejectsAnotherVersion() {
+        byte[] encoded = ChatMessageCodec.encode(message(1L, 2L, "hi"));
+        encoded[0] = 2;
+
+        assertThrows(IllegalArgumentException.class, () -> ChatMessageCodec.decode(encoded));
+        assertThrows(IllegalArgumentException.class, () -> ChatMessageCodec.decode(new byte[]{ChatMessageCodec.VERSION}));
+    }
+
+    @Test
+    void rejectsTruncatedMessages() {
+        byte[] encoded = ChatMessageCodec.encode(message(1L, 2L, "hello"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ChatMessageCodec.decode(Arrays.copyOf(encoded, encoded.length - 2)));
+    }
+
+    @Test
+    void rejectsUnknownTypes() {
+        byte[] encoded = ChatMessageCodec.encode(typed(ChatMessage.MessageType.CHAT));
+        encoded[encoded.length - 1] = 99;
+
+        assertThrows(IllegalArgumentException.class, () -> ChatMessageCodec.decode(encoded));
+    }
+
+    @Test
+    void findsTheContentWithoutDecoding() {
+        ChatMessage message = message(361357482287104L, 1792289241574L, "héllo");
+        message.setSender("alice");
+        byte[] encoded = ChatMessageCodec.encode(message);
+
+        long bounds = ChatMessageCodec.contentBounds(encoded);
+        String content = new String(encoded, (int) (bounds >>> 32), (int) bounds, StandardCharsets.UTF_8);
+        assertEquals("héllo", content);
+    }
+
+    @Test
+    void hasNoContentBoundsWithoutContentOrBytes() {
+        byte[] encoded = ChatMessageCodec.encode(message(1L, 2L, "hello"));
+
+        assertEquals(-1, ChatMessageCodec.contentBounds(ChatMessageCodec.encode(message(1L, 2L, null))));
+        assertEquals(-1, ChatMessageCodec.contentBounds(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertEquals(-1, ChatMessageCodec.contentBounds(new byte[]{ChatMessageCodec.VERSION}));
+    }
+
+    private static ChatMessage message(Long id, Long timestamp, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setTimestamp(timestamp);
+        message.setContent(content);
+        return message;
+    }
+
+    private static void assertSameFields(ChatMessage expected, ChatMessage actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getSeq(), actual.getSeq());
+        assertEquals(expected.getNode(), actual.getNode());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getRecipient(), actual.getRecipient());
+        assertEquals(expected.getRoom(), actual.getRoom());
+        assertEquals(expected.getAttachment(), actual.getAttachment());
+        assertEquals(expected.getType(), actual.getType());
+    }
+
+    private static ChatMessage typed(ChatMessage.MessageType type) {
+        ChatMessage message = new ChatMessage();
+        message.setType(type);
+        return message;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.demo.wire;
+
+import com.example.demo.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * JSON vs the binary chat message format: bytes per message and encode/decode throughput.
+ *
+ * Messages look like real traffic: short and medium chat lines, some private, the odd JOIN.
+ * "frame" is the full STOMP MESSAGE frame as a subscriber gets it. "deflated" compresses each payload
+ * on its own, which is what permessage-deflate does without context takeover, so it's the most that
+ * compression alone saves per message. Throughput is single-threaded, after a warm-up round.
+ *
+ * Not a unit test; run it with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.wire.WireFormatBenchmark
+ */
+public class WireFormatBenchmark {
+
+    private static final int MESSAGES = 10_000;
+    private static final int ROUNDS = 20;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        List<ChatMessage> messages = sampleMessages();
+
+        System.out.printf("%-8s %12s %12s %12s %14s %14s%n",
+                "format", "payload (B)", "frame (B)", "deflated (B)", "encode (k/s)", "decode (k/s)");
+        for (int round = 0; round < 2; round++) { // first round is warm-up
+            report("json", messages, MimeTypeUtils.APPLICATION_JSON, round == 1, new Codec() {
+                public byte[] encode(ChatMessage message) throws Exception {
+                    return mapper.writeValueAsBytes(message);
+                }
+
+                public ChatMessage decode(byte[] bytes) throws Exception {
+                    return mapper.readValue(bytes, ChatMessage.class);
+                }
+            });
+            report("binary", messages, BinaryChatMessageConverter.MIME_TYPE, round == 1, new Codec() {
+                public byte[] encode(ChatMessage message) {
+                    return ChatMessageCodec.encode(message);
+                }
+
+                public ChatMessage decode(byte[] bytes) {
+                    return ChatMessageCodec.decode(bytes);
+                }
+            });
+        }
+    }
+
+    private interface Codec {
+        byte[] encode(ChatMessage message) throws Exception;
+
+        ChatMessage decode(byte[] bytes) throws Exception;
+    }
+
+    private static void report(String name, List<ChatMessage> messages, MimeType contentType, boolean print,
+                               Codec codec) throws Exception {
+        StompEncoder stompEncoder = new StompEncoder();
+        long payloadBytes = 0;
+        long frameBytes = 0;
+        long deflatedBytes = 0;
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            byte[] payload = codec.encode(message);
+            ChatMessage back = codec.decode(payload);
+            if (!same(message, back)) {
+                throw new IllegalStateException(name + " did not round-trip message " + message.getId());
+            }
+            encoded.add(payload);
+            payloadBytes += payload.length;
+            frameBytes += stompEncoder.encode(frameHeaders(contentType).getMessageHeaders(), payload).length;
+            deflatedBytes += deflate(payload);
+        }
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (ChatMessage message : messages) {
+                codec.encode(message);
+            }
+        }
+        double encodePerSecond = (double) ROUNDS * messages.size() / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (byte[] payload : encoded) {
+                codec.decode(payload);
+            }
+        }
+        double decodePerSecond = (double) ROUNDS * messages.size() / ((System.nanoTime() - start) / 1e9);
+
+        if (print) {
+            int n = messages.size();
+            System.out.printf("%-8s %12.1f %12.1f %12.1f %14.0f %14.0f%n", name,
+                    (double) payloadBytes / n, (double) frameBytes / n, (double) deflatedBytes / n,
+                    encodePerSecond / 1000, decodePerSecond / 1000);
+        }
+    }
+
+    // Headers of a broadcast MESSAGE frame, as a subscriber sees them
+    private static StompHeaderAccessor frameHeaders(MimeType contentType) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setDestination("/topic/public");
+        accessor.setContentType(contentType);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setMessageId("3f1c2a4e-5b6d-7e8f-9a0b-1c2d3e4f5a6b");
+        return accessor;
+    }
+
+    private static int deflate(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(payload);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.size();
+    }
+
+    private static List<ChatMessage> sampleMessages() {
+        Random random = new Random(42);
+        String[] words = {"ok", "see", "you", "at", "the", "meeting", "tomorrow", "thanks", "lunch", "deploy",
+                "is", "done", "can", "we", "talk", "later", "sounds", "good", "where", "are", "🙂"};
+        List<ChatMessage> messages = new ArrayList<>(MESSAGES);
+        long id = 361_330_471_297_024L;
+        long timestamp = 1_792_000_000_000L;
+        for (int i = 0; i < MESSAGES; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setId(id += 1 + random.nextInt(50_000));
+            message.setTimestamp(timestamp += random.nextInt(2_000));
+            message.setSender("user" + random.nextInt(5_000));
+            if (random.nextInt(50) == 0) {
+                message.setType(ChatMessage.MessageType.JOIN);
+            } else {
+                message.setType(ChatMessage.MessageType.CHAT);
+                StringBuilder content = new StringBuilder();
+                int length = random.nextInt(10) == 0 ? 40 : 2 + random.nextInt(8);
+                for (int w = 0; w < length; w++) {
+                    content.append(w == 0 ? "" : " ").append(words[random.nextInt(words.length)]);
+                }
+                message.setContent(content.toString());
+                if (random.nextInt(3) == 0) {
+                    message.setRecipient("user" + random.nextInt(5_000));
+                }
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static boolean same(ChatMessage a, ChatMessage b) {
+        return Objects.equals(a.getId(), b.getId())
+                && Objects.equals(a.getTimestamp(), b.getTimestamp())
+                && Objects.equals(a.getContent(), b.getContent())
+                && Objects.equals(a.getSender(), b.getSender())
+                && Objects.equals(a.getRecipient(), b.getRecipient())
+                && a.getType() == b.getType();
+    }
+}